@@ -1,24 +1,28 @@
 package com.example.colormatchingbracelet;
 
 import android.Manifest;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.graphics.BlendMode;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.IBinder;
 import android.view.View;
 import android.widget.TextView;
 
-import com.example.colormatchingbracelet.Bracelet.BraceletCommand;
 import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.Bracelet.BraceletStateStore;
+import com.example.colormatchingbracelet.LedStrip.LedStripLink;
+import com.example.colormatchingbracelet.bluetooth.BraceletEvent;
+import com.example.colormatchingbracelet.bluetooth.ClockSync;
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+import com.example.colormatchingbracelet.bluetooth.FrameCodec;
 import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
 import com.example.colormatchingbracelet.bluetooth.MessageType;
+import com.example.colormatchingbracelet.bluetooth.SessionAction;
+import com.example.colormatchingbracelet.bluetooth.Transport;
 import com.google.android.material.navigation.NavigationView;
 
 import androidx.annotation.NonNull;
@@ -31,6 +35,7 @@ import androidx.navigation.Navigation;
 import androidx.navigation.ui.AppBarConfiguration;
 import androidx.navigation.ui.NavigationUI;
 import androidx.drawerlayout.widget.DrawerLayout;
+import androidx.lifecycle.Lifecycle;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.colormatchingbracelet.databinding.ActivityMainBinding;
@@ -47,10 +52,6 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
     private AppBarConfiguration mAppBarConfiguration;
     private ActivityMainBinding binding;
 
-    private Handler handler = new Handler();
-    private Runnable runnable;
-    private final int statusRequestDelay = 30000; //Every 30 seconds
-
     private NavigationView navigationView;
 
     //Setting up bluetoothService:
@@ -64,6 +65,13 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
                 if(!bluetoothService.initialize()) {
                     finish(); //Stop for now :)
                 }
+                else {
+                    //Skipping the scan when a bracelet was connected before:
+                    bluetoothService.connectToLastDevices();
+                }
+
+                //Service can be bound after onResume:
+                bluetoothService.setStatusPollingActive(getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED));
             }
         }
 
@@ -77,6 +85,11 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        BluetoothService.markLaunch();
+
+        //Reading or building the color table takes a while, it is done before the camera needs it:
+        Utils.loadColorLutAsync(this);
+
         binding = ActivityMainBinding.inflate(getLayoutInflater());
         setContentView(binding.getRoot());
 
@@ -106,31 +119,38 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
         //Setting up service:
         Intent gattServiceIntent = new Intent(this, BluetoothService.class);
         bindService(gattServiceIntent, serviceConnection, Context.BIND_AUTO_CREATE);
+
+        //Listening to bracelet changes while visible, the navigation bar only shows the battery:
+        BluetoothService.getStateStream().observe(this, BraceletInformation.FIELD_BATTERY_PERCENTAGE, this::onBraceletStateChanged);
     }
 
     @Override
     public void onResume() {
         super.onResume();
 
-        //Request status from bracelet:
-        handler.postDelayed(runnable = () -> {
-            if(bluetoothService.isConnected()) {
-                BraceletCommand.sendStatusRequest(bluetoothService);
-            }
-
-            handler.postDelayed(runnable, statusRequestDelay);
-        }, statusRequestDelay);
-
-        registerReceiver(gattUpdateReceiver, makeGattUpdateIntentFilter());
+        //Status is pushed by the bracelet, polling is only a fallback while visible:
+        if(bluetoothService != null) {
+            bluetoothService.setStatusPollingActive(true);
+        }
     }
 
     @Override
     public void onPause() {
         super.onPause();
 
-        handler.removeCallbacks(runnable);
+        if(bluetoothService != null) {
+            bluetoothService.setStatusPollingActive(false);
+        }
+    }
+
+    @Override
+    public void onUserInteraction() {
+        super.onUserInteraction();
 
-        unregisterReceiver(gattUpdateReceiver);
+        //Poll more often while the user is changing things:
+        if(bluetoothService != null) {
+            bluetoothService.notifyUserInteraction();
+        }
     }
 
     @Override
@@ -139,28 +159,11 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
         return NavigationUI.navigateUp(navController, mAppBarConfiguration) || super.onSupportNavigateUp();
     }
 
-    private final BroadcastReceiver gattUpdateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-
-            switch (action) {
-                case BluetoothService.ACTION_GATT_CONNECTED:
-                    break;
-                case BluetoothService.ACTION_GATT_DISCONNECTED:
-                    setNavigationBarValues(navigationView);
-                    break;
-                case BluetoothService.ACTION_GATT_SERVICES_DISCOVERED:
-                    BraceletCommand.sendStatusRequest(bluetoothService);
-                    break;
-                case BluetoothService.ACTION_BRACELETINFORMATION_UPDATE:
-                    setNavigationBarValues(navigationView);
-                    break;
-                default:
-                    break;
-            }
+    private void onBraceletStateChanged(int events, int changedFields) {
+        if(BraceletEvent.DISCONNECTED.in(events) || BraceletEvent.INFORMATION_UPDATED.in(events)) {
+            setNavigationBarValues(navigationView);
         }
-    };
+    }
 
     /**
      * This function makes sure all needed permissions are requested:
@@ -220,6 +223,21 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
         bluetoothService.sendMessage(type, data);
     }
 
+    @Override
+    public void sendMessage(MessageType type, byte[] data, int length) {
+        bluetoothService.sendMessage(type, data, length);
+    }
+
+    @Override
+    public CommandFuture sendCommand(MessageType type, byte[] data) {
+        return bluetoothService != null ? bluetoothService.sendCommand(type, data) : CommandFuture.completed(CommandFuture.Result.DISCONNECTED);
+    }
+
+    @Override
+    public int getMaxPayloadSize() {
+        return bluetoothService != null ? bluetoothService.getMaxPayloadSize() : Transport.DEFAULT_MTU - Transport.ATT_HEADER_SIZE - FrameCodec.OVERHEAD;
+    }
+
     @Override
     public int getConnectionState() {
         return bluetoothService != null ? bluetoothService.getConnectionState() : -1;
@@ -230,14 +248,44 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
         return bluetoothService != null && bluetoothService.isConnected();
     }
 
+    @Override
+    public boolean isWriteQueueIdle() {
+        return bluetoothService != null && bluetoothService.isWriteQueueIdle();
+    }
+
+    @Override
+    public long getAverageWriteLatencyNanos() {
+        return bluetoothService != null ? bluetoothService.getAverageWriteLatencyNanos() : 0;
+    }
+
+    @Override
+    public int forEachBracelet(SessionAction action) {
+        return bluetoothService != null ? bluetoothService.forEachBracelet(action) : 0;
+    }
+
+    @Override
+    public ClockSync getClockSync() {
+        return bluetoothService != null ? bluetoothService.getClockSync() : null;
+    }
+
     @Override
     public BraceletInformation getBraceletInformation() {
         return bluetoothService == null ? new BraceletInformation() : bluetoothService.getBraceletInformation();
     }
 
     @Override
-    public void updateBraceletInformation(BraceletInformation newBraceletInformation) {
-        bluetoothService.updateBraceletInformation(newBraceletInformation);
+    public int updateBraceletInformation(BraceletStateStore.Modifier modifier) {
+        return bluetoothService != null ? bluetoothService.updateBraceletInformation(modifier) : 0;
+    }
+
+    @Override
+    public BraceletStateStore getBraceletStateStore() {
+        return bluetoothService != null ? bluetoothService.getBraceletStateStore() : null;
+    }
+
+    @Override
+    public LedStripLink getLedStripLink() {
+        return bluetoothService != null ? bluetoothService.getLedStripLink() : null;
     }
 
     /**
@@ -267,14 +315,4 @@ public class MainActivity extends AppCompatActivity implements IBluetoothService
         }
     }
 
-
-    public static IntentFilter makeGattUpdateIntentFilter() {
-        final IntentFilter intentFilter = new IntentFilter();
-        intentFilter.addAction(BluetoothService.ACTION_GATT_CONNECTED);
-        intentFilter.addAction(BluetoothService.ACTION_GATT_DISCONNECTED);
-        intentFilter.addAction(BluetoothService.ACTION_GATT_SERVICES_DISCOVERED);
-        intentFilter.addAction(BluetoothService.ACTION_GATT_MESSAGE_RECEIVED);
-        intentFilter.addAction(BluetoothService.ACTION_BRACELETINFORMATION_UPDATE);
-        return intentFilter;
-    }
 }
\ No newline at end of file
@@ -2,10 +2,24 @@ package com.example.colormatchingbracelet;
 
 import android.app.ProgressDialog;
 import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.Color;
+import android.util.Log;
+
+import com.example.colormatchingbracelet.color.ColorLut;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 public class Utils {
+    //Camera to led strip color correction, loaded from the files dir in the background at launch:
+    private static final String COLOR_LUT_FILE = "led_color.lut";
+    private static volatile ColorLut colorLut;
+    private static boolean colorLutLoading;
 
     /**
      * Create a basic progress dialog object.
@@ -49,89 +63,104 @@ public class Utils {
 //        return Color.valueOf(redBucket / pixels.length, greenBucket / pixels.length,blueBucket / pixels.length, 100.0f);
 //    }
 
-    public static int getColorRegionRgb(Bitmap image, int x, int y) {
-        int nrOfSamp = 0;
-        int red = 0, green = 0, blue = 0;
+    /**
+     * Color correction from camera colors to led strip colors. The table is read from the files
+     * dir, or built with the default corrections and stored there when there is none yet. This
+     * reads and possibly builds the table, never call it on the main thread before it is loaded.
+     * @param context - Application context.
+     */
+    public static ColorLut getColorLut(Context context) {
+        ColorLut lut = colorLut;
 
-        for(int x_axis = x - 10; x_axis <= x + 10; x_axis++) {
-            for(int y_axis = y - 10; y_axis <= y + 10; y_axis++) {
-                int pixel = image.getPixel(x_axis, y_axis);
+        if(lut == null) {
+            synchronized(Utils.class) {
+                if(colorLut == null) {
+                    colorLut = loadColorLut(context);
+                }
 
-                red += Color.red(pixel);
-                green += Color.green(pixel);
-                blue += Color.blue(pixel);
-                nrOfSamp++;
+                lut = colorLut;
             }
         }
 
-        return Color.rgb(red/nrOfSamp, green/nrOfSamp, blue/nrOfSamp);
+        return lut;
     }
 
-    public static int getColorRegionHsvMaxV(Bitmap image, int x, int y) {
-        int nrOfSamp = 0;
-        float h = 0.0f, s = 0.0f, v = 0.0f;
+    /**
+     * Color correction without waiting for it to load, the default corrections are returned until
+     * the stored table is ready.
+     * @param context - Application context.
+     */
+    public static ColorLut getColorLutOrDefault(Context context) {
+        ColorLut lut = colorLut;
 
-        for(int x_axis = x - 10; x_axis <= x + 10; x_axis++) {
-            for(int y_axis = y - 10; y_axis <= y + 10; y_axis++) {
-                int pixel = image.getPixel(x_axis, y_axis);
-                float[] hsv = new float[3];
+        if(lut != null) {
+            return lut;
+        }
 
-                Color.colorToHSV(pixel, hsv);
+        loadColorLutAsync(context);
 
-                h += hsv[0];
-                s += hsv[1];
-                v += hsv[2];
+        return ColorLut.getDefault();
+    }
 
-                nrOfSamp++;
+    /**
+     * Start loading the color correction on a background thread, so it is ready by the time the
+     * camera needs it. Does nothing when it is loaded or loading already.
+     * @param context - Any context, only its application context is kept.
+     */
+    public static void loadColorLutAsync(Context context) {
+        Context applicationContext = context.getApplicationContext();
+
+        synchronized(Utils.class) {
+            if(colorLut != null || colorLutLoading) {
+                return;
             }
+
+            colorLutLoading = true;
         }
 
-       return Color.HSVToColor(255, new float[] {h/nrOfSamp, s/nrOfSamp, 1.0f});
+        Thread thread = new Thread(() -> getColorLut(applicationContext), "ColorLutLoader");
+        thread.setDaemon(true);
+        thread.start();
     }
 
-    public static int getColorRgbMapColors(Bitmap image, int x, int y) {
-        int nrOfSamp = 0;
-        int red = 0, green = 0, blue = 0;
-
-        for(int x_axis = x - 10; x_axis <= x + 10; x_axis++) {
-            for(int y_axis = y - 10; y_axis <= y + 10; y_axis++) {
-                int pixel = image.getPixel(x_axis, y_axis);
-
-                red += Color.red(pixel);
-                green += Color.green(pixel);
-                blue += Color.blue(pixel);
-                nrOfSamp++;
-            }
+    /**
+     * Replace the color correction, for example with one built from a calibration, and store it.
+     */
+    public static void setColorLut(Context context, ColorLut lut) {
+        synchronized(Utils.class) {
+            colorLut = lut;
         }
 
-        int averageRed = red/nrOfSamp;
-        int averageGreen = green/nrOfSamp;
-        int averageBlue = blue/nrOfSamp;
-
-        int maxDiff = 20;
+        saveColorLut(context, lut);
+    }
 
-        //Check if colors are close to eachother:
-        if(Math.abs(averageRed - averageGreen) < maxDiff
-            && Math.abs(averageRed - averageBlue) < maxDiff
-            && Math.abs(averageGreen - averageBlue) < maxDiff) {
+    private static ColorLut loadColorLut(Context context) {
+        File file = new File(context.getFilesDir(), COLOR_LUT_FILE);
 
-            if(averageRed + averageBlue + averageGreen < 600) {
-                //This is probably a grey scale color, which looks horrible on the ledstrip
-                averageRed = averageGreen = averageBlue = 0;
+        if(file.exists()) {
+            try(InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                return ColorLut.read(in);
+            }
+            catch(IOException e) {
+                //Stored by another version, built again below:
+                Log.w("Utils", "Color table not readable: " + e.getMessage());
             }
         }
 
-        averageRed = 165;
-        averageGreen = 42;
-        averageBlue = 42;
+        ColorLut lut = ColorLut.getDefault();
+        saveColorLut(context, lut);
 
-
-        //Remap probably black to off:
-
-
-
-        return Color.rgb(averageRed, averageGreen, averageBlue);
+        return lut;
     }
 
+    private static void saveColorLut(Context context, ColorLut lut) {
+        File file = new File(context.getFilesDir(), COLOR_LUT_FILE);
 
+        try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            lut.write(out);
+        }
+        catch(IOException e) {
+            Log.e("Utils", "Could not store color table: " + e.getMessage());
+        }
+    }
 }
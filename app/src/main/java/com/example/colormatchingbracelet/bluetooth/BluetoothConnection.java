@@ -15,25 +15,34 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.ParcelUuid;
 import android.util.Log;
 
 import com.example.colormatchingbracelet.Utils;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class BluetoothConnection {
     public static ParcelUuid braceletUUID = ParcelUuid.fromString("1cf4fab1-d642-4153-a6f2-bf40db8d6f73");
     public static String braceletName = "Color Matching Bracelet";
 
+    //Scanning goes on after the first bracelet, so every bracelet in range is found:
+    public static final long SCAN_PERIOD_MS = 20000;
+
     private static BluetoothConnectionCallback connectionCallback;
     private static BluetoothAdapter bluetoothAdapter;
     private static BluetoothLeScanner bluetoothScanner;
     private static BluetoothGatt bluetoothGatt;
     private static ProgressDialog scanDialog;
 
-    private static boolean deviceFound = false;
+    private static final Set<String> foundAddresses = new HashSet<>();
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static final Runnable stopScanRunnable = BluetoothConnection::stopScan;
 
     @SuppressLint("MissingPermission")
     public static void startScan(Context context, BluetoothConnectionCallback connCallback) {
@@ -63,11 +72,14 @@ public class BluetoothConnection {
         //Creating scanner and scan for bracelet:
         bluetoothScanner = bluetoothAdapter.getBluetoothLeScanner();
 
-        //Resetting device found and starting scan:
-        deviceFound = false;
+        //Resetting found devices and starting scan:
+        foundAddresses.clear();
 
         bluetoothScanner.startScan(filters, scanSettings, scanCallback);
 
+        handler.removeCallbacks(stopScanRunnable);
+        handler.postDelayed(stopScanRunnable, SCAN_PERIOD_MS);
+
         scanDialog = Utils.CreateProgressDialog(context, "Scanning", true, false);
         scanDialog.setMessage("Searching bracelet...");
 
@@ -76,6 +88,8 @@ public class BluetoothConnection {
 
     @SuppressLint("MissingPermission")
     public static void stopScan() {
+        handler.removeCallbacks(stopScanRunnable);
+
         if (bluetoothScanner != null) {
             bluetoothScanner.stopScan(scanCallback);
 
@@ -94,11 +108,14 @@ public class BluetoothConnection {
         @SuppressLint("MissingPermission")
         @Override
         public void onScanResult(int callbackType, ScanResult result) {
-            if(!deviceFound) {
-                deviceFound = true;
-
-                //Grabbing bluetooth device and calling callback:
-                BluetoothDevice device = result.getDevice();
+            //Grabbing bluetooth device, every bracelet is reported once:
+            BluetoothDevice device = result.getDevice();
+
+            if(foundAddresses.add(device.getAddress())) {
+                //First bracelet found, the scan goes on in the background:
+                if(scanDialog != null) {
+                    scanDialog.cancel();
+                }
 
                 connectionCallback.onDeviceFound(device.getAddress());
 
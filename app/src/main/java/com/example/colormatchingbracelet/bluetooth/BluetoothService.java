@@ -3,79 +3,62 @@ package com.example.colormatchingbracelet.bluetooth;
 import android.annotation.SuppressLint;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothGatt;
-import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
-import android.bluetooth.BluetoothGattDescriptor;
-import android.bluetooth.BluetoothGattService;
-import android.bluetooth.BluetoothProfile;
 import android.content.Intent;
 import android.os.Binder;
 import android.os.IBinder;
-import android.os.Message;
 import android.util.Log;
 
 import androidx.annotation.Nullable;
 
-import com.example.colormatchingbracelet.Bracelet.BraceletCommand;
 import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
-import com.example.colormatchingbracelet.Bracelet.BraceletMode;
-import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
-
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.List;
+import com.example.colormatchingbracelet.Bracelet.BraceletStateStore;
+import com.example.colormatchingbracelet.LedStrip.LedStripLink;
+
+import java.io.File;
+import java.io.IOException;
 import java.util.UUID;
 
 
+/**
+ * Bound service holding the bracelet connections. Every bracelet has its own BraceletSession, the
+ * IBluetoothService methods of the service itself act on the primary bracelet.
+ */
 public class BluetoothService extends Service implements IBluetoothService {
-    public final static String ACTION_GATT_CONNECTED = "com.example.colormatchingbracelet.ACTION_GATT_CONNECTED";
-    public final static String ACTION_GATT_DISCONNECTED = "com.example.colormatchingbracelet.ACTION_GATT_DISCONNECTED";
-    public final static String ACTION_GATT_SERVICES_DISCOVERED = "com.example.colormatchingbracelet.ACTION_GATT_SERVICES_DISCOVERED";
-    public final static String ACTION_GATT_MESSAGE_RECEIVED = "com.example.colormatchingbracelet.ACTION_GATT_MESSAGE_RECEIVED";
-    public final static String ACTION_BRACELETINFORMATION_UPDATE = "com.example.colormatchingbracelet.ACTION_BRACELETINFORMATION_UPDATE";
-
     public final static UUID UUID_SERVICE = UUID.fromString("1cf4fab1-d642-4153-a6f2-bf40db8d6f73");
     public final static UUID UUID_NOTIFY = UUID.fromString("75eb965e-a1e1-4b1d-8bb9-91e562cdb144");
     public final static UUID UUID_WRITE = UUID.fromString("aba19161-392b-4bed-9450-3a238abd0040");
+    public final static UUID UUID_CLIENT_CONFIG = UUID.fromString("00002902-0000-1000-8000-00805F9B34FB");
 
     public static final int STATE_DISCONNECTED = 0;
     public static final int STATE_CONNECTED = 2;
 
-    private int connectionState;
-
     private BluetoothAdapter bluetoothAdapter;
-    private BluetoothGatt bluetoothGatt;
-    public BluetoothGattCharacteristic bluetoothNotifyCharacteristic;
-    public BluetoothGattCharacteristic bluetoothWriteCharacteristic;
     private Binder binder = new LocalBinder();
 
-    private BraceletInformation braceletInformation;
+    //Changes of the primary bracelet are published in process, UI observers get at most one update per frame:
+    private static final BraceletStateStream stateStream = new BraceletStateStream();
 
-    public BluetoothService() {
+    //Links of all bracelets, kept over reconnects so the settings can show them:
+    private static final LinkMetrics linkMetrics = new LinkMetrics();
 
-    }
+    private final SessionManager sessionManager = new SessionManager(this, () -> new GattTransport(this), stateStream, linkMetrics);
+
+    //Recording of the links, null when not recording:
+    private FrameTrace frameTrace;
+    private File frameTraceFile;
 
     @Nullable
     @Override
     public IBinder onBind(Intent intent) {
-        braceletInformation = new BraceletInformation();
+        getPrimarySession().getBraceletStateStore().reset();
 
         return binder;
     }
 
-    @SuppressLint("MissingPermission")
     @Override
     public boolean onUnbind(Intent intent) {
-        if (bluetoothGatt == null) {
-            super.onUnbind(intent);
-        }
-
-        bluetoothGatt.close();
-        bluetoothGatt = null;
+        stopFrameTrace();
+        sessionManager.closeAll();
 
         return super.onUnbind(intent);
     }
@@ -111,261 +94,217 @@ public class BluetoothService extends Service implements IBluetoothService {
         return true;
     }
 
-    @Override
-    @SuppressLint("MissingPermission")
-    public boolean connectToDevice(String address) {
-        if(bluetoothAdapter == null || address == null) {
-            Log.w("BluetoothService", "BluetoothAdapter not initialized or unspecified address.");
-
-            return false;
-        }
-
-        try {
-            //Grabbing device:
-            final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
-
-            //Connecting to the device:
-            bluetoothGatt = device.connectGatt(this, false, bluetoothGattCallback);
-
-            return true;
-        }
-        catch(Exception e) {
-            Log.e("BluetoothService", e.getMessage());
+    public SessionManager getSessionManager() {
+        return sessionManager;
+    }
 
-            return false;
-        }
+    public BraceletSession getPrimarySession() {
+        return sessionManager.getPrimarySession();
     }
 
-    @SuppressLint("MissingPermission")
+    /**
+     * Connect to a bracelet, next to the ones that are already connected.
+     */
     @Override
-    public void disconnect() {
-        if (bluetoothAdapter == null || bluetoothGatt == null) {
-            Log.e("BluetoothService","BluetoothAdapter or Gatt not initialized");
-            return;
-        }
-
-        bluetoothGatt.disconnect();
+    public boolean connectToDevice(String address) {
+        return sessionManager.connect(address) != null;
     }
 
+    /**
+     * Connect to the bracelets of the previous run without scanning.
+     * @return False when no bracelet was connected before.
+     */
+    public boolean connectToLastDevices() {
+        return sessionManager.connectToLastDevices() > 0;
+    }
 
     /**
-     * Start | Type | length | data | checksum
+     * Disconnect every bracelet.
      */
     @Override
-    @SuppressLint("MissingPermission")
-    public void sendMessage(MessageType type, byte[] data) {
-        int length = 4 + data.length;
-        byte[] dataToSend = new byte[length];
-        int checkSum = 0;
-
-        //Start character:
-        dataToSend[0] = '?';
-        checkSum ^= 63;
-
-        //Message type:
-        dataToSend[1] = (byte) type.getValue();
-        checkSum ^= type.getValue();
-
-        //Message length:
-        dataToSend[2] = (byte) data.length;
-        checkSum ^= data.length;
-
-        //Data:
-        for(int i = 0; i < data.length; i++) {
-            dataToSend[3 + i] = data[i];
-
-            checkSum ^= data[i];
-        }
-
-        //Checksum:
-        dataToSend[length - 1] = (byte) checkSum;
+    public void disconnect() {
+        sessionManager.disconnectAll();
+    }
 
-        bluetoothNotifyCharacteristic.setValue(dataToSend);
+    @Override
+    public void sendMessage(MessageType type, byte[] data) {
+        getPrimarySession().sendMessage(type, data);
+    }
 
-        bluetoothGatt.writeCharacteristic(bluetoothNotifyCharacteristic);
+    @Override
+    public void sendMessage(MessageType type, byte[] data, int length) {
+        getPrimarySession().sendMessage(type, data, length);
     }
 
-    private final BluetoothGattCallback bluetoothGattCallback = new BluetoothGattCallback() {
-        @SuppressLint("MissingPermission")
-        @Override
-        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
-            if (newState == BluetoothProfile.STATE_CONNECTED) { // successfully connected to the GATT Server
-                connectionState = STATE_CONNECTED;
-                broadcastUpdate(ACTION_GATT_CONNECTED);
+    @Override
+    public CommandFuture sendCommand(MessageType type, byte[] data) {
+        return getPrimarySession().sendCommand(type, data);
+    }
 
-                bluetoothGatt.discoverServices();
-            }
-            else if (newState == BluetoothProfile.STATE_DISCONNECTED) { // disconnected from the GATT Server
-                connectionState = STATE_DISCONNECTED;
-                broadcastUpdate(ACTION_GATT_DISCONNECTED);
+    @Override
+    public int getMaxPayloadSize() {
+        return getPrimarySession().getMaxPayloadSize();
+    }
 
-                BluetoothConnection.stopScan();
-            }
-        }
+    @Override
+    public int getConnectionState() {
+        return getPrimarySession().getConnectionState();
+    }
 
-        @Override
-        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                setSupportedGattServices();
+    @Override
+    public boolean isConnected() {
+        return getPrimarySession().isConnected();
+    }
 
-                BluetoothConnection.stopScan();
+    @Override
+    public boolean isWriteQueueIdle() {
+        return getPrimarySession().isWriteQueueIdle();
+    }
 
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
-            } else {
-                Log.w("BluetoothService", "onServicesDiscovered received: " + status);
-            }
-        }
+    @Override
+    public long getAverageWriteLatencyNanos() {
+        return getPrimarySession().getAverageWriteLatencyNanos();
+    }
 
-        @Override
-        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            byte[] inputRaw = characteristic.getValue();
-            int[] input = new int[inputRaw.length];
+    /**
+     * Fan out to every connected bracelet, each one is written to at its own pace.
+     */
+    @Override
+    public int forEachBracelet(SessionAction action) {
+        return sessionManager.forEachConnected(action);
+    }
 
-            //Translate to unsigned bytes:
-            for(int i =0; i < inputRaw.length; i++) {
-                input[i] = Byte.toUnsignedInt(inputRaw[i]);
-            }
+    @Override
+    public ClockSync getClockSync() {
+        return getPrimarySession().getClockSync();
+    }
 
-            //Checking if minimum fields are there:
-            if(input.length < 4) {
-                Log.e("BluetoothService", "Not enough fields");
-                return;
-            }
+    @Override
+    public BraceletInformation getBraceletInformation() {
+        return getPrimarySession().getBraceletInformation();
+    }
 
-            //Checking start character
-            if(input[0] != 63) { //Start character '?' (63)
-                Log.e("BluetoothService", "Invalid start character: " + (char) input[0] + ", skipping message");
-                return;
-            }
+    @Override
+    public int updateBraceletInformation(BraceletStateStore.Modifier modifier) {
+        return getPrimarySession().updateBraceletInformation(modifier);
+    }
 
-            //Extracting type:
-            int typeId = input[1];
+    @Override
+    public BraceletStateStore getBraceletStateStore() {
+        return getPrimarySession().getBraceletStateStore();
+    }
 
-            //Checking if type exists:
-            if(typeId > MessageType.values().length) {
-                Log.e("BluetoothService", "Invalid message type: " + typeId + ", skipping message");
-                return;
-            }
+    @Override
+    public LedStripLink getLedStripLink() {
+        return getPrimarySession().getLedStripLink();
+    }
 
-            MessageType type = MessageType.values()[typeId];
+    /**
+     * Poll the status as a fallback for pushed updates, only needed while the status is shown.
+     */
+    public void setStatusPollingActive(boolean active) {
+        sessionManager.setStatusPollingActive(active);
+    }
 
-            //Grabbing message length:
-            int messageLength = input[2];
+    /**
+     * The user is interacting with the app, status polling speeds up for a while.
+     */
+    public void notifyUserInteraction() {
+        sessionManager.notifyUserInteraction();
+    }
 
-            //Checking checksum:
-            int checkSum = input[input.length - 1];
-            int checkSumComp = 0;
+    /**
+     * Start recording every byte going over the bracelet links, to reproduce reported problems.
+     * The trace is written to the traces folder of the app's external files, so it can be copied
+     * off the phone.
+     * @return The trace file, or null when it could not be created.
+     */
+    public synchronized File startFrameTrace() {
+        stopFrameTrace();
 
-            for(int i = 0; i < input.length - 1; i++) {
-                checkSumComp ^= input[i];
-            }
+        File directory = new File(getExternalFilesDir(null), "traces");
 
-            if(checkSumComp != checkSum) {
-                Log.e("BluetoothService", "Invalid checksum, skipping message");
-                return;
-            }
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e("BluetoothService", "Unable to create " + directory);
 
-            //Grabbing data:
-            int[] data = Arrays.copyOfRange(input, 3,3 + messageLength);
+            return null;
+        }
 
-            //Processing message:
-            processMessage(type, data);
+        File file = new File(directory, "trace-" + System.currentTimeMillis() + ".bin");
 
-            //Broadcasting message received:
-            broadcastUpdate(ACTION_GATT_MESSAGE_RECEIVED);
+        try {
+            frameTrace = new FrameTrace(file);
         }
-    };
-
-    public int getConnectionState() {
-        return connectionState;
-    }
+        catch(IOException e) {
+            Log.e("BluetoothService", "Unable to start frame trace: " + e.getMessage());
 
-    @Override
-    public boolean isConnected() {
-        return connectionState == STATE_CONNECTED;
-    }
+            return null;
+        }
 
-    @Override
-    public BraceletInformation getBraceletInformation() {
-        return braceletInformation;
-    }
+        frameTraceFile = file;
+        sessionManager.setFrameTrace(frameTrace);
 
-    @Override
-    public void updateBraceletInformation(BraceletInformation newBraceletInformation) {
-        braceletInformation = newBraceletInformation;
+        Log.i("BluetoothService", "Recording frame trace to " + file);
 
-        broadcastUpdate(ACTION_BRACELETINFORMATION_UPDATE);
+        return file;
     }
 
     /**
-     * Send update of changes back to main activity.
-     * @param action
+     * Stop recording the links.
+     * @return The finished trace file, null when no trace was recorded.
      */
-    private void broadcastUpdate(final String action) {
-        final Intent intent = new Intent(action);
-        sendBroadcast(intent);
-    }
-
-    @SuppressLint("MissingPermission")
-    //TODO check UUID of device :)
-    private void setSupportedGattServices() {
-        if (bluetoothGatt == null) {
-            return;
+    public synchronized File stopFrameTrace() {
+        if(frameTrace == null) {
+            return null;
         }
 
-        List<BluetoothGattService> gattServices = bluetoothGatt.getServices();
-
-        for (BluetoothGattService gattService : gattServices) {
-            List<BluetoothGattCharacteristic> gattCharacteristics = gattService.getCharacteristics();
+        sessionManager.setFrameTrace(null);
 
-            for (BluetoothGattCharacteristic gattCharacteristic : gattCharacteristics) {
-
-                String uuid = gattCharacteristic.getUuid().toString();
-                Log.i("BluetoothLeService","uuid : " + uuid);
+        try {
+            frameTrace.close();
+        }
+        catch(IOException e) {
+            Log.e("BluetoothService", "Unable to finish frame trace: " + e.getMessage());
+        }
 
-                if(uuid.equalsIgnoreCase(UUID_NOTIFY.toString())) {
-                    bluetoothNotifyCharacteristic = gattCharacteristic;
-                }
-                else if(uuid.equalsIgnoreCase(UUID_WRITE.toString())) {
-                    bluetoothWriteCharacteristic = gattCharacteristic;
+        Log.i("BluetoothService", "Recorded " + frameTrace.getRecordsWritten() + " records to " + frameTraceFile
+                + ", dropped " + frameTrace.getRecordsDropped());
 
-                    //Enable notifications from client:
-                    bluetoothGatt.setCharacteristicNotification(bluetoothWriteCharacteristic, true);
+        File file = frameTraceFile;
 
-                    BluetoothGattDescriptor desc = bluetoothWriteCharacteristic.getDescriptor(UUID.fromString("00002902-0000-1000-8000-00805F9B34FB"));
+        frameTrace = null;
+        frameTraceFile = null;
 
-                    desc.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-                    bluetoothGatt.writeDescriptor(desc);
-                }
-            }
-        }
+        return file;
     }
 
-    //#region Message Processing
+    public synchronized boolean isRecordingFrameTrace() {
+        return frameTrace != null;
+    }
 
     /**
-     * Check type of message and pass data to correct function;
+     * Mark the launch of the app, the start of the time to first command.
      */
-    private void processMessage(MessageType type, int[] data) {
-        switch(type) {
-            case STATUS:
-                processStatusMessage(data);
-                break;
-        }
+    public static void markLaunch() {
+        linkMetrics.onLaunch();
     }
 
-    private void processStatusMessage(int[] data) {
-        BraceletInformation newBraceletInfo = new BraceletInformation();
-
-        newBraceletInfo.mode = BraceletMode.values()[data[0]];
-        newBraceletInfo.batteryPercentage = data[1];
-        newBraceletInfo.ledStripPowerState = data[2] == '1';
-        newBraceletInfo.ledStripEffectCurrent = LedStripEffectType.values()[data[3]];
-        newBraceletInfo.ledStripBrightness = data[4];
-        newBraceletInfo.numGestures = data[5];
+    public boolean isReconnecting() {
+        return getPrimarySession().isReconnecting();
+    }
 
-        updateBraceletInformation(newBraceletInfo);
+    /**
+     * Stream of connection and bracelet state changes of the primary bracelet, available before
+     * the service is bound.
+     */
+    public static BraceletStateStream getStateStream() {
+        return stateStream;
     }
 
-    //#endregion
+    /**
+     * Counters and latencies of the links to all bracelets, since the process started.
+     */
+    public static LinkMetrics getLinkMetrics() {
+        return linkMetrics;
+    }
 }
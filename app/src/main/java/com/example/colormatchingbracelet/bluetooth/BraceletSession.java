@@ -0,0 +1,571 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletCommand;
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.Bracelet.BraceletMode;
+import com.example.colormatchingbracelet.Bracelet.BraceletStateStore;
+import com.example.colormatchingbracelet.LedStrip.LedStripCommand;
+import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
+import com.example.colormatchingbracelet.LedStrip.LedStripLink;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection to a single bracelet. Every session has its own transport, write queue, command
+ * channel and BraceletInformation, so a slow or lost bracelet never holds up the others.
+ *
+ * The session only talks to the bracelet through its Transport, on the phone that is GATT, on a
+ * plain JVM it can be the bracelet simulator.
+ */
+public class BraceletSession implements IBluetoothService {
+    private static final int WRITE_CREDIT_WINDOW = 4;
+
+    //A status request without an answer within this time is not counted as a round trip:
+    private static final long STATUS_ROUND_TRIP_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    //Mode | battery | power | effect | brightness | gestures, newer firmware adds its protocol version:
+    private static final int STATUS_MIN_SIZE = 6;
+
+    private final Transport transport;
+    private final SessionManager sessionManager;
+
+    private String address;
+    private int connectionState;
+    private volatile boolean connectPending;
+
+    private final BraceletStateStore stateStore = new BraceletStateStore();
+    private final BraceletEventSink eventSink;
+
+    //Outbound frames are written one at a time, inbound bytes are reassembled into frames:
+    private final WriteQueue writeQueue = new WriteQueue(this::writeFrame);
+    private final FrameDecoder frameDecoder = new FrameDecoder(this::onFrameReceived);
+
+    //Commands that need an acknowledgement are pipelined through the write queue:
+    private final CommandChannel commandChannel = new CommandChannel(writeQueue::enqueue);
+
+    //Status is pushed by the bracelet, polling is the fallback:
+    private final StatusPoller statusPoller = new StatusPoller(this);
+    private boolean statusPollingActive;
+
+    //Bracelet clock, so effects on several bracelets can start at the same moment:
+    private final ClockSync clockSync = new ClockSync(this);
+
+    //Coalescing and pixel frames of the led strip commands:
+    private final LedStripLink ledStripLink = LedStripCommand.createLink();
+
+    //Unexpected disconnects are recovered with a backoff, user disconnects are not:
+    private final ReconnectScheduler reconnectScheduler = new ReconnectScheduler(this::reconnect);
+    private boolean userDisconnected;
+    private boolean verified;
+
+    private long firstWriteTimeMs = -1;
+
+    //Shared with the other sessions of a manager:
+    private final LinkMetrics metrics;
+    //Time the oldest unanswered status request was sent, 0 when none is pending:
+    private volatile long statusRequestTimeNanos;
+
+    //Optional recording of every byte over the link, null when not recording:
+    private volatile FrameTrace frameTrace;
+    private volatile int frameTraceSession;
+
+    /**
+     * Session on its own, without a session manager.
+     */
+    public BraceletSession(Transport transport, BraceletEventSink eventSink) {
+        this(transport, null, eventSink, new LinkMetrics());
+    }
+
+    BraceletSession(Transport transport, SessionManager sessionManager, BraceletEventSink eventSink, LinkMetrics metrics) {
+        this.transport = transport;
+        this.sessionManager = sessionManager;
+        this.eventSink = eventSink;
+        this.metrics = metrics;
+
+        writeQueue.setMetrics(metrics);
+        writeQueue.setWriteListener(commandChannel::onFrameWritten);
+        transport.setListener(transportListener);
+        stateStore.subscribe(BraceletInformation.FIELD_ALL, (information, changedFields) -> eventSink.publishInformation(changedFields));
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    @Override
+    public boolean connectToDevice(String address) {
+        reconnectScheduler.cancel();
+
+        return connect(address, false);
+    }
+
+    /**
+     * Connect to a known bracelet, the connection is made as soon as it is in range.
+     */
+    boolean connectWhenInRange(String address) {
+        return connect(address, true);
+    }
+
+    private boolean connect(String address, boolean autoConnect) {
+        if(address == null) {
+            SessionLog.w("BraceletSession", "Unspecified address.");
+
+            return false;
+        }
+
+        //Another bracelet, nothing is known about it yet:
+        if(!address.equals(this.address)) {
+            this.address = address;
+            verified = false;
+            stateStore.reset();
+            clockSync.reset();
+        }
+
+        userDisconnected = false;
+        connectPending = true;
+
+        if(!transport.connect(address, autoConnect)) {
+            connectPending = false;
+
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Called by the reconnect scheduler.
+     */
+    private boolean reconnect(boolean autoConnect) {
+        SessionLog.i("BraceletSession", address + ": reconnect attempt " + reconnectScheduler.getAttempts() + (autoConnect ? ", waiting for the bracelet" : ""));
+
+        return connect(address, autoConnect);
+    }
+
+    @Override
+    public void disconnect() {
+        userDisconnected = true;
+        reconnectScheduler.cancel();
+
+        transport.disconnect();
+    }
+
+    /**
+     * Release the transport and end the threads of the session, it can not be used after this.
+     */
+    public void close() {
+        reconnectScheduler.shutdown();
+        statusPoller.shutdown();
+        clockSync.shutdown();
+        ledStripLink.shutdown();
+        writeQueue.clear();
+        commandChannel.shutdown();
+        transport.close();
+
+        connectionState = BluetoothService.STATE_DISCONNECTED;
+        connectPending = false;
+    }
+
+    /**
+     * Start | Type | length | data | checksum
+     */
+    @Override
+    public void sendMessage(MessageType type, byte[] data) {
+        sendMessage(type, data, data.length);
+    }
+
+    @Override
+    public void sendMessage(MessageType type, byte[] data, int length) {
+        if(length > FrameCodec.MAX_PAYLOAD_SIZE && !supportsExtendedFrames()) {
+            SessionLog.e("BraceletSession", "Bracelet does not support " + length + " byte messages, dropping " + type + " message");
+            metrics.onFrameDropped();
+            return;
+        }
+
+        if(!writeQueue.enqueue(type, data, length)) {
+            SessionLog.w("BraceletSession", address + ": write queue full, dropping " + type + " message");
+            return;
+        }
+
+        if(type == MessageType.STATUS) {
+            long now = System.nanoTime();
+            long requestTime = statusRequestTimeNanos;
+
+            //Only the first of several unanswered requests is timed, the answer is for that one:
+            if(requestTime == 0 || now - requestTime > STATUS_ROUND_TRIP_TIMEOUT_NANOS) {
+                statusRequestTimeNanos = now;
+            }
+        }
+    }
+
+    /**
+     * Send a command the bracelet acknowledges. On firmware without acknowledgements the command
+     * is sent as a plain message and completes as UNACKNOWLEDGED.
+     */
+    @Override
+    public CommandFuture sendCommand(MessageType type, byte[] data) {
+        if(!isConnected()) {
+            return CommandFuture.completed(CommandFuture.Result.DISCONNECTED);
+        }
+
+        if(!supportsAcknowledgements()) {
+            sendMessage(type, data);
+            return CommandFuture.completed(CommandFuture.Result.UNACKNOWLEDGED);
+        }
+
+        return commandChannel.send(type, data);
+    }
+
+    public boolean supportsAcknowledgements() {
+        return stateStore.get().protocolVersion >= CommandChannel.PROTOCOL_VERSION_ACKNOWLEDGED;
+    }
+
+    /**
+     * Largest payload that still fits in a single write.
+     */
+    @Override
+    public int getMaxPayloadSize() {
+        int attPayloadSize = getMtu() - Transport.ATT_HEADER_SIZE;
+
+        //Extended frames have one more length byte:
+        if(supportsExtendedFrames() && attPayloadSize - FrameCodec.EXTENDED_OVERHEAD > FrameCodec.MAX_PAYLOAD_SIZE) {
+            return Math.min(attPayloadSize - FrameCodec.EXTENDED_OVERHEAD, FrameCodec.MAX_EXTENDED_PAYLOAD_SIZE);
+        }
+
+        return Math.min(attPayloadSize - FrameCodec.OVERHEAD, FrameCodec.MAX_PAYLOAD_SIZE);
+    }
+
+    /**
+     * Bracelets since protocol version 2 accept payloads longer than 255 bytes.
+     */
+    public boolean supportsExtendedFrames() {
+        return stateStore.get().protocolVersion >= FrameCodec.PROTOCOL_VERSION_EXTENDED_LENGTH;
+    }
+
+    public int getMtu() {
+        return transport.getMtu();
+    }
+
+    /**
+     * Opt in to writing frames without response, for maximum throughput.
+     * @param enabled - Enable writing without response.
+     * @return False when the bracelet does not support writing without response.
+     */
+    public boolean setWriteWithoutResponse(boolean enabled) {
+        if(enabled && !transport.supportsWriteWithoutResponse()) {
+            return false;
+        }
+
+        writeQueue.setWithoutResponse(enabled, WRITE_CREDIT_WINDOW);
+
+        return true;
+    }
+
+    /**
+     * Called by the write queue, starts the actual write.
+     */
+    private boolean writeFrame(byte[] frame, boolean withoutResponse) {
+        if(firstWriteTimeMs < 0) {
+            long time = System.nanoTime();
+
+            firstWriteTimeMs = TimeUnit.NANOSECONDS.toMillis(time);
+            metrics.onFirstWrite(time);
+        }
+
+        FrameTrace trace = frameTrace;
+
+        if(trace != null) {
+            trace.record(frameTraceSession, FrameTrace.DIRECTION_OUTBOUND, frame);
+        }
+
+        return transport.write(frame, withoutResponse);
+    }
+
+    /**
+     * Record the bytes going over the link, for replaying them later.
+     * @param trace - Trace to record in, null to stop recording.
+     * @param session - Index of this session in the trace.
+     */
+    public void setFrameTrace(FrameTrace trace, int session) {
+        frameTraceSession = session;
+        frameTrace = trace;
+    }
+
+    private final Transport.Listener transportListener = new Transport.Listener() {
+        @Override
+        public void onConnected() {
+            connectPending = false;
+            connectionState = BluetoothService.STATE_CONNECTED;
+            frameDecoder.reset();
+            reconnectScheduler.onConnected();
+            ledStripLink.onConnected();
+            eventSink.publish(BraceletEvent.CONNECTED);
+        }
+
+        @Override
+        public void onServicesDiscovered() {
+            //Only verified bracelets are remembered and reconnected:
+            verified = true;
+
+            if(sessionManager != null) {
+                sessionManager.onSessionVerified(BraceletSession.this);
+            }
+
+            if(statusPollingActive) {
+                statusPoller.start();
+            }
+
+            //Protocol version, and so acknowledgements and clock sync, are only known from a status:
+            BraceletCommand.sendStatusRequest(BraceletSession.this);
+
+            eventSink.publish(BraceletEvent.SERVICES_DISCOVERED);
+        }
+
+        @Override
+        public void onReady() {
+            //Frames queued during setup can go out now:
+            writeQueue.pump();
+        }
+
+        @Override
+        public void onDisconnected() {
+            connectPending = false;
+            connectionState = BluetoothService.STATE_DISCONNECTED;
+            statusRequestTimeNanos = 0;
+            writeQueue.clear();
+            commandChannel.clear();
+            statusPoller.stop();
+            clockSync.stop();
+            eventSink.publish(BraceletEvent.DISCONNECTED);
+
+            //Lost the bracelet, or a reconnect attempt failed:
+            if(!userDisconnected && verified) {
+                reconnectScheduler.onDisconnected();
+            }
+            else if(sessionManager != null) {
+                sessionManager.onSessionClosed(BraceletSession.this);
+            }
+        }
+
+        @Override
+        public void onWriteComplete() {
+            //Next frame can go out:
+            writeQueue.onWriteComplete();
+        }
+
+        @Override
+        public void onReceived(byte[] data) {
+            long discardedBefore = frameDecoder.getDiscardedBytes();
+            long checksumErrorsBefore = frameDecoder.getChecksumErrors();
+
+            metrics.onBytesReceived(data.length);
+
+            FrameTrace trace = frameTrace;
+
+            if(trace != null) {
+                trace.record(frameTraceSession, FrameTrace.DIRECTION_INBOUND, data);
+            }
+
+            //A notification can hold any number of (partial) frames:
+            frameDecoder.feed(data);
+
+            if(frameDecoder.getDiscardedBytes() != discardedBefore) {
+                SessionLog.e("BraceletSession", "Skipped " + (frameDecoder.getDiscardedBytes() - discardedBefore) + " invalid bytes");
+
+                metrics.onBytesDiscarded(frameDecoder.getDiscardedBytes() - discardedBefore);
+            }
+
+            if(frameDecoder.getChecksumErrors() != checksumErrorsBefore) {
+                metrics.onChecksumErrors(frameDecoder.getChecksumErrors() - checksumErrorsBefore);
+            }
+        }
+    };
+
+    private void onFrameReceived(Frame frame) {
+        metrics.onFrameReceived();
+
+        //Processing message:
+        processMessage(frame);
+
+        //Publishing message received:
+        eventSink.publish(BraceletEvent.MESSAGE_RECEIVED);
+    }
+
+    @Override
+    public int getConnectionState() {
+        return connectionState;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return connectionState == BluetoothService.STATE_CONNECTED;
+    }
+
+    @Override
+    public boolean isWriteQueueIdle() {
+        return writeQueue.isIdle();
+    }
+
+    @Override
+    public long getAverageWriteLatencyNanos() {
+        return writeQueue.getAverageWriteLatencyNanos();
+    }
+
+    @Override
+    public int forEachBracelet(SessionAction action) {
+        if(!isConnected()) {
+            return 0;
+        }
+
+        action.apply(this);
+
+        return 1;
+    }
+
+    @Override
+    public BraceletInformation getBraceletInformation() {
+        return stateStore.get();
+    }
+
+    @Override
+    public int updateBraceletInformation(BraceletStateStore.Modifier modifier) {
+        return stateStore.update(modifier);
+    }
+
+    @Override
+    public BraceletStateStore getBraceletStateStore() {
+        return stateStore;
+    }
+
+    @Override
+    public ClockSync getClockSync() {
+        return clockSync;
+    }
+
+    @Override
+    public LedStripLink getLedStripLink() {
+        return ledStripLink;
+    }
+
+    public BraceletEventSink getEventSink() {
+        return eventSink;
+    }
+
+    public LinkMetrics getLinkMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Poll the status as a fallback for pushed updates, only needed while the status is shown.
+     */
+    public void setStatusPollingActive(boolean active) {
+        statusPollingActive = active;
+
+        if(active && isConnected()) {
+            statusPoller.start();
+        }
+        else if(!active) {
+            statusPoller.stop();
+        }
+    }
+
+    /**
+     * The user is interacting with the app, status polling speeds up for a while.
+     */
+    public void notifyUserInteraction() {
+        statusPoller.onUserInteraction();
+    }
+
+    public boolean isReconnecting() {
+        return reconnectScheduler.isReconnecting();
+    }
+
+    /**
+     * Not connected and not trying to, so the session can be used for another bracelet.
+     */
+    public boolean isIdle() {
+        return !isConnected() && !connectPending && !isReconnecting();
+    }
+
+    /**
+     * Monotonic time of the first frame written by this session, -1 when nothing was written yet.
+     */
+    public long getFirstWriteTimeMs() {
+        return firstWriteTimeMs;
+    }
+
+    //#region Message Processing
+
+    /**
+     * Check type of message and pass data to correct function;
+     */
+    private void processMessage(Frame frame) {
+        switch(frame.getType()) {
+            case STATUS:
+                processStatusMessage(frame);
+                break;
+            case ACK:
+                if(frame.getPayloadLength() >= CommandChannel.ACK_SIZE) {
+                    commandChannel.onAck(frame.getUnsigned(0), frame.getUnsigned(1));
+                }
+                break;
+            case TIME_SYNC:
+                if(frame.getPayloadLength() >= ClockSync.RESPONSE_SIZE) {
+                    clockSync.onResponse(frame.getUnsignedInt(0), frame.getUnsignedInt(4));
+                }
+                break;
+        }
+    }
+
+    private void processStatusMessage(Frame frame) {
+        if(frame.getPayloadLength() < STATUS_MIN_SIZE) {
+            SessionLog.w("BraceletSession", "Ignoring status of " + frame.getPayloadLength() + " bytes");
+            return;
+        }
+
+        long requestTime = statusRequestTimeNanos;
+
+        //Pushed statuses were not asked for, they are not a round trip:
+        if(requestTime != 0) {
+            statusRequestTimeNanos = 0;
+            metrics.onStatusRoundTrip(System.nanoTime() - requestTime);
+        }
+
+        BraceletMode mode = BraceletMode.fromValue(frame.getUnsigned(0));
+        LedStripEffectType effect = LedStripEffectType.fromValue(frame.getUnsigned(3));
+
+        //Newer firmware may report a mode or effect this app does not know, the previous one is kept:
+        if(mode == null || effect == null) {
+            SessionLog.w("BraceletSession", "Status with unknown mode " + frame.getUnsigned(0) + " or effect " + frame.getUnsigned(3));
+        }
+
+        //Led colors are not part of the status, they are kept:
+        int changedFields = updateBraceletInformation(builder -> {
+            if(mode != null) {
+                builder.mode(mode);
+            }
+
+            if(effect != null) {
+                builder.ledStripEffectCurrent(effect);
+            }
+
+            builder
+                .batteryPercentage(frame.getUnsigned(1))
+                .ledStripPowerState(frame.getUnsigned(2) == '1')
+                .ledStripBrightness(frame.getUnsigned(4))
+                .numGestures(frame.getUnsigned(5))
+                //Older firmware does not send its protocol version:
+                .protocolVersion(frame.getPayloadLength() > 6 ? frame.getUnsigned(6) : 1);
+        });
+
+        ledStripLink.onStatusReceived(getBraceletInformation());
+        statusPoller.onStatusReceived(changedFields != 0);
+
+        //The protocol version is only known from the first status:
+        if(getBraceletInformation().protocolVersion >= ClockSync.PROTOCOL_VERSION_TIME_SYNC && isConnected()) {
+            clockSync.start();
+        }
+    }
+
+    //#endregion
+}
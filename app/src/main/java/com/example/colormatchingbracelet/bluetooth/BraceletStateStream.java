@@ -0,0 +1,175 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import androidx.annotation.MainThread;
+import androidx.annotation.NonNull;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stream of bracelet state changes, published by the BluetoothService.
+ *
+ * Events can be published from any thread. They are collected in a bit mask and delivered on the
+ * main thread on the next display frame, so a burst of received frames results in a single UI
+ * update. Observers are bound to a lifecycle: they only get events while started, events missed in
+ * the background are delivered once they are started again, and they are removed when destroyed.
+ */
+public class BraceletStateStream implements BraceletEventSink {
+
+    public interface Observer {
+        /**
+         * Called on the main thread, at most once per frame.
+         * @param events - Mask of every BraceletEvent since the last call, test with BraceletEvent.in().
+         * @param changedFields - Mask of the BraceletInformation.FIELD_ bits that changed.
+         */
+        void onBraceletStateChanged(int events, int changedFields);
+    }
+
+    //Events in the low half, changed fields in the high half, so both are swapped out at once:
+    private final AtomicLong pending = new AtomicLong();
+    private final CopyOnWriteArrayList<ObserverBinding> bindings = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Choreographer.FrameCallback frameCallback = frameTimeNanos -> dispatch(pending.getAndSet(0));
+    private final Runnable scheduleFrame = () -> Choreographer.getInstance().postFrameCallback(frameCallback);
+
+    @Override
+    public void publish(BraceletEvent event) {
+        publish(event.getMask(), 0);
+    }
+
+    @Override
+    public void publishInformation(int changedFields) {
+        publish(BraceletEvent.INFORMATION_UPDATED.getMask(), changedFields);
+    }
+
+    /**
+     * Observe the stream for as long as the owner is not destroyed.
+     */
+    @MainThread
+    public void observe(LifecycleOwner owner, Observer observer) {
+        observe(owner, BraceletInformation.FIELD_ALL, observer);
+    }
+
+    /**
+     * Observe the stream, information updates are only delivered when one of the given fields
+     * changed. Other events are always delivered.
+     * @param fields - Mask of the BraceletInformation.FIELD_ bits the observer renders.
+     */
+    @MainThread
+    public void observe(LifecycleOwner owner, int fields, Observer observer) {
+        if(owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+
+        ObserverBinding binding = new ObserverBinding(owner, fields, observer);
+
+        bindings.add(binding);
+        owner.getLifecycle().addObserver(binding);
+    }
+
+    @MainThread
+    public void removeObserver(Observer observer) {
+        for(ObserverBinding binding : bindings) {
+            if(binding.observer == observer) {
+                binding.remove();
+            }
+        }
+    }
+
+    private void publish(int events, int changedFields) {
+        long bits = ((long) changedFields << 32) | (events & 0xFFFFFFFFL);
+        long previous;
+
+        //getAndUpdate needs API 24:
+        do {
+            previous = pending.get();
+        } while(!pending.compareAndSet(previous, previous | bits));
+
+        //Only the first event of a frame schedules the delivery:
+        if(previous == 0) {
+            if(Looper.myLooper() == Looper.getMainLooper()) {
+                scheduleFrame.run();
+            }
+            else {
+                mainHandler.post(scheduleFrame);
+            }
+        }
+    }
+
+    private void dispatch(long bits) {
+        int events = (int) bits;
+        int changedFields = (int) (bits >>> 32);
+
+        for(ObserverBinding binding : bindings) {
+            binding.deliver(events, changedFields);
+        }
+    }
+
+    private class ObserverBinding implements LifecycleEventObserver {
+        final LifecycleOwner owner;
+        final int fields;
+        final Observer observer;
+
+        //Events that came in while the owner was not started:
+        int missedEvents;
+        int missedFields;
+
+        ObserverBinding(LifecycleOwner owner, int fields, Observer observer) {
+            this.owner = owner;
+            this.fields = fields;
+            this.observer = observer;
+        }
+
+        void deliver(int events, int changedFields) {
+            changedFields &= fields;
+
+            //Information updates of fields this observer does not render:
+            if(changedFields == 0) {
+                events &= ~BraceletEvent.INFORMATION_UPDATED.getMask();
+            }
+
+            if(events == 0) {
+                return;
+            }
+
+            if(!owner.getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.STARTED)) {
+                missedEvents |= events;
+                missedFields |= changedFields;
+                return;
+            }
+
+            observer.onBraceletStateChanged(events, changedFields);
+        }
+
+        void remove() {
+            bindings.remove(this);
+            owner.getLifecycle().removeObserver(this);
+        }
+
+        @Override
+        public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+            if(event == Lifecycle.Event.ON_DESTROY) {
+                remove();
+            }
+            else if(event == Lifecycle.Event.ON_START && missedEvents != 0) {
+                int events = missedEvents;
+                int changedFields = missedFields;
+
+                missedEvents = 0;
+                missedFields = 0;
+
+                observer.onBraceletStateChanged(events, changedFields);
+            }
+        }
+    }
+}
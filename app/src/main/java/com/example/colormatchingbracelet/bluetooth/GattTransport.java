@@ -0,0 +1,227 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import android.annotation.SuppressLint;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.bluetooth.BluetoothProfile;
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * Transport over a GATT client. Frames are written to the RX characteristic, notifications of the
+ * TX characteristic are passed on as received bytes.
+ */
+public class GattTransport implements Transport {
+    private final Context context;
+
+    private Listener listener;
+    private String address;
+    private int mtu = DEFAULT_MTU;
+
+    private BluetoothGatt bluetoothGatt;
+    private BluetoothGattCharacteristic bluetoothNotifyCharacteristic;
+    private BluetoothGattCharacteristic bluetoothWriteCharacteristic;
+
+    public GattTransport(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean connect(String address, boolean autoConnect) {
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+
+        if(bluetoothAdapter == null || address == null) {
+            Log.w("GattTransport", "BluetoothAdapter not initialized or unspecified address.");
+
+            return false;
+        }
+
+        try {
+            //Grabbing device:
+            final BluetoothDevice device = bluetoothAdapter.getRemoteDevice(address);
+
+            //A pending connection would keep its own client:
+            if(bluetoothGatt != null) {
+                bluetoothGatt.close();
+            }
+
+            this.address = address;
+
+            //Connecting to the device:
+            bluetoothGatt = device.connectGatt(context, autoConnect, bluetoothGattCallback, BluetoothDevice.TRANSPORT_LE);
+
+            return bluetoothGatt != null;
+        }
+        catch(Exception e) {
+            Log.e("GattTransport", e.getMessage());
+
+            return false;
+        }
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void disconnect() {
+        if (bluetoothGatt == null) {
+            Log.e("GattTransport","Gatt not initialized");
+            return;
+        }
+
+        bluetoothGatt.disconnect();
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void close() {
+        if(bluetoothGatt != null) {
+            bluetoothGatt.close();
+            bluetoothGatt = null;
+        }
+
+        mtu = DEFAULT_MTU;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public boolean write(byte[] frame, boolean withoutResponse) {
+        if(bluetoothGatt == null || bluetoothNotifyCharacteristic == null) {
+            return false;
+        }
+
+        bluetoothNotifyCharacteristic.setWriteType(withoutResponse ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+        bluetoothNotifyCharacteristic.setValue(frame);
+
+        return bluetoothGatt.writeCharacteristic(bluetoothNotifyCharacteristic);
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public boolean supportsWriteWithoutResponse() {
+        return bluetoothNotifyCharacteristic != null
+                && (bluetoothNotifyCharacteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+    }
+
+    private final BluetoothGattCallback bluetoothGattCallback = new BluetoothGattCallback() {
+        @SuppressLint("MissingPermission")
+        @Override
+        public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
+            if (newState == BluetoothProfile.STATE_CONNECTED) { // successfully connected to the GATT Server
+                listener.onConnected();
+
+                gatt.discoverServices();
+            }
+            else if (newState == BluetoothProfile.STATE_DISCONNECTED) { // disconnected from the GATT Server
+                mtu = DEFAULT_MTU;
+
+                listener.onDisconnected();
+            }
+        }
+
+        @Override
+        public void onServicesDiscovered(BluetoothGatt gatt, int status) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                if(!setSupportedGattServices()) {
+                    Log.e("GattTransport", address + " is not a bracelet, disconnecting");
+
+                    disconnect();
+                    return;
+                }
+
+                listener.onServicesDiscovered();
+            } else {
+                Log.w("GattTransport", "onServicesDiscovered received: " + status);
+            }
+        }
+
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
+            if(status != BluetoothGatt.GATT_SUCCESS) {
+                Log.w("GattTransport", "Write failed with status: " + status);
+            }
+
+            //Next frame can go out:
+            listener.onWriteComplete();
+        }
+
+        @SuppressLint("MissingPermission")
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+            //Notifications are set up, ask for the largest MTU so frames fit in a single write:
+            if(gatt.requestMtu(MAX_MTU)) {
+                return;
+            }
+
+            //Frames queued during setup were blocked by this write:
+            listener.onReady();
+        }
+
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int newMtu, int status) {
+            if(status == BluetoothGatt.GATT_SUCCESS) {
+                mtu = newMtu;
+
+                Log.i("GattTransport", address + ": MTU changed to " + newMtu);
+            }
+            else {
+                Log.w("GattTransport", "MTU request failed with status: " + status);
+            }
+
+            //Frames queued during the negotiation can go out now:
+            listener.onReady();
+        }
+
+        @Override
+        public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
+            listener.onReceived(characteristic.getValue());
+        }
+    };
+
+    /**
+     * Look up the bracelet characteristics directly, and enable notifications.
+     * @return False when the device does not have the bracelet service.
+     */
+    @SuppressLint("MissingPermission")
+    private boolean setSupportedGattServices() {
+        if (bluetoothGatt == null) {
+            return false;
+        }
+
+        BluetoothGattService gattService = bluetoothGatt.getService(BluetoothService.UUID_SERVICE);
+
+        if(gattService == null) {
+            return false;
+        }
+
+        bluetoothNotifyCharacteristic = gattService.getCharacteristic(BluetoothService.UUID_NOTIFY);
+        bluetoothWriteCharacteristic = gattService.getCharacteristic(BluetoothService.UUID_WRITE);
+
+        if(bluetoothNotifyCharacteristic == null || bluetoothWriteCharacteristic == null) {
+            return false;
+        }
+
+        //Enable notifications from client:
+        bluetoothGatt.setCharacteristicNotification(bluetoothWriteCharacteristic, true);
+
+        BluetoothGattDescriptor desc = bluetoothWriteCharacteristic.getDescriptor(BluetoothService.UUID_CLIENT_CONFIG);
+
+        desc.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        bluetoothGatt.writeDescriptor(desc);
+
+        return true;
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import android.util.Log;
+
+/**
+ * Log of the bracelet sessions. It goes to android.util.Log, unit tests that run sessions on the
+ * JVM, where android.util.Log is not implemented, send it somewhere else with setSink().
+ */
+public class SessionLog {
+
+    public interface Sink {
+        /**
+         * @param priority - Log.INFO, Log.WARN or Log.ERROR.
+         */
+        void println(int priority, String tag, String message);
+    }
+
+    public static final Sink ANDROID = Log::println;
+    public static final Sink SYSTEM_OUT = (priority, tag, message) -> System.out.println(tag + ": " + message);
+
+    private static volatile Sink sink = ANDROID;
+
+    public static void setSink(Sink sink) {
+        SessionLog.sink = sink;
+    }
+
+    public static void i(String tag, String message) {
+        sink.println(Log.INFO, tag, message);
+    }
+
+    public static void w(String tag, String message) {
+        sink.println(Log.WARN, tag, message);
+    }
+
+    public static void e(String tag, String message) {
+        sink.println(Log.ERROR, tag, message);
+    }
+}
@@ -0,0 +1,249 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps a BraceletSession per connected bracelet. The first session is the primary one, it is the
+ * bracelet the screens show and it publishes on the shared state stream. Commands can be fanned out
+ * to every connected bracelet, sending only queues the frames, so every bracelet is written to in
+ * parallel at the pace of its own link.
+ */
+public class SessionManager {
+    //Android allows about 7 concurrent LE connections:
+    public static final int MAX_SESSIONS = 7;
+
+    //The bracelets of the last run are remembered, so the next launch can connect without scanning:
+    private static final String PREFERENCES_NAME = "bluetooth";
+    private static final String PREFERENCE_LAST_ADDRESSES = "lastAddresses";
+    private static final String ADDRESS_SEPARATOR = ",";
+
+    private final Context context;
+    private final Transport.Factory transportFactory;
+    private final LinkMetrics linkMetrics;
+    private final BraceletSession primarySession;
+    private final CopyOnWriteArrayList<BraceletSession> sessions = new CopyOnWriteArrayList<>();
+
+    private boolean statusPollingActive;
+    private FrameTrace frameTrace;
+    //Sessions keep their index in the trace, also when others are dropped:
+    private int nextTraceSession;
+
+    /**
+     * @param transportFactory - Creates the link of every session.
+     * @param primaryEventSink - Where the primary session publishes.
+     * @param linkMetrics - Where every session records its link metrics.
+     */
+    public SessionManager(Context context, Transport.Factory transportFactory, BraceletEventSink primaryEventSink, LinkMetrics linkMetrics) {
+        this.context = context;
+        this.transportFactory = transportFactory;
+        this.linkMetrics = linkMetrics;
+
+        primarySession = new BraceletSession(transportFactory.create(), this, primaryEventSink, linkMetrics);
+        sessions.add(primarySession);
+    }
+
+    public BraceletSession getPrimarySession() {
+        return primarySession;
+    }
+
+    /**
+     * Connect to a bracelet. The primary session is used while it is free, every next bracelet gets
+     * a session of its own.
+     * @return The session of the bracelet, or null when no more bracelets can be connected.
+     */
+    public synchronized BraceletSession connect(String address) {
+        BraceletSession session = getSessionFor(address);
+
+        if(session == null) {
+            return null;
+        }
+
+        return session.connectToDevice(address) ? session : null;
+    }
+
+    /**
+     * Connect to the bracelets of the previous run without scanning. The connections are made as
+     * soon as they are in range.
+     * @return Number of bracelets that are being connected.
+     */
+    public synchronized int connectToLastDevices() {
+        String addresses = getPreferences().getString(PREFERENCE_LAST_ADDRESSES, null);
+        int connecting = 0;
+
+        if(addresses == null) {
+            return 0;
+        }
+
+        for(String address : addresses.split(ADDRESS_SEPARATOR)) {
+            BraceletSession session = getSessionFor(address);
+
+            if(session != null && !session.isConnected() && session.connectWhenInRange(address)) {
+                SessionLog.i("SessionManager", "Connecting to last bracelet " + address);
+                connecting++;
+            }
+        }
+
+        return connecting;
+    }
+
+    public void disconnectAll() {
+        for(BraceletSession session : sessions) {
+            if(session.isConnected()) {
+                session.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Close every session, for when the service goes away.
+     */
+    public synchronized void closeAll() {
+        for(BraceletSession session : sessions) {
+            session.close();
+        }
+
+        sessions.retainAll(Collections.singleton(primarySession));
+    }
+
+    /**
+     * Run an action for every connected bracelet.
+     * @return Number of bracelets the action ran for.
+     */
+    public int forEachConnected(SessionAction action) {
+        int count = 0;
+
+        for(BraceletSession session : sessions) {
+            if(session.isConnected()) {
+                action.apply(session);
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Send the same command to every connected bracelet.
+     * @return The future of every bracelet, in no particular order.
+     */
+    public List<CommandFuture> sendCommandToAll(MessageType type, byte[] data) {
+        List<CommandFuture> futures = new ArrayList<>();
+
+        forEachConnected(session -> futures.add(session.sendCommand(type, data)));
+
+        return futures;
+    }
+
+    /**
+     * Every session, connected or not, the primary one first.
+     */
+    public List<BraceletSession> getSessions() {
+        return new ArrayList<>(sessions);
+    }
+
+    public int getConnectedCount() {
+        int count = 0;
+
+        for(BraceletSession session : sessions) {
+            if(session.isConnected()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    public void setStatusPollingActive(boolean active) {
+        statusPollingActive = active;
+
+        for(BraceletSession session : sessions) {
+            session.setStatusPollingActive(active);
+        }
+    }
+
+    /**
+     * Record the links of every session, including the ones connected later, sessions are told
+     * apart by their index.
+     * @param trace - Trace to record in, null to stop recording.
+     */
+    public synchronized void setFrameTrace(FrameTrace trace) {
+        frameTrace = trace;
+        nextTraceSession = 0;
+
+        for(BraceletSession session : sessions) {
+            session.setFrameTrace(trace, nextTraceSession++);
+        }
+    }
+
+    public void notifyUserInteraction() {
+        for(BraceletSession session : sessions) {
+            session.notifyUserInteraction();
+        }
+    }
+
+    /**
+     * Session the bracelet connects with, an existing one when it was connected before.
+     */
+    private BraceletSession getSessionFor(String address) {
+        for(BraceletSession session : sessions) {
+            if(address.equals(session.getAddress())) {
+                return session;
+            }
+        }
+
+        if(primarySession.isIdle()) {
+            return primarySession;
+        }
+
+        if(sessions.size() >= MAX_SESSIONS) {
+            SessionLog.w("SessionManager", "Already connected to " + MAX_SESSIONS + " bracelets, ignoring " + address);
+            return null;
+        }
+
+        //Only the primary session is shown, the others do not need to publish:
+        BraceletSession session = new BraceletSession(transportFactory.create(), this, BraceletEventSink.NONE, linkMetrics);
+        session.setStatusPollingActive(statusPollingActive);
+        session.setFrameTrace(frameTrace, nextTraceSession++);
+        sessions.add(session);
+
+        return session;
+    }
+
+    /**
+     * The bracelet of a session was verified, it is remembered for the next launch.
+     */
+    synchronized void onSessionVerified(BraceletSession session) {
+        StringBuilder addresses = new StringBuilder(session.getAddress());
+
+        for(BraceletSession other : sessions) {
+            if(other != session && other.getAddress() != null && other.isConnected()) {
+                addresses.append(ADDRESS_SEPARATOR).append(other.getAddress());
+            }
+        }
+
+        getPreferences().edit().putString(PREFERENCE_LAST_ADDRESSES, addresses.toString()).apply();
+    }
+
+    /**
+     * The session disconnected and will not reconnect. Sessions other than the primary one are
+     * dropped.
+     */
+    synchronized void onSessionClosed(BraceletSession session) {
+        if(session == primarySession) {
+            return;
+        }
+
+        session.close();
+        sessions.remove(session);
+    }
+
+    private SharedPreferences getPreferences() {
+        return context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
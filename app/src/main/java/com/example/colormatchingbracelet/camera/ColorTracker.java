@@ -0,0 +1,335 @@
+package com.example.colormatchingbracelet.camera;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageProxy;
+
+import com.example.colormatchingbracelet.LedStrip.AmbientPipeline;
+import com.example.colormatchingbracelet.color.ColorIndex;
+import com.example.colormatchingbracelet.color.DominantColors;
+import com.example.colormatchingbracelet.color.YuvRegionSampler;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tracks the color at a point of the camera preview, on every analysed frame. Frames come from an
+ * ImageAnalysis use case that keeps only the latest frame, so a slow frame is skipped instead of
+ * queued. The region is sampled straight from the YUV planes on a background thread, without
+ * allocating per frame.
+ *
+ * The point is given in coordinates of the preview view, which shows the frame rotated and scaled
+ * to fit its center. After a tap the first frame is searched for the most uniform region near the
+ * point, and that region is tracked, so a tap close to an edge or a highlight still picks a clean
+ * patch.
+ *
+ * Optionally the dominant colors of every frame are extracted too, within a fixed time budget,
+ * and frames are captured for an ambient pipeline that mirrors them on the led strip.
+ */
+public class ColorTracker implements ImageAnalysis.Analyzer {
+
+    public interface Listener {
+        /**
+         * Called on the analysis thread for every analysed frame.
+         * @param color - Color of the tracked region, as the camera sees it.
+         */
+        void onColor(int color);
+    }
+
+    public interface SwatchListener {
+        /**
+         * Called on the analysis thread when the dominant colors of a frame were extracted.
+         * @param swatches - Ranked swatches, only valid during this call.
+         */
+        void onSwatches(DominantColors swatches);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ColorTracker");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    //Regions centered this far from a tap are searched for the most uniform one:
+    private static final int UNIFORM_SEARCH_RADIUS = 30;
+
+    private final YuvRegionSampler sampler = new YuvRegionSampler();
+    private final Listener listener;
+
+    //Only the search window around a tap is converted and indexed:
+    private final ColorIndex colorIndex = new ColorIndex();
+    private final int[] uniformCenter = new int[2];
+    private int[] searchWindow = new int[0];
+
+    //Tracked point and the size of the view it is in, the center until the user picks one:
+    private volatile float viewX = 0.5f;
+    private volatile float viewY = 0.5f;
+    private volatile float viewWidth = 1.0f;
+    private volatile float viewHeight = 1.0f;
+
+    //Set by a tap, the offset to the most uniform region is found on the next frame:
+    private volatile boolean searchPending;
+    private int uniformOffsetX;
+    private int uniformOffsetY;
+
+    private volatile int color;
+
+    //Created when swatches are asked for, it has its own worker threads:
+    private DominantColors dominantColors;
+    private volatile SwatchListener swatchListener;
+
+    private volatile AmbientPipeline ambientPipeline;
+
+    public ColorTracker(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Analysis use case feeding this tracker.
+     */
+    public ImageAnalysis createUseCase() {
+        ImageAnalysis analysis = new ImageAnalysis.Builder()
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .build();
+
+        analysis.setAnalyzer(executor, this);
+
+        return analysis;
+    }
+
+    /**
+     * Track the color at a point of the preview view.
+     */
+    public void setPoint(float x, float y, int viewWidth, int viewHeight) {
+        this.viewWidth = Math.max(1, viewWidth);
+        this.viewHeight = Math.max(1, viewHeight);
+        this.viewX = x;
+        this.viewY = y;
+        this.searchPending = true;
+    }
+
+    /**
+     * Also extract the dominant colors of every frame.
+     * @param swatchListener - Null to stop extracting.
+     */
+    public void setSwatchListener(SwatchListener swatchListener) {
+        this.swatchListener = swatchListener;
+    }
+
+    /**
+     * Also capture every frame for an ambient pipeline, this is its capture stage.
+     * @param ambientPipeline - Null to stop capturing.
+     */
+    public void setAmbientPipeline(AmbientPipeline ambientPipeline) {
+        this.ambientPipeline = ambientPipeline;
+    }
+
+    /**
+     * Color of the last analysed frame.
+     */
+    public int getColor() {
+        return color;
+    }
+
+    /**
+     * Stop analysing, frames still delivered are dropped.
+     */
+    public void shutdown() {
+        executor.execute(() -> {
+            if(dominantColors != null) {
+                dominantColors.shutdown();
+            }
+        });
+
+        executor.shutdown();
+    }
+
+    @Override
+    public void analyze(@NonNull ImageProxy image) {
+        try {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int rotation = image.getImageInfo().getRotationDegrees();
+
+            //Size of the frame as shown, rotated upright:
+            boolean sideways = rotation == 90 || rotation == 270;
+            int shownWidth = sideways ? height : width;
+            int shownHeight = sideways ? width : height;
+
+            //The preview fits the frame in the view, centered:
+            float scale = Math.min(viewWidth / shownWidth, viewHeight / shownHeight);
+            int shownX = (int) ((viewX - viewWidth / 2) / scale + shownWidth / 2.0f);
+            int shownY = (int) ((viewY - viewHeight / 2) / scale + shownHeight / 2.0f);
+
+            //Back to the orientation of the frame:
+            int x, y;
+
+            switch(rotation) {
+                case 90: x = shownY; y = height - 1 - shownX; break;
+                case 180: x = width - 1 - shownX; y = height - 1 - shownY; break;
+                case 270: x = width - 1 - shownY; y = shownX; break;
+                default: x = shownX; y = shownY; break;
+            }
+
+            ImageProxy.PlaneProxy[] planes = image.getPlanes();
+
+            if(searchPending) {
+                searchPending = false;
+                findUniformOffset(planes, width, height, x, y);
+            }
+
+            x += uniformOffsetX;
+            y += uniformOffsetY;
+
+            color = sampler.sample(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                    planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(), width, height, x, y);
+
+            listener.onColor(color);
+
+            SwatchListener swatchListener = this.swatchListener;
+
+            if(swatchListener != null) {
+                extractSwatches(planes, width, height);
+                swatchListener.onSwatches(dominantColors);
+            }
+
+            AmbientPipeline ambientPipeline = this.ambientPipeline;
+
+            if(ambientPipeline != null) {
+                captureAmbient(ambientPipeline, planes, width, height, rotation);
+            }
+        }
+        finally {
+            image.close();
+        }
+    }
+
+    /**
+     * Convert the window around a point and find the most uniform region in it, the offset to its
+     * center is applied to the tracked point from now on.
+     */
+    private void findUniformOffset(ImageProxy.PlaneProxy[] planes, int width, int height, int x, int y) {
+        int radius = sampler.getRegionSampler().getRadius();
+        int reach = UNIFORM_SEARCH_RADIUS + radius;
+
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+
+        int left = Math.max(0, x - reach);
+        int top = Math.max(0, y - reach);
+        int windowWidth = Math.min(width, x + reach + 1) - left;
+        int windowHeight = Math.min(height, y + reach + 1) - top;
+
+        if(searchWindow.length < windowWidth * windowHeight) {
+            searchWindow = new int[(2 * reach + 1) * (2 * reach + 1)];
+        }
+
+        ByteBuffer yPlane = planes[0].getBuffer();
+        ByteBuffer uPlane = planes[1].getBuffer();
+        ByteBuffer vPlane = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+        int index = 0;
+
+        for(int row = top; row < top + windowHeight; row++) {
+            for(int column = left; column < left + windowWidth; column++) {
+                int uvIndex = (row >> 1) * uvRowStride + (column >> 1) * uvPixelStride;
+
+                searchWindow[index++] = YuvRegionSampler.toRgb(yPlane.get(row * yRowStride + column) & 0xFF, uPlane.get(uvIndex) & 0xFF, vPlane.get(uvIndex) & 0xFF);
+            }
+        }
+
+        colorIndex.build(searchWindow, 0, windowWidth, windowWidth, windowHeight);
+        colorIndex.findMostUniform(x - left, y - top, radius, UNIFORM_SEARCH_RADIUS, uniformCenter);
+
+        uniformOffsetX = left + uniformCenter[0] - x;
+        uniformOffsetY = top + uniformCenter[1] - y;
+    }
+
+    /**
+     * Convert a grid of pixels of the frame and cluster them.
+     */
+    private void extractSwatches(ImageProxy.PlaneProxy[] planes, int width, int height) {
+        if(dominantColors == null) {
+            dominantColors = new DominantColors();
+        }
+
+        ByteBuffer yPlane = planes[0].getBuffer();
+        ByteBuffer uPlane = planes[1].getBuffer();
+        ByteBuffer vPlane = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+
+        int[] samples = dominantColors.getSamples();
+        int step = DominantColors.sampleStep(width, height);
+        int count = 0;
+
+        for(int y = step / 2; y < height; y += step) {
+            for(int x = step / 2; x < width && count < samples.length; x += step) {
+                int uvIndex = (y >> 1) * uvRowStride + (x >> 1) * uvPixelStride;
+
+                samples[count++] = YuvRegionSampler.toRgb(yPlane.get(y * yRowStride + x) & 0xFF, uPlane.get(uvIndex) & 0xFF, vPlane.get(uvIndex) & 0xFF);
+            }
+        }
+
+        dominantColors.setSampleCount(count);
+        dominantColors.extract();
+    }
+
+    /**
+     * Convert a grid of pixels of the frame, upright as it is shown, and hand it to the pipeline.
+     */
+    private void captureAmbient(AmbientPipeline ambientPipeline, ImageProxy.PlaneProxy[] planes, int width, int height, int rotation) {
+        AmbientPipeline.Grid grid = ambientPipeline.acquireGrid();
+
+        if(grid == null) {
+            return;
+        }
+
+        ByteBuffer yPlane = planes[0].getBuffer();
+        ByteBuffer uPlane = planes[1].getBuffer();
+        ByteBuffer vPlane = planes[2].getBuffer();
+        int yRowStride = planes[0].getRowStride();
+        int uvRowStride = planes[1].getRowStride();
+        int uvPixelStride = planes[1].getPixelStride();
+
+        boolean sideways = rotation == 90 || rotation == 270;
+        int shownWidth = sideways ? height : width;
+        int shownHeight = sideways ? width : height;
+
+        int step = AmbientPipeline.gridStep(width, height);
+        int gridWidth = Math.max(1, shownWidth / step);
+        int gridHeight = Math.max(1, shownHeight / step);
+
+        grid.setSize(gridWidth, gridHeight);
+
+        int[] pixels = grid.getPixels();
+        int index = 0;
+
+        for(int gridY = 0; gridY < gridHeight; gridY++) {
+            int shownY = Math.min(shownHeight - 1, gridY * step + step / 2);
+
+            for(int gridX = 0; gridX < gridWidth; gridX++) {
+                int shownX = Math.min(shownWidth - 1, gridX * step + step / 2);
+                int x, y;
+
+                switch(rotation) {
+                    case 90: x = shownY; y = height - 1 - shownX; break;
+                    case 180: x = width - 1 - shownX; y = height - 1 - shownY; break;
+                    case 270: x = width - 1 - shownY; y = shownX; break;
+                    default: x = shownX; y = shownY; break;
+                }
+
+                int uvIndex = (y >> 1) * uvRowStride + (x >> 1) * uvPixelStride;
+
+                pixels[index++] = YuvRegionSampler.toRgb(yPlane.get(y * yRowStride + x) & 0xFF, uPlane.get(uvIndex) & 0xFF, vPlane.get(uvIndex) & 0xFF);
+            }
+        }
+
+        ambientPipeline.submitGrid(grid);
+    }
+}
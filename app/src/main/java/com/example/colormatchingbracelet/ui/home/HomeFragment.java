@@ -7,11 +7,8 @@ import static com.example.colormatchingbracelet.LedStrip.LedStripEffectType.RAIN
 import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
-import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.Intent;
 import android.content.pm.PackageManager;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.hardware.camera2.CameraManager;
 import android.os.Bundle;
@@ -20,12 +17,14 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.CompoundButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
 import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
@@ -37,13 +36,18 @@ import androidx.lifecycle.LifecycleOwner;
 import com.example.colormatchingbracelet.Bracelet.BraceletCommand;
 import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
 import com.example.colormatchingbracelet.Bracelet.BraceletMode;
+import com.example.colormatchingbracelet.LedStrip.AmbientPipeline;
 import com.example.colormatchingbracelet.LedStrip.LedStripCommand;
 import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
-import com.example.colormatchingbracelet.MainActivity;
+import com.example.colormatchingbracelet.LedStrip.SyncedEffect;
 import com.example.colormatchingbracelet.R;
 import com.example.colormatchingbracelet.Utils;
 import com.example.colormatchingbracelet.bluetooth.BluetoothService;
+import com.example.colormatchingbracelet.bluetooth.BraceletEvent;
 import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+import com.example.colormatchingbracelet.bluetooth.SessionAction;
+import com.example.colormatchingbracelet.camera.ColorTracker;
+import com.example.colormatchingbracelet.color.ColorLut;
 import com.example.colormatchingbracelet.databinding.FragmentHomeBinding;
 import com.github.antonpopoff.colorwheel.ColorWheel;
 import com.google.android.material.slider.Slider;
@@ -63,7 +67,16 @@ public class HomeFragment extends Fragment {
 
     //Camera fields:
     private ProcessCameraProvider cameraProvider;
-    private int selectedColor = Color.WHITE;
+    private volatile int selectedColor = Color.WHITE;
+
+    //Live tracking of the color in the scan dialog, the bracelets follow it when enabled:
+    private ColorTracker colorTracker;
+    private volatile boolean liveColorEnabled;
+    private volatile int ledColor;
+    private final SessionAction sendLedColor = bracelet -> LedStripCommand.sendColor(bracelet, ledColor);
+
+    //Ambient mode mirrors the zones of the frame on the leds, created when first enabled:
+    private AmbientPipeline ambientPipeline;
 
     //Effect buttons:
     private Button effectRainbowButton;
@@ -72,28 +85,25 @@ public class HomeFragment extends Fragment {
     private Button effectCompassButton;
     private Button effectFadeButton;
 
-    private BraceletInformation previousBraceletInformation;
-
     private ColorWheel colorWheel;
     private boolean colorWheelInitialized;
 
-    private final BroadcastReceiver gattUpdateReceiver = new BroadcastReceiver() {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-
-            switch (action) {
-                case BluetoothService.ACTION_GATT_CONNECTED:
-                    setBluetoothEnabled(true);
-                case BluetoothService.ACTION_GATT_DISCONNECTED:
-                    setBluetoothEnabled(false);
-                    break;
-                case BluetoothService.ACTION_BRACELETINFORMATION_UPDATE:
-                    updateLayout();
-                    break;
-            }
+    //Fields the layout shows:
+    private static final int LAYOUT_FIELDS = BraceletInformation.FIELD_LED_STRIP_POWER_STATE | BraceletInformation.FIELD_MODE;
+
+    //Outlives the view, it keeps the bracelets in phase while the effect runs:
+    private final SyncedEffect syncedEffect = new SyncedEffect();
+
+    private void onBraceletStateChanged(int events, int changedFields) {
+        //Both can be in one update, the current state decides:
+        if(BraceletEvent.CONNECTED.in(events) || BraceletEvent.DISCONNECTED.in(events)) {
+            setBluetoothEnabled(bluetoothServiceLink.isConnected());
+        }
+
+        if(BraceletEvent.INFORMATION_UPDATED.in(events)) {
+            updateLayout(changedFields);
         }
-    };
+    }
 
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
@@ -103,7 +113,10 @@ public class HomeFragment extends Fragment {
 
         powerButton = root.findViewById(R.id.powerButton);
         powerButton.setOnClickListener(view -> {
-            LedStripCommand.sendPowerMessage(bluetoothServiceLink, !bluetoothServiceLink.getBraceletInformation().ledStripPowerState);
+            boolean powerState = !bluetoothServiceLink.getBraceletInformation().ledStripPowerState;
+
+            //Every connected bracelet follows the one shown:
+            bluetoothServiceLink.forEachBracelet(bracelet -> LedStripCommand.sendPowerMessage(bracelet, powerState));
         });
 
         colorScanButton = root.findViewById(R.id.colorScanButton);
@@ -129,13 +142,13 @@ public class HomeFragment extends Fragment {
 
         brightnessSlider = root.findViewById(R.id.brightnessSlider);
         brightnessSlider.addOnChangeListener((slider, value, fromUser) -> {
-            LedStripCommand.sendBrightnessLevel(bluetoothServiceLink, (int) value);
+            bluetoothServiceLink.forEachBracelet(bracelet -> LedStripCommand.sendBrightnessLevel(bracelet, (int) value));
         });
 
         colorWheel = root.findViewById(R.id.colorWheel);
         colorWheel.setColorChangeListener(color -> {
             if(colorWheelInitialized && colorWheel.isEnabled()) {
-                LedStripCommand.sendColor(bluetoothServiceLink, color);
+                bluetoothServiceLink.forEachBracelet(bracelet -> LedStripCommand.sendColor(bracelet, color));
             }
 
             colorWheelInitialized = true;
@@ -148,7 +161,7 @@ public class HomeFragment extends Fragment {
             if (event.getAction() != MotionEvent.ACTION_UP) return false;
 
             LedStripEffectType effect = bluetoothServiceLink.getBraceletInformation().ledStripEffectCurrent == LedStripEffectType.RAINBOW ? LedStripEffectType.NONE : LedStripEffectType.RAINBOW;
-            LedStripCommand.sendEffect(bluetoothServiceLink, effect);
+            sendEffect(effect);
 
             updateButtons();
 
@@ -161,7 +174,7 @@ public class HomeFragment extends Fragment {
             if (event.getAction() != MotionEvent.ACTION_UP) return false;
 
             LedStripEffectType effect = bluetoothServiceLink.getBraceletInformation().ledStripEffectCurrent == LedStripEffectType.TRAIL ? LedStripEffectType.NONE : LedStripEffectType.TRAIL;
-            LedStripCommand.sendEffect(bluetoothServiceLink, effect);
+            sendEffect(effect);
 
             updateButtons();
 
@@ -174,7 +187,7 @@ public class HomeFragment extends Fragment {
             if (event.getAction() != MotionEvent.ACTION_UP) return false;
 
             LedStripEffectType effect = bluetoothServiceLink.getBraceletInformation().ledStripEffectCurrent == LedStripEffectType.CIRCLE ? LedStripEffectType.NONE : LedStripEffectType.CIRCLE;
-            LedStripCommand.sendEffect(bluetoothServiceLink, effect);
+            sendEffect(effect);
 
             updateButtons();
 
@@ -187,7 +200,7 @@ public class HomeFragment extends Fragment {
             if (event.getAction() != MotionEvent.ACTION_UP) return false;
 
             LedStripEffectType effect = bluetoothServiceLink.getBraceletInformation().ledStripEffectCurrent == LedStripEffectType.COMPASS ? LedStripEffectType.NONE : LedStripEffectType.COMPASS;
-            LedStripCommand.sendEffect(bluetoothServiceLink, effect);
+            sendEffect(effect);
 
             updateButtons();
 
@@ -200,7 +213,7 @@ public class HomeFragment extends Fragment {
             if (event.getAction() != MotionEvent.ACTION_UP) return false;
 
             LedStripEffectType effect = bluetoothServiceLink.getBraceletInformation().ledStripEffectCurrent == LedStripEffectType.FADE ? LedStripEffectType.NONE : LedStripEffectType.FADE;
-            LedStripCommand.sendEffect(bluetoothServiceLink, effect);
+            sendEffect(effect);
 
             updateButtons();
 
@@ -208,29 +221,29 @@ public class HomeFragment extends Fragment {
         });
 
         setBluetoothEnabled(bluetoothServiceLink.isConnected());
-        updateLayout();
+        updateLayout(LAYOUT_FIELDS);
+
+        BluetoothService.getStateStream().observe(getViewLifecycleOwner(), LAYOUT_FIELDS, this::onBraceletStateChanged);
 
         return root;
     }
 
     @Override
-    public void onResume() {
-        super.onResume();
+    public void onDestroyView() {
+        super.onDestroyView();
+        binding = null;
 
-        requireActivity().registerReceiver(gattUpdateReceiver, MainActivity.makeGattUpdateIntentFilter());
+        if(ambientPipeline != null) {
+            ambientPipeline.shutdown();
+            ambientPipeline = null;
+        }
     }
 
     @Override
-    public void onPause() {
-        super.onPause();
-
-        requireActivity().unregisterReceiver(gattUpdateReceiver);
-    }
+    public void onDestroy() {
+        super.onDestroy();
 
-    @Override
-    public void onDestroyView() {
-        super.onDestroyView();
-        binding = null;
+        syncedEffect.shutdown();
     }
 
     @Override
@@ -272,11 +285,11 @@ public class HomeFragment extends Fragment {
         colorWheel.setEnabled(enabled);
     }
 
-    private void updateLayout() {
+    private void updateLayout(int changedFields) {
         BraceletInformation braceletInformation = bluetoothServiceLink.getBraceletInformation();
 
         if(braceletInformation != null) { //TODO: can be removed after fixing message receiving
-            if(previousBraceletInformation == null || previousBraceletInformation.ledStripPowerState != braceletInformation.ledStripPowerState) {
+            if((changedFields & BraceletInformation.FIELD_LED_STRIP_POWER_STATE) != 0) {
                 powerButton.setImageResource(braceletInformation.ledStripPowerState && bluetoothServiceLink.isConnected() ? R.drawable.ic_power_on : R.drawable.ic_power);
 
                 //Turn controls on or off:
@@ -284,7 +297,7 @@ public class HomeFragment extends Fragment {
             }
 
             //On mode change:
-            if(previousBraceletInformation == null || previousBraceletInformation.mode != braceletInformation.mode) {
+            if((changedFields & BraceletInformation.FIELD_MODE) != 0) {
 
                 //Motion button:
                 reactToGesturesButton.setImageResource(braceletInformation.mode == BraceletMode.GESTURE || braceletInformation.mode == BraceletMode.GESTURE_EFFECT ? R.drawable.ic_waving_hand : R.drawable.ic_waving_hand_off);
@@ -292,8 +305,17 @@ public class HomeFragment extends Fragment {
 
             // updateButtons();
         }
+    }
 
-        previousBraceletInformation = new BraceletInformation(braceletInformation);
+    private void sendEffect(LedStripEffectType effect) {
+        //Periodic effects run in phase on every bracelet, the others just start:
+        if(SyncedEffect.isPeriodic(effect)) {
+            syncedEffect.start(bluetoothServiceLink, effect);
+        }
+        else {
+            syncedEffect.stop();
+            bluetoothServiceLink.forEachBracelet(bracelet -> LedStripCommand.sendEffect(bracelet, effect));
+        }
     }
 
     private void updateButtons() {
@@ -340,17 +362,115 @@ public class HomeFragment extends Fragment {
 
         //Finding current color view:
         View currentColorView = layout.findViewById(R.id.rectangle_current_color);
+        Runnable showSelectedColor = () -> currentColorView.setBackgroundColor(selectedColor);
+
+        //The camera color is shown, the bracelets get it corrected for the led strip. The table is
+        //loaded in the background since launch, the default corrections apply until it is ready:
+        ColorLut colorLut = Utils.getColorLutOrDefault(getActivity());
+
+        //Every analysed frame updates the color, off the UI thread:
+        colorTracker = new ColorTracker(color -> {
+            selectedColor = color;
+            currentColorView.post(showSelectedColor);
+
+            IBluetoothService bluetoothService = bluetoothServiceLink;
+            int corrected = colorLut.apply(color);
+
+            //Only when the previous color went out, so the bracelets never fall behind the camera:
+            if(liveColorEnabled && bluetoothService != null && corrected != ledColor && bluetoothService.isWriteQueueIdle()) {
+                ledColor = corrected;
+                bluetoothService.forEachBracelet(sendLedColor);
+            }
+        });
+
+        CompoundButton liveColorSwitch = layout.findViewById(R.id.liveColorSwitch);
+        CompoundButton ambientSwitch = layout.findViewById(R.id.ambientSwitch);
+        liveColorEnabled = false;
+
+        //Live color and ambient both drive the leds, only one can be on:
+        liveColorSwitch.setOnCheckedChangeListener((button, checked) -> {
+            liveColorEnabled = checked;
+
+            if(checked) {
+                ambientSwitch.setChecked(false);
+            }
+        });
+
+        ambientSwitch.setOnCheckedChangeListener((button, checked) -> {
+            if(checked) {
+                liveColorSwitch.setChecked(false);
+
+                if(bluetoothServiceLink == null || !bluetoothServiceLink.isConnected()) {
+                    button.setChecked(false);
+                    return;
+                }
+
+                if(ambientPipeline == null) {
+                    ambientPipeline = new AmbientPipeline(colorLut);
+                }
+
+                ambientPipeline.start(bluetoothServiceLink);
+                colorTracker.setAmbientPipeline(ambientPipeline);
+            }
+            else {
+                stopAmbient();
+            }
+        });
+
+        //Dominant colors of the frame, picking one sets it on the bracelets:
+        View swatchRow = layout.findViewById(R.id.swatchRow);
+        View[] swatchViews = {
+                layout.findViewById(R.id.swatch0), layout.findViewById(R.id.swatch1), layout.findViewById(R.id.swatch2),
+                layout.findViewById(R.id.swatch3), layout.findViewById(R.id.swatch4)
+        };
+        int[] swatchColors = new int[swatchViews.length];
+
+        Runnable showSwatches = () -> {
+            synchronized(swatchColors) {
+                for(int i = 0; i < swatchViews.length; i++) {
+                    swatchViews[i].setBackgroundColor(swatchColors[i]);
+                }
+            }
+        };
+
+        colorTracker.setSwatchListener(swatches -> {
+            synchronized(swatchColors) {
+                for(int i = 0; i < swatchColors.length; i++) {
+                    swatchColors[i] = i < swatches.getSwatchCount() ? swatches.getColor(i) : Color.TRANSPARENT;
+                }
+            }
+
+            swatchRow.post(showSwatches);
+        });
+
+        for(int i = 0; i < swatchViews.length; i++) {
+            int swatch = i;
+
+            swatchViews[i].setOnClickListener(view -> {
+                int color;
+
+                synchronized(swatchColors) {
+                    color = colorLut.apply(swatchColors[swatch]);
+                }
+
+                //The picked swatch stays on the bracelets, the live color would replace it:
+                liveColorSwitch.setChecked(false);
+                ambientSwitch.setChecked(false);
+                bluetoothServiceLink.forEachBracelet(bracelet -> LedStripCommand.sendColor(bracelet, color));
+            });
+        }
 
         //Setting up camera preview:
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture = ProcessCameraProvider.getInstance(getActivity());;
         PreviewView previewView = layout.findViewById(R.id.previewView);
         androidx.camera.core.Camera[] cameras = {null};
+        ImageAnalysis colorAnalysis = colorTracker.createUseCase();
 
         cameraProviderFuture.addListener(() -> {
             try {
                 cameraProvider = cameraProviderFuture.get();
 
-                cameras[0] = bindPreview(cameraProvider, previewView);
+                cameras[0] = bindPreview(cameraProvider, previewView, colorAnalysis);
 
             } catch (ExecutionException | InterruptedException e) {
                 //Should not happen :)
@@ -358,32 +478,13 @@ public class HomeFragment extends Fragment {
         }, ContextCompat.getMainExecutor(getActivity()));
 
 
-        //Click event, select color clicked by the user:
+        //Click event, track the color where the user touches:
         previewView.setOnTouchListener((view, motionEvent) -> {
-            if(motionEvent.getAction() == MotionEvent.ACTION_DOWN) {
-                int x = (int) motionEvent.getX();
-                int y = (int) motionEvent.getY();
-
-                //Grab current image and extract color:
-                Bitmap current = previewView.getBitmap();
-
-                //Approach 0:
-                //selectedColor = current.getPixel(x, y);
-
-                //Approach 1:
-                //selectedColor = Utils.getColorRegionRgb(current, x, y);
-
-                //Approach 2:
-                //selectedColor = Utils.getColorRegionHsvMaxV(current, x, y);
-
-                //Approach 3:
-                selectedColor = Utils.getColorRgbMapColors(current, x, y);
-
-
-                currentColorView.setBackgroundColor(selectedColor);
+            if(motionEvent.getAction() == MotionEvent.ACTION_DOWN || motionEvent.getAction() == MotionEvent.ACTION_MOVE) {
+                colorTracker.setPoint(motionEvent.getX(), motionEvent.getY(), view.getWidth(), view.getHeight());
             }
 
-            return false;
+            return true;
         });
 
         //Register flash button
@@ -405,7 +506,11 @@ public class HomeFragment extends Fragment {
         Button setColorButton = layout.findViewById(R.id.setColorButton);
 
         setColorButton.setOnClickListener(view -> {
-            LedStripCommand.sendColor(bluetoothServiceLink, selectedColor);
+            int color = colorLut.apply(selectedColor);
+
+            ambientSwitch.setChecked(false);
+
+            bluetoothServiceLink.forEachBracelet(bracelet -> LedStripCommand.sendColor(bracelet, color));
         });
 
         //Register exit dialog button, does the same as just clicking next to the dialog:
@@ -417,14 +522,31 @@ public class HomeFragment extends Fragment {
 
         //Action when canceling dialog, unbind the camera:
         dialog.setOnDismissListener(dialogInterface -> {
-            cameraProvider.unbindAll();
+            liveColorEnabled = false;
+            stopAmbient();
+
+            if(cameraProvider != null) {
+                cameraProvider.unbindAll();
+            }
+
+            colorTracker.shutdown();
         });
 
         //Showing calibration dialog:
         dialog.show();
     }
 
-    androidx.camera.core.Camera  bindPreview(@NonNull ProcessCameraProvider cameraProvider, PreviewView previewView) {
+    private void stopAmbient() {
+        if(colorTracker != null) {
+            colorTracker.setAmbientPipeline(null);
+        }
+
+        if(ambientPipeline != null) {
+            ambientPipeline.stop();
+        }
+    }
+
+    androidx.camera.core.Camera  bindPreview(@NonNull ProcessCameraProvider cameraProvider, PreviewView previewView, ImageAnalysis analysis) {
         Preview preview = new Preview.Builder()
                 .build();
 
@@ -434,6 +556,6 @@ public class HomeFragment extends Fragment {
 
         preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
-        return cameraProvider.bindToLifecycle((LifecycleOwner)this, cameraSelector, preview);
+        return cameraProvider.bindToLifecycle((LifecycleOwner)this, cameraSelector, preview, analysis);
     }
 }
\ No newline at end of file
@@ -1,11 +1,9 @@
 package com.example.colormatchingbracelet.ui.settings;
 
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -17,12 +15,13 @@ import androidx.fragment.app.Fragment;
 import androidx.fragment.app.FragmentManager;
 
 import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
-import com.example.colormatchingbracelet.MainActivity;
 import com.example.colormatchingbracelet.R;
 import com.example.colormatchingbracelet.bluetooth.BluetoothConnection;
 import com.example.colormatchingbracelet.bluetooth.BluetoothConnectionCallback;
 import com.example.colormatchingbracelet.bluetooth.BluetoothService;
+import com.example.colormatchingbracelet.bluetooth.BraceletEvent;
 import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+import com.example.colormatchingbracelet.bluetooth.LinkMetrics;
 import com.example.colormatchingbracelet.bluetooth.MessageType;
 import com.example.colormatchingbracelet.databinding.FragmentSettingsBinding;
 
@@ -40,22 +39,25 @@ public class SettingsFragment extends Fragment implements BluetoothConnectionCal
     private Button compassEffectSettingsButton;
     private Button fadeEffectSettingsButton;
 
-    private final BroadcastReceiver gattUpdateReceiver = new BroadcastReceiver() {
+    //Link metrics change with every frame, they are refreshed at a fixed rate instead:
+    private static final long METRICS_REFRESH_INTERVAL_MS = 1000;
+
+    private TextView linkMetricsText;
+
+    private final Runnable refreshLinkMetrics = new Runnable() {
         @Override
-        public void onReceive(Context context, Intent intent) {
-            final String action = intent.getAction();
-
-            switch (action) {
-                case BluetoothService.ACTION_GATT_CONNECTED:
-                    setConnectionStatus(true);
-                    break;
-                case BluetoothService.ACTION_GATT_DISCONNECTED:
-                    setConnectionStatus(false);
-                    break;
-            }
+        public void run() {
+            linkMetricsText.setText(BluetoothService.getLinkMetrics().summary());
+            linkMetricsText.postDelayed(this, METRICS_REFRESH_INTERVAL_MS);
         }
     };
 
+    private void onBraceletStateChanged(int events, int changedFields) {
+        if(BraceletEvent.CONNECTED.in(events) || BraceletEvent.DISCONNECTED.in(events)) {
+            setConnectionStatus(bluetoothServiceLink.isConnected());
+        }
+    }
+
     public View onCreateView(@NonNull LayoutInflater inflater,
                              ViewGroup container, Bundle savedInstanceState) {
 
@@ -72,9 +74,9 @@ public class SettingsFragment extends Fragment implements BluetoothConnectionCal
         compassEffectSettingsButton = root.findViewById(R.id.compassSettingBtn);
         fadeEffectSettingsButton = root.findViewById(R.id.fadeSettingBtn);
 
-        Handler handler = new Handler();
-
-        handler.postDelayed((Runnable) () -> BluetoothConnection.stopScan(), 1000 * 20);
+        linkMetricsText = root.findViewById(R.id.linkMetricsText);
+        root.findViewById(R.id.buttonExportMetrics).setOnClickListener(view -> exportLinkMetrics());
+        refreshLinkMetrics.run();
 
         //test = root.findViewById(R.id.sendTestMsg);
         //test.setEnabled(bluetoothServiceLink.getConnectionState() == BluetoothService.STATE_CONNECTED);
@@ -88,25 +90,12 @@ public class SettingsFragment extends Fragment implements BluetoothConnectionCal
         //Restoring connection status:
         setConnectionStatus(bluetoothServiceLink.getConnectionState() == BluetoothService.STATE_CONNECTED);
 
-
+        //Only the connection is shown, no bracelet fields:
+        BluetoothService.getStateStream().observe(getViewLifecycleOwner(), 0, this::onBraceletStateChanged);
 
         return root;
     }
 
-    @Override
-    public void onResume() {
-        super.onResume();
-
-        requireActivity().registerReceiver(gattUpdateReceiver, MainActivity.makeGattUpdateIntentFilter());
-    }
-
-    @Override
-    public void onPause() {
-        super.onPause();
-
-        requireActivity().unregisterReceiver(gattUpdateReceiver);
-    }
-
 
     @Override
     public void onAttach(Context context) {
@@ -125,6 +114,7 @@ public class SettingsFragment extends Fragment implements BluetoothConnectionCal
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        linkMetricsText.removeCallbacks(refreshLinkMetrics);
         binding = null;
     }
 
@@ -138,6 +128,20 @@ public class SettingsFragment extends Fragment implements BluetoothConnectionCal
         //BluetoothConnection.connect(getContext(), address);
     }
 
+    /**
+     * Share the full metrics as text, so they can be compared between phones and firmware builds.
+     */
+    private void exportLinkMetrics() {
+        LinkMetrics metrics = BluetoothService.getLinkMetrics();
+
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("text/plain");
+        intent.putExtra(Intent.EXTRA_SUBJECT, "Bracelet link metrics");
+        intent.putExtra(Intent.EXTRA_TEXT, metrics.export());
+
+        startActivity(Intent.createChooser(intent, "Export link metrics"));
+    }
+
     private void setConnectionStatus(boolean connected) {
         connStatusBlt.setText(connected ? "Connected" : "Disconnected");
 
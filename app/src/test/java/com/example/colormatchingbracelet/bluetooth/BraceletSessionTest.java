@@ -0,0 +1,249 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletMode;
+import com.example.colormatchingbracelet.LedStrip.LedStripCommand;
+import com.example.colormatchingbracelet.LedStrip.LedStripCommandType;
+import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
+import com.example.colormatchingbracelet.simulator.BraceletSimulator;
+import com.example.colormatchingbracelet.simulator.SimulatedTransport;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sessions against the bracelet simulator, the whole path from command to firmware and back runs
+ * on the JVM. The session log goes to System.out, android.util.Log is not implemented here.
+ */
+public class BraceletSessionTest {
+    private static final long TIMEOUT_MS = 5000;
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private BraceletSimulator simulator;
+    private SimulatedTransport transport;
+    private BraceletSession session;
+
+    @BeforeClass
+    public static void setUpLog() {
+        SessionLog.setSink(SessionLog.SYSTEM_OUT);
+    }
+
+    private void connect(BraceletSimulator simulator) {
+        connect(simulator, 5, 2);
+    }
+
+    private void connect(BraceletSimulator simulator, double latencyMs, double jitterMs) {
+        this.simulator = simulator;
+
+        transport = new SimulatedTransport(simulator);
+        transport.setLatency(latencyMs, jitterMs);
+        transport.setSeed(1);
+
+        session = new BraceletSession(transport, BraceletEventSink.NONE);
+        assertTrue(session.connectToDevice("00:11:22:33:44:55"));
+    }
+
+    @After
+    public void tearDown() {
+        if(session != null) {
+            session.close();
+        }
+    }
+
+    private static void waitFor(String what, Condition condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+
+        while(!condition.holds()) {
+            if(System.currentTimeMillis() > deadline) {
+                fail("Timed out waiting for " + what);
+            }
+
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] power(boolean on) {
+        return new byte[] {(byte) LedStripCommandType.POWER.getValue(), (byte) (on ? 1 : 0)};
+    }
+
+    @Test
+    public void connect_learnsTheProtocolVersion() throws InterruptedException {
+        connect(new BraceletSimulator());
+
+        //The session asks for the status on its own once the services are discovered:
+        waitFor("the first status", () -> session.getBraceletInformation().protocolVersion == BraceletSimulator.PROTOCOL_VERSION);
+        assertTrue(session.isConnected());
+        assertTrue(session.supportsAcknowledgements());
+    }
+
+    @Test
+    public void command_isAcknowledgedAndApplied() throws InterruptedException {
+        connect(new BraceletSimulator());
+        waitFor("the first status", () -> session.supportsAcknowledgements());
+
+        CommandFuture future = session.sendCommand(MessageType.LEDSTRIP, power(true));
+
+        assertEquals(CommandFuture.Result.ACKNOWLEDGED, future.await(TIMEOUT_MS));
+        assertTrue(simulator.getLedStripPower());
+    }
+
+    @Test
+    public void olderFirmware_appliesCommandsWithoutAcknowledging() throws InterruptedException {
+        connect(new BraceletSimulator(CommandChannel.PROTOCOL_VERSION_ACKNOWLEDGED - 1));
+        waitFor("the first status", () -> session.getBraceletInformation().protocolVersion == CommandChannel.PROTOCOL_VERSION_ACKNOWLEDGED - 1);
+
+        CommandFuture future = session.sendCommand(MessageType.LEDSTRIP, power(true));
+
+        assertEquals(CommandFuture.Result.UNACKNOWLEDGED, future.getResult());
+        waitFor("the power to change", () -> simulator.getLedStripPower());
+    }
+
+    @Test
+    public void brightness_reachesTheBracelet() throws InterruptedException {
+        connect(new BraceletSimulator());
+        waitFor("the first status", () -> session.supportsAcknowledgements());
+
+        for(int level = 10; level <= 60; level += 10) {
+            LedStripCommand.sendBrightnessLevel(session, level);
+        }
+
+        //60% of the firmware limit of 30, out of 255:
+        waitFor("the newest brightness", () -> simulator.getLedStripBrightness() == 45);
+    }
+
+    @Test
+    public void command_isAcknowledgedAfterOneRoundTrip() throws InterruptedException {
+        connect(new BraceletSimulator(), 20, 0);
+        waitFor("the first status", () -> session.supportsAcknowledgements());
+
+        for(int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+
+            assertEquals(CommandFuture.Result.ACKNOWLEDGED, session.sendCommand(MessageType.LEDSTRIP, power(i % 2 == 0)).await(TIMEOUT_MS));
+
+            //To the bracelet and back, without waiting for a retransmission:
+            long latencyMs = (System.nanoTime() - start) / 1000000;
+
+            assertTrue("Took " + latencyMs + " ms", latencyMs >= 40);
+            assertTrue("Took " + latencyMs + " ms", latencyMs < CommandChannel.ACK_TIMEOUT_MS);
+        }
+    }
+
+    @Test
+    public void lostPackets_costOneTimeoutEach() throws InterruptedException {
+        connect(new BraceletSimulator(), 10, 0);
+        waitFor("the first status", () -> session.supportsAcknowledgements());
+
+        transport.setPacketLoss(0.1);
+
+        int commands = 20;
+        long start = System.nanoTime();
+
+        for(int i = 0; i < commands; i++) {
+            assertEquals(CommandFuture.Result.ACKNOWLEDGED, session.sendCommand(MessageType.LEDSTRIP, power(i % 2 == 0)).await(TIMEOUT_MS));
+        }
+
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+        long lost = transport.getPacketsLost();
+
+        //A command or its acknowledgement that is lost is sent again after a single timeout:
+        assertTrue(lost > 0);
+        assertTrue("Took " + elapsedMs + " ms for " + lost + " lost packets", elapsedMs < commands * 100 + lost * (CommandChannel.ACK_TIMEOUT_MS + 100));
+    }
+
+    @Test
+    public void close_failsNewCommands() throws InterruptedException {
+        connect(new BraceletSimulator());
+        waitFor("the first status", () -> session.supportsAcknowledgements());
+
+        session.close();
+
+        assertFalse(session.isConnected());
+        assertEquals(CommandFuture.Result.DISCONNECTED, session.sendCommand(MessageType.LEDSTRIP, power(true)).getResult());
+    }
+
+    @Test
+    public void statusWithUnknownMode_keepsThePreviousMode() {
+        ScriptedTransport transport = new ScriptedTransport();
+
+        session = new BraceletSession(transport, BraceletEventSink.NONE);
+        assertTrue(session.connectToDevice("00:11:22:33:44:55"));
+        transport.setUp();
+
+        transport.receiveStatus(BraceletMode.EFFECT.getValue(), LedStripEffectType.RAINBOW.getValue(), 80);
+        assertEquals(BraceletMode.EFFECT, session.getBraceletInformation().mode);
+
+        //A mode and an effect from newer firmware:
+        transport.receiveStatus(0x7F, 0x7F, 70);
+
+        assertEquals(BraceletMode.EFFECT, session.getBraceletInformation().mode);
+        assertEquals(LedStripEffectType.RAINBOW, session.getBraceletInformation().ledStripEffectCurrent);
+        assertEquals(70, session.getBraceletInformation().batteryPercentage);
+    }
+
+    /**
+     * Link the test drives by hand, frames written to it go nowhere.
+     */
+    private static class ScriptedTransport implements Transport {
+        private Listener listener;
+
+        void setUp() {
+            listener.onConnected();
+            listener.onServicesDiscovered();
+            listener.onReady();
+        }
+
+        void receiveStatus(int mode, int effect, int batteryPercentage) {
+            byte[] status = {(byte) mode, (byte) batteryPercentage, '1', (byte) effect, 38, 0, (byte) BraceletSimulator.PROTOCOL_VERSION};
+            ByteBuffer frame = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+            FrameCodec.encode(frame, MessageType.STATUS, status);
+
+            byte[] data = new byte[frame.position()];
+            System.arraycopy(frame.array(), 0, data, 0, data.length);
+
+            listener.onReceived(data);
+        }
+
+        @Override
+        public void setListener(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public boolean connect(String address, boolean autoConnect) {
+            return true;
+        }
+
+        @Override
+        public void disconnect() {
+            listener.onDisconnected();
+        }
+
+        @Override
+        public void close() {
+
+        }
+
+        @Override
+        public boolean write(byte[] frame, boolean withoutResponse) {
+            return true;
+        }
+
+        @Override
+        public int getMtu() {
+            return DEFAULT_MTU;
+        }
+
+        @Override
+        public boolean supportsWriteWithoutResponse() {
+            return false;
+        }
+    }
+}
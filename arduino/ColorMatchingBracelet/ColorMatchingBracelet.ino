@@ -19,6 +19,30 @@
 #define BLE_SERVICE_UUID "1cf4fab1-d642-4153-a6f2-bf40db8d6f73"
 #define BLE_CHARACTERISTIC_UUID_RX "75eb965e-a1e1-4b1d-8bb9-91e562cdb144"
 #define BLE_CHARACTERISTIC_UUID_TX "aba19161-392b-4bed-9450-3a238abd0040"
+#define BLE_MAX_MTU 517
+#define BLE_DEFAULT_MTU 23
+#define BLE_ATT_HEADER_SIZE 3
+
+// Version 2 adds frames with a 16 bit length, flagged by the high bit of the type byte
+// Version 3 adds sequenced messages, answered with an ACK
+// Version 4 pushes the status whenever it changes
+// Version 5 adds clock synchronization and effects that start at a set time
+#define PROTOCOL_VERSION 5
+#define MESSAGE_FLAG_EXTENDED_LENGTH 0x80
+#define MESSAGE_MAX_PAYLOAD_SIZE 1024
+#define MESSAGE_SEQUENCE_HISTORY 16
+#define MESSAGE_TIME_SYNC_SIZE 4
+#define MESSAGE_MODE_EFFECT_SIZE 3 //Mode | length | effect
+
+#define LED_STRIP_COMMAND_VALUE_SIZE 2 //Type | value
+#define LED_STRIP_COMMAND_COLOR_SIZE 5 //Type | unused | red | green | blue
+
+#define STATUS_SIZE 7
+#define STATUS_PUSH_INTERVAL_MS 100
+#define STATUS_BATTERY_HYSTERESIS 2 //Percent, keeps a noisy reading from flooding the link
+
+#define ACK_RESULT_OK 0
+#define ACK_RESULT_REJECTED 1
 
 #define MPU_I2C_ADDR 0x68
 
@@ -48,6 +72,10 @@ enum MessageType {
   MESSAGE_CALIBRATE,
   MESSAGE_ADD_GESTURE,
   MESSAGE_REMOVE_GESTURE,
+  MESSAGE_LED_STRIP_BATCH,
+  MESSAGE_SEQUENCED,
+  MESSAGE_ACK,
+  MESSAGE_TIME_SYNC,
   _NUM_MESSAGE_TYPES
 };
 
@@ -61,7 +89,8 @@ enum Mode {
 enum LedStripCommandType {
   LED_STRIP_COMMAND_POWER,
   LED_STRIP_COMMAND_BRIGHTNESS,
-  LED_STRIP_COMMAND_COLOR
+  LED_STRIP_COMMAND_COLOR,
+  LED_STRIP_COMMAND_PIXELS
 };
 
 enum LedStripEffectType {
@@ -78,6 +107,11 @@ BLEServer* bleServer;
 BLECharacteristic* bleTxCharacteristic;
 bool bleIsAdvertising = false;
 bool bleDeviceConnected = false;
+uint16_t bleConnId = 0;
+
+//Held while a message is notified and while the last status is used, the BLE callbacks answer
+//from their own task while loop() pushes the status. Recursive, sendStatistics() sends with it:
+SemaphoreHandle_t bleTxMutex;
 
 MPU9250 mpu;
 
@@ -85,7 +119,10 @@ Adafruit_NeoPixel ledStrip(LED_STRIP_NUM_LEDS, LED_STRIP_PIN, NEO_GRB + NEO_KHZ8
 bool ledStripPower;
 uint8_t ledStripBrightness = 60;
 uint8_t ledStripColor[3] = {255, 255, 255};
+uint8_t ledStripPixels[LED_STRIP_NUM_LEDS][3];
+bool ledStripPixelsActive = false;
 LedStripEffectType ledStripEffect = LED_STRIP_EFFECT_NONE;
+uint32_t ledStripEffectStart = 0; //millis() the effect started at, periodic effects are drawn from it
 
 uint8_t gestureLength = 0;
 float gesture[GESTURE_SIZE];
@@ -95,6 +132,17 @@ uint8_t recordedGesturesLength = 0;
 float recordedGestures[RECORDED_GESTURES_MAX][GESTURE_SIZE];
 LedStripEffectType recordedGesturesEffects[RECORDED_GESTURES_MAX];
 
+//Recently applied sequenced messages, cleared on every connection:
+uint8_t sequenceHistory[MESSAGE_SEQUENCE_HISTORY];
+uint8_t sequenceHistoryResults[MESSAGE_SEQUENCE_HISTORY];
+uint8_t sequenceHistoryLength = 0;
+uint8_t sequenceHistoryNext = 0;
+
+//Last status that was sent, a new one is pushed when it differs:
+uint8_t lastStatus[STATUS_SIZE];
+bool lastStatusValid = false;
+uint32_t last_interval_time_status = 0;
+
 //Battery status:
 uint16_t batteryTotal = 0;
 uint8_t batterySampleCount = 0;
@@ -112,14 +160,30 @@ bool shouldCalibrate = false;
 
 void calibrateAcc();
 void recordGesture();
-void processLedStripCommand(uint8_t* data, uint8_t dataLength);
+bool processMessage(uint8_t messageType, uint8_t* payload, uint16_t payloadSize);
+void processSequencedMessage(uint8_t* data, uint16_t dataLength);
+bool processLedStripBatch(uint8_t* data, uint16_t dataLength);
+bool processLedStripCommand(uint8_t* data, uint16_t dataLength);
+void processLedStripPixels(uint8_t* data, uint16_t dataLength);
+void showLedStripColor();
+void sendMessage(MessageType type, uint8_t *dataToSend, uint16_t data_size);
 void sendStatistics();
+void pushStatusIfChanged();
 void readVoltage();
+void ui32_to_ui8(uint32_t source, uint8_t *dest);
+uint32_t to_ui32(uint8_t *pData);
 
 class BleServerCallbacks : public BLEServerCallbacks {
-  void onConnect(BLEServer* bleServer) {
+  void onConnect(BLEServer* bleServer, esp_ble_gatts_cb_param_t* param) {
+    bleConnId = param->connect.conn_id;
     bleIsAdvertising = false;
     bleDeviceConnected = true;
+    sequenceHistoryLength = 0;
+    sequenceHistoryNext = 0;
+
+    xSemaphoreTakeRecursive(bleTxMutex, portMAX_DELAY);
+    lastStatusValid = false;
+    xSemaphoreGiveRecursive(bleTxMutex);
 
     Serial.println("BLE device connected");
   };
@@ -134,9 +198,9 @@ class BleServerCallbacks : public BLEServerCallbacks {
 class BleCharacteristicCallbacks : public BLECharacteristicCallbacks {
   void onWrite(BLECharacteristic *pCharacteristic) {
     uint8_t* data = pCharacteristic->getData();
-    uint8_t dataSize = pCharacteristic->getLength();
+    size_t dataSize = pCharacteristic->getLength();
 
-    if (dataSize < 3) {
+    if (dataSize < 4) {
       Serial.println("Received message with invalid size: " + dataSize);
       return;
     }
@@ -146,7 +210,8 @@ class BleCharacteristicCallbacks : public BLECharacteristicCallbacks {
       return;
     }
 
-    uint8_t messageType = data[1];
+    bool extendedLength = (data[1] & MESSAGE_FLAG_EXTENDED_LENGTH) != 0;
+    uint8_t messageType = data[1] & ~MESSAGE_FLAG_EXTENDED_LENGTH;
 
     if (messageType >= _NUM_MESSAGE_TYPES) {
       Serial.println("Received message with invalid type: " + messageType);
@@ -165,56 +230,184 @@ class BleCharacteristicCallbacks : public BLECharacteristicCallbacks {
       return;
     }
 
-    uint8_t payloadSize = data[2];
-    uint8_t* payload = &data[3];
-
-    switch (messageType) {
-      case MESSAGE_STATISTICS: {
-        sendStatistics();          
-      } break;
-      case MESSAGE_DEBUG: {
-        Serial.print("Debug message: ");
-
-        for (int i = 0; i < payloadSize; i++) {
-          Serial.print((char) payload[i]);
-        }
-
-        Serial.println("");
-
-      } break;
-      case MESSAGE_LED_STRIP: {
-        processLedStripCommand(payload, payloadSize);
-      } break;
-      case MESSAGE_MODE: {
-        Mode newMode = (Mode) payload[0];
-
-        Serial.print("Mode changed from ");
-        Serial.print(currentMode);
-        Serial.print(" to ");
-        Serial.println(newMode);
-
-        currentMode = newMode;
-
-        if (newMode == MODE_EFFECT || newMode == MODE_GESTURE_EFFECT) {        
-          ledStripEffect = (LedStripEffectType) payload[2];
-        } else if (newMode == MODE_NORMAL || newMode == MODE_GESTURE) {
-          ledStripEffect = LED_STRIP_EFFECT_NONE;
-        }
-      } break;
-      case MESSAGE_CALIBRATE: {
-        shouldCalibrate = true;
-      } break;   
-      case MESSAGE_ADD_GESTURE: {
-        shouldRecordGesture = true;
-        recordedGesturesEffects[recordedGesturesLength] = (LedStripEffectType) payload[0];
-      } break;
-      case MESSAGE_REMOVE_GESTURE: {
-        
-      } break;
-    }      
+    uint8_t headerSize = extendedLength ? 4 : 3;
+    uint16_t payloadSize = extendedLength ? (data[2] << 8) | data[3] : data[2];
+    uint8_t* payload = &data[headerSize];
+
+    if (headerSize + payloadSize + 1 != dataSize) {
+      Serial.println("Message length does not match its size, dropping message.");
+      return;
+    }
+
+    processMessage(messageType, payload, payloadSize);
   }
 };
 
+/* Messaging */
+
+// Returns false when the message was rejected
+bool processMessage(uint8_t messageType, uint8_t* payload, uint16_t payloadSize) {
+  switch (messageType) {
+    case MESSAGE_STATISTICS: {
+      sendStatistics();          
+    } break;
+    case MESSAGE_DEBUG: {
+      Serial.print("Debug message: ");
+
+      for (int i = 0; i < payloadSize; i++) {
+        Serial.print((char) payload[i]);
+      }
+
+      Serial.println("");
+
+    } break;
+    case MESSAGE_LED_STRIP: {
+      return processLedStripCommand(payload, payloadSize);
+    }
+    case MESSAGE_MODE: {
+      if (payloadSize < 1) {
+        Serial.println("Mode change without mode, dropping message.");
+        return false;
+      }
+
+      Mode newMode = (Mode) payload[0];
+      bool effectMode = newMode == MODE_EFFECT || newMode == MODE_GESTURE_EFFECT;
+
+      if (effectMode && payloadSize < MESSAGE_MODE_EFFECT_SIZE) {
+        Serial.println("Effect mode without effect, dropping message.");
+        return false;
+      }
+
+      Serial.print("Mode changed from ");
+      Serial.print(currentMode);
+      Serial.print(" to ");
+      Serial.println(newMode);
+
+      currentMode = newMode;
+
+      if (effectMode) {
+        ledStripEffect = (LedStripEffectType) payload[2];
+
+        // Effect | start time, the phone converts the start time to this clock so several bracelets run in phase
+        ledStripEffectStart = payloadSize >= 7 && payload[1] >= 5 ? to_ui32(&payload[3]) : millis();
+      } else if (newMode == MODE_NORMAL || newMode == MODE_GESTURE) {
+        ledStripEffect = LED_STRIP_EFFECT_NONE;
+      }
+    } break;
+    case MESSAGE_CALIBRATE: {
+      shouldCalibrate = true;
+    } break;   
+    case MESSAGE_ADD_GESTURE: {
+      if (payloadSize < 1) {
+        Serial.println("Gesture without effect, dropping message.");
+        return false;
+      }
+
+      shouldRecordGesture = true;
+      recordedGesturesEffects[recordedGesturesLength] = (LedStripEffectType) payload[0];
+    } break;
+    case MESSAGE_REMOVE_GESTURE: {
+
+    } break;
+    case MESSAGE_LED_STRIP_BATCH: {
+      return processLedStripBatch(payload, payloadSize);
+    }
+    case MESSAGE_SEQUENCED: {
+      processSequencedMessage(payload, payloadSize);
+    } break;
+    case MESSAGE_TIME_SYNC: {
+      if (payloadSize < MESSAGE_TIME_SYNC_SIZE) {
+        Serial.println("Time sync without phone time, dropping message.");
+        return false;
+      }
+
+      // Phone time | this clock, the phone estimates the offset from the round trip
+      uint8_t response[2 * MESSAGE_TIME_SYNC_SIZE];
+
+      memcpy(response, payload, MESSAGE_TIME_SYNC_SIZE);
+      ui32_to_ui8(millis(), &response[MESSAGE_TIME_SYNC_SIZE]);
+
+      sendMessage(MESSAGE_TIME_SYNC, response, sizeof(response));
+    } break;
+    default: {
+      Serial.print("Unsupported message type: ");
+      Serial.println(messageType);
+    } return false;
+  }
+
+  return true;
+}
+
+// Sequenced payload: sequence number | type | payload, answered with ACK: sequence number | result
+void processSequencedMessage(uint8_t* data, uint16_t dataLength) {
+  if (dataLength < 2) {
+    Serial.println("Sequenced message without header, dropping message.");
+    return;
+  }
+
+  uint8_t sequenceNumber = data[0];
+  uint8_t messageType = data[1];
+  uint8_t result = ACK_RESULT_OK;
+  bool applied = false;
+
+  //A retransmission of a command that was already applied is only acknowledged again:
+  for (uint8_t i = 0; i < sequenceHistoryLength; i++) {
+    if (sequenceHistory[i] == sequenceNumber) {
+      result = sequenceHistoryResults[i];
+      applied = true;
+      break;
+    }
+  }
+
+  if (!applied) {
+    if (messageType >= _NUM_MESSAGE_TYPES || messageType == MESSAGE_SEQUENCED || messageType == MESSAGE_ACK) {
+      result = ACK_RESULT_REJECTED;
+    } else {
+      result = processMessage(messageType, &data[2], dataLength - 2) ? ACK_RESULT_OK : ACK_RESULT_REJECTED;
+    }
+
+    sequenceHistory[sequenceHistoryNext] = sequenceNumber;
+    sequenceHistoryResults[sequenceHistoryNext] = result;
+    sequenceHistoryNext = (sequenceHistoryNext + 1) % MESSAGE_SEQUENCE_HISTORY;
+
+    if (sequenceHistoryLength < MESSAGE_SEQUENCE_HISTORY) {
+      sequenceHistoryLength++;
+    }
+  }
+
+  uint8_t ack[2] = {sequenceNumber, result};
+  sendMessage(MESSAGE_ACK, ack, 2);
+}
+
+// Batch payload: (type | length | payload) entries, only led strip and mode messages are allowed.
+// Returns false when an entry was rejected, the entries before and after it are still applied
+bool processLedStripBatch(uint8_t* data, uint16_t dataLength) {
+  uint16_t index = 0;
+  bool accepted = true;
+
+  while (index + 2 <= dataLength) {
+    uint8_t entryType = data[index];
+    uint8_t entrySize = data[index + 1];
+
+    if (index + 2 + entrySize > dataLength) {
+      Serial.println("Batch entry exceeds message, dropping rest of batch.");
+      return false;
+    }
+
+    if (entryType == MESSAGE_LED_STRIP || entryType == MESSAGE_MODE) {
+      accepted &= processMessage(entryType, &data[index + 2], entrySize);
+    } else {
+      Serial.print("Unsupported batch entry type: ");
+      Serial.println(entryType);
+      accepted = false;
+    }
+
+    index += 2 + entrySize;
+  }
+
+  return accepted;
+}
+
 /* Main */
 
 void setup() {
@@ -271,6 +464,7 @@ void loop() {
     }
 
     readBatteryVoltage(); 
+    pushStatusIfChanged();
   }
 }
 
@@ -336,7 +530,10 @@ void setupLedStrip() {
 }
 
 void setupBle() {
+  bleTxMutex = xSemaphoreCreateRecursiveMutex();
+
   BLEDevice::init(BLE_NAME);
+  BLEDevice::setMTU(BLE_MAX_MTU);
 
   bleServer = BLEDevice::createServer();
   bleServer->setCallbacks(new BleServerCallbacks());
@@ -346,7 +543,7 @@ void setupBle() {
   bleTxCharacteristic = service->createCharacteristic(BLE_CHARACTERISTIC_UUID_TX, BLECharacteristic::PROPERTY_NOTIFY);
   bleTxCharacteristic->addDescriptor(new BLE2902());
 
-  BLECharacteristic* rxCharacteristic = service->createCharacteristic(BLE_CHARACTERISTIC_UUID_RX, BLECharacteristic::PROPERTY_WRITE);
+  BLECharacteristic* rxCharacteristic = service->createCharacteristic(BLE_CHARACTERISTIC_UUID_RX, BLECharacteristic::PROPERTY_WRITE | BLECharacteristic::PROPERTY_WRITE_NR);
   rxCharacteristic->setCallbacks(new BleCharacteristicCallbacks());
 
   service->start();
@@ -378,47 +575,104 @@ uint32_t to_ui32(uint8_t *pData) {
 	return ret;
 }
 
-void sendMessage(MessageType type, uint8_t *dataToSend, uint8_t data_size) {
-  uint8_t checkSum = 0;
-  uint8_t size = 4 + data_size;
+void sendMessage(MessageType type, uint8_t *dataToSend, uint16_t data_size) {
+  if (data_size > MESSAGE_MAX_PAYLOAD_SIZE) {
+    Serial.println("Message too long, not sending it.");
+    return;
+  }
+
+  //Payloads that fit in a byte keep the original format:
+  bool extendedLength = data_size > 255;
+  uint8_t headerSize = extendedLength ? 4 : 3;
+  uint16_t size = headerSize + data_size + 1;
   uint8_t message[size];
+  uint8_t checkSum = 0;
 
   //Start character:
   message[0] = (uint8_t) '?';
-  checkSum ^= '?';
 
   //Message type:
-  message[1] = type;
-  checkSum ^= type;
+  message[1] = extendedLength ? type | MESSAGE_FLAG_EXTENDED_LENGTH : type;
 
   //Message length:
-  message[2] = data_size;
-  checkSum ^= data_size;
+  if (extendedLength) {
+    message[2] = data_size >> 8;
+    message[3] = data_size & 0xFF;
+  } else {
+    message[2] = data_size;
+  }
 
   //Message content:
-  for(int i = 0; i < data_size; i++) {
-    message[3 + i] = dataToSend[i];    
-    checkSum ^= dataToSend[i];
+  memcpy(&message[headerSize], dataToSend, data_size);
+
+  for(int i = 0; i < size - 1; i++) {
+    checkSum ^= message[i];
   }
 
   message[size - 1] = checkSum;
 
-  bleTxCharacteristic->setValue(message, size);
-  bleTxCharacteristic->notify();
-}
+  //The app reassembles frames, so long messages are split over multiple notifications. Their
+  //size is limited by the MTU the phone agreed to, not by the one we offer:
+  uint16_t mtu = bleServer->getPeerMTU(bleConnId);
+  uint16_t chunkSize = (mtu < BLE_DEFAULT_MTU ? BLE_DEFAULT_MTU : mtu) - BLE_ATT_HEADER_SIZE;
 
-void sendStatistics() {
-  uint8_t size = 6;
-  uint8_t dataToSend[size];
+  //The chunks of a message must not interleave with those of a message sent from another task:
+  xSemaphoreTakeRecursive(bleTxMutex, portMAX_DELAY);
+
+  for (uint16_t offset = 0; offset < size; offset += chunkSize) {
+    bleTxCharacteristic->setValue(&message[offset], min((uint16_t) (size - offset), chunkSize));
+    bleTxCharacteristic->notify();
+  }
+
+  xSemaphoreGiveRecursive(bleTxMutex);
+}
 
+void buildStatistics(uint8_t* dataToSend) {
   dataToSend[0] = currentMode;
   dataToSend[1] = batteryPercentage;
   dataToSend[2] = (uint8_t) (ledStripPower ? '1' : '0'); 
   dataToSend[3] = ledStripEffect;
   dataToSend[4] = ledStripBrightness;
   dataToSend[5] = recordedGesturesLength;
+  dataToSend[6] = PROTOCOL_VERSION;
+}
+
+void sendStatistics() {
+  xSemaphoreTakeRecursive(bleTxMutex, portMAX_DELAY);
+
+  buildStatistics(lastStatus);
+  lastStatusValid = true;
   
-  sendMessage(MESSAGE_STATISTICS, dataToSend, size);
+  sendMessage(MESSAGE_STATISTICS, lastStatus, STATUS_SIZE);
+
+  xSemaphoreGiveRecursive(bleTxMutex);
+}
+
+// Only sends a status when a field differs from the last one sent
+void pushStatusIfChanged() {
+  if (millis() < last_interval_time_status + STATUS_PUSH_INTERVAL_MS) {
+    return;
+  }
+
+  last_interval_time_status = millis();
+
+  uint8_t status[STATUS_SIZE];
+  buildStatistics(status);
+
+  //A status requested by the app may be sent meanwhile, it is compared to that one:
+  xSemaphoreTakeRecursive(bleTxMutex, portMAX_DELAY);
+
+  bool changed = !lastStatusValid || abs((int) status[1] - (int) lastStatus[1]) >= STATUS_BATTERY_HYSTERESIS;
+
+  for (uint8_t i = 0; i < STATUS_SIZE && !changed; i++) {
+    changed = i != 1 && status[i] != lastStatus[i];
+  }
+
+  if (changed) {
+    sendStatistics();
+  }
+
+  xSemaphoreGiveRecursive(bleTxMutex);
 }
 
 /* MPU */
@@ -518,6 +772,7 @@ void classifyGesture() {
 
   if (smallestMean <= 0.35) {
     ledStripEffect = effect;
+    ledStripEffectStart = millis();
   }
 }
 
@@ -648,12 +903,27 @@ void recordGesture() {
 
 /* Led Strip Control */
 
-void processLedStripCommand(uint8_t* data, uint8_t dataLength) {
+// Returns false when the command was rejected
+bool processLedStripCommand(uint8_t* data, uint16_t dataLength) {
+  //Without a type the pixel length below would wrap around:
+  if (dataLength < 1) {
+    Serial.println("Led strip command without type, dropping message.");
+    return false;
+  }
+
   int type = data[0];
 
   Serial.print("Processing ledstrip of type: ");
   Serial.println(type);
 
+  bool tooShort = type == LED_STRIP_COMMAND_COLOR ? dataLength < LED_STRIP_COMMAND_COLOR_SIZE
+      : (type == LED_STRIP_COMMAND_POWER || type == LED_STRIP_COMMAND_BRIGHTNESS) && dataLength < LED_STRIP_COMMAND_VALUE_SIZE;
+
+  if (tooShort) {
+    Serial.println("Led strip command is too short, dropping message.");
+    return false;
+  }
+
   switch (type) {
     case LED_STRIP_COMMAND_POWER: {
       bool power = data[1] == 1;
@@ -672,7 +942,55 @@ void processLedStripCommand(uint8_t* data, uint8_t dataLength) {
     } break;
     case LED_STRIP_COMMAND_COLOR: {
       memcpy(ledStripColor, &data[2], 3);
-    } break;         
+      ledStripPixelsActive = false;
+    } break;
+    case LED_STRIP_COMMAND_PIXELS: {
+      processLedStripPixels(&data[1], dataLength - 1);
+    } break;
+    default: {
+      Serial.print("Unsupported led strip command: ");
+      Serial.println(type);
+    } return false;
+  }
+
+  return true;
+}
+
+//Runs of: Start | Count | Red | Green | Blue, only changed leds are sent:
+void processLedStripPixels(uint8_t* data, uint16_t dataLength) {
+  if (!ledStripPixelsActive) {
+    //Starting from the solid color that is shown now:
+    for (uint8_t i = 0; i < LED_STRIP_NUM_LEDS; i++) {
+      memcpy(ledStripPixels[i], ledStripColor, 3);
+    }
+
+    ledStripPixelsActive = true;
+  }
+
+  for (uint16_t index = 0; index + 5 <= dataLength; index += 5) {
+    uint8_t start = data[index];
+    uint8_t count = data[index + 1];
+
+    for (uint16_t i = start; i < start + count && i < LED_STRIP_NUM_LEDS; i++) {
+      memcpy(ledStripPixels[i], &data[index + 2], 3);
+    }
+  }
+
+  if (ledStripPower && ledStripEffect == LED_STRIP_EFFECT_NONE) {
+    showLedStripColor();
+    ledStrip.show();
+  }
+}
+
+//Solid color, or the last pixel frame when one was received after it:
+void showLedStripColor() {
+  if (!ledStripPixelsActive) {
+    setLedStripColor(ledStripColor[0], ledStripColor[1], ledStripColor[2]);
+    return;
+  }
+
+  for (uint8_t i = 0; i < LED_STRIP_NUM_LEDS; i++) {
+    ledStrip.setPixelColor(i, ledStripPixels[i][0], ledStripPixels[i][1], ledStripPixels[i][2]);
   }
 }
 
@@ -680,7 +998,7 @@ void setLedStripPower(bool power) {
   ledStripPower = power;
 
   if (power && ledStripEffect == LED_STRIP_EFFECT_NONE) {
-    setLedStripColor(ledStripColor[0], ledStripColor[1], ledStripColor[2]);
+    showLedStripColor();
   } else if (!power) {
     setLedStripColor(0, 0, 0);
   }
@@ -716,7 +1034,7 @@ void updateCurrentEffect() {
 
   switch (ledStripEffect) {
     case LED_STRIP_EFFECT_NONE: {
-      setLedStripColor(ledStripColor[0], ledStripColor[1], ledStripColor[2]);
+      showLedStripColor();
       ledStrip.show();
     } break;
     case LED_STRIP_EFFECT_RAINBOW: {
@@ -737,11 +1055,19 @@ void updateCurrentEffect() {
   }
 }
 
+// Time since the effect started, negative while a scheduled start is still ahead
+int32_t ledStripEffectElapsed() {
+  return (int32_t) (millis() - ledStripEffectStart);
+}
+
 void updateFadeEffect() {
-  static int16_t index = 0;
   static uint32_t last_interval_time = 0;
 
-  if (millis() >= last_interval_time + 20) {
+  int32_t elapsed = ledStripEffectElapsed();
+
+  if (elapsed >= 0 && millis() >= last_interval_time + 20) {
+    // Step every 20 ms, taken from the start time so bracelets started together stay in phase
+    int16_t index = (elapsed / 20) % 256;
     float brightness = 1.0 - ((float) abs(128 - index) / 128.0);
     brightness = brightness * brightness * brightness;
     uint8_t r = (uint8_t) ((float) ledStripColor[0] * brightness);
@@ -751,16 +1077,18 @@ void updateFadeEffect() {
     setLedStripColor(r, g, b);
     ledStrip.show();
 
-    index = (index + 1) % 256;
     last_interval_time = millis();
   }
 }
 
 void updateRainbowEffect() {
-  static uint8_t pos = 0;
   static uint32_t last_interval_time = 0;
 
-  if (millis() >= last_interval_time + 20) {
+  int32_t elapsed = ledStripEffectElapsed();
+
+  if (elapsed >= 0 && millis() >= last_interval_time + 20) {
+    uint8_t pos = (elapsed / 20) & 255;
+
     for (uint8_t i = 0; i < LED_STRIP_NUM_LEDS; i++) {
       uint8_t wheelPos = ((i * 256 / LED_STRIP_NUM_LEDS) + pos) & 255;
       wheelPos = 255 - wheelPos;
@@ -778,7 +1106,6 @@ void updateRainbowEffect() {
 
     ledStrip.show();
 
-    pos = pos >= 256 ? 0 : pos + 1;
     last_interval_time = millis();
   }
 }
@@ -825,10 +1152,13 @@ void updateTrailEffect() {
 }
 
 void updateCircleEffect() {
-  static int8_t pos = 0;
   static uint32_t last_interval_time = 0;
 
-  if (millis() >= last_interval_time + 100) {
+  int32_t elapsed = ledStripEffectElapsed();
+
+  if (elapsed >= 0 && millis() >= last_interval_time + 100) {
+    int8_t pos = (elapsed / 100) % (LED_STRIP_NUM_LEDS + 1);
+
     for (int8_t i = 0; i < LED_STRIP_NUM_LEDS; i++) {
       int8_t distance = pos >= i ? pos - i : pos + (LED_STRIP_NUM_LEDS - i); 
       float brightness = 1.0 - ((float) distance / (float) LED_STRIP_NUM_LEDS);
@@ -843,7 +1173,6 @@ void updateCircleEffect() {
 
     ledStrip.show();
 
-    pos = pos >= LED_STRIP_NUM_LEDS ? 0 : pos + 1;
     last_interval_time = millis();
   }
 }
@@ -0,0 +1,87 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding a frame, decoding it from a buffer, and reassembling it from notifications of the
+ * default MTU the way received bytes come in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameCodecBenchmark {
+    //Status, a full pixel frame, the largest extended frame:
+    @Param({"7", "50", "1024"})
+    public int payloadSize;
+
+    private byte[] payload;
+    private ByteBuffer out;
+    private ByteBuffer in;
+    private final Frame frame = new Frame();
+
+    private byte[][] chunks;
+    private FrameDecoder decoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+
+        payload = new byte[payloadSize];
+        new Random(1).nextBytes(payload);
+
+        out = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+        int size = FrameCodec.encode(out, MessageType.LEDSTRIP, payload);
+
+        byte[] encoded = new byte[size];
+        System.arraycopy(out.array(), 0, encoded, 0, size);
+        in = ByteBuffer.wrap(encoded);
+
+        int chunkSize = Transport.DEFAULT_MTU - Transport.ATT_HEADER_SIZE;
+        chunks = new byte[(size + chunkSize - 1) / chunkSize][];
+
+        for(int i = 0; i < chunks.length; i++) {
+            chunks[i] = new byte[Math.min(chunkSize, size - i * chunkSize)];
+            System.arraycopy(encoded, i * chunkSize, chunks[i], 0, chunks[i].length);
+        }
+
+        decoder = new FrameDecoder(decoded -> this.blackhole.consume(decoded.getUnsigned(0)));
+    }
+
+    @Benchmark
+    public int encode() {
+        out.clear();
+
+        return FrameCodec.encode(out, MessageType.LEDSTRIP, payload);
+    }
+
+    @Benchmark
+    public int decode() {
+        in.position(0);
+
+        return FrameCodec.decode(in, frame);
+    }
+
+    @Benchmark
+    public int reassemble() {
+        int frames = 0;
+
+        for(byte[] chunk : chunks) {
+            frames += decoder.feed(chunk);
+        }
+
+        return frames;
+    }
+}
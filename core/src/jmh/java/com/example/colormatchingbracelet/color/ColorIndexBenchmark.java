@@ -0,0 +1,71 @@
+package com.example.colormatchingbracelet.color;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexing a camera sized frame, and querying regions of it. Compare the queries with
+ * RegionColorBenchmark, which scans the region every time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorIndexBenchmark {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    @Param({"5", "10", "20"})
+    public int radius;
+
+    private int[] pixels;
+    private final ColorIndex index = new ColorIndex();
+    private final int[] center = new int[2];
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        pixels = new int[FRAME_WIDTH * FRAME_HEIGHT];
+
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        index.build(pixels, 0, FRAME_WIDTH, FRAME_WIDTH, FRAME_HEIGHT);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int build() {
+        index.build(pixels, 0, FRAME_WIDTH, FRAME_WIDTH, FRAME_HEIGHT);
+
+        return index.getWidth();
+    }
+
+    @Benchmark
+    public int averageRgb() {
+        return index.averageRgb(FRAME_WIDTH / 2, FRAME_HEIGHT / 2, radius);
+    }
+
+    @Benchmark
+    public float variance() {
+        return index.variance(FRAME_WIDTH / 2, FRAME_HEIGHT / 2, radius);
+    }
+
+    //The search the tap uses, regions within 30 pixels of the tap:
+    @Benchmark
+    public int findMostUniform() {
+        index.findMostUniform(FRAME_WIDTH / 2, FRAME_HEIGHT / 2, radius, 30, center);
+
+        return center[0];
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.colormatchingbracelet.color;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Correcting colors with the lookup table, against building the table, which evaluates every
+ * correction once per grid point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ColorLutBenchmark {
+    private static final int COLORS = 1024;
+
+    private final int[] colors = new int[COLORS];
+    private ColorLut lut;
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        for(int i = 0; i < COLORS; i++) {
+            colors[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        lut = new ColorLut.Builder().build();
+    }
+
+    @Benchmark
+    public int apply() {
+        next = (next + 1) & (COLORS - 1);
+
+        return lut.apply(colors[next]);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ColorLut build() {
+        return new ColorLut.Builder().build();
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.colormatchingbracelet.color;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dominant colors of a camera sized frame of a few noisy patches, on one thread and on all cores.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DominantColorsBenchmark {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+    private static final int PATCHES = 6;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private int[] pixels;
+    private DominantColors dominantColors;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        int[] patchColors = new int[PATCHES];
+
+        for(int i = 0; i < PATCHES; i++) {
+            //Room for the noise in every channel:
+            patchColors[i] = random.nextInt(0x1000000) & 0xEFEFEF;
+        }
+
+        pixels = new int[FRAME_WIDTH * FRAME_HEIGHT];
+
+        for(int y = 0; y < FRAME_HEIGHT; y++) {
+            for(int x = 0; x < FRAME_WIDTH; x++) {
+                int patch = patchColors[(x * PATCHES / FRAME_WIDTH + y * 2 / FRAME_HEIGHT) % PATCHES];
+                int noise = random.nextInt(16);
+
+                pixels[y * FRAME_WIDTH + x] = 0xFF000000 | (patch + noise * 0x010101);
+            }
+        }
+
+        dominantColors = new DominantColors(DominantColors.DEFAULT_SWATCHES, TimeUnit.SECONDS.toNanos(1), parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        dominantColors.shutdown();
+    }
+
+    @Benchmark
+    public int extract() {
+        dominantColors.sample(pixels, 0, FRAME_WIDTH, FRAME_WIDTH, FRAME_HEIGHT);
+
+        return dominantColors.extract();
+    }
+}
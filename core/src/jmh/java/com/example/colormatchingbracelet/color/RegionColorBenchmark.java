@@ -0,0 +1,61 @@
+package com.example.colormatchingbracelet.color;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Averaging the region around a tap in a camera sized frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RegionColorBenchmark {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    //The scan dialog uses a radius of 10:
+    @Param({"5", "10", "20"})
+    public int radius;
+
+    private int[] pixels;
+    private int offset;
+    private int size;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        pixels = new int[FRAME_WIDTH * FRAME_HEIGHT];
+
+        for(int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+
+        size = 2 * radius + 1;
+        offset = (FRAME_HEIGHT / 2 - radius) * FRAME_WIDTH + FRAME_WIDTH / 2 - radius;
+    }
+
+    @Benchmark
+    public int averageRgb() {
+        return RegionColor.averageRgb(pixels, offset, FRAME_WIDTH, size, size);
+    }
+
+    @Benchmark
+    public int averageHsvMaxV() {
+        return RegionColor.averageHsvMaxV(pixels, offset, FRAME_WIDTH, size, size);
+    }
+
+    @Benchmark
+    public int averageLab() {
+        return RegionColor.averageLab(pixels, offset, FRAME_WIDTH, size, size);
+    }
+}
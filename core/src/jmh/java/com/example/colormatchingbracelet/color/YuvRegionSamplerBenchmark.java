@@ -0,0 +1,56 @@
+package com.example.colormatchingbracelet.color;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sampling the tracked region of a camera frame, straight from its YUV planes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class YuvRegionSamplerBenchmark {
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    @Param({"5", "10", "20"})
+    public int radius;
+
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private YuvRegionSampler sampler;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        byte[] luma = new byte[FRAME_WIDTH * FRAME_HEIGHT];
+        byte[] chroma = new byte[FRAME_WIDTH * FRAME_HEIGHT / 2];
+
+        random.nextBytes(luma);
+        random.nextBytes(chroma);
+
+        //Interleaved chroma, as most phones deliver it:
+        yPlane = ByteBuffer.wrap(luma);
+        uPlane = ByteBuffer.wrap(chroma);
+        vPlane = ByteBuffer.wrap(chroma, 1, chroma.length - 1).slice();
+
+        sampler = new YuvRegionSampler(new RegionSampler(radius, RegionSampler.Average.RGB));
+    }
+
+    @Benchmark
+    public int sample() {
+        return sampler.sample(yPlane, uPlane, vPlane, FRAME_WIDTH, FRAME_WIDTH, 2, FRAME_WIDTH, FRAME_HEIGHT, FRAME_WIDTH / 2, FRAME_HEIGHT / 2);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.colormatchingbracelet.gesture;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching a gesture against the recorded templates, the cost of a classification on the bracelet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GestureMatcherBenchmark {
+    @Param({"1", "8", "32"})
+    public int templates;
+
+    private GestureMatcher matcher;
+    private float[] gesture;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+
+        matcher = new GestureMatcher();
+
+        for(int i = 0; i < templates; i++) {
+            matcher.addTemplate(loop(random, i + 1));
+        }
+
+        gesture = loop(random, templates / 2 + 1);
+    }
+
+    /**
+     * Noisy loop through the air, every shape a different number of turns.
+     */
+    private static float[] loop(Random random, int turns) {
+        float[] gesture = new float[GestureMatcher.GESTURE_SIZE];
+
+        for(int i = 0; i < GestureMatcher.GESTURE_LENGTH; i++) {
+            double angle = 2 * Math.PI * turns * i / GestureMatcher.GESTURE_LENGTH;
+
+            gesture[i * 3] = (float) (Math.cos(angle) + 0.1 * random.nextGaussian());
+            gesture[i * 3 + 1] = (float) (Math.sin(angle) + 0.1 * random.nextGaussian());
+            gesture[i * 3 + 2] = (float) (1.0 + 0.1 * random.nextGaussian());
+        }
+
+        return gesture;
+    }
+
+    @Benchmark
+    public int match() {
+        return matcher.match(gesture);
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.colormatchingbracelet.Bracelet;
+
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+import com.example.colormatchingbracelet.bluetooth.MessageType;
+
+public class BraceletCommand {
+
+    public static void sendStatusRequest(IBluetoothService bluetoothService) {
+        bluetoothService.sendMessage(MessageType.STATUS, new byte[0]);
+    }
+
+    public static CommandFuture sendModeChange(IBluetoothService bluetoothService, BraceletMode newMode, byte[] additionalData) {
+        CommandFuture future = requestStatusOnFailure(bluetoothService, bluetoothService.sendCommand(MessageType.MODE, encodeModeChange(newMode, additionalData)));
+
+        //Update mode:
+        bluetoothService.updateBraceletInformation(builder -> builder.mode(newMode));
+
+        return future;
+    }
+
+    /**
+     * Local state is updated before a command is acknowledged. When the command did not land that
+     * state is wrong, so the real status is requested from the bracelet.
+     * @return The same future, for chaining.
+     */
+    public static CommandFuture requestStatusOnFailure(IBluetoothService bluetoothService, CommandFuture future) {
+        future.addListener(completed -> {
+            CommandFuture.Result result = completed.getResult();
+
+            if((result == CommandFuture.Result.REJECTED || result == CommandFuture.Result.TIMED_OUT) && bluetoothService.isConnected()) {
+                sendStatusRequest(bluetoothService);
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Build the payload of a mode change message.
+     * @param newMode - Mode to switch to.
+     * @param additionalData - Optional data for the mode, like the effect type.
+     * @return Payload for a MODE message.
+     */
+    public static byte[] encodeModeChange(BraceletMode newMode, byte[] additionalData) {
+        byte[] data = new byte[1 + (additionalData != null && additionalData.length > 0 ? additionalData.length + 1 : 0)];
+
+        //Adding new mode:
+        data[0] = (byte) newMode.getValue();
+
+        //Adding optional additional data:
+        if(additionalData != null && additionalData.length > 0) {
+            data[1] = (byte) additionalData.length;
+
+            for(int i = 0; i < additionalData.length; i ++) {
+                data[2 + i] = additionalData[i];
+            }
+        };
+
+        return data;
+    }
+}
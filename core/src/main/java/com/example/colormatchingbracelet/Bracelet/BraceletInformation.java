@@ -0,0 +1,176 @@
+package com.example.colormatchingbracelet.Bracelet;
+
+import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the bracelet state. New snapshots are made with toBuilder() and published
+ * through the BraceletStateStore, which tells listeners which fields changed.
+ */
+public final class BraceletInformation {
+    public static final int LED_STRIP_NUM_LEDS = 10;
+
+    //Field bits, used in the change masks of the BraceletStateStore:
+    public static final int FIELD_MODE = 1;
+    public static final int FIELD_BATTERY_PERCENTAGE = 1 << 1;
+    public static final int FIELD_LED_STRIP_POWER_STATE = 1 << 2;
+    public static final int FIELD_LED_STRIP_BRIGHTNESS = 1 << 3;
+    public static final int FIELD_LED_STRIP_EFFECT = 1 << 4;
+    public static final int FIELD_NUM_GESTURES = 1 << 5;
+    public static final int FIELD_PROTOCOL_VERSION = 1 << 6;
+    public static final int FIELD_LED_STRIP_COLORS = 1 << 7;
+    public static final int FIELD_ALL = (1 << 8) - 1;
+
+    public final BraceletMode mode;
+    public final int batteryPercentage;
+    public final boolean ledStripPowerState;
+    public final int ledStripBrightness;
+    public final LedStripEffectType ledStripEffectCurrent;
+    public final int numGestures;
+    public final int protocolVersion;
+
+    //Version of the store this snapshot was published as:
+    public final long version;
+
+    //Color (ARGB) of every led, as last sent to the bracelet. Never handed out, so it can not change:
+    private final int[] ledStripColors;
+
+    public BraceletInformation() {
+        this(new Builder());
+    }
+
+    private BraceletInformation(Builder builder) {
+        mode = builder.mode;
+        batteryPercentage = builder.batteryPercentage;
+        ledStripPowerState = builder.ledStripPowerState;
+        ledStripBrightness = builder.ledStripBrightness;
+        ledStripEffectCurrent = builder.ledStripEffectCurrent;
+        numGestures = builder.numGestures;
+        protocolVersion = builder.protocolVersion;
+        version = builder.version;
+        ledStripColors = builder.ledStripColors.clone();
+    }
+
+    public int getLedStripColor(int led) {
+        return ledStripColors[led];
+    }
+
+    /**
+     * Copy the color of every led into an array of at least LED_STRIP_NUM_LEDS.
+     */
+    public void copyLedStripColors(int[] out) {
+        System.arraycopy(ledStripColors, 0, out, 0, LED_STRIP_NUM_LEDS);
+    }
+
+    public Builder toBuilder() {
+        return new Builder(this);
+    }
+
+    /**
+     * Fields that differ between this snapshot and another one.
+     * @return Mask of FIELD_ bits, 0 when they are equal.
+     */
+    public int diff(BraceletInformation other) {
+        int changed = 0;
+
+        if(mode != other.mode) changed |= FIELD_MODE;
+        if(batteryPercentage != other.batteryPercentage) changed |= FIELD_BATTERY_PERCENTAGE;
+        if(ledStripPowerState != other.ledStripPowerState) changed |= FIELD_LED_STRIP_POWER_STATE;
+        if(ledStripBrightness != other.ledStripBrightness) changed |= FIELD_LED_STRIP_BRIGHTNESS;
+        if(ledStripEffectCurrent != other.ledStripEffectCurrent) changed |= FIELD_LED_STRIP_EFFECT;
+        if(numGestures != other.numGestures) changed |= FIELD_NUM_GESTURES;
+        if(protocolVersion != other.protocolVersion) changed |= FIELD_PROTOCOL_VERSION;
+        if(!Arrays.equals(ledStripColors, other.ledStripColors)) changed |= FIELD_LED_STRIP_COLORS;
+
+        return changed;
+    }
+
+    public static class Builder {
+        private BraceletMode mode = BraceletMode.NORMAL;
+        private int batteryPercentage = -1;
+        private boolean ledStripPowerState = false;
+        private int ledStripBrightness = 255;
+        private LedStripEffectType ledStripEffectCurrent = LedStripEffectType.NONE;
+        private int numGestures = 0;
+        private int protocolVersion = 1;
+        private long version = 0;
+        private final int[] ledStripColors = new int[LED_STRIP_NUM_LEDS];
+
+        public Builder() {
+
+        }
+
+        private Builder(BraceletInformation information) {
+            mode = information.mode;
+            batteryPercentage = information.batteryPercentage;
+            ledStripPowerState = information.ledStripPowerState;
+            ledStripBrightness = information.ledStripBrightness;
+            ledStripEffectCurrent = information.ledStripEffectCurrent;
+            numGestures = information.numGestures;
+            protocolVersion = information.protocolVersion;
+            version = information.version;
+            System.arraycopy(information.ledStripColors, 0, ledStripColors, 0, LED_STRIP_NUM_LEDS);
+        }
+
+        public Builder mode(BraceletMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public Builder batteryPercentage(int batteryPercentage) {
+            this.batteryPercentage = batteryPercentage;
+            return this;
+        }
+
+        public Builder ledStripPowerState(boolean ledStripPowerState) {
+            this.ledStripPowerState = ledStripPowerState;
+            return this;
+        }
+
+        public Builder ledStripBrightness(int ledStripBrightness) {
+            this.ledStripBrightness = ledStripBrightness;
+            return this;
+        }
+
+        public Builder ledStripEffectCurrent(LedStripEffectType ledStripEffectCurrent) {
+            this.ledStripEffectCurrent = ledStripEffectCurrent;
+            return this;
+        }
+
+        public Builder numGestures(int numGestures) {
+            this.numGestures = numGestures;
+            return this;
+        }
+
+        public Builder protocolVersion(int protocolVersion) {
+            this.protocolVersion = protocolVersion;
+            return this;
+        }
+
+        /**
+         * Set the color of every led, the array is copied.
+         */
+        public Builder ledStripColors(int[] colors) {
+            System.arraycopy(colors, 0, ledStripColors, 0, LED_STRIP_NUM_LEDS);
+            return this;
+        }
+
+        /**
+         * Set every led to the same color.
+         */
+        public Builder ledStripColor(int color) {
+            Arrays.fill(ledStripColors, color);
+            return this;
+        }
+
+        Builder version(long version) {
+            this.version = version;
+            return this;
+        }
+
+        public BraceletInformation build() {
+            return new BraceletInformation(this);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.colormatchingbracelet.Bracelet;
+
+public enum BraceletMode {
+    NORMAL(0),
+    EFFECT(1),
+    GESTURE(2),
+    GESTURE_EFFECT(3);
+
+    //Cached lookup table, indexed by value:
+    private static final BraceletMode[] BY_VALUE = new BraceletMode[values().length];
+
+    static {
+        for(BraceletMode type : values()) {
+            BY_VALUE[type.value] = type;
+        }
+    }
+
+    private final int value;
+
+    BraceletMode(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Look up a bracelet mode by its value on the wire.
+     * @param value - Unsigned value byte.
+     * @return The matching entry, or null when the value is unknown.
+     */
+    public static BraceletMode fromValue(int value) {
+        return value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+    }
+}
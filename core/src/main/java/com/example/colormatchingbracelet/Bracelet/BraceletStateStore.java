@@ -0,0 +1,110 @@
+package com.example.colormatchingbracelet.Bracelet;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the current BraceletInformation snapshot. Every update replaces the snapshot, bumps the
+ * version and returns the mask of changed fields. Snapshots are immutable, so readers never need a
+ * copy and can compare versions to see if anything changed.
+ */
+public class BraceletStateStore {
+
+    public interface Modifier {
+        /**
+         * Change the fields that need changing, the builder starts from the current snapshot.
+         */
+        void apply(BraceletInformation.Builder builder);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the updating thread, in the order of the updates.
+         * @param information - The new snapshot.
+         * @param changedFields - Mask of BraceletInformation.FIELD_ bits that changed.
+         */
+        void onChanged(BraceletInformation information, int changedFields);
+    }
+
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    private volatile BraceletInformation current = new BraceletInformation();
+
+    public BraceletInformation get() {
+        return current;
+    }
+
+    public long getVersion() {
+        return current.version;
+    }
+
+    /**
+     * Apply a change to the current snapshot.
+     * @return Mask of the fields that changed, 0 when nothing did.
+     */
+    public synchronized int update(Modifier modifier) {
+        BraceletInformation.Builder builder = current.toBuilder();
+        modifier.apply(builder);
+
+        return set(builder);
+    }
+
+    /**
+     * Replace the snapshot with one built from scratch, only differing fields count as changed.
+     */
+    public synchronized int replace(BraceletInformation information) {
+        return set(information.toBuilder());
+    }
+
+    /**
+     * Go back to the default state, for example when a new bracelet connects.
+     */
+    public synchronized int reset() {
+        return set(new BraceletInformation.Builder());
+    }
+
+    /**
+     * Get notified of changes to any of the given fields.
+     * @param fields - Mask of BraceletInformation.FIELD_ bits.
+     */
+    public void subscribe(int fields, Listener listener) {
+        subscriptions.add(new Subscription(fields, listener));
+    }
+
+    public void unsubscribe(Listener listener) {
+        for(Subscription subscription : subscriptions) {
+            if(subscription.listener == listener) {
+                subscriptions.remove(subscription);
+            }
+        }
+    }
+
+    private int set(BraceletInformation.Builder builder) {
+        BraceletInformation previous = current;
+        BraceletInformation next = builder.version(previous.version + 1).build();
+        int changedFields = previous.diff(next);
+
+        if(changedFields == 0) {
+            return 0;
+        }
+
+        current = next;
+
+        for(Subscription subscription : subscriptions) {
+            if((subscription.fields & changedFields) != 0) {
+                subscription.listener.onChanged(next, changedFields);
+            }
+        }
+
+        return changedFields;
+    }
+
+    private static class Subscription {
+        final int fields;
+        final Listener listener;
+
+        Subscription(int fields, Listener listener) {
+            this.fields = fields;
+            this.listener = listener;
+        }
+    }
+}
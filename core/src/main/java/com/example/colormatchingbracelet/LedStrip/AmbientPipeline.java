@@ -0,0 +1,312 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+import com.example.colormatchingbracelet.color.ColorLut;
+import com.example.colormatchingbracelet.color.ZoneColors;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Mirrors the camera on the led strip: every led shows the color of its zone of the frame. Three
+ * stages run concurrently, each on its own thread:
+ * - Capture: the camera thread downsamples a frame into a grid and hands it over.
+ * - Reduce: a pipeline thread reduces the grid to a color per led, corrected for the strip.
+ * - Transmit: an AnimationEngine streams the newest zone colors at a steady frame rate.
+ *
+ * Grids and zone frames come from small fixed pools and are handed over through bounded queues.
+ * A stage that falls behind never holds up the one before it: when no buffer is free, the oldest
+ * one waiting is taken back and its frame dropped, so the strip always follows the newest frame.
+ * The pipeline stages do not allocate per frame. The colors sent are published to the bracelet
+ * state a few times a second, not per frame, so the state of the strip seen by observers can be
+ * up to LedStripLink.COLORS_PUBLISH_INTERVAL_NANOS behind (see LedStripCommand.sendPixels()).
+ */
+public class AmbientPipeline {
+    public static final int MAX_GRID_PIXELS = 64 * 48;
+    public static final int DEFAULT_FPS = AnimationEngine.DEFAULT_FPS;
+
+    //One buffer in each stage, and one waiting between them:
+    private static final int BUFFERS = 3;
+
+    private final ArrayBlockingQueue<Grid> freeGrids = new ArrayBlockingQueue<>(BUFFERS);
+    private final ArrayBlockingQueue<Grid> capturedGrids = new ArrayBlockingQueue<>(BUFFERS);
+    private final ArrayBlockingQueue<int[]> freeZoneFrames = new ArrayBlockingQueue<>(BUFFERS);
+    private final ArrayBlockingQueue<int[]> reducedZoneFrames = new ArrayBlockingQueue<>(BUFFERS);
+
+    private final ExecutorService reduceExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AmbientPipeline");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private final ZoneColors zoneColors = new ZoneColors(BraceletInformation.LED_STRIP_NUM_LEDS);
+    private final AnimationEngine engine = new AnimationEngine();
+    private final ColorLut colorLut;
+
+    private volatile boolean running;
+    private Future<?> reduceTask;
+
+    //Statistics:
+    private final AtomicLong capturedFrames = new AtomicLong();
+    private final AtomicLong droppedGrids = new AtomicLong();
+    private final AtomicLong reducedFrames = new AtomicLong();
+    private final AtomicLong droppedZoneFrames = new AtomicLong();
+
+    /**
+     * @param colorLut - Correction of the zone colors for the led strip, null to send them as is.
+     */
+    public AmbientPipeline(ColorLut colorLut) {
+        this.colorLut = colorLut;
+
+        for(int i = 0; i < BUFFERS; i++) {
+            freeGrids.add(new Grid());
+            freeZoneFrames.add(new int[BraceletInformation.LED_STRIP_NUM_LEDS]);
+        }
+    }
+
+    /**
+     * Start mirroring to a bracelet, any firmware effect is turned off.
+     * @param targetFps - Rate to stream at when the link keeps up.
+     */
+    public synchronized void start(IBluetoothService bluetoothService, int targetFps) {
+        stop();
+
+        running = true;
+        reduceTask = reduceExecutor.submit(this::reduceLoop);
+        engine.start(bluetoothService, this::render, targetFps);
+    }
+
+    public void start(IBluetoothService bluetoothService) {
+        start(bluetoothService, DEFAULT_FPS);
+    }
+
+    /**
+     * Stop mirroring, the strip keeps the last frame.
+     */
+    public synchronized void stop() {
+        running = false;
+        engine.stop();
+
+        if(reduceTask != null) {
+            reduceTask.cancel(true);
+            reduceTask = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop and end the pipeline thread, the pipeline can not be used after this.
+     */
+    public synchronized void shutdown() {
+        stop();
+        reduceExecutor.shutdown();
+    }
+
+    public ZoneColors getZoneColors() {
+        return zoneColors;
+    }
+
+    public AnimationEngine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Distance between grid points in both directions, so a frame fits in MAX_GRID_PIXELS.
+     */
+    public static int gridStep(int width, int height) {
+        return Math.max(1, (int) Math.ceil(Math.sqrt((double) width * height / MAX_GRID_PIXELS)));
+    }
+
+    //#region Capture
+
+    /**
+     * Grid to capture a frame into, taking back the oldest frame that was not reduced yet when the
+     * reduce stage is behind.
+     * @return Null when not running, the frame should be skipped.
+     */
+    public Grid acquireGrid() {
+        if(!running) {
+            return null;
+        }
+
+        Grid grid = freeGrids.poll();
+
+        if(grid == null) {
+            grid = capturedGrids.poll();
+
+            if(grid != null) {
+                droppedGrids.incrementAndGet();
+            }
+        }
+
+        return grid;
+    }
+
+    /**
+     * Hand a captured grid to the reduce stage.
+     */
+    public void submitGrid(Grid grid) {
+        capturedFrames.incrementAndGet();
+
+        //Never full, there are only as many grids as it holds:
+        capturedGrids.offer(grid);
+    }
+
+    //#endregion
+
+    //#region Reduce
+
+    private void reduceLoop() {
+        //Whatever the previous run left waiting is stale:
+        drain(capturedGrids, freeGrids);
+        drain(reducedZoneFrames, freeZoneFrames);
+        zoneColors.reset();
+
+        try {
+            while(!Thread.currentThread().isInterrupted()) {
+                Grid grid = capturedGrids.take();
+                int[] zones;
+
+                //The grid goes back too when stopping while waiting for a zone frame:
+                try {
+                    zones = takeZoneFrame();
+                    zoneColors.reduce(grid.pixels, 0, grid.width, grid.width, grid.height, zones);
+                }
+                finally {
+                    freeGrids.offer(grid);
+                }
+
+                if(colorLut != null) {
+                    for(int i = 0; i < zones.length; i++) {
+                        zones[i] = colorLut.apply(zones[i]);
+                    }
+                }
+
+                reducedZoneFrames.offer(zones);
+                reducedFrames.incrementAndGet();
+            }
+        }
+        catch(InterruptedException e) {
+            //Stopped
+        }
+    }
+
+    /**
+     * Zone frame to reduce into, taking back the oldest frame that was not sent yet when transmit
+     * is behind.
+     */
+    private int[] takeZoneFrame() throws InterruptedException {
+        int[] zones = freeZoneFrames.poll();
+
+        if(zones != null) {
+            return zones;
+        }
+
+        zones = reducedZoneFrames.poll();
+
+        if(zones != null) {
+            droppedZoneFrames.incrementAndGet();
+            return zones;
+        }
+
+        //Render holds the other frames for a moment, it always hands them back:
+        return freeZoneFrames.take();
+    }
+
+    private static <T> void drain(ArrayBlockingQueue<T> from, ArrayBlockingQueue<T> to) {
+        T buffer;
+
+        while((buffer = from.poll()) != null) {
+            to.offer(buffer);
+        }
+    }
+
+    //#endregion
+
+    //#region Transmit
+
+    /**
+     * Called by the engine for every frame it sends, with the frame it sent last.
+     */
+    private void render(long timeMs, int[] frame) {
+        int[] newest = null;
+        int[] zones;
+
+        while((zones = reducedZoneFrames.poll()) != null) {
+            if(newest != null) {
+                freeZoneFrames.offer(newest);
+                droppedZoneFrames.incrementAndGet();
+            }
+
+            newest = zones;
+        }
+
+        //Nothing new, the strip keeps showing the last frame:
+        if(newest != null) {
+            System.arraycopy(newest, 0, frame, 0, frame.length);
+            freeZoneFrames.offer(newest);
+        }
+    }
+
+    //#endregion
+
+    public long getCapturedFrames() {
+        return capturedFrames.get();
+    }
+
+    /**
+     * Captured frames that were replaced by a newer one before they were reduced.
+     */
+    public long getDroppedGrids() {
+        return droppedGrids.get();
+    }
+
+    public long getReducedFrames() {
+        return reducedFrames.get();
+    }
+
+    /**
+     * Reduced frames that were replaced by a newer one before they were sent.
+     */
+    public long getDroppedZoneFrames() {
+        return droppedZoneFrames.get();
+    }
+
+    /**
+     * Downsampled frame, upright, in the layout of Bitmap.getPixels() with a stride of its width.
+     */
+    public static class Grid {
+        private final int[] pixels = new int[MAX_GRID_PIXELS];
+        private int width;
+        private int height;
+
+        public int[] getPixels() {
+            return pixels;
+        }
+
+        public void setSize(int width, int height) {
+            if(width * height > MAX_GRID_PIXELS) {
+                throw new IllegalArgumentException("Grid of " + width + "x" + height + " is larger than " + MAX_GRID_PIXELS + " pixels");
+            }
+
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+}
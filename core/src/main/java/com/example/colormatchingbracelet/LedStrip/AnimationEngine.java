@@ -0,0 +1,191 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders animations on the phone and streams them to the bracelet as pixel frames, so new effects
+ * do not need new firmware.
+ *
+ * Frames are rendered into a single reusable buffer on a dedicated scheduler thread. The frame
+ * rate starts at the target and is lowered when writes take longer than a frame interval. A frame
+ * whose deadline has passed, or that comes while the previous one is still being written, is
+ * skipped instead of queued, so the bracelet always shows the newest frame and the backlog never
+ * grows. Animations get the time since start, so skipping frames does not slow them down.
+ */
+public class AnimationEngine {
+
+    public interface Animation {
+        /**
+         * Render one frame.
+         * @param timeMs - Time since the animation was started.
+         * @param frame - Color (ARGB) of every led, to be filled in. Holds the previous frame.
+         */
+        void render(long timeMs, int[] frame);
+    }
+
+    public static final int DEFAULT_FPS = 30;
+    public static final int MIN_FPS = 5;
+
+    //Frame rate is adapted once every this many frames:
+    private static final int ADAPT_INTERVAL_FRAMES = 15;
+
+    //A frame interval has to be this much longer than the average write:
+    private static final float LATENCY_MARGIN = 1.25f;
+
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final int[] frame = new int[BraceletInformation.LED_STRIP_NUM_LEDS];
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AnimationEngine");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private IBluetoothService bluetoothService;
+    private Animation animation;
+    private ScheduledFuture<?> renderTask;
+
+    private int targetFps = DEFAULT_FPS;
+    private long frameIntervalNanos;
+    private long startTimeNanos;
+    private long nextFrameNanos;
+    private int framesSinceAdapt;
+
+    //Statistics:
+    private long framesSent;
+    private long framesSkipped;
+
+    /**
+     * Start streaming an animation, replacing the one that is running. Any firmware effect is
+     * turned off, since it would overwrite the streamed frames.
+     * @param bluetoothService - Service to stream the frames with.
+     * @param animation - Animation to render.
+     * @param targetFps - Frame rate to aim for when the link keeps up.
+     */
+    public synchronized void start(IBluetoothService bluetoothService, Animation animation, int targetFps) {
+        stop();
+        setTargetFps(targetFps);
+
+        if(!bluetoothService.isConnected()) {
+            return;
+        }
+
+        if(bluetoothService.getBraceletInformation().ledStripEffectCurrent != LedStripEffectType.NONE) {
+            LedStripCommand.sendEffect(bluetoothService, LedStripEffectType.NONE);
+        }
+
+        this.bluetoothService = bluetoothService;
+        this.animation = animation;
+
+        frameIntervalNanos = NANOS_PER_SECOND / targetFps;
+        framesSinceAdapt = 0;
+        startTimeNanos = System.nanoTime();
+        nextFrameNanos = startTimeNanos;
+
+        renderTask = executor.schedule(this::renderFrame, 0, TimeUnit.NANOSECONDS);
+    }
+
+    public void start(IBluetoothService bluetoothService, Animation animation) {
+        start(bluetoothService, animation, DEFAULT_FPS);
+    }
+
+    public synchronized void stop() {
+        if(renderTask != null) {
+            renderTask.cancel(false);
+            renderTask = null;
+        }
+
+        animation = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return renderTask != null;
+    }
+
+    /**
+     * Frame rate to aim for, the actual rate may be lower when the link can not keep up.
+     */
+    public synchronized void setTargetFps(int targetFps) {
+        if(targetFps < MIN_FPS) {
+            throw new IllegalArgumentException("Target fps must be at least " + MIN_FPS);
+        }
+
+        this.targetFps = targetFps;
+    }
+
+    /**
+     * Frame rate the engine currently renders at.
+     */
+    public synchronized int getCurrentFps() {
+        return frameIntervalNanos > 0 ? (int) (NANOS_PER_SECOND / frameIntervalNanos) : 0;
+    }
+
+    public synchronized long getFramesSent() {
+        return framesSent;
+    }
+
+    public synchronized long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    private synchronized void renderFrame() {
+        //Stopped while this frame was scheduled:
+        if(animation == null) {
+            return;
+        }
+
+        if(!bluetoothService.isConnected()) {
+            stop();
+            return;
+        }
+
+        long now = System.nanoTime();
+
+        //Previous frame is still being written, rendering this one would only queue it:
+        if(!bluetoothService.isWriteQueueIdle()) {
+            framesSkipped++;
+        }
+        else {
+            animation.render((now - startTimeNanos) / 1000000, frame);
+
+            if(LedStripCommand.sendPixels(bluetoothService, frame)) {
+                framesSent++;
+            }
+            else {
+                framesSkipped++;
+            }
+        }
+
+        if(++framesSinceAdapt >= ADAPT_INTERVAL_FRAMES) {
+            framesSinceAdapt = 0;
+            adaptFrameInterval();
+        }
+
+        //Frames whose deadline already passed are skipped, not rendered late:
+        nextFrameNanos += frameIntervalNanos;
+
+        if(nextFrameNanos <= now) {
+            long missed = (now - nextFrameNanos) / frameIntervalNanos + 1;
+
+            nextFrameNanos += missed * frameIntervalNanos;
+            framesSkipped += missed;
+        }
+
+        renderTask = executor.schedule(this::renderFrame, nextFrameNanos - now, TimeUnit.NANOSECONDS);
+    }
+
+    private void adaptFrameInterval() {
+        long targetInterval = NANOS_PER_SECOND / targetFps;
+        long latencyInterval = (long) (bluetoothService.getAverageWriteLatencyNanos() * LATENCY_MARGIN);
+
+        frameIntervalNanos = Math.min(Math.max(targetInterval, latencyInterval), NANOS_PER_SECOND / MIN_FPS);
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+/**
+ * Animations for the AnimationEngine. These match the firmware effects, but are based on time
+ * instead of a frame counter, so they run at the same speed at any frame rate.
+ */
+public class Animations {
+
+    private Animations() {
+
+    }
+
+    /**
+     * Color wheel moving along the strip.
+     * @param periodMs - Time for one full turn of the wheel.
+     */
+    public static AnimationEngine.Animation rainbow(long periodMs) {
+        return (timeMs, frame) -> {
+            int offset = (int) ((timeMs % periodMs) * 256 / periodMs);
+
+            for(int i = 0; i < frame.length; i++) {
+                frame[i] = wheel((i * 256 / frame.length + offset) & 0xFF);
+            }
+        };
+    }
+
+    /**
+     * A single led circling the strip, with a fading tail behind it.
+     * @param color - Color (ARGB) of the leds.
+     * @param periodMs - Time for one full circle.
+     */
+    public static AnimationEngine.Animation circle(int color, long periodMs) {
+        return (timeMs, frame) -> {
+            int position = (int) ((timeMs % periodMs) * frame.length / periodMs);
+
+            for(int i = 0; i < frame.length; i++) {
+                int distance = position >= i ? position - i : position + frame.length - i;
+                float brightness = 1.0f - (float) distance / frame.length;
+
+                frame[i] = scale(color, brightness * brightness * brightness);
+            }
+        };
+    }
+
+    /**
+     * Whole strip fading in and out.
+     * @param color - Color (ARGB) of the leds.
+     * @param periodMs - Time for fading in and out once.
+     */
+    public static AnimationEngine.Animation fade(int color, long periodMs) {
+        return (timeMs, frame) -> {
+            float phase = (float) (timeMs % periodMs) / periodMs;
+            int scaled = scale(color, phase < 0.5f ? phase * 2 : (1.0f - phase) * 2);
+
+            for(int i = 0; i < frame.length; i++) {
+                frame[i] = scaled;
+            }
+        };
+    }
+
+    /**
+     * Same color wheel as the firmware rainbow effect.
+     */
+    private static int wheel(int position) {
+        position = 255 - position;
+
+        if(position < 85) {
+            return rgb(255 - position * 3, 0, position * 3);
+        }
+        else if(position < 170) {
+            position -= 85;
+            return rgb(0, position * 3, 255 - position * 3);
+        }
+        else {
+            position -= 170;
+            return rgb(position * 3, 255 - position * 3, 0);
+        }
+    }
+
+    private static int scale(int color, float brightness) {
+        return rgb((int) (((color >> 16) & 0xFF) * brightness), (int) (((color >> 8) & 0xFF) * brightness), (int) ((color & 0xFF) * brightness));
+    }
+
+    private static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+}
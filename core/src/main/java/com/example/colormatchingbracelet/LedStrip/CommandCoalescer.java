@@ -0,0 +1,217 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latest value wins coalescing for continuous controls (brightness slider, color wheel, ...).
+ * Every key only remembers its newest value. Pending values are flushed at most maxRate times per
+ * second and only when the write queue of the link is empty, so frames are never stale by the time
+ * they are sent. A value equal to the last one the bracelet acknowledged is not sent again, a value
+ * only counts as acknowledged once its command completed as ACKNOWLEDGED.
+ */
+public class CommandCoalescer {
+
+    public interface Sender {
+        /**
+         * Send the frame for a key.
+         * @param bluetoothService - Service to send the frame with.
+         * @param key - Key of the command.
+         * @param value - Newest value of the command.
+         * @return Future of the command that was sent.
+         */
+        CommandFuture send(IBluetoothService bluetoothService, int key, int value);
+    }
+
+    public interface ReportedForm {
+        /**
+         * @return The value the bracelet reports in its status once it applied a sent value.
+         */
+        int of(int value);
+    }
+
+    private final Sender sender;
+    private final int numKeys;
+
+    private final boolean[] pending;
+    private final int[] pendingValues;
+    //Incremented for every value sent, so only the newest command of a key is acknowledged:
+    private final int[] sentSerials;
+    private final boolean[] acknowledged;
+    private final int[] acknowledgedValues;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CommandCoalescer");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private IBluetoothService bluetoothService;
+    private ScheduledFuture<?> flushTask;
+    private long flushIntervalMs;
+
+    public CommandCoalescer(int numKeys, int maxRate, Sender sender) {
+        this.numKeys = numKeys;
+        this.sender = sender;
+
+        pending = new boolean[numKeys];
+        pendingValues = new int[numKeys];
+        sentSerials = new int[numKeys];
+        acknowledged = new boolean[numKeys];
+        acknowledgedValues = new int[numKeys];
+
+        setMaxRate(maxRate);
+    }
+
+    /**
+     * Store a new value for a key, replacing the value that is still pending.
+     */
+    public synchronized void submit(IBluetoothService bluetoothService, int key, int value) {
+        if(this.bluetoothService != bluetoothService) {
+            this.bluetoothService = bluetoothService;
+            forgetAcknowledged();
+        }
+
+        pending[key] = true;
+        pendingValues[key] = value;
+
+        //Start flushing, the first flush runs right away:
+        if(flushTask == null && !executor.isShutdown()) {
+            flushTask = executor.scheduleWithFixedDelay(this::flush, 0, flushIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Drop the pending value of a key, used when the value was sent some other way.
+     */
+    public synchronized void cancel(int key) {
+        pending[key] = false;
+        acknowledged[key] = false;
+        sentSerials[key]++;
+    }
+
+    /**
+     * Maximum number of flushes per second, applies from the next burst of updates.
+     */
+    public synchronized void setMaxRate(int maxRate) {
+        if(maxRate <= 0) {
+            throw new IllegalArgumentException("Max rate must be positive");
+        }
+
+        flushIntervalMs = Math.max(1, 1000 / maxRate);
+    }
+
+    /**
+     * Drop every pending value and end the flush thread, nothing is sent after this.
+     */
+    public synchronized void shutdown() {
+        for(int key = 0; key < numKeys; key++) {
+            pending[key] = false;
+        }
+
+        stop();
+        executor.shutdown();
+    }
+
+    /**
+     * Forget what the bracelet acknowledged, for example when it may have changed on its own.
+     */
+    public synchronized void forgetAcknowledged() {
+        for(int key = 0; key < numKeys; key++) {
+            acknowledged[key] = false;
+            sentSerials[key]++;
+        }
+    }
+
+    /**
+     * Compare a value the bracelet reported with the one it acknowledged for a key. When they
+     * differ the bracelet changed on its own, so the next value is sent even if it is the same.
+     */
+    public synchronized void onReportedValue(int key, int value) {
+        if(acknowledged[key] && acknowledgedValues[key] != value) {
+            acknowledged[key] = false;
+        }
+    }
+
+    /**
+     * Same, for a key the bracelet does not report as it was sent.
+     * @param reportedForm - Maps an acknowledged value to how the bracelet reports it.
+     */
+    public synchronized void onReportedValue(int key, int value, ReportedForm reportedForm) {
+        if(acknowledged[key] && reportedForm.of(acknowledgedValues[key]) != value) {
+            acknowledged[key] = false;
+        }
+    }
+
+    private synchronized void flush() {
+        if(bluetoothService == null || !bluetoothService.isConnected()) {
+            //Nothing reaches the bracelet, drop everything:
+            for(int key = 0; key < numKeys; key++) {
+                pending[key] = false;
+            }
+
+            forgetAcknowledged();
+            stop();
+
+            return;
+        }
+
+        //Link can not accept a new frame yet, try again on the next tick:
+        if(!bluetoothService.isWriteQueueIdle()) {
+            return;
+        }
+
+        boolean sentAny = false;
+
+        for(int key = 0; key < numKeys; key++) {
+            if(!pending[key]) {
+                continue;
+            }
+
+            pending[key] = false;
+
+            if(acknowledged[key] && acknowledgedValues[key] == pendingValues[key]) {
+                continue;
+            }
+
+            send(key, pendingValues[key]);
+            sentAny = true;
+        }
+
+        //Keep ticking until nothing new comes in:
+        if(!sentAny) {
+            stop();
+        }
+    }
+
+    private void send(int key, int value) {
+        int serial = ++sentSerials[key];
+
+        //The value is only known to be applied once the bracelet acknowledged it:
+        acknowledged[key] = false;
+        sender.send(bluetoothService, key, value).addListener(completed -> onCompleted(key, value, serial, completed.getResult()));
+    }
+
+    private synchronized void onCompleted(int key, int value, int serial, CommandFuture.Result result) {
+        //A newer value was sent or the key was reset since:
+        if(sentSerials[key] != serial) {
+            return;
+        }
+
+        acknowledged[key] = result == CommandFuture.Result.ACKNOWLEDGED;
+        acknowledgedValues[key] = value;
+    }
+
+    private void stop() {
+        if(flushTask != null) {
+            flushTask.cancel(false);
+            flushTask = null;
+        }
+    }
+}
@@ -0,0 +1,476 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletCommand;
+import com.example.colormatchingbracelet.Bracelet.BraceletMode;
+import com.example.colormatchingbracelet.bluetooth.ClockSync;
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+import com.example.colormatchingbracelet.bluetooth.MessageType;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+public class LedStripCommand {
+    public static final int DEFAULT_MAX_COMMAND_RATE = 20; //Frames per second, per control
+
+    //Keys of the coalesced commands:
+    static final int KEY_BRIGHTNESS = 0;
+    static final int KEY_COLOR = 1;
+    static final int KEY_EFFECT = 2;
+
+    //Every link that was not shut down, so a new rate reaches all of them. Links belong to their
+    //session, this set does not keep them alive:
+    private static final Set<LedStripLink> links = Collections.newSetFromMap(new WeakHashMap<LedStripLink, Boolean>());
+    private static int maxCommandRate = DEFAULT_MAX_COMMAND_RATE;
+
+    /**
+     * Coalescing and pixel state for a new bracelet session, so bracelets never hold each other up.
+     * The session has to shut it down when it is closed.
+     */
+    public static LedStripLink createLink() {
+        synchronized(links) {
+            LedStripLink link = new LedStripLink(maxCommandRate, LedStripCommand::sendCoalesced);
+            links.add(link);
+
+            return link;
+        }
+    }
+
+    static void onLinkShutdown(LedStripLink link) {
+        synchronized(links) {
+            links.remove(link);
+        }
+    }
+
+    /**
+     * Change how often brightness, color and effect updates may be sent.
+     * @param maxRate - Maximum number of frames per second for each of them, per bracelet.
+     */
+    public static void setMaxCommandRate(int maxRate) {
+        synchronized(links) {
+            for(LedStripLink link : links) {
+                link.coalescer.setMaxRate(maxRate);
+            }
+
+            maxCommandRate = maxRate;
+        }
+    }
+
+    public static CommandFuture sendPowerMessage(IBluetoothService bluetoothService, boolean powerState) {
+        CommandFuture future = BraceletCommand.requestStatusOnFailure(bluetoothService, bluetoothService.sendCommand(MessageType.LEDSTRIP, encodePower(powerState)));
+
+        //Change local power state:
+        bluetoothService.updateBraceletInformation(builder -> builder.ledStripPowerState(powerState));
+
+        return future;
+    }
+
+    public static void sendBrightnessLevel(IBluetoothService bluetoothService, int brightness) {
+        //Only the newest level is sent:
+        submit(bluetoothService, KEY_BRIGHTNESS, brightness);
+
+        //Change local brightness:
+        bluetoothService.updateBraceletInformation(builder -> builder.ledStripBrightness(brightness));
+    }
+
+    public static void sendEffect(IBluetoothService bluetoothService, LedStripEffectType type) {
+        BraceletMode newMode = getModeForEffect(bluetoothService.getBraceletInformation().mode, type);
+
+        //Effect and mode are packed in one value, only the newest combination is sent:
+        submit(bluetoothService, KEY_EFFECT, (newMode.getValue() << 8) | type.getValue());
+
+        //Change current mode and effect:
+        bluetoothService.updateBraceletInformation(builder -> builder.mode(newMode).ledStripEffectCurrent(type));
+    }
+
+    /**
+     * Start an effect at a set time, so the effect runs in phase on every bracelet started at the
+     * same time. Without a synchronized bracelet clock the effect starts right away.
+     * @param startTimeMs - Phone time to start at, in the ClockSync.now() timeline.
+     * @return False when the effect was started right away instead.
+     */
+    public static boolean sendEffectAt(IBluetoothService bluetoothService, LedStripEffectType type, long startTimeMs) {
+        ClockSync clockSync = bluetoothService.getClockSync();
+
+        if(clockSync == null || !clockSync.isSynced()) {
+            sendEffect(bluetoothService, type);
+            return false;
+        }
+
+        BraceletMode newMode = getModeForEffect(bluetoothService.getBraceletInformation().mode, type);
+
+        //Replaces any effect that is still pending:
+        cancel(bluetoothService, KEY_EFFECT);
+
+        BraceletCommand.requestStatusOnFailure(bluetoothService, bluetoothService.sendCommand(MessageType.MODE, encodeEffectAt(newMode, type.getValue(), clockSync.toBraceletTime(startTimeMs))));
+        resetPixels(bluetoothService, null);
+
+        bluetoothService.updateBraceletInformation(builder -> builder.mode(newMode).ledStripEffectCurrent(type));
+
+        return true;
+    }
+
+    //For whole strip at once:
+    public static void sendColor(IBluetoothService bluetoothService, int color) {
+        submit(bluetoothService, KEY_COLOR, color);
+    }
+
+    /**
+     * Set the color of every led. Only the leds that changed since the last frame the bracelet
+     * received are sent. A frame is skipped while the previous one is still being written, so
+     * callers can send frames as fast as they render them.
+     * @param bluetoothService - Service to send the frame with.
+     * @param colors - Color (ARGB) of every led, BraceletInformation.LED_STRIP_NUM_LEDS long.
+     * @return False when the frame was skipped.
+     */
+    public static boolean sendPixels(IBluetoothService bluetoothService, int[] colors) {
+        LedStripLink link = bluetoothService.getLedStripLink();
+
+        if(link == null) {
+            return false;
+        }
+
+        PixelFrameEncoder pixelEncoder = link.pixelEncoder;
+        byte[] pixelPayload = link.pixelPayload;
+
+        synchronized(pixelEncoder) {
+            if(!bluetoothService.isConnected()) {
+                pixelEncoder.reset();
+                return false;
+            }
+
+            if(!bluetoothService.isWriteQueueIdle()) {
+                return false;
+            }
+
+            //Queue is empty, so the previous frame has been written:
+            pixelEncoder.onAcknowledged();
+
+            int length = pixelEncoder.encode(colors, pixelPayload);
+
+            if(length > 1) {
+                //Splitting on run boundaries when the frame does not fit in one write:
+                int runsPerChunk = Math.max(1, (bluetoothService.getMaxPayloadSize() - 1) / PixelFrameEncoder.RUN_SIZE);
+                int chunkSize = 1 + runsPerChunk * PixelFrameEncoder.RUN_SIZE;
+
+                if(length <= chunkSize) {
+                    bluetoothService.sendMessage(MessageType.LEDSTRIP, pixelPayload, length);
+                }
+                else {
+                    byte[] pixelChunk = link.pixelChunk;
+                    pixelChunk[0] = pixelPayload[0];
+
+                    for(int offset = 1; offset < length; offset += chunkSize - 1) {
+                        int count = Math.min(chunkSize - 1, length - offset);
+
+                        System.arraycopy(pixelPayload, offset, pixelChunk, 1, count);
+                        bluetoothService.sendMessage(MessageType.LEDSTRIP, pixelChunk, count + 1);
+                    }
+                }
+            }
+
+            //Every update is a new snapshot, so observers of the colors only get a few frames a second:
+            if(link.shouldPublishColors()) {
+                bluetoothService.updateBraceletInformation(builder -> builder.ledStripColors(colors));
+            }
+        }
+
+        //A whole strip color no longer applies:
+        link.coalescer.cancel(KEY_COLOR);
+
+        return true;
+    }
+
+    /**
+     * Start a batch of commands. Everything added to it is sent in as few frames as the MTU allows,
+     * so applying a full preset takes a single write.
+     */
+    public static Batch batch() {
+        return new Batch();
+    }
+
+    /**
+     * Mode the bracelet should be in to show an effect, keeping gesture recognition as it is.
+     */
+    public static BraceletMode getModeForEffect(BraceletMode mode, LedStripEffectType type) {
+        return (mode == BraceletMode.GESTURE || mode == BraceletMode.GESTURE_EFFECT)
+            ? (type == LedStripEffectType.NONE ? BraceletMode.GESTURE : BraceletMode.GESTURE_EFFECT)
+            : (type == LedStripEffectType.NONE ? BraceletMode.NORMAL : BraceletMode.EFFECT);
+    }
+
+    /**
+     * Called by the coalescer with the newest value of a command.
+     */
+    private static CommandFuture sendCoalesced(IBluetoothService bluetoothService, int key, int value) {
+        CommandFuture future;
+
+        switch(key) {
+            case KEY_BRIGHTNESS:
+                future = bluetoothService.sendCommand(MessageType.LEDSTRIP, encodeBrightness(value));
+                break;
+            case KEY_COLOR:
+                future = bluetoothService.sendCommand(MessageType.LEDSTRIP, encodeColor(value));
+                resetPixels(bluetoothService, value);
+                break;
+            case KEY_EFFECT:
+                future = bluetoothService.sendCommand(MessageType.MODE, encodeEffect(BraceletMode.fromValue(value >> 8), value & 0xFF));
+                resetPixels(bluetoothService, null);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown command key " + key);
+        }
+
+        return BraceletCommand.requestStatusOnFailure(bluetoothService, future);
+    }
+
+    /**
+     * The leds were changed by a whole strip command, the next pixel frame has to be sent in full.
+     * @param color - New color of every led, or null when it is not known (effects).
+     */
+    private static void resetPixels(IBluetoothService bluetoothService, Integer color) {
+        LedStripLink link = bluetoothService.getLedStripLink();
+
+        if(link == null) {
+            return;
+        }
+
+        synchronized(link.pixelEncoder) {
+            link.pixelEncoder.reset();
+
+            if(color != null) {
+                bluetoothService.updateBraceletInformation(builder -> builder.ledStripColor(color));
+            }
+        }
+    }
+
+    /**
+     * Coalesce a value on the link of the bracelet, dropped when no bracelet is behind the service.
+     */
+    private static void submit(IBluetoothService bluetoothService, int key, int value) {
+        LedStripLink link = bluetoothService.getLedStripLink();
+
+        if(link != null) {
+            link.coalescer.submit(bluetoothService, key, value);
+        }
+    }
+
+    private static void cancel(IBluetoothService bluetoothService, int key) {
+        LedStripLink link = bluetoothService.getLedStripLink();
+
+        if(link != null) {
+            link.coalescer.cancel(key);
+        }
+    }
+
+    //#region Payloads
+
+    private static byte[] encodePower(boolean powerState) {
+        byte[] data = new byte[2];
+
+        //Adding type of led strip command:
+        data[0] = (byte) LedStripCommandType.POWER.getValue();
+
+        //Adding power state:
+        data[1] = (byte) (powerState ? 1 : 0);
+
+        return data;
+    }
+
+    private static byte[] encodeBrightness(int brightness) {
+        byte[] data = new byte[2];
+
+        //Adding type of led strip command:
+        data[0] = (byte) LedStripCommandType.BRIGHTNESS.getValue();
+
+        //Adding brightness:
+        data[1] = (byte) brightness;
+
+        return data;
+    }
+
+    private static byte[] encodeColor(int color) {
+        byte[] data = new byte[5];
+
+        //Adding type of led strip command:
+        data[0] = (byte) LedStripCommandType.COLOR.getValue();
+
+        //Adding color to set:
+        data[1] = (byte) (color >> 24);
+        data[2] = (byte) ((color >> 16) & 0xFF);
+        data[3] = (byte) ((color >> 8) & 0xFF);
+        data[4] = (byte) (color & 0xFF);
+
+        return data;
+    }
+
+    private static byte[] encodeEffect(BraceletMode mode, int effect) {
+        //Adding effect type:
+        byte[] data = new byte[1];
+        data[0] = (byte) effect;
+
+        return BraceletCommand.encodeModeChange(mode, data);
+    }
+
+    /**
+     * Effect with the bracelet time to start it at, understood since protocol version 5.
+     */
+    private static byte[] encodeEffectAt(BraceletMode mode, int effect, long braceletTime) {
+        byte[] data = new byte[5];
+        data[0] = (byte) effect;
+
+        //Start time, big endian:
+        data[1] = (byte) (braceletTime >> 24);
+        data[2] = (byte) (braceletTime >> 16);
+        data[3] = (byte) (braceletTime >> 8);
+        data[4] = (byte) braceletTime;
+
+        return BraceletCommand.encodeModeChange(mode, data);
+    }
+
+    //#endregion
+
+    /**
+     * Builder for a LEDSTRIP_BATCH message. Every entry is Type | length | payload, where the type
+     * is LEDSTRIP or MODE and the payload is exactly what the single message would carry.
+     */
+    public static class Batch {
+        public static final int ENTRY_HEADER_SIZE = 2;
+
+        private final List<MessageType> types = new ArrayList<>();
+        private final List<byte[]> payloads = new ArrayList<>();
+        private final List<CommandFuture> futures = new ArrayList<>();
+
+        private Boolean powerState;
+        private Integer brightness;
+        private Integer color;
+        private LedStripEffectType effect;
+
+        private Batch() {
+
+        }
+
+        public Batch power(boolean powerState) {
+            this.powerState = powerState;
+            return this;
+        }
+
+        public Batch brightness(int brightness) {
+            this.brightness = brightness;
+            return this;
+        }
+
+        public Batch color(int color) {
+            this.color = color;
+            return this;
+        }
+
+        public Batch effect(LedStripEffectType effect) {
+            this.effect = effect;
+            return this;
+        }
+
+        /**
+         * Pack the commands into as few frames as fit in the current MTU and send them. A frame
+         * holding a single command is sent as a plain message.
+         * @param bluetoothService - Service to send the batch with.
+         * @return Number of frames that were sent.
+         */
+        public int send(IBluetoothService bluetoothService) {
+            BraceletMode newMode = effect != null ? getModeForEffect(bluetoothService.getBraceletInformation().mode, effect) : null;
+
+            types.clear();
+            payloads.clear();
+            futures.clear();
+
+            //Power first, so the other commands apply to a strip that is on:
+            if(powerState != null) {
+                add(MessageType.LEDSTRIP, encodePower(powerState));
+            }
+
+            if(brightness != null) {
+                add(MessageType.LEDSTRIP, encodeBrightness(brightness));
+                cancel(bluetoothService, KEY_BRIGHTNESS);
+            }
+
+            if(color != null) {
+                add(MessageType.LEDSTRIP, encodeColor(color));
+                cancel(bluetoothService, KEY_COLOR);
+            }
+
+            if(effect != null) {
+                add(MessageType.MODE, encodeEffect(newMode, effect.getValue()));
+                cancel(bluetoothService, KEY_EFFECT);
+            }
+
+            if(color != null || effect != null) {
+                resetPixels(bluetoothService, null);
+            }
+
+            int maxPayloadSize = bluetoothService.getMaxPayloadSize();
+
+            int framesSent = 0;
+            int first = 0;
+
+            while(first < payloads.size()) {
+                int size = ENTRY_HEADER_SIZE + payloads.get(first).length;
+                int last = first + 1;
+
+                while(last < payloads.size() && size + ENTRY_HEADER_SIZE + payloads.get(last).length <= maxPayloadSize) {
+                    size += ENTRY_HEADER_SIZE + payloads.get(last).length;
+                    last++;
+                }
+
+                CommandFuture future = last - first == 1
+                    ? bluetoothService.sendCommand(types.get(first), payloads.get(first))
+                    : bluetoothService.sendCommand(MessageType.LEDSTRIP_BATCH, pack(first, last, size));
+
+                futures.add(BraceletCommand.requestStatusOnFailure(bluetoothService, future));
+
+                framesSent++;
+                first = last;
+            }
+
+            //All local changes of the batch in one update:
+            bluetoothService.updateBraceletInformation(builder -> {
+                if(powerState != null) builder.ledStripPowerState(powerState);
+                if(brightness != null) builder.ledStripBrightness(brightness);
+                if(color != null) builder.ledStripColor(color);
+                if(newMode != null) builder.mode(newMode).ledStripEffectCurrent(effect);
+            });
+
+            return framesSent;
+        }
+
+        /**
+         * Futures of the frames of the last send, in the order they were sent.
+         */
+        public List<CommandFuture> getFutures() {
+            return futures;
+        }
+
+        private void add(MessageType type, byte[] payload) {
+            types.add(type);
+            payloads.add(payload);
+        }
+
+        private byte[] pack(int first, int last, int size) {
+            byte[] data = new byte[size];
+            int index = 0;
+
+            for(int i = first; i < last; i++) {
+                byte[] payload = payloads.get(i);
+
+                data[index++] = (byte) types.get(i).getValue();
+                data[index++] = (byte) payload.length;
+
+                System.arraycopy(payload, 0, data, index, payload.length);
+                index += payload.length;
+            }
+
+            return data;
+        }
+    }
+}
@@ -3,7 +3,8 @@ package com.example.colormatchingbracelet.LedStrip;
 public enum LedStripCommandType {
     POWER(0),
     BRIGHTNESS(1),
-    COLOR(2);
+    COLOR(2),
+    PIXELS(3);
 
     private final int value;
 
@@ -0,0 +1,38 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+public enum LedStripEffectType {
+    NONE(0),
+    RAINBOW(1),
+    TRAIL(2),
+    CIRCLE(3),
+    COMPASS(4),
+    FADE(5);
+
+    //Cached lookup table, indexed by value:
+    private static final LedStripEffectType[] BY_VALUE = new LedStripEffectType[values().length];
+
+    static {
+        for(LedStripEffectType type : values()) {
+            BY_VALUE[type.value] = type;
+        }
+    }
+
+    private final int value;
+
+    LedStripEffectType(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Look up a led strip effect by its value on the wire.
+     * @param value - Unsigned value byte.
+     * @return The matching entry, or null when the value is unknown.
+     */
+    public static LedStripEffectType fromValue(int value) {
+        return value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+    }
+}
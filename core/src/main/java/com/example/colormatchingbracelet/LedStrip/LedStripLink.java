@@ -0,0 +1,93 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Led strip state of a single bracelet: the coalescer of the continuous controls and the pixel
+ * frame encoder. Every session owns one, created with LedStripCommand.createLink(), and shuts it
+ * down when it is closed, so the state never outlives the bracelet.
+ */
+public class LedStripLink {
+    //Bracelet firmware limits the strip to this brightness, out of 100:
+    private static final int LED_STRIP_MAX_BRIGHTNESS = 30;
+
+    //Pixel frames are published to the bracelet state at most this often, not at the frame rate:
+    static final long COLORS_PUBLISH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    final CommandCoalescer coalescer;
+
+    //Per led frames, reused for every frame:
+    final PixelFrameEncoder pixelEncoder = new PixelFrameEncoder(BraceletInformation.LED_STRIP_NUM_LEDS);
+    final byte[] pixelPayload = new byte[pixelEncoder.getMaxEncodedSize()];
+    final byte[] pixelChunk = new byte[pixelEncoder.getMaxEncodedSize()];
+
+    //Guarded by pixelEncoder:
+    private long colorsPublishedNanos = System.nanoTime() - COLORS_PUBLISH_INTERVAL_NANOS;
+
+    LedStripLink(int maxCommandRate, CommandCoalescer.Sender sender) {
+        coalescer = new CommandCoalescer(3, maxCommandRate, sender);
+    }
+
+    /**
+     * The bracelet (re)connected, it may have restarted or been changed by another phone, so
+     * nothing it acknowledged before is known to hold.
+     */
+    public void onConnected() {
+        coalescer.forgetAcknowledged();
+
+        synchronized(pixelEncoder) {
+            pixelEncoder.reset();
+            colorsPublishedNanos = System.nanoTime() - COLORS_PUBLISH_INTERVAL_NANOS;
+        }
+    }
+
+    /**
+     * Whether the colors of a pixel frame that is being sent should be published to the bracelet
+     * state, every publish is a new snapshot so a stream only publishes a few frames a second.
+     * Called holding pixelEncoder.
+     */
+    boolean shouldPublishColors() {
+        long now = System.nanoTime();
+
+        if(now - colorsPublishedNanos < COLORS_PUBLISH_INTERVAL_NANOS) {
+            return false;
+        }
+
+        colorsPublishedNanos = now;
+        return true;
+    }
+
+    /**
+     * A status was received, values the bracelet reports differently than it acknowledged are
+     * forgotten, so they are sent again.
+     */
+    public void onStatusReceived(BraceletInformation information) {
+        //A mode or effect this app does not know can not be compared:
+        if(information.mode != null && information.ledStripEffectCurrent != null) {
+            coalescer.onReportedValue(LedStripCommand.KEY_EFFECT, (information.mode.getValue() << 8) | information.ledStripEffectCurrent.getValue());
+        }
+
+        coalescer.onReportedValue(LedStripCommand.KEY_BRIGHTNESS, information.ledStripBrightness, LedStripLink::reportedBrightness);
+    }
+
+    /**
+     * Brightness the bracelet reports for a level it was sent, scaled to its limit out of 255 the
+     * way the firmware does it.
+     * @param level - Brightness that was sent, 0 to 100.
+     */
+    static int reportedBrightness(int level) {
+        int bounded = (int) (level / 100.0 * LED_STRIP_MAX_BRIGHTNESS);
+
+        return (int) (bounded / 100.0 * 255.0);
+    }
+
+    /**
+     * Drop everything pending and end the coalescer thread, the link can not be used after this.
+     */
+    public void shutdown() {
+        coalescer.shutdown();
+        LedStripCommand.onLinkShutdown(this);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+/**
+ * Encodes per led frames for the PIXELS led strip command:
+ * PIXELS | (start | count | red | green | blue)*
+ *
+ * Only leds that differ from the last frame the bracelet acknowledged are sent, neighbouring leds
+ * with the same color are merged into a single run. Leds that did not change are still added to a
+ * run when they have its color, since that is free. Frames are plain ARGB int arrays, the alpha
+ * channel is ignored.
+ */
+public class PixelFrameEncoder {
+    public static final int RUN_SIZE = 5;
+
+    private final int numLeds;
+    private final int[] acknowledged;
+    private final int[] pending;
+
+    private boolean hasAcknowledged = false;
+    private boolean hasPending = false;
+
+    public PixelFrameEncoder(int numLeds) {
+        this.numLeds = numLeds;
+
+        acknowledged = new int[numLeds];
+        pending = new int[numLeds];
+    }
+
+    /**
+     * Largest payload a frame can encode to, when every led has a different new color.
+     */
+    public int getMaxEncodedSize() {
+        return 1 + numLeds * RUN_SIZE;
+    }
+
+    /**
+     * Encode the changes from the acknowledged frame to a new frame. The new frame becomes pending
+     * until onAcknowledged is called.
+     * @param frame - Colors of all leds.
+     * @param out - Buffer of at least getMaxEncodedSize() bytes.
+     * @return Number of bytes written, 1 when nothing changed.
+     */
+    public int encode(int[] frame, byte[] out) {
+        int length = 0;
+
+        out[length++] = (byte) LedStripCommandType.PIXELS.getValue();
+
+        int i = 0;
+
+        while(i < numLeds) {
+            int color = frame[i] & 0xFFFFFF;
+
+            //Unchanged leds do not need to start a run:
+            if(hasAcknowledged && color == (acknowledged[i] & 0xFFFFFF)) {
+                i++;
+                continue;
+            }
+
+            int start = i;
+
+            do {
+                i++;
+            } while(i < numLeds && (frame[i] & 0xFFFFFF) == color);
+
+            out[length++] = (byte) start;
+            out[length++] = (byte) (i - start);
+            out[length++] = (byte) (color >> 16);
+            out[length++] = (byte) (color >> 8);
+            out[length++] = (byte) color;
+        }
+
+        System.arraycopy(frame, 0, pending, 0, numLeds);
+        hasPending = true;
+
+        return length;
+    }
+
+    /**
+     * The last encoded frame has been written to the bracelet, use it as base for the next delta.
+     */
+    public void onAcknowledged() {
+        if(hasPending) {
+            System.arraycopy(pending, 0, acknowledged, 0, numLeds);
+            hasAcknowledged = true;
+            hasPending = false;
+        }
+    }
+
+    public boolean hasPending() {
+        return hasPending;
+    }
+
+    /**
+     * Forget the acknowledged frame, the next frame is sent in full. Needed whenever the leds were
+     * changed by something else (a color or effect command, a reconnect, ...).
+     */
+    public void reset() {
+        hasAcknowledged = false;
+        hasPending = false;
+    }
+}
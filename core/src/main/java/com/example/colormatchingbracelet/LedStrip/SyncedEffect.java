@@ -0,0 +1,117 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.bluetooth.ClockSync;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs a periodic effect in phase on every connected bracelet. The effect is started on all of them
+ * at the same phone time, converted to the clock of each bracelet, and the bracelets render it from
+ * there on their own. Crystals drift apart over time, so the same start time is sent again every
+ * RESYNC_INTERVAL_MS with the newest clock estimates. Bracelets without a synchronized clock only
+ * get the effect once, sending it again would restart it.
+ */
+public class SyncedEffect {
+    //Time for the start to reach every bracelet, on top of the slowest write latency:
+    public static final long START_DELAY_MS = 250;
+    public static final long RESYNC_INTERVAL_MS = 30000;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SyncedEffect");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private IBluetoothService bluetoothService;
+    private LedStripEffectType effect;
+    private long startTimeMs;
+    private ScheduledFuture<?> resyncTask;
+
+    /**
+     * Only effects that are a function of the time since their start can be kept in phase.
+     */
+    public static boolean isPeriodic(LedStripEffectType effect) {
+        return effect == LedStripEffectType.RAINBOW || effect == LedStripEffectType.CIRCLE || effect == LedStripEffectType.FADE;
+    }
+
+    /**
+     * Start an effect on every connected bracelet at once.
+     * @param bluetoothService - Service to fan out with.
+     * @param effect - A periodic effect.
+     */
+    public synchronized void start(IBluetoothService bluetoothService, LedStripEffectType effect) {
+        if(!isPeriodic(effect)) {
+            throw new IllegalArgumentException(effect + " is not a periodic effect");
+        }
+
+        stop();
+
+        //The slowest link decides how far ahead the start has to be:
+        long[] maxLatencyNanos = new long[1];
+
+        bluetoothService.forEachBracelet(bracelet -> maxLatencyNanos[0] = Math.max(maxLatencyNanos[0], bracelet.getAverageWriteLatencyNanos()));
+
+        this.bluetoothService = bluetoothService;
+        this.effect = effect;
+        startTimeMs = ClockSync.now() + START_DELAY_MS + 2 * TimeUnit.NANOSECONDS.toMillis(maxLatencyNanos[0]);
+
+        sendStart();
+
+        if(executor.isShutdown()) {
+            return;
+        }
+
+        resyncTask = executor.scheduleWithFixedDelay(this::resync, RESYNC_INTERVAL_MS, RESYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if(resyncTask != null) {
+            resyncTask.cancel(false);
+            resyncTask = null;
+        }
+
+        bluetoothService = null;
+    }
+
+    /**
+     * Stop and end the resync thread, nothing can be started after this.
+     */
+    public synchronized void shutdown() {
+        stop();
+        executor.shutdown();
+    }
+
+    public synchronized boolean isRunning() {
+        return resyncTask != null;
+    }
+
+    private synchronized void resync() {
+        if(bluetoothService == null) {
+            return;
+        }
+
+        //Changed from somewhere else, there is nothing to keep in phase anymore:
+        if(bluetoothService.getBraceletInformation().ledStripEffectCurrent != effect) {
+            stop();
+            return;
+        }
+
+        //Only bracelets that can start at a set time are kept in phase, the others keep running:
+        bluetoothService.forEachBracelet(bracelet -> {
+            ClockSync clockSync = bracelet.getClockSync();
+
+            if(clockSync != null && clockSync.isSynced()) {
+                LedStripCommand.sendEffectAt(bracelet, effect, startTimeMs);
+            }
+        });
+    }
+
+    private void sendStart() {
+        bluetoothService.forEachBracelet(bracelet -> LedStripCommand.sendEffectAt(bracelet, effect, startTimeMs));
+    }
+}
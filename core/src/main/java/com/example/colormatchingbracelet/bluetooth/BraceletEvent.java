@@ -0,0 +1,26 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+/**
+ * Events published on the BraceletStateStream. Events that happen within the same frame are
+ * delivered together as a bit mask, test it with in().
+ */
+public enum BraceletEvent {
+    CONNECTED,
+    DISCONNECTED,
+    SERVICES_DISCOVERED,
+    MESSAGE_RECEIVED,
+    INFORMATION_UPDATED;
+
+    private final int mask = 1 << ordinal();
+
+    public int getMask() {
+        return mask;
+    }
+
+    /**
+     * Check if this event is part of a delivered set of events.
+     */
+    public boolean in(int events) {
+        return (events & mask) != 0;
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+/**
+ * Where a BraceletSession publishes its events. On the phone this is a BraceletStateStream, which
+ * needs a main looper, so the session can publish elsewhere when it runs on a plain JVM.
+ */
+public interface BraceletEventSink {
+    //For sessions nobody observes, like the secondary bracelets:
+    BraceletEventSink NONE = new BraceletEventSink() {
+        @Override
+        public void publish(BraceletEvent event) {
+
+        }
+
+        @Override
+        public void publishInformation(int changedFields) {
+
+        }
+    };
+
+    /**
+     * Publish an event, can be called from any thread.
+     */
+    void publish(BraceletEvent event);
+
+    /**
+     * Publish an INFORMATION_UPDATED event, can be called from any thread.
+     * @param changedFields - Mask of the BraceletInformation.FIELD_ bits that changed.
+     */
+    void publishInformation(int changedFields);
+}
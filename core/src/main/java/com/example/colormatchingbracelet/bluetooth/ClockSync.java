@@ -0,0 +1,267 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the clock of a bracelet, NTP style, over the frame channel. A TIME_SYNC request carries
+ * the phone time it was sent at, the bracelet echoes it together with its own millis(). Assuming
+ * the request and response take equally long, the bracelet read its clock halfway the round trip.
+ *
+ * Queueing only ever makes a round trip slower, so samples much slower than the fastest one are
+ * ignored. Once the samples span long enough, a line is fitted through their offsets, its slope is
+ * the drift between the two crystals. Times are in milliseconds of the phone's monotonic clock, see
+ * now().
+ */
+public class ClockSync {
+    public static final int PROTOCOL_VERSION_TIME_SYNC = 5;
+
+    //Request: phone time | response: phone time | bracelet time, all 32 bit big endian:
+    public static final int REQUEST_SIZE = 4;
+    public static final int RESPONSE_SIZE = 8;
+
+    //A burst on start gives a usable offset right away, after that a sample every interval:
+    public static final int BURST_SAMPLES = 8;
+    public static final long BURST_INTERVAL_MS = 100;
+    public static final long SYNC_INTERVAL_MS = 10000;
+
+    public static final int WINDOW_SIZE = 32;
+    public static final long RTT_TOLERANCE_MS = 10;
+    public static final long MIN_DRIFT_SPAN_MS = 60000;
+
+    private static final long UINT32_MASK = 0xFFFFFFFFL;
+
+    private final IBluetoothService bluetoothService;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ClockSync");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private ScheduledFuture<?> requestTask;
+    private int burstRemaining;
+
+    //Ring of samples, oldest overwritten first:
+    private final long[] sampleTimes = new long[WINDOW_SIZE];
+    private final long[] sampleOffsets = new long[WINDOW_SIZE];
+    private final long[] sampleRoundTrips = new long[WINDOW_SIZE];
+    private int sampleCount;
+    private int nextSample;
+
+    //Estimate: offset at the reference time, changing by drift per millisecond:
+    private boolean synced;
+    private long referenceTimeMs;
+    private double referenceOffsetMs;
+    private double drift;
+    private long minRoundTripMs;
+
+    public ClockSync(IBluetoothService bluetoothService) {
+        this.bluetoothService = bluetoothService;
+    }
+
+    /**
+     * Phone time used by the estimator.
+     */
+    public static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    public synchronized void start() {
+        if(requestTask != null || executor.isShutdown()) {
+            return;
+        }
+
+        burstRemaining = BURST_SAMPLES;
+        schedule(0);
+    }
+
+    public synchronized void stop() {
+        if(requestTask != null) {
+            requestTask.cancel(false);
+            requestTask = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return requestTask != null;
+    }
+
+    /**
+     * Stop syncing and end the sync thread, syncing can not be started again.
+     */
+    public synchronized void shutdown() {
+        stop();
+        executor.shutdown();
+    }
+
+    /**
+     * Forget every sample, for example when another bracelet connects.
+     */
+    public synchronized void reset() {
+        sampleCount = 0;
+        nextSample = 0;
+        synced = false;
+        drift = 0;
+    }
+
+    /**
+     * Must be called for every TIME_SYNC response.
+     * @param echoedTime - Low 32 bits of the phone time the request was sent at.
+     * @param braceletTime - Bracelet millis() when it handled the request.
+     */
+    public void onResponse(long echoedTime, long braceletTime) {
+        onResponse(echoedTime, braceletTime, now());
+    }
+
+    /**
+     * @param receivedTime - Phone time the response was received at.
+     */
+    synchronized void onResponse(long echoedTime, long braceletTime, long receivedTime) {
+        long roundTrip = (receivedTime - echoedTime) & UINT32_MASK;
+
+        //Not an answer to a request of this run:
+        if(roundTrip > SYNC_INTERVAL_MS) {
+            return;
+        }
+
+        long sentTime = receivedTime - roundTrip;
+        long midTime = sentTime + roundTrip / 2;
+
+        //millis() wraps every 49.7 days, taking the value closest to the estimate keeps the offsets continuous:
+        if(synced) {
+            long expectedTime = midTime + Math.round(referenceOffsetMs + drift * (midTime - referenceTimeMs));
+
+            braceletTime = expectedTime + (int) (braceletTime - expectedTime);
+        }
+
+        sampleTimes[nextSample] = midTime;
+        sampleOffsets[nextSample] = braceletTime - midTime;
+        sampleRoundTrips[nextSample] = roundTrip;
+
+        nextSample = (nextSample + 1) % WINDOW_SIZE;
+        sampleCount = Math.min(sampleCount + 1, WINDOW_SIZE);
+
+        estimate();
+    }
+
+    public synchronized boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * Convert a phone time to the bracelet clock.
+     * @param phoneTimeMs - Time in the now() timeline.
+     * @return The bracelet millis() at that time, wrapped to 32 bits.
+     */
+    public synchronized long toBraceletTime(long phoneTimeMs) {
+        double offset = referenceOffsetMs + drift * (phoneTimeMs - referenceTimeMs);
+
+        return (phoneTimeMs + Math.round(offset)) & UINT32_MASK;
+    }
+
+    /**
+     * Bracelet clock minus phone clock, right now.
+     */
+    public synchronized double getOffsetMs() {
+        return referenceOffsetMs + drift * (now() - referenceTimeMs);
+    }
+
+    /**
+     * How much faster the bracelet clock runs, in parts per million.
+     */
+    public synchronized double getDriftPpm() {
+        return drift * 1e6;
+    }
+
+    /**
+     * Fastest round trip in the window, the offset is accurate to about half of it.
+     */
+    public synchronized long getMinRoundTripMs() {
+        return minRoundTripMs;
+    }
+
+    private void estimate() {
+        minRoundTripMs = Long.MAX_VALUE;
+
+        for(int i = 0; i < sampleCount; i++) {
+            minRoundTripMs = Math.min(minRoundTripMs, sampleRoundTrips[i]);
+        }
+
+        //Means of the samples that were not held up:
+        long maxRoundTrip = minRoundTripMs + RTT_TOLERANCE_MS;
+        long firstTime = Long.MAX_VALUE;
+        long lastTime = Long.MIN_VALUE;
+        double meanTime = 0;
+        double meanOffset = 0;
+        int count = 0;
+
+        for(int i = 0; i < sampleCount; i++) {
+            if(sampleRoundTrips[i] <= maxRoundTrip) {
+                meanTime += sampleTimes[i];
+                meanOffset += sampleOffsets[i];
+                firstTime = Math.min(firstTime, sampleTimes[i]);
+                lastTime = Math.max(lastTime, sampleTimes[i]);
+                count++;
+            }
+        }
+
+        meanTime /= count;
+        meanOffset /= count;
+
+        //Least squares slope, once the samples are far enough apart to tell drift from jitter:
+        double slope = 0;
+
+        if(count >= 2 && lastTime - firstTime >= MIN_DRIFT_SPAN_MS) {
+            double covariance = 0;
+            double variance = 0;
+
+            for(int i = 0; i < sampleCount; i++) {
+                if(sampleRoundTrips[i] <= maxRoundTrip) {
+                    double dt = sampleTimes[i] - meanTime;
+
+                    covariance += dt * (sampleOffsets[i] - meanOffset);
+                    variance += dt * dt;
+                }
+            }
+
+            slope = covariance / variance;
+        }
+
+        referenceTimeMs = Math.round(meanTime);
+        referenceOffsetMs = meanOffset;
+        drift = slope;
+        synced = true;
+    }
+
+    private synchronized void request() {
+        if(requestTask == null) {
+            return;
+        }
+
+        if(bluetoothService.isConnected()) {
+            long time = now();
+            byte[] data = new byte[REQUEST_SIZE];
+
+            data[0] = (byte) (time >> 24);
+            data[1] = (byte) (time >> 16);
+            data[2] = (byte) (time >> 8);
+            data[3] = (byte) time;
+
+            bluetoothService.sendMessage(MessageType.TIME_SYNC, data);
+        }
+
+        if(burstRemaining > 0) {
+            burstRemaining--;
+        }
+
+        schedule(burstRemaining > 0 ? BURST_INTERVAL_MS : SYNC_INTERVAL_MS);
+    }
+
+    private void schedule(long delayMs) {
+        requestTask = executor.schedule(this::request, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,352 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Acknowledged command channel, supported since protocol version 3.
+ *
+ * Commands are wrapped in a SEQUENCED message:
+ * Sequence number | Type | payload
+ * and the bracelet answers every one of them with an ACK message:
+ * Sequence number | result (RESULT_OK or RESULT_REJECTED)
+ *
+ * Up to WINDOW_SIZE commands are in flight at once, so commands are pipelined instead of waiting
+ * for each acknowledgement. A command that is not acknowledged within ACK_TIMEOUT_MS is sent again
+ * on its own, without resending the rest of the window. The bracelet remembers the sequence
+ * numbers it recently applied and only acknowledges retransmissions of those again.
+ *
+ * The timeout runs from the moment a command is actually written, reported through
+ * onFrameWritten(), so time spent behind other frames in the write queue never causes a
+ * retransmission. A command that is not even written within MAX_QUEUED_MS is given up on.
+ */
+public class CommandChannel {
+
+    public interface Sender {
+        /**
+         * Queue a frame for writing.
+         * @return False when it could not be queued, it is retransmitted after a timeout.
+         */
+        boolean send(MessageType type, byte[] data, int length);
+    }
+
+    public static final int PROTOCOL_VERSION_ACKNOWLEDGED = 3;
+
+    public static final int HEADER_SIZE = 2;
+    public static final int MAX_COMMAND_SIZE = FrameCodec.MAX_EXTENDED_PAYLOAD_SIZE - HEADER_SIZE;
+
+    //Has to divide 256, so the slot of a sequence number is always the same:
+    public static final int WINDOW_SIZE = 8;
+    public static final int ACK_TIMEOUT_MS = 500;
+    public static final int MAX_RETRANSMISSIONS = 3;
+    public static final int MAX_QUEUED_MS = ACK_TIMEOUT_MS * (MAX_RETRANSMISSIONS + 1);
+
+    //Sequence number | result:
+    public static final int ACK_SIZE = 2;
+
+    //ACK results:
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_REJECTED = 1;
+
+    private static final int TIMER_INTERVAL_MS = 50;
+
+    private final Sender sender;
+    private final Slot[] slots = new Slot[WINDOW_SIZE];
+
+    //Time every sequence number was last written, 0 while it is still queued. Set from the write
+    //queue without the lock of the channel, the queue is called with that lock held:
+    private final AtomicLongArray writtenAt = new AtomicLongArray(256);
+
+    //Commands waiting for a free slot:
+    private final ArrayDeque<WaitingCommand> waiting = new ArrayDeque<>();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "CommandChannel");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private ScheduledFuture<?> timeoutTask;
+    private int nextSequenceNumber = 0;
+    private int inFlight = 0;
+
+    //Statistics:
+    private long commandsAcknowledged;
+    private long commandsRejected;
+    private long commandsTimedOut;
+    private long retransmissions;
+
+    public CommandChannel(Sender sender) {
+        this.sender = sender;
+
+        for(int i = 0; i < WINDOW_SIZE; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    /**
+     * Send a command, it is queued when the window is full.
+     * @param type - Type of the message.
+     * @param data - Payload of the message, it is copied.
+     * @return Future that completes when the bracelet acknowledged or rejected the command.
+     */
+    public synchronized CommandFuture send(MessageType type, byte[] data) {
+        if(data.length > MAX_COMMAND_SIZE) {
+            throw new IllegalArgumentException("Command of " + data.length + " bytes does not fit in a frame");
+        }
+
+        CommandFuture future = new CommandFuture();
+        Slot slot = slots[nextSequenceNumber % WINDOW_SIZE];
+
+        if(slot.future != null || !waiting.isEmpty()) {
+            waiting.add(new WaitingCommand(type, data.clone(), future));
+            return future;
+        }
+
+        transmit(slot, type, data, future);
+
+        return future;
+    }
+
+    /**
+     * Must be called for every ACK message.
+     * @param sequenceNumber - Sequence number of the acknowledged command.
+     * @param result - RESULT_OK or RESULT_REJECTED.
+     */
+    public void onAck(int sequenceNumber, int result) {
+        CommandFuture future;
+
+        synchronized(this) {
+            Slot slot = slots[sequenceNumber % WINDOW_SIZE];
+
+            //Duplicate acknowledgement of a retransmitted command:
+            if(slot.future == null || slot.sequenceNumber != sequenceNumber) {
+                return;
+            }
+
+            future = release(slot);
+
+            if(result == RESULT_OK) {
+                commandsAcknowledged++;
+            }
+            else {
+                commandsRejected++;
+            }
+
+            sendWaiting();
+        }
+
+        future.complete(result == RESULT_OK ? CommandFuture.Result.ACKNOWLEDGED : CommandFuture.Result.REJECTED);
+    }
+
+    /**
+     * Must be called for every frame that was handed to the transport, starts the timeout of the
+     * command it carries.
+     * @param type - Type of the written message.
+     * @param data - Array holding the payload.
+     * @param offset - Offset of the payload inside data.
+     * @param length - Length of the payload.
+     */
+    public void onFrameWritten(MessageType type, byte[] data, int offset, int length) {
+        if(type == MessageType.SEQUENCED && length >= HEADER_SIZE) {
+            writtenAt.set(data[offset] & 0xFF, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Fail everything in flight or waiting, used when the connection is lost.
+     */
+    public void clear() {
+        List<CommandFuture> failed = new ArrayList<>();
+
+        synchronized(this) {
+            for(Slot slot : slots) {
+                if(slot.future != null) {
+                    failed.add(release(slot));
+                }
+            }
+
+            for(WaitingCommand command : waiting) {
+                failed.add(command.future);
+            }
+
+            waiting.clear();
+            nextSequenceNumber = 0;
+        }
+
+        for(CommandFuture future : failed) {
+            future.complete(CommandFuture.Result.DISCONNECTED);
+        }
+    }
+
+    /**
+     * Fail everything in flight or waiting and end the timeout thread, the channel can not be
+     * used after this.
+     */
+    public void shutdown() {
+        clear();
+
+        synchronized(this) {
+            executor.shutdown();
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public synchronized long getCommandsAcknowledged() {
+        return commandsAcknowledged;
+    }
+
+    public synchronized long getCommandsRejected() {
+        return commandsRejected;
+    }
+
+    public synchronized long getCommandsTimedOut() {
+        return commandsTimedOut;
+    }
+
+    public synchronized long getRetransmissions() {
+        return retransmissions;
+    }
+
+    private void transmit(Slot slot, MessageType type, byte[] data, CommandFuture future) {
+        slot.sequenceNumber = nextSequenceNumber;
+        slot.future = future;
+        slot.retransmissions = 0;
+
+        slot.buffer[0] = (byte) nextSequenceNumber;
+        slot.buffer[1] = (byte) type.getValue();
+        System.arraycopy(data, 0, slot.buffer, HEADER_SIZE, data.length);
+        slot.length = HEADER_SIZE + data.length;
+
+        nextSequenceNumber = (nextSequenceNumber + 1) & 0xFF;
+        inFlight++;
+
+        send(slot, System.currentTimeMillis());
+
+        //Watch for timeouts while anything is in flight:
+        if(timeoutTask == null && !executor.isShutdown()) {
+            timeoutTask = executor.scheduleWithFixedDelay(this::checkTimeouts, TIMER_INTERVAL_MS, TIMER_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private CommandFuture release(Slot slot) {
+        CommandFuture future = slot.future;
+
+        slot.future = null;
+        inFlight--;
+
+        if(inFlight == 0 && timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+
+        return future;
+    }
+
+    private void sendWaiting() {
+        while(!waiting.isEmpty()) {
+            Slot slot = slots[nextSequenceNumber % WINDOW_SIZE];
+
+            //Window is still blocked by an older command:
+            if(slot.future != null) {
+                return;
+            }
+
+            WaitingCommand command = waiting.poll();
+            transmit(slot, command.type, command.data, command.future);
+        }
+    }
+
+    private void checkTimeouts() {
+        List<CommandFuture> timedOut = null;
+
+        synchronized(this) {
+            long now = System.currentTimeMillis();
+
+            for(Slot slot : slots) {
+                if(slot.future == null) {
+                    continue;
+                }
+
+                long written = writtenAt.get(slot.sequenceNumber);
+
+                //Still waiting in the write queue, the bracelet can not have answered yet:
+                if(written == 0) {
+                    if(now - slot.queuedAt < MAX_QUEUED_MS) {
+                        continue;
+                    }
+                }
+                else if(now - written < ACK_TIMEOUT_MS) {
+                    continue;
+                }
+                //Only this command is sent again, the others in the window may still arrive:
+                else if(slot.retransmissions < MAX_RETRANSMISSIONS) {
+                    slot.retransmissions++;
+                    retransmissions++;
+
+                    send(slot, now);
+                    continue;
+                }
+
+                if(timedOut == null) {
+                    timedOut = new ArrayList<>();
+                }
+
+                timedOut.add(release(slot));
+                commandsTimedOut++;
+            }
+
+            if(timedOut != null) {
+                sendWaiting();
+            }
+        }
+
+        if(timedOut != null) {
+            for(CommandFuture future : timedOut) {
+                future.complete(CommandFuture.Result.TIMED_OUT);
+            }
+        }
+    }
+
+    private void send(Slot slot, long now) {
+        slot.queuedAt = now;
+        writtenAt.set(slot.sequenceNumber, 0);
+
+        //Not queued, so it is never written, the timeout runs from now:
+        if(!sender.send(MessageType.SEQUENCED, slot.buffer, slot.length)) {
+            writtenAt.set(slot.sequenceNumber, now);
+        }
+    }
+
+    private static class Slot {
+        final byte[] buffer = new byte[FrameCodec.MAX_EXTENDED_PAYLOAD_SIZE];
+
+        int sequenceNumber;
+        int length;
+        int retransmissions;
+        long queuedAt;
+        CommandFuture future;
+    }
+
+    private static class WaitingCommand {
+        final MessageType type;
+        final byte[] data;
+        final CommandFuture future;
+
+        WaitingCommand(MessageType type, byte[] data, CommandFuture future) {
+            this.type = type;
+            this.data = data;
+            this.future = future;
+        }
+    }
+}
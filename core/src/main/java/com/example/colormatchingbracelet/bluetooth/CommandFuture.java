@@ -0,0 +1,114 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+/**
+ * Outcome of a single command sent through the CommandChannel. Completes once, when the bracelet
+ * acknowledged or rejected the command, or when it was given up on.
+ */
+public class CommandFuture {
+
+    public enum Result {
+        //Bracelet applied the command:
+        ACKNOWLEDGED,
+        //Bracelet received the command but could not apply it:
+        REJECTED,
+        //No acknowledgement after all retransmissions:
+        TIMED_OUT,
+        //Connection was lost before the command was acknowledged:
+        DISCONNECTED,
+        //Command was sent, but the bracelet firmware does not acknowledge commands:
+        UNACKNOWLEDGED
+    }
+
+    public interface Listener {
+        /**
+         * Called once the command completed, on the thread that completed it.
+         */
+        void onComplete(CommandFuture future);
+    }
+
+    private Result result;
+    private Listener listener;
+
+    public static CommandFuture completed(Result result) {
+        CommandFuture future = new CommandFuture();
+        future.complete(result);
+
+        return future;
+    }
+
+    public synchronized boolean isDone() {
+        return result != null;
+    }
+
+    /**
+     * Result of the command, or null while it is still in flight.
+     */
+    public synchronized Result getResult() {
+        return result;
+    }
+
+    public synchronized boolean isAcknowledged() {
+        return result == Result.ACKNOWLEDGED;
+    }
+
+    /**
+     * Block until the command completed. Never call this on the main thread.
+     * @param timeoutMs - Maximum time to wait.
+     * @return Result of the command, or null when it did not complete in time.
+     */
+    public synchronized Result await(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+
+        while(result == null) {
+            long remaining = deadline - System.currentTimeMillis();
+
+            if(remaining <= 0) {
+                break;
+            }
+
+            wait(remaining);
+        }
+
+        return result;
+    }
+
+    /**
+     * Add a listener to call on completion, it is called right away when already completed.
+     * Listeners are called in the order they were added.
+     */
+    public void addListener(Listener listener) {
+        synchronized(this) {
+            if(result == null) {
+                Listener previous = this.listener;
+                this.listener = previous == null ? listener : completed -> {
+                    previous.onComplete(completed);
+                    listener.onComplete(completed);
+                };
+
+                return;
+            }
+        }
+
+        listener.onComplete(this);
+    }
+
+    void complete(Result result) {
+        Listener listener;
+
+        synchronized(this) {
+            if(this.result != null) {
+                return;
+            }
+
+            this.result = result;
+            listener = this.listener;
+            this.listener = null;
+
+            notifyAll();
+        }
+
+        if(listener != null) {
+            listener.onComplete(this);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight view over a decoded frame. The payload is not copied, it is read straight from the
+ * buffer the frame was decoded from. A view is only valid until that buffer is reused, so never
+ * hold on to it outside of the callback that received it.
+ */
+public final class Frame {
+    private ByteBuffer buffer;
+    private int payloadOffset;
+    private int payloadLength;
+    private MessageType type;
+
+    void set(ByteBuffer buffer, MessageType type, int payloadOffset, int payloadLength) {
+        this.buffer = buffer;
+        this.type = type;
+        this.payloadOffset = payloadOffset;
+        this.payloadLength = payloadLength;
+    }
+
+    public MessageType getType() {
+        return type;
+    }
+
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /**
+     * Read a payload byte.
+     * @param index - Index inside the payload.
+     * @return The byte as a signed value.
+     */
+    public byte getByte(int index) {
+        if(index < 0 || index >= payloadLength) {
+            throw new IndexOutOfBoundsException("Payload index " + index + ", length " + payloadLength);
+        }
+
+        return buffer.get(payloadOffset + index);
+    }
+
+    /**
+     * Read a payload byte as an unsigned value (0-255).
+     * @param index - Index inside the payload.
+     * @return The unsigned byte.
+     */
+    public int getUnsigned(int index) {
+        return getByte(index) & 0xFF;
+    }
+
+    /**
+     * Read four payload bytes as an unsigned big endian value, the byte order of the bracelet.
+     * @param index - Index of the first byte inside the payload.
+     * @return The unsigned 32 bit value.
+     */
+    public long getUnsignedInt(int index) {
+        return ((long) getUnsigned(index) << 24) | (getUnsigned(index + 1) << 16) | (getUnsigned(index + 2) << 8) | getUnsigned(index + 3);
+    }
+
+    /**
+     * Copy the payload out of the frame, for the rare case where it has to outlive the view.
+     * @param dest - Destination array.
+     * @param destOffset - Offset in the destination array.
+     */
+    public void copyPayload(byte[] dest, int destOffset) {
+        for(int i = 0; i < payloadLength; i++) {
+            dest[destOffset + i] = buffer.get(payloadOffset + i);
+        }
+    }
+}
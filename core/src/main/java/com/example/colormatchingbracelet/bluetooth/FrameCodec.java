@@ -0,0 +1,183 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encoder and decoder for the bracelet frame format:
+ * Start ('?') | Type | length | data | checksum
+ *
+ * Since protocol version 2 a payload longer than 255 bytes is sent in an extended frame. Its type
+ * byte has the high bit set and the length is sent as two bytes, most significant first:
+ * Start ('?') | Type + 0x80 | length high | length low | data | checksum
+ *
+ * The checksum is the XOR of every byte before it. Both directions work on caller owned buffers,
+ * so sending and receiving frames does not allocate.
+ */
+public final class FrameCodec {
+    public static final byte START_CHARACTER = '?';
+    public static final int FLAG_EXTENDED_LENGTH = 0x80;
+
+    public static final int PROTOCOL_VERSION_EXTENDED_LENGTH = 2;
+
+    public static final int HEADER_SIZE = 3;
+    public static final int EXTENDED_HEADER_SIZE = 4;
+    public static final int OVERHEAD = HEADER_SIZE + 1;
+    public static final int EXTENDED_OVERHEAD = EXTENDED_HEADER_SIZE + 1;
+    public static final int MAX_PAYLOAD_SIZE = 255;
+    public static final int MAX_EXTENDED_PAYLOAD_SIZE = 1024;
+    public static final int MAX_FRAME_SIZE = EXTENDED_OVERHEAD + MAX_EXTENDED_PAYLOAD_SIZE;
+
+    //Decode results:
+    public static final int RESULT_OK = 0;
+    public static final int RESULT_INCOMPLETE = 1;
+    public static final int RESULT_INVALID_START = 2;
+    public static final int RESULT_INVALID_TYPE = 3;
+    public static final int RESULT_INVALID_CHECKSUM = 4;
+    public static final int RESULT_INVALID_LENGTH = 5;
+
+    private FrameCodec() {
+
+    }
+
+    /**
+     * Encode a frame at the current position of the buffer and advance the position past it.
+     * Payloads longer than MAX_PAYLOAD_SIZE are encoded as an extended frame.
+     * @param out - Buffer to write the frame into.
+     * @param type - Type of the message.
+     * @param data - Array holding the payload.
+     * @param offset - Offset of the payload inside data.
+     * @param length - Length of the payload.
+     * @return Size of the encoded frame in bytes.
+     */
+    public static int encode(ByteBuffer out, MessageType type, byte[] data, int offset, int length) {
+        if(length < 0 || length > MAX_EXTENDED_PAYLOAD_SIZE) {
+            throw new IllegalArgumentException("Payload of " + length + " bytes does not fit in a frame");
+        }
+
+        boolean extended = length > MAX_PAYLOAD_SIZE;
+        int frameSize = (extended ? EXTENDED_OVERHEAD : OVERHEAD) + length;
+
+        if(out.remaining() < frameSize) {
+            throw new BufferOverflowException();
+        }
+
+        int start = out.position();
+        int typeValue = extended ? type.getValue() | FLAG_EXTENDED_LENGTH : type.getValue();
+        int checkSum = START_CHARACTER ^ typeValue;
+
+        out.put(START_CHARACTER);
+        out.put((byte) typeValue);
+
+        //Message length:
+        if(extended) {
+            out.put((byte) (length >> 8));
+            out.put((byte) length);
+            checkSum ^= (length >> 8) ^ (length & 0xFF);
+        }
+        else {
+            out.put((byte) length);
+            checkSum ^= length;
+        }
+
+        //Data:
+        for(int i = offset; i < offset + length; i++) {
+            out.put(data[i]);
+            checkSum ^= data[i];
+        }
+
+        //Checksum:
+        out.put((byte) checkSum);
+
+        return out.position() - start;
+    }
+
+    public static int encode(ByteBuffer out, MessageType type, byte[] data) {
+        return encode(out, type, data, 0, data.length);
+    }
+
+    /**
+     * Size of the frame holding a payload of the given length.
+     */
+    public static int frameSize(int payloadLength) {
+        return (payloadLength > MAX_PAYLOAD_SIZE ? EXTENDED_OVERHEAD : OVERHEAD) + payloadLength;
+    }
+
+    /**
+     * Size of the header that belongs to a type byte.
+     */
+    public static int headerSize(int typeByte) {
+        return (typeByte & FLAG_EXTENDED_LENGTH) != 0 ? EXTENDED_HEADER_SIZE : HEADER_SIZE;
+    }
+
+    /**
+     * Decode the frame starting at the current position of the buffer. On success the frame view
+     * points into the buffer and the position is moved past the frame, otherwise the position is
+     * left untouched.
+     * @param in - Buffer holding the received bytes between position and limit.
+     * @param frame - Flyweight that will point at the decoded frame.
+     * @return One of the RESULT_ constants.
+     */
+    public static int decode(ByteBuffer in, Frame frame) {
+        int start = in.position();
+        int available = in.limit() - start;
+
+        //Checking if minimum fields are there:
+        if(available < OVERHEAD) {
+            return RESULT_INCOMPLETE;
+        }
+
+        if(in.get(start) != START_CHARACTER) {
+            return RESULT_INVALID_START;
+        }
+
+        int typeByte = in.get(start + 1) & 0xFF;
+        MessageType type = MessageType.fromValue(typeByte & ~FLAG_EXTENDED_LENGTH);
+
+        if(type == null) {
+            return RESULT_INVALID_TYPE;
+        }
+
+        int headerSize = headerSize(typeByte);
+
+        if(available < headerSize + 1) {
+            return RESULT_INCOMPLETE;
+        }
+
+        int length = headerSize == EXTENDED_HEADER_SIZE
+                ? ((in.get(start + 2) & 0xFF) << 8) | (in.get(start + 3) & 0xFF)
+                : in.get(start + 2) & 0xFF;
+
+        if(length > MAX_EXTENDED_PAYLOAD_SIZE) {
+            return RESULT_INVALID_LENGTH;
+        }
+
+        int frameSize = headerSize + length + 1;
+
+        if(available < frameSize) {
+            return RESULT_INCOMPLETE;
+        }
+
+        if(checksum(in, start, frameSize - 1) != (in.get(start + frameSize - 1) & 0xFF)) {
+            return RESULT_INVALID_CHECKSUM;
+        }
+
+        frame.set(in, type, start + headerSize, length);
+        in.position(start + frameSize);
+
+        return RESULT_OK;
+    }
+
+    /**
+     * XOR checksum over a range of the buffer, using absolute indices.
+     */
+    public static int checksum(ByteBuffer buffer, int offset, int length) {
+        int checkSum = 0;
+
+        for(int i = offset; i < offset + length; i++) {
+            checkSum ^= buffer.get(i);
+        }
+
+        return checkSum & 0xFF;
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Stream decoder for incoming notifications. Bytes are collected in a ring buffer, so a single
+ * notification may hold several frames, a part of a frame, or garbage. Every complete frame is
+ * handed to the listener. After a bad start character, type or checksum the decoder drops one byte
+ * and searches for the next start character.
+ */
+public class FrameDecoder {
+
+    public interface FrameListener {
+        /**
+         * Called for every complete and valid frame.
+         * @param frame - View on the frame, only valid during this call.
+         */
+        void onFrame(Frame frame);
+    }
+
+    //Two full frames fit, so a partial frame never blocks new data:
+    private static final int RING_SIZE = Integer.highestOneBit(FrameCodec.MAX_FRAME_SIZE * 2 - 1) << 1;
+    private static final int RING_MASK = RING_SIZE - 1;
+
+    private final byte[] ring = new byte[RING_SIZE];
+    private final ByteBuffer ringView = ByteBuffer.wrap(ring);
+    private final ByteBuffer linearBuffer = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+    private final Frame frame = new Frame();
+    private final FrameListener listener;
+
+    //Read and write positions, always kept within the ring:
+    private int head;
+    private int size;
+
+    //Statistics:
+    private long framesDecoded;
+    private long discardedBytes;
+    private long checksumErrors;
+
+    public FrameDecoder(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Add received bytes and decode every frame that is complete.
+     * @param data - Received bytes.
+     * @param offset - Offset of the first byte in data.
+     * @param length - Number of bytes to add.
+     * @return Number of frames decoded from this chunk.
+     */
+    public int feed(byte[] data, int offset, int length) {
+        int decoded = 0;
+
+        while(length > 0) {
+            //Copying as much as fits, in at most two parts because of the wrap around:
+            int count = Math.min(length, RING_SIZE - size);
+            int tail = (head + size) & RING_MASK;
+            int firstPart = Math.min(count, RING_SIZE - tail);
+
+            System.arraycopy(data, offset, ring, tail, firstPart);
+            System.arraycopy(data, offset + firstPart, ring, 0, count - firstPart);
+
+            size += count;
+            offset += count;
+            length -= count;
+
+            decoded += decodeFrames();
+        }
+
+        return decoded;
+    }
+
+    public int feed(byte[] data) {
+        return feed(data, 0, data.length);
+    }
+
+    /**
+     * Throw away all buffered bytes, for example after a reconnect.
+     */
+    public void reset() {
+        head = 0;
+        size = 0;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    public long getDiscardedBytes() {
+        return discardedBytes;
+    }
+
+    public long getChecksumErrors() {
+        return checksumErrors;
+    }
+
+    private int decodeFrames() {
+        int decoded = 0;
+
+        while(size > 0) {
+            //Searching start character:
+            if(peek(0) != FrameCodec.START_CHARACTER) {
+                discard(1);
+                continue;
+            }
+
+            if(size < 2) {
+                break;
+            }
+
+            int typeByte = peek(1) & 0xFF;
+            MessageType type = MessageType.fromValue(typeByte & ~FrameCodec.FLAG_EXTENDED_LENGTH);
+
+            if(type == null) {
+                discard(1);
+                continue;
+            }
+
+            int headerSize = FrameCodec.headerSize(typeByte);
+
+            if(size < headerSize) {
+                break;
+            }
+
+            int length = headerSize == FrameCodec.EXTENDED_HEADER_SIZE
+                    ? ((peek(2) & 0xFF) << 8) | (peek(3) & 0xFF)
+                    : peek(2) & 0xFF;
+
+            if(length > FrameCodec.MAX_EXTENDED_PAYLOAD_SIZE) {
+                discard(1);
+                continue;
+            }
+
+            int frameSize = headerSize + length + 1;
+
+            if(size < frameSize) {
+                break;
+            }
+
+            //Checking checksum:
+            int checkSum = 0;
+
+            for(int i = 0; i < frameSize - 1; i++) {
+                checkSum ^= peek(i);
+            }
+
+            if((checkSum & 0xFF) != (peek(frameSize - 1) & 0xFF)) {
+                checksumErrors++;
+                discard(1);
+                continue;
+            }
+
+            //Frame is valid, only copy it when it wraps around the end of the ring:
+            if(head + frameSize <= RING_SIZE) {
+                frame.set(ringView, type, head + headerSize, length);
+            }
+            else {
+                for(int i = 0; i < frameSize; i++) {
+                    linearBuffer.put(i, peek(i));
+                }
+
+                frame.set(linearBuffer, type, headerSize, length);
+            }
+
+            //Consumed before it is handed out, a listener that throws must not get it again. The
+            //bytes stay in the ring until the next feed:
+            head = (head + frameSize) & RING_MASK;
+            size -= frameSize;
+            framesDecoded++;
+            decoded++;
+
+            listener.onFrame(frame);
+        }
+
+        return decoded;
+    }
+
+    private byte peek(int index) {
+        return ring[(head + index) & RING_MASK];
+    }
+
+    private void discard(int count) {
+        head = (head + count) & RING_MASK;
+        size -= count;
+        discardedBytes += count;
+    }
+}
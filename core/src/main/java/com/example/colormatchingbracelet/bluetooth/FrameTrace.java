@@ -0,0 +1,156 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Recorder of the raw bytes going over bracelet links, so a session can be replayed later. Records
+ * are appended to a memory mapped file, recording a frame is a copy into the page cache and never
+ * waits for the disk.
+ *
+ * File layout, little endian:
+ *   header: magic | version | start time (ms since the epoch)
+ *   record: time (ns since the start) | session | direction | length | bytes
+ *
+ * Inbound records hold the notifications as received, not the decoded frames, so replaying them
+ * also reproduces how frames were split and merged by the link.
+ */
+public class FrameTrace implements Closeable {
+    public static final int MAGIC = 0x43525442; //"BTRC"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 12;
+
+    public static final int DIRECTION_INBOUND = 0;
+    public static final int DIRECTION_OUTBOUND = 1;
+
+    //The file is mapped in regions of this size, a new one is mapped when the current one is full.
+    //Notifications and frames are far smaller, so a record always fits in a region:
+    private static final int REGION_SIZE = 1 << 20;
+    public static final long DEFAULT_MAX_SIZE = 64L << 20;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final long maxSize;
+    private final long startTimeNanos = System.nanoTime();
+
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long recordsWritten;
+    private long recordsDropped;
+    private boolean closed;
+
+    public FrameTrace(File file) throws IOException {
+        this(file, DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Start a new trace, an existing file is overwritten.
+     * @param maxSize - Records that do not fit in this many bytes are dropped.
+     */
+    public FrameTrace(File file, long maxSize) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.maxSize = maxSize;
+
+        channel.truncate(0);
+        mapRegion(0);
+
+        region.putInt(MAGIC);
+        region.putInt(VERSION);
+        region.putLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Append a record.
+     * @param session - Index of the link, to tell several bracelets apart.
+     * @param direction - DIRECTION_INBOUND or DIRECTION_OUTBOUND.
+     * @return False when the trace is full or closed, the record was dropped.
+     */
+    public synchronized boolean record(int session, int direction, byte[] data, int offset, int length) {
+        long time = System.nanoTime() - startTimeNanos;
+
+        //Empty records would look like the end of the trace:
+        if(length == 0) {
+            return true;
+        }
+
+        int recordSize = RECORD_HEADER_SIZE + length;
+
+        if(closed || length > 0xFFFF || regionStart + region.position() + recordSize > maxSize) {
+            recordsDropped++;
+            return false;
+        }
+
+        try {
+            if(region.remaining() < recordSize) {
+                mapRegion(regionStart + region.position());
+            }
+        }
+        catch(IOException e) {
+            recordsDropped++;
+            return false;
+        }
+
+        region.putLong(time);
+        region.put((byte) session);
+        region.put((byte) direction);
+        region.putShort((short) length);
+        region.put(data, offset, length);
+
+        recordsWritten++;
+
+        return true;
+    }
+
+    public boolean record(int session, int direction, byte[] data) {
+        return record(session, direction, data, 0, data.length);
+    }
+
+    public synchronized long getRecordsWritten() {
+        return recordsWritten;
+    }
+
+    public synchronized long getRecordsDropped() {
+        return recordsDropped;
+    }
+
+    /**
+     * Bytes written so far, header included.
+     */
+    public synchronized long getSize() {
+        return regionStart + region.position();
+    }
+
+    /**
+     * Stop recording and cut the file to the recorded size.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed) {
+            return;
+        }
+
+        closed = true;
+
+        long size = getSize();
+
+        region.force();
+        channel.truncate(size);
+        file.close();
+    }
+
+    /**
+     * Map the region starting at position, records never cross the end of a region.
+     */
+    private void mapRegion(long position) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, position, REGION_SIZE);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = position;
+    }
+}
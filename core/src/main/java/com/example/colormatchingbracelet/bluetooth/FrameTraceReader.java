@@ -0,0 +1,139 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the records of a FrameTrace file in order. The reader is a cursor, next() moves it to the
+ * next record and the getters describe the current one, so reading a trace does not allocate.
+ */
+public class FrameTraceReader implements Closeable {
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final long startTimeMs;
+
+    private long timeNanos;
+    private int session;
+    private int direction;
+    private int dataOffset;
+    private int length;
+
+    public FrameTraceReader(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+
+        FileChannel channel = this.file.getChannel();
+
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if(buffer.remaining() < FrameTrace.HEADER_SIZE || buffer.getInt() != FrameTrace.MAGIC) {
+            close();
+            throw new IOException(file + " is not a frame trace");
+        }
+
+        int version = buffer.getInt();
+
+        if(version != FrameTrace.VERSION) {
+            close();
+            throw new IOException("Unsupported frame trace version " + version);
+        }
+
+        startTimeMs = buffer.getLong();
+    }
+
+    /**
+     * Move to the next record.
+     * @return False at the end of the trace, or when the last record was cut off.
+     */
+    public boolean next() {
+        if(buffer.remaining() < FrameTrace.RECORD_HEADER_SIZE) {
+            return false;
+        }
+
+        long time = buffer.getLong();
+        int session = buffer.get() & 0xFF;
+        int direction = buffer.get() & 0xFF;
+        int length = buffer.getShort() & 0xFFFF;
+
+        //A trace that was not closed ends in the zeros of its last mapped region:
+        if(buffer.remaining() < length || (time == 0 && length == 0)) {
+            return false;
+        }
+
+        this.timeNanos = time;
+        this.session = session;
+        this.direction = direction;
+        this.dataOffset = buffer.position();
+        this.length = length;
+
+        buffer.position(dataOffset + length);
+
+        return true;
+    }
+
+    /**
+     * Start over at the first record.
+     */
+    public void rewind() {
+        buffer.position(FrameTrace.HEADER_SIZE);
+    }
+
+    /**
+     * Wall clock time the trace was started, in milliseconds since the epoch.
+     */
+    public long getStartTimeMs() {
+        return startTimeMs;
+    }
+
+    /**
+     * Time of the current record since the start of the trace.
+     */
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public int getSession() {
+        return session;
+    }
+
+    public int getDirection() {
+        return direction;
+    }
+
+    public boolean isInbound() {
+        return direction == FrameTrace.DIRECTION_INBOUND;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Copy the bytes of the current record.
+     * @return Number of bytes copied.
+     */
+    public int getData(byte[] destination, int offset) {
+        for(int i = 0; i < length; i++) {
+            destination[offset + i] = buffer.get(dataOffset + i);
+        }
+
+        return length;
+    }
+
+    public byte[] getData() {
+        byte[] data = new byte[length];
+        getData(data, 0);
+
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.Bracelet.BraceletStateStore;
+import com.example.colormatchingbracelet.LedStrip.LedStripLink;
+
+public interface IBluetoothService {
+    boolean connectToDevice(String address);
+    void disconnect();
+    void sendMessage(MessageType type, byte[] data);
+    void sendMessage(MessageType type, byte[] data, int length);
+    CommandFuture sendCommand(MessageType type, byte[] data);
+    int getMaxPayloadSize();
+    int getConnectionState();
+    boolean isConnected();
+    boolean isWriteQueueIdle();
+    long getAverageWriteLatencyNanos();
+
+    //Run an action for every connected bracelet, returns how many it ran for:
+    int forEachBracelet(SessionAction action);
+
+    //Clock of the bracelet, for effects that start at a set time:
+    ClockSync getClockSync();
+
+    //Bracelet status:
+    BraceletInformation getBraceletInformation();
+    int updateBraceletInformation(BraceletStateStore.Modifier modifier);
+    BraceletStateStore getBraceletStateStore();
+
+    //Led strip command state of the bracelet, null when there is no bracelet behind the service:
+    LedStripLink getLedStripLink();
+
+}
@@ -0,0 +1,138 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed memory histogram of latencies, recorded lock free from any thread.
+ *
+ * Values are kept in microseconds in log-linear buckets: below SUB_BUCKETS every value has its own
+ * bucket, above it every power of two is split in SUB_BUCKETS buckets. So the relative error is at
+ * most 1 / SUB_BUCKETS over the whole range, from a microsecond up to MAX_MICROS.
+ */
+public class LatencyHistogram {
+    public static final int SUB_BUCKET_BITS = 4;
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    //About 19 hours, larger values are counted in the last bucket:
+    public static final int MAX_EXPONENT = 36;
+    public static final long MAX_MICROS = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(TimeUnit.NANOSECONDS.toMicros(nanos), 0), MAX_MICROS);
+
+        buckets.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+
+        //getAndUpdate needs API 24:
+        long max;
+
+        do {
+            max = maxMicros.get();
+        } while(micros > max && !maxMicros.compareAndSet(max, micros));
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMeanNanos() {
+        long samples = count.get();
+
+        return samples == 0 ? 0 : TimeUnit.MICROSECONDS.toNanos(sumMicros.get() / samples);
+    }
+
+    public long getMaxNanos() {
+        return TimeUnit.MICROSECONDS.toNanos(maxMicros.get());
+    }
+
+    /**
+     * Latency below which the given fraction of the samples is.
+     * @param percentile - Between 0 and 100.
+     * @return The middle of the bucket the percentile falls in, 0 without samples.
+     */
+    public long getPercentileNanos(double percentile) {
+        long samples = count.get();
+
+        if(samples == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(samples * percentile / 100.0));
+        long seen = 0;
+
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+
+            if(seen >= rank) {
+                return TimeUnit.MICROSECONDS.toNanos(Math.min(lowerBoundOf(i) + widthOf(i) / 2, maxMicros.get()));
+            }
+        }
+
+        return getMaxNanos();
+    }
+
+    /**
+     * Visit every bucket holding samples, lowest first.
+     */
+    public void forEachBucket(BucketVisitor visitor) {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            long bucketCount = buckets.get(i);
+
+            if(bucketCount > 0) {
+                visitor.visit(lowerBoundOf(i), lowerBoundOf(i) + widthOf(i), bucketCount);
+            }
+        }
+    }
+
+    public interface BucketVisitor {
+        /**
+         * @param fromMicros - Lowest value of the bucket.
+         * @param toMicros - First value of the next bucket.
+         */
+        void visit(long fromMicros, long toMicros, long count);
+    }
+
+    public void reset() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+
+    static int bucketOf(long micros) {
+        if(micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    static long widthOf(int bucket) {
+        return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+    }
+}
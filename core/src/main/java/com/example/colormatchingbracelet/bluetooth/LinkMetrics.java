@@ -0,0 +1,213 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms of the bracelet links. Recording is lock free and allocation
+ * free, so it stays on in release builds; every bracelet of a service records into the same
+ * registry.
+ */
+public class LinkMetrics {
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong checksumErrors = new AtomicLong();
+    private final AtomicLong bytesDiscarded = new AtomicLong();
+
+    //From starting a write until its completion callback:
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    //From requesting the status until it is received:
+    private final LatencyHistogram statusRoundTrip = new LatencyHistogram();
+
+    private volatile long startTimeNanos = System.nanoTime();
+
+    //From the launch of the app until the first frame was written, -1 until both happened:
+    private volatile long launchTimeNanos = -1;
+    private final AtomicLong timeToFirstCommandNanos = new AtomicLong(-1);
+
+    public void onFrameSent(int bytes) {
+        framesSent.incrementAndGet();
+        bytesSent.addAndGet(bytes);
+    }
+
+    /**
+     * A frame was dropped before it was sent, because the queue was full or it was too large.
+     */
+    public void onFrameDropped() {
+        framesDropped.incrementAndGet();
+    }
+
+    public void onBytesReceived(int bytes) {
+        bytesReceived.addAndGet(bytes);
+    }
+
+    public void onFrameReceived() {
+        framesReceived.incrementAndGet();
+    }
+
+    public void onChecksumErrors(long errors) {
+        checksumErrors.addAndGet(errors);
+    }
+
+    /**
+     * Received bytes that were skipped while looking for the start of a valid frame.
+     */
+    public void onBytesDiscarded(long bytes) {
+        bytesDiscarded.addAndGet(bytes);
+    }
+
+    public void onWriteComplete(long latencyNanos) {
+        writeLatency.record(latencyNanos);
+    }
+
+    public void onStatusRoundTrip(long roundTripNanos) {
+        statusRoundTrip.record(roundTripNanos);
+    }
+
+    /**
+     * The app was launched, the start of the time to first command. Only the first call counts.
+     */
+    public void onLaunch() {
+        if(launchTimeNanos < 0) {
+            launchTimeNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * A bracelet wrote its first frame, only the first write after the launch counts.
+     * @param timeNanos - System.nanoTime() of the write.
+     */
+    public void onFirstWrite(long timeNanos) {
+        long launch = launchTimeNanos;
+
+        if(launch >= 0) {
+            timeToFirstCommandNanos.compareAndSet(-1, timeNanos - launch);
+        }
+    }
+
+    public long getFramesSent() {
+        return framesSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    public long getFramesReceived() {
+        return framesReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getChecksumErrors() {
+        return checksumErrors.get();
+    }
+
+    public long getBytesDiscarded() {
+        return bytesDiscarded.get();
+    }
+
+    /**
+     * Time from the launch until the first frame was written, -1 when that did not happen yet.
+     */
+    public long getTimeToFirstCommandNanos() {
+        return timeToFirstCommandNanos.get();
+    }
+
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    public LatencyHistogram getStatusRoundTrip() {
+        return statusRoundTrip;
+    }
+
+    public void reset() {
+        framesSent.set(0);
+        bytesSent.set(0);
+        framesDropped.set(0);
+        framesReceived.set(0);
+        bytesReceived.set(0);
+        checksumErrors.set(0);
+        bytesDiscarded.set(0);
+        writeLatency.reset();
+        statusRoundTrip.reset();
+
+        //The time to first command happens once per launch, it is kept.
+        startTimeNanos = System.nanoTime();
+    }
+
+    /**
+     * Short summary, for showing while it changes.
+     */
+    public String summary() {
+        return String.format(Locale.US,
+                "Sent: %d frames, %d bytes, %d dropped\n"
+                + "Received: %d frames, %d bytes, %d checksum errors\n"
+                + "Write: %s\n"
+                + "Status round trip: %s\n"
+                + "First command: %s",
+                getFramesSent(), getBytesSent(), getFramesDropped(),
+                getFramesReceived(), getBytesReceived(), getChecksumErrors(),
+                summary(writeLatency), summary(statusRoundTrip),
+                getTimeToFirstCommandNanos() < 0 ? "-" : String.format(Locale.US, "%.1f ms after launch", getTimeToFirstCommandNanos() / 1e6));
+    }
+
+    /**
+     * Every counter and histogram bucket as "name value" lines, times in microseconds.
+     */
+    public String export() {
+        StringBuilder out = new StringBuilder();
+
+        appendLine(out, "uptime_us", TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTimeNanos));
+        appendLine(out, "frames_sent", getFramesSent());
+        appendLine(out, "bytes_sent", getBytesSent());
+        appendLine(out, "frames_dropped", getFramesDropped());
+        appendLine(out, "frames_received", getFramesReceived());
+        appendLine(out, "bytes_received", getBytesReceived());
+        appendLine(out, "checksum_errors", getChecksumErrors());
+        appendLine(out, "bytes_discarded", getBytesDiscarded());
+        appendLine(out, "time_to_first_command_us", getTimeToFirstCommandNanos() < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(getTimeToFirstCommandNanos()));
+
+        export(out, "write_latency", writeLatency);
+        export(out, "status_round_trip", statusRoundTrip);
+
+        return out.toString();
+    }
+
+    private static void export(StringBuilder out, String name, LatencyHistogram histogram) {
+        appendLine(out, name + "_count", histogram.getCount());
+        appendLine(out, name + "_mean_us", TimeUnit.NANOSECONDS.toMicros(histogram.getMeanNanos()));
+        appendLine(out, name + "_p50_us", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(50)));
+        appendLine(out, name + "_p90_us", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(90)));
+        appendLine(out, name + "_p99_us", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentileNanos(99)));
+        appendLine(out, name + "_max_us", TimeUnit.NANOSECONDS.toMicros(histogram.getMaxNanos()));
+
+        histogram.forEachBucket((fromMicros, toMicros, count) -> out.append(name).append("_bucket{from_us=").append(fromMicros)
+                .append(",to_us=").append(toMicros).append("} ").append(count).append('\n'));
+    }
+
+    private static void appendLine(StringBuilder out, String name, long value) {
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static String summary(LatencyHistogram histogram) {
+        if(histogram.getCount() == 0) {
+            return "-";
+        }
+
+        return String.format(Locale.US, "p50 %.1f ms, p99 %.1f ms, max %.1f ms (%d)",
+                histogram.getPercentileNanos(50) / 1e6, histogram.getPercentileNanos(99) / 1e6,
+                histogram.getMaxNanos() / 1e6, histogram.getCount());
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+public enum MessageType {
+    STATUS(0),
+    DEBUG(1),
+    LEDSTRIP(2),
+    MODE(3),
+    CALIBRATE(4),
+    ADD_GESTURE(5),
+    REMOVE_GESTURE(6),
+    LEDSTRIP_BATCH(7),
+    SEQUENCED(8),
+    ACK(9),
+    TIME_SYNC(10);
+
+    //Lookup table indexed by value, values() clones its array on every call:
+    private static final MessageType[] BY_VALUE = new MessageType[values().length];
+
+    static {
+        for(MessageType type : values()) {
+            BY_VALUE[type.value] = type;
+        }
+    }
+
+    private final int value;
+
+    MessageType(int value) {
+        this.value = value;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Look up a message type by its value on the wire.
+     * @param value - Unsigned type byte.
+     * @return The message type, or null when the value is unknown.
+     */
+    public static MessageType fromValue(int value) {
+        return value >= 0 && value < BY_VALUE.length ? BY_VALUE[value] : null;
+    }
+}
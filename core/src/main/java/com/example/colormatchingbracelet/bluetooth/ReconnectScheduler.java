@@ -0,0 +1,121 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reconnects to the bracelet after an unexpected disconnect. Direct connection attempts are made
+ * with an exponential backoff, starting at INITIAL_DELAY_MS and doubling up to MAX_DELAY_MS. After
+ * MAX_DIRECT_ATTEMPTS the last attempt uses autoConnect, so the system keeps waiting for the
+ * bracelet in the background without waking the app.
+ */
+public class ReconnectScheduler {
+    public static final long INITIAL_DELAY_MS = 500;
+    public static final long MAX_DELAY_MS = 30000;
+    public static final int MAX_DIRECT_ATTEMPTS = 8;
+
+    public interface Connector {
+        /**
+         * Start a connection attempt to the last bracelet.
+         * @param autoConnect - Let the system wait for the bracelet instead of connecting directly.
+         * @return False when the attempt could not be started.
+         */
+        boolean connect(boolean autoConnect);
+    }
+
+    private final Connector connector;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ReconnectScheduler");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private ScheduledFuture<?> attemptTask;
+    private int attempts;
+
+    //Statistics:
+    private long reconnects;
+
+    public ReconnectScheduler(Connector connector) {
+        this.connector = connector;
+    }
+
+    /**
+     * The connection was lost, or an attempt failed. Schedules the next attempt.
+     */
+    public synchronized void onDisconnected() {
+        if(attemptTask != null || attempts > MAX_DIRECT_ATTEMPTS || executor.isShutdown()) {
+            return;
+        }
+
+        attemptTask = executor.schedule(this::attempt, getDelayMs(attempts), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Connected again, the next disconnect starts over at the initial delay.
+     */
+    public synchronized void onConnected() {
+        if(attempts > 0) {
+            reconnects++;
+        }
+
+        cancel();
+    }
+
+    /**
+     * Stop reconnecting, for example because the user disconnected.
+     */
+    public synchronized void cancel() {
+        if(attemptTask != null) {
+            attemptTask.cancel(false);
+            attemptTask = null;
+        }
+
+        attempts = 0;
+    }
+
+    /**
+     * Stop reconnecting and end the scheduler thread, no attempt is made after this.
+     */
+    public synchronized void shutdown() {
+        cancel();
+        executor.shutdown();
+    }
+
+    public synchronized boolean isReconnecting() {
+        return attemptTask != null || attempts > 0;
+    }
+
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized long getReconnects() {
+        return reconnects;
+    }
+
+    /**
+     * Delay before the given attempt, doubling every attempt.
+     */
+    public static long getDelayMs(int attempt) {
+        return Math.min(INITIAL_DELAY_MS << Math.min(attempt, 16), MAX_DELAY_MS);
+    }
+
+    private synchronized void attempt() {
+        if(attemptTask == null) {
+            return;
+        }
+
+        attemptTask = null;
+        attempts++;
+
+        //Out of direct attempts, leave the waiting to the system:
+        if(!connector.connect(attempts > MAX_DIRECT_ATTEMPTS)) {
+            onDisconnected();
+        }
+    }
+}
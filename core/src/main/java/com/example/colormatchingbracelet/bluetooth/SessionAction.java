@@ -0,0 +1,11 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+/**
+ * Action fanned out to every connected bracelet, see IBluetoothService.forEachBracelet().
+ */
+public interface SessionAction {
+    /**
+     * Called for every connected bracelet, should only queue work so the others are not held up.
+     */
+    void apply(IBluetoothService session);
+}
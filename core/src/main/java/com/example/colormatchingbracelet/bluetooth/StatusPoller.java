@@ -0,0 +1,149 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletCommand;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fallback status polling. Since protocol version 4 the bracelet pushes its status whenever it
+ * changes, so a poll is only sent when no status came in for a while. Every poll that is not
+ * answered with a change doubles the interval, up to MAX_INTERVAL_MS. A change resets it, and
+ * while the user is interacting the interval drops to INTERACTIVE_INTERVAL_MS so the screen stays
+ * current.
+ */
+public class StatusPoller {
+    public static final int PROTOCOL_VERSION_STATUS_PUSH = 4;
+
+    public static final long INTERACTIVE_INTERVAL_MS = 2000;
+    public static final long MIN_INTERVAL_MS = 5000;
+    public static final long PUSH_MIN_INTERVAL_MS = 30000;
+    public static final long MAX_INTERVAL_MS = 120000;
+
+    //How long the user counts as interacting after the last touch:
+    public static final long INTERACTION_WINDOW_MS = 10000;
+
+    private final IBluetoothService bluetoothService;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StatusPoller");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    private ScheduledFuture<?> pollTask;
+    private long intervalMs;
+    private long lastInteractionMs;
+
+    //Statistics:
+    private long pollsSent;
+
+    public StatusPoller(IBluetoothService bluetoothService) {
+        this.bluetoothService = bluetoothService;
+    }
+
+    public synchronized void start() {
+        if(pollTask != null || executor.isShutdown()) {
+            return;
+        }
+
+        intervalMs = getMinInterval();
+        schedule();
+    }
+
+    public synchronized void stop() {
+        if(pollTask != null) {
+            pollTask.cancel(false);
+            pollTask = null;
+        }
+    }
+
+    public synchronized boolean isRunning() {
+        return pollTask != null;
+    }
+
+    /**
+     * Stop polling and end the poller thread, the poller can not be started again.
+     */
+    public synchronized void shutdown() {
+        stop();
+        executor.shutdown();
+    }
+
+    /**
+     * Must be called for every status the bracelet sends, pushed or polled.
+     * @param changed - The status differed from the known state.
+     */
+    public synchronized void onStatusReceived(boolean changed) {
+        if(changed) {
+            intervalMs = getMinInterval();
+        }
+
+        //Quiet time is counted from the last status:
+        if(pollTask != null) {
+            pollTask.cancel(false);
+            schedule();
+        }
+    }
+
+    /**
+     * The user touched the screen, poll often for a while.
+     */
+    public synchronized void onUserInteraction() {
+        boolean wasInteracting = isInteracting();
+        lastInteractionMs = System.currentTimeMillis();
+
+        if(!wasInteracting && pollTask != null) {
+            pollTask.cancel(false);
+            schedule();
+        }
+    }
+
+    public synchronized long getIntervalMs() {
+        return getEffectiveInterval();
+    }
+
+    public synchronized long getPollsSent() {
+        return pollsSent;
+    }
+
+    private synchronized void poll() {
+        if(pollTask == null) {
+            return;
+        }
+
+        if(bluetoothService.isConnected()) {
+            BraceletCommand.sendStatusRequest(bluetoothService);
+            pollsSent++;
+        }
+
+        //Backing off until a change comes in:
+        intervalMs = Math.min(intervalMs * 2, MAX_INTERVAL_MS);
+
+        schedule();
+    }
+
+    private void schedule() {
+        if(executor.isShutdown()) {
+            pollTask = null;
+            return;
+        }
+
+        pollTask = executor.schedule(this::poll, getEffectiveInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    private long getEffectiveInterval() {
+        return isInteracting() ? Math.min(intervalMs, INTERACTIVE_INTERVAL_MS) : intervalMs;
+    }
+
+    private boolean isInteracting() {
+        return System.currentTimeMillis() - lastInteractionMs < INTERACTION_WINDOW_MS;
+    }
+
+    private long getMinInterval() {
+        return bluetoothService.getBraceletInformation().protocolVersion >= PROTOCOL_VERSION_STATUS_PUSH ? PUSH_MIN_INTERVAL_MS : MIN_INTERVAL_MS;
+    }
+}
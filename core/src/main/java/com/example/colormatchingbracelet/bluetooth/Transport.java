@@ -0,0 +1,82 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+/**
+ * Link to a single bracelet, below the framing. A BraceletSession only talks to the bracelet
+ * through a transport, so the same session, codec and command layers run over GATT on a phone and
+ * over the simulator on a plain JVM.
+ *
+ * Listener calls may come from any thread, but never two at once for the same transport.
+ */
+public interface Transport {
+    //Default ATT MTU, of which 3 bytes are used by the ATT header:
+    int DEFAULT_MTU = 23;
+    int MAX_MTU = 517;
+    int ATT_HEADER_SIZE = 3;
+
+    interface Listener {
+        /**
+         * The link is up, the bracelet is not verified yet.
+         */
+        void onConnected();
+
+        /**
+         * The device turned out to be a bracelet, frames can be queued from here on.
+         */
+        void onServicesDiscovered();
+
+        /**
+         * Link setup (notifications, MTU) is done, frames held back during setup can be written.
+         */
+        void onReady();
+
+        /**
+         * The link is down, either on request or because it was lost.
+         */
+        void onDisconnected();
+
+        /**
+         * The last write completed, the next one can be started.
+         */
+        void onWriteComplete();
+
+        /**
+         * A notification came in, it can hold any number of (partial) frames.
+         */
+        void onReceived(byte[] data);
+    }
+
+    interface Factory {
+        Transport create();
+    }
+
+    void setListener(Listener listener);
+
+    /**
+     * Start connecting, the outcome is reported to the listener.
+     * @param autoConnect - Wait for the bracelet to come in range instead of connecting directly.
+     * @return False when the attempt could not be started.
+     */
+    boolean connect(String address, boolean autoConnect);
+
+    void disconnect();
+
+    /**
+     * Release the link, no listener calls follow.
+     */
+    void close();
+
+    /**
+     * Start writing a frame.
+     * @param frame - Encoded frame, the array may be reused as soon as this call returns.
+     * @param withoutResponse - Write without waiting for a response from the bracelet.
+     * @return False when the write could not be started.
+     */
+    boolean write(byte[] frame, boolean withoutResponse);
+
+    /**
+     * Negotiated ATT MTU, of which ATT_HEADER_SIZE bytes are taken by the header.
+     */
+    int getMtu();
+
+    boolean supportsWriteWithoutResponse();
+}
@@ -0,0 +1,355 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.LedStrip.LedStripCommandType;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Outbound frame scheduler. GATT only handles one write at a time, a second write issued before
+ * onCharacteristicWrite silently replaces or drops the first one. Frames are therefore queued and
+ * written one by one, each write being started by the completion of the previous one.
+ *
+ * There are two lanes, frames in the CONTROL lane (power, mode, status, ...) are always written
+ * before queued frames in the NORMAL lane (colors, brightness, ...).
+ *
+ * Optionally frames can be written without response. In that case up to creditWindow writes may
+ * be outstanding, every completion callback returns one credit.
+ *
+ * The time from starting a write to its completion callback is averaged, so senders can pace
+ * themselves to what the link actually handles.
+ */
+public class WriteQueue {
+
+    public enum Priority {
+        CONTROL,
+        NORMAL
+    }
+
+    public interface Writer {
+        /**
+         * Start writing a frame to the bracelet.
+         * @param frame - Encoded frame, the array may be reused as soon as this call returns.
+         * @param withoutResponse - Write without waiting for a response from the bracelet.
+         * @return False when the write could not be started, it will be retried later.
+         */
+        boolean write(byte[] frame, boolean withoutResponse);
+    }
+
+    public interface WriteListener {
+        /**
+         * Called for every frame once its write was started, with the lock of the queue held.
+         * @param type - Type of the message.
+         * @param data - Encoded frame, only valid during the call.
+         * @param offset - Offset of the payload inside data.
+         * @param length - Length of the payload.
+         */
+        void onFrameWritten(MessageType type, byte[] data, int offset, int length);
+    }
+
+    public static final int LANE_CAPACITY = 32;
+    public static final int MAX_CREDIT_WINDOW = 16;
+
+    //Weight of a new sample in the average latency is 1 / 2^LATENCY_SMOOTHING_SHIFT:
+    private static final int LATENCY_SMOOTHING_SHIFT = 3;
+
+    private final Writer writer;
+    private final FrameRing[] lanes = new FrameRing[Priority.values().length];
+
+    //Arrays of exactly the frame size, one per size:
+    private final byte[][] frameArrays = new byte[FrameCodec.MAX_FRAME_SIZE + 1][];
+
+    private boolean withoutResponse = false;
+    private int creditWindow = 1;
+    private int inFlight = 0;
+
+    //Start times of the writes in flight, oldest first:
+    private final long[] writeStartTimes = new long[MAX_CREDIT_WINDOW];
+    private int oldestWrite = 0;
+
+    private long framesWritten;
+    private long framesDropped;
+    private long averageWriteLatencyNanos;
+
+    private LinkMetrics metrics;
+    private WriteListener writeListener;
+
+    public WriteQueue(Writer writer) {
+        this.writer = writer;
+
+        for(int i = 0; i < lanes.length; i++) {
+            lanes[i] = new FrameRing(LANE_CAPACITY);
+        }
+    }
+
+    /**
+     * Encode and queue a frame, the lane is picked based on the message.
+     * @return False when the lane is full and the frame was dropped.
+     */
+    public boolean enqueue(MessageType type, byte[] data) {
+        return enqueue(priorityOf(type, data, data.length), type, data, data.length);
+    }
+
+    /**
+     * Same as enqueue(type, data), only the first length bytes of data are the payload. Lets
+     * callers reuse one buffer for payloads of changing length.
+     */
+    public boolean enqueue(MessageType type, byte[] data, int length) {
+        return enqueue(priorityOf(type, data, length), type, data, length);
+    }
+
+    public boolean enqueue(Priority priority, MessageType type, byte[] data) {
+        return enqueue(priority, type, data, data.length);
+    }
+
+    public synchronized boolean enqueue(Priority priority, MessageType type, byte[] data, int length) {
+        FrameRing lane = lanes[priority.ordinal()];
+
+        if(lane.isFull()) {
+            framesDropped++;
+
+            if(metrics != null) {
+                metrics.onFrameDropped();
+            }
+
+            return false;
+        }
+
+        FrameCodec.encode(lane.tail(), type, data, 0, length);
+        lane.commit();
+
+        pump();
+
+        return true;
+    }
+
+    /**
+     * Must be called from onCharacteristicWrite, frees the slot of the completed write.
+     */
+    public synchronized void onWriteComplete() {
+        if(inFlight > 0) {
+            long latency = System.nanoTime() - writeStartTimes[oldestWrite];
+
+            averageWriteLatencyNanos = averageWriteLatencyNanos == 0
+                    ? latency
+                    : averageWriteLatencyNanos + ((latency - averageWriteLatencyNanos) >> LATENCY_SMOOTHING_SHIFT);
+
+            if(metrics != null) {
+                metrics.onWriteComplete(latency);
+            }
+
+            oldestWrite = (oldestWrite + 1) % MAX_CREDIT_WINDOW;
+            inFlight--;
+        }
+
+        pump();
+    }
+
+    /**
+     * Write queued frames while there are credits left. Also called when another GATT operation
+     * (like a descriptor write) has finished, since it may have blocked a write.
+     */
+    public synchronized void pump() {
+        int window = withoutResponse ? creditWindow : 1;
+
+        while(inFlight < window) {
+            FrameRing lane = nextLane();
+
+            if(lane == null) {
+                return;
+            }
+
+            ByteBuffer frame = lane.peek();
+            int length = frame.position();
+            byte[] frameArray = frameArrays[length];
+
+            if(frameArray == null) {
+                frameArray = frameArrays[length] = new byte[length];
+            }
+
+            System.arraycopy(frame.array(), 0, frameArray, 0, length);
+
+            if(!writer.write(frameArray, withoutResponse)) {
+                //GATT is busy, try again on the next completion:
+                return;
+            }
+
+            lane.remove();
+            writeStartTimes[(oldestWrite + inFlight) % MAX_CREDIT_WINDOW] = System.nanoTime();
+            inFlight++;
+            framesWritten++;
+
+            if(metrics != null) {
+                metrics.onFrameSent(length);
+            }
+
+            if(writeListener != null) {
+                int typeByte = frameArray[1] & 0xFF;
+                int headerSize = FrameCodec.headerSize(typeByte);
+
+                writeListener.onFrameWritten(MessageType.fromValue(typeByte & ~FrameCodec.FLAG_EXTENDED_LENGTH), frameArray, headerSize, length - headerSize - 1);
+            }
+        }
+    }
+
+    /**
+     * Drop everything that is queued or in flight, used when the connection is lost.
+     */
+    public synchronized void clear() {
+        for(FrameRing lane : lanes) {
+            lane.clear();
+        }
+
+        inFlight = 0;
+        oldestWrite = 0;
+    }
+
+    /**
+     * Opt in to writes without response.
+     * @param enabled - Write frames without response.
+     * @param creditWindow - Maximum number of outstanding writes when enabled.
+     */
+    public synchronized void setWithoutResponse(boolean enabled, int creditWindow) {
+        if(creditWindow < 1 || creditWindow > MAX_CREDIT_WINDOW) {
+            throw new IllegalArgumentException("Credit window must be between 1 and " + MAX_CREDIT_WINDOW);
+        }
+
+        this.withoutResponse = enabled;
+        this.creditWindow = creditWindow;
+
+        pump();
+    }
+
+    /**
+     * Also record writes, drops and write latencies in metrics shared with other links.
+     * @param metrics - Null to stop recording.
+     */
+    public synchronized void setMetrics(LinkMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @param writeListener - Told about every frame that is written, null for none.
+     */
+    public synchronized void setWriteListener(WriteListener writeListener) {
+        this.writeListener = writeListener;
+    }
+
+    public synchronized boolean isIdle() {
+        return inFlight == 0 && nextLane() == null;
+    }
+
+    public synchronized int getQueuedFrames() {
+        int queued = 0;
+
+        for(FrameRing lane : lanes) {
+            queued += lane.count;
+        }
+
+        return queued;
+    }
+
+    public synchronized long getFramesWritten() {
+        return framesWritten;
+    }
+
+    public synchronized long getFramesDropped() {
+        return framesDropped;
+    }
+
+    /**
+     * Moving average of the time between starting a write and its completion, 0 before the first
+     * write completed.
+     */
+    public synchronized long getAverageWriteLatencyNanos() {
+        return averageWriteLatencyNanos;
+    }
+
+    /**
+     * Power and mode changes go ahead of the stream of color and brightness updates.
+     */
+    public static Priority priorityOf(MessageType type, byte[] data) {
+        return priorityOf(type, data, data.length);
+    }
+
+    /**
+     * Priority of a message whose payload is the first length bytes of data, which may be a
+     * larger reused buffer.
+     */
+    public static Priority priorityOf(MessageType type, byte[] data, int length) {
+        return priorityOf(type, data, 0, length);
+    }
+
+    /**
+     * Priority of a message whose payload starts at offset, sequenced commands get the priority of
+     * the command they carry.
+     */
+    private static Priority priorityOf(MessageType type, byte[] data, int offset, int length) {
+        switch(type) {
+            case SEQUENCED:
+                MessageType commandType = length > offset + 1 ? MessageType.fromValue(data[offset + 1] & 0xFF) : null;
+                return commandType != null && commandType != MessageType.SEQUENCED ? priorityOf(commandType, data, offset + CommandChannel.HEADER_SIZE, length) : Priority.CONTROL;
+            case LEDSTRIP:
+                return length > offset && data[offset] == LedStripCommandType.POWER.getValue() ? Priority.CONTROL : Priority.NORMAL;
+            case DEBUG:
+                return Priority.NORMAL;
+            default:
+                return Priority.CONTROL;
+        }
+    }
+
+    private FrameRing nextLane() {
+        for(FrameRing lane : lanes) {
+            if(lane.count > 0) {
+                return lane;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Fixed size FIFO of preallocated frame buffers.
+     */
+    private static class FrameRing {
+        private final ByteBuffer[] slots;
+        private int head;
+        private int count;
+
+        FrameRing(int capacity) {
+            slots = new ByteBuffer[capacity];
+
+            for(int i = 0; i < capacity; i++) {
+                slots[i] = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+            }
+        }
+
+        boolean isFull() {
+            return count == slots.length;
+        }
+
+        ByteBuffer tail() {
+            ByteBuffer slot = slots[(head + count) % slots.length];
+            slot.clear();
+
+            return slot;
+        }
+
+        void commit() {
+            count++;
+        }
+
+        ByteBuffer peek() {
+            return slots[head];
+        }
+
+        void remove() {
+            head = (head + 1) % slots.length;
+            count--;
+        }
+
+        void clear() {
+            head = 0;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.colormatchingbracelet.color;
+
+/**
+ * Summed area tables of a frame, so the average color and uniformity of any rectangle cost four
+ * lookups per table, whatever its size. Building the index is a single pass over the frame, after
+ * that sampling many points or radii is nearly free.
+ *
+ * Every table has a row and column of zeros in front, entry (x, y) is the sum of all pixels above
+ * and left of pixel (x, y). Channels are summed separately, the squares of all channels together,
+ * which is what the uniformity needs.
+ *
+ * The tables are reused when a frame of the same size or smaller is indexed, so an index is not
+ * thread safe.
+ */
+public class ColorIndex {
+    //Channel sums are ints, a larger frame could overflow them:
+    public static final int MAX_PIXELS = Integer.MAX_VALUE / 255;
+
+    private int width;
+    private int height;
+    private int tableStride;
+
+    private int[] redSums = new int[0];
+    private int[] greenSums = new int[0];
+    private int[] blueSums = new int[0];
+    private long[] squareSums = new long[0];
+
+    /**
+     * Index a frame, replacing the previous one.
+     * @param pixels - Packed ARGB pixels, the layout of Bitmap.getPixels().
+     * @param offset - Index of the top left pixel.
+     * @param stride - Pixels per row of the array.
+     */
+    public void build(int[] pixels, int offset, int stride, int width, int height) {
+        if((long) width * height > MAX_PIXELS) {
+            throw new IllegalArgumentException("Frame of " + width + "x" + height + " is too large to index");
+        }
+
+        this.width = width;
+        this.height = height;
+        this.tableStride = width + 1;
+
+        int tableSize = tableStride * (height + 1);
+
+        if(redSums.length < tableSize) {
+            redSums = new int[tableSize];
+            greenSums = new int[tableSize];
+            blueSums = new int[tableSize];
+            squareSums = new long[tableSize];
+        }
+
+        //The first row stays zero, the first column is cleared per row:
+        for(int i = 0; i < tableStride; i++) {
+            redSums[i] = greenSums[i] = blueSums[i] = 0;
+            squareSums[i] = 0;
+        }
+
+        for(int y = 0; y < height; y++) {
+            int index = offset + y * stride;
+            int above = y * tableStride;
+            int current = above + tableStride;
+
+            redSums[current] = greenSums[current] = blueSums[current] = 0;
+            squareSums[current] = 0;
+
+            //Sums of the row so far, the table adds the rows above:
+            int rowRed = 0, rowGreen = 0, rowBlue = 0;
+            long rowSquares = 0;
+
+            for(int x = 1; x <= width; x++) {
+                int pixel = pixels[index++];
+                int red = (pixel >> 16) & 0xFF;
+                int green = (pixel >> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+
+                rowRed += red;
+                rowGreen += green;
+                rowBlue += blue;
+                rowSquares += red * red + green * green + blue * blue;
+
+                redSums[current + x] = redSums[above + x] + rowRed;
+                greenSums[current + x] = greenSums[above + x] + rowGreen;
+                blueSums[current + x] = blueSums[above + x] + rowBlue;
+                squareSums[current + x] = squareSums[above + x] + rowSquares;
+            }
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Average color of a rectangle, cut off at the edges of the frame.
+     * @param right - First column after the rectangle.
+     * @param bottom - First row after the rectangle.
+     * @return Opaque color, black for an empty rectangle.
+     */
+    public int averageRgb(int left, int top, int right, int bottom) {
+        left = clampX(left);
+        right = clampX(right);
+        top = clampY(top);
+        bottom = clampY(bottom);
+
+        int count = (right - left) * (bottom - top);
+
+        if(count <= 0) {
+            return ColorMath.rgb(0, 0, 0);
+        }
+
+        return ColorMath.rgb(sum(redSums, left, top, right, bottom) / count,
+                sum(greenSums, left, top, right, bottom) / count,
+                sum(blueSums, left, top, right, bottom) / count);
+    }
+
+    /**
+     * Average color of the square region around a point.
+     * @param radius - The region is 2 * radius + 1 pixels wide.
+     */
+    public int averageRgb(int x, int y, int radius) {
+        return averageRgb(x - radius, y - radius, x + radius + 1, y + radius + 1);
+    }
+
+    /**
+     * Variance of a rectangle, summed over the channels: 0 for a single color, larger the more the
+     * colors in it differ.
+     * @see #averageRgb(int, int, int, int)
+     */
+    public float variance(int left, int top, int right, int bottom) {
+        left = clampX(left);
+        right = clampX(right);
+        top = clampY(top);
+        bottom = clampY(bottom);
+
+        int count = (right - left) * (bottom - top);
+
+        if(count <= 0) {
+            return 0.0f;
+        }
+
+        double red = (double) sum(redSums, left, top, right, bottom) / count;
+        double green = (double) sum(greenSums, left, top, right, bottom) / count;
+        double blue = (double) sum(blueSums, left, top, right, bottom) / count;
+        double squares = (double) sum(squareSums, left, top, right, bottom) / count;
+
+        return (float) Math.max(0.0, squares - red * red - green * green - blue * blue);
+    }
+
+    public float variance(int x, int y, int radius) {
+        return variance(x - radius, y - radius, x + radius + 1, y + radius + 1);
+    }
+
+    /**
+     * Find the most uniform region near a point, so a tap next to an edge or a highlight still
+     * picks a clean patch of color.
+     * @param radius - Radius of the regions compared.
+     * @param searchRadius - Regions centered at most this far from the point are compared.
+     * @param center - Receives x and y of the center of the most uniform region.
+     * @return Variance of the most uniform region.
+     */
+    public float findMostUniform(int x, int y, int radius, int searchRadius, int[] center) {
+        float lowestVariance = Float.MAX_VALUE;
+
+        center[0] = Math.max(0, Math.min(width - 1, x));
+        center[1] = Math.max(0, Math.min(height - 1, y));
+
+        //Regions are compared at a quarter of their size apart, they overlap enough to not miss one:
+        int step = Math.max(1, radius / 2);
+
+        for(int candidateY = Math.max(0, y - searchRadius); candidateY <= Math.min(height - 1, y + searchRadius); candidateY += step) {
+            for(int candidateX = Math.max(0, x - searchRadius); candidateX <= Math.min(width - 1, x + searchRadius); candidateX += step) {
+                float candidateVariance = variance(candidateX, candidateY, radius);
+
+                if(candidateVariance < lowestVariance) {
+                    lowestVariance = candidateVariance;
+                    center[0] = candidateX;
+                    center[1] = candidateY;
+                }
+            }
+        }
+
+        return lowestVariance == Float.MAX_VALUE ? 0.0f : lowestVariance;
+    }
+
+    private int sum(int[] table, int left, int top, int right, int bottom) {
+        return table[bottom * tableStride + right] - table[top * tableStride + right]
+                - table[bottom * tableStride + left] + table[top * tableStride + left];
+    }
+
+    private long sum(long[] table, int left, int top, int right, int bottom) {
+        return table[bottom * tableStride + right] - table[top * tableStride + right]
+                - table[bottom * tableStride + left] + table[top * tableStride + left];
+    }
+
+    private int clampX(int x) {
+        return Math.max(0, Math.min(width, x));
+    }
+
+    private int clampY(int y) {
+        return Math.max(0, Math.min(height, y));
+    }
+}
@@ -0,0 +1,257 @@
+package com.example.colormatchingbracelet.color;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 3D lookup table from camera colors to the colors to send to the led strip. The corrections are
+ * evaluated once per grid point when the table is built, applying it is 8 lookups and integer
+ * interpolation per color, whatever the corrections are.
+ *
+ * The corrections, in order:
+ * - Greys that are too dark are turned off, they look horrible on the led strip.
+ * - Saturation is boosted, camera colors are washed out next to an LED.
+ * - sRGB camera values are converted to linear LED drive levels (gamma).
+ * - Channels are scaled by the white balance of the LEDs.
+ * - Channels that are on are lifted to the lowest level the strip still shows at its brightness.
+ *
+ * The grey cutoff is interpolated like everything else, so it fades over about one grid cell
+ * instead of switching at an exact value.
+ */
+public class ColorLut {
+    public static final int SIZE = 33;
+
+    private static final int MAGIC = 0x434C5554; //"CLUT"
+    private static final int VERSION = 1;
+
+    //Grid cell and 8 bit position within it of every channel value:
+    private static final int[] CELL = new int[256];
+    private static final int[] WEIGHT = new int[256];
+
+    static {
+        for(int value = 0; value < 256; value++) {
+            int position = value * (SIZE - 1) * 256 / 255;
+
+            CELL[value] = Math.min(position >> 8, SIZE - 2);
+            WEIGHT[value] = position - (CELL[value] << 8);
+        }
+    }
+
+    private static final int RED_STEP = SIZE * SIZE;
+    private static final int GREEN_STEP = SIZE;
+
+    //Packed RGB per grid point, red major:
+    private final int[] table;
+
+    private ColorLut(int[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Corrected color of a camera color.
+     * @param color - Packed color, alpha is ignored.
+     * @return Opaque color for the led strip.
+     */
+    public int apply(int color) {
+        int red = (color >> 16) & 0xFF;
+        int green = (color >> 8) & 0xFF;
+        int blue = color & 0xFF;
+
+        int base = CELL[red] * RED_STEP + CELL[green] * GREEN_STEP + CELL[blue];
+        int redWeight = WEIGHT[red];
+        int greenWeight = WEIGHT[green];
+        int blueWeight = WEIGHT[blue];
+
+        int result = 0xFF000000;
+
+        //Each channel of the result, from the 8 corners of the cell:
+        for(int shift = 16; shift >= 0; shift -= 8) {
+            int c000 = (table[base] >> shift) & 0xFF;
+            int c001 = (table[base + 1] >> shift) & 0xFF;
+            int c010 = (table[base + GREEN_STEP] >> shift) & 0xFF;
+            int c011 = (table[base + GREEN_STEP + 1] >> shift) & 0xFF;
+            int c100 = (table[base + RED_STEP] >> shift) & 0xFF;
+            int c101 = (table[base + RED_STEP + 1] >> shift) & 0xFF;
+            int c110 = (table[base + RED_STEP + GREEN_STEP] >> shift) & 0xFF;
+            int c111 = (table[base + RED_STEP + GREEN_STEP + 1] >> shift) & 0xFF;
+
+            //Along blue, then green, then red, in 8 bit fixed point:
+            int c00 = (c000 << 8) + (c001 - c000) * blueWeight;
+            int c01 = (c010 << 8) + (c011 - c010) * blueWeight;
+            int c10 = (c100 << 8) + (c101 - c100) * blueWeight;
+            int c11 = (c110 << 8) + (c111 - c110) * blueWeight;
+
+            int c0 = (c00 << 8) + (c01 - c00) * greenWeight;
+            int c1 = (c10 << 8) + (c11 - c10) * greenWeight;
+
+            long channel = ((long) c0 << 8) + (long) (c1 - c0) * redWeight;
+
+            result |= (int) ((channel + (1L << 23)) >> 24) << shift;
+        }
+
+        return result;
+    }
+
+    /**
+     * Store the table, so it does not have to be built again.
+     */
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeInt(SIZE);
+
+        for(int entry : table) {
+            data.writeByte(entry >> 16);
+            data.writeByte(entry >> 8);
+            data.writeByte(entry);
+        }
+
+        data.flush();
+    }
+
+    /**
+     * Read a table stored with write().
+     * @throws IOException - When the data is not a table of this version and size.
+     */
+    public static ColorLut read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+
+        if(data.readInt() != MAGIC || data.readInt() != VERSION || data.readInt() != SIZE) {
+            throw new IOException("Not a " + SIZE + " point color table of version " + VERSION);
+        }
+
+        byte[] entries = new byte[SIZE * SIZE * SIZE * 3];
+        data.readFully(entries);
+
+        int[] table = new int[SIZE * SIZE * SIZE];
+
+        for(int i = 0; i < table.length; i++) {
+            table[i] = ColorMath.rgb(entries[3 * i] & 0xFF, entries[3 * i + 1] & 0xFF, entries[3 * i + 2] & 0xFF);
+        }
+
+        return new ColorLut(table);
+    }
+
+    /**
+     * Table with the default corrections, built on first use.
+     */
+    public static ColorLut getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    private static class DefaultHolder {
+        static final ColorLut DEFAULT = new Builder().build();
+    }
+
+    public static class Builder {
+        //Bracelet firmware limits the strip to this brightness, out of 100:
+        public static final int LED_STRIP_MAX_BRIGHTNESS_PERCENT = 30;
+        //Which is the strip brightness out of 255 at full brightness, it scales every level by it:
+        public static final int LED_STRIP_MAX_BRIGHTNESS = LED_STRIP_MAX_BRIGHTNESS_PERCENT * 255 / 100;
+
+        private float gamma = 2.2f;
+        private int minimumLevel = (255 + LED_STRIP_MAX_BRIGHTNESS - 1) / LED_STRIP_MAX_BRIGHTNESS;
+        //Green LEDs are the brightest, typical for WS2812 strips:
+        private float redGain = 1.0f;
+        private float greenGain = 0.69f;
+        private float blueGain = 0.94f;
+        private float saturation = 1.3f;
+        private int greyMaxChannelDifference = RegionColor.GREY_MAX_CHANNEL_DIFFERENCE;
+        private int greyMinChannelSum = RegionColor.GREY_MIN_CHANNEL_SUM;
+
+        /**
+         * @param gamma - Exponent from camera values to LED drive levels, 1 to keep them as is.
+         */
+        public Builder gamma(float gamma) {
+            this.gamma = gamma;
+            return this;
+        }
+
+        /**
+         * @param minimumLevel - Lowest level of a channel that is on, so it still shows once the
+         *                     strip scales it to its brightness. 0 to not lift channels.
+         */
+        public Builder minimumLevel(int minimumLevel) {
+            this.minimumLevel = minimumLevel;
+            return this;
+        }
+
+        /**
+         * Gains of the channels, 1 for a channel that is as bright as it should be.
+         */
+        public Builder whiteBalance(float redGain, float greenGain, float blueGain) {
+            this.redGain = redGain;
+            this.greenGain = greenGain;
+            this.blueGain = blueGain;
+            return this;
+        }
+
+        /**
+         * @param saturation - Factor the saturation is multiplied with, 1 to keep it.
+         */
+        public Builder saturation(float saturation) {
+            this.saturation = saturation;
+            return this;
+        }
+
+        /**
+         * Greys with channels closer together than maxChannelDifference, and together darker than
+         * minChannelSum, are turned off.
+         * @see RegionColor#suppressGrey(int)
+         */
+        public Builder greyToOff(int maxChannelDifference, int minChannelSum) {
+            this.greyMaxChannelDifference = maxChannelDifference;
+            this.greyMinChannelSum = minChannelSum;
+            return this;
+        }
+
+        public ColorLut build() {
+            int[] table = new int[SIZE * SIZE * SIZE];
+            float[] hsv = new float[3];
+
+            for(int r = 0; r < SIZE; r++) {
+                for(int g = 0; g < SIZE; g++) {
+                    for(int b = 0; b < SIZE; b++) {
+                        table[r * RED_STEP + g * GREEN_STEP + b] = correct(gridValue(r), gridValue(g), gridValue(b), hsv);
+                    }
+                }
+            }
+
+            return new ColorLut(table);
+        }
+
+        private static int gridValue(int index) {
+            return Math.round(index * 255.0f / (SIZE - 1));
+        }
+
+        private int correct(int red, int green, int blue, float[] hsv) {
+            int range = Math.max(red, Math.max(green, blue)) - Math.min(red, Math.min(green, blue));
+
+            if(range < greyMaxChannelDifference && red + green + blue < greyMinChannelSum) {
+                return ColorMath.rgb(0, 0, 0);
+            }
+
+            ColorMath.rgbToHsv(ColorMath.rgb(red, green, blue), hsv);
+            int boosted = ColorMath.hsvToRgb(255, hsv[0], Math.min(1.0f, hsv[1] * saturation), hsv[2]);
+
+            return ColorMath.rgb(ledLevel(ColorMath.red(boosted), redGain),
+                    ledLevel(ColorMath.green(boosted), greenGain),
+                    ledLevel(ColorMath.blue(boosted), blueGain));
+        }
+
+        private int ledLevel(int value, float gain) {
+            if(value == 0) {
+                return 0;
+            }
+
+            int level = Math.round((float) Math.pow(value / 255.0f, gamma) * gain * 255.0f);
+
+            return Math.min(255, Math.max(minimumLevel, level));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.colormatchingbracelet.color;
+
+/**
+ * Packed ARGB color math, the same layout and results as android.graphics.Color, usable off the
+ * phone.
+ */
+public final class ColorMath {
+    //D65 reference white of sRGB:
+    static final float WHITE_X = 0.95047f;
+    static final float WHITE_Y = 1.0f;
+    static final float WHITE_Z = 1.08883f;
+
+    //Lab switches to a linear segment near black:
+    private static final float LAB_EPSILON = 216.0f / 24389.0f;
+    private static final float LAB_KAPPA = 24389.0f / 27.0f;
+
+    //Linear light of every sRGB channel value:
+    private static final float[] LINEAR = new float[256];
+
+    static {
+        for(int i = 0; i < LINEAR.length; i++) {
+            float channel = i / 255.0f;
+
+            LINEAR[i] = channel <= 0.04045f ? channel / 12.92f : (float) Math.pow((channel + 0.055f) / 1.055f, 2.4f);
+        }
+    }
+
+    private ColorMath() {
+    }
+
+    public static int alpha(int color) {
+        return color >>> 24;
+    }
+
+    public static int red(int color) {
+        return (color >> 16) & 0xFF;
+    }
+
+    public static int green(int color) {
+        return (color >> 8) & 0xFF;
+    }
+
+    public static int blue(int color) {
+        return color & 0xFF;
+    }
+
+    /**
+     * Opaque color from its components, each 0-255.
+     */
+    public static int rgb(int red, int green, int blue) {
+        return 0xFF000000 | (red << 16) | (green << 8) | blue;
+    }
+
+    /**
+     * Convert a color to hue (0-360), saturation (0-1) and value (0-1).
+     * @param color - Packed color, alpha is ignored.
+     * @param hsv - Array of at least 3 receiving the result.
+     */
+    public static void rgbToHsv(int color, float[] hsv) {
+        float red = red(color) / 255.0f;
+        float green = green(color) / 255.0f;
+        float blue = blue(color) / 255.0f;
+
+        float max = Math.max(red, Math.max(green, blue));
+        float min = Math.min(red, Math.min(green, blue));
+        float range = max - min;
+        float hue = 0.0f;
+
+        if(range > 0.0f) {
+            if(max == red) {
+                hue = (green - blue) / range;
+            }
+            else if(max == green) {
+                hue = 2.0f + (blue - red) / range;
+            }
+            else {
+                hue = 4.0f + (red - green) / range;
+            }
+
+            hue *= 60.0f;
+
+            if(hue < 0.0f) {
+                hue += 360.0f;
+            }
+        }
+
+        hsv[0] = hue;
+        hsv[1] = max > 0.0f ? range / max : 0.0f;
+        hsv[2] = max;
+    }
+
+    /**
+     * Convert a color to CIE L*a*b*, L from 0 to 100.
+     * @param color - Packed sRGB color, alpha is ignored.
+     * @param lab - Array of at least 3 receiving L, a and b.
+     */
+    public static void rgbToLab(int color, float[] lab) {
+        float red = linear(red(color));
+        float green = linear(green(color));
+        float blue = linear(blue(color));
+
+        float fx = labF((0.4124f * red + 0.3576f * green + 0.1805f * blue) / WHITE_X);
+        float fy = labF((0.2126f * red + 0.7152f * green + 0.0722f * blue) / WHITE_Y);
+        float fz = labF((0.0193f * red + 0.1192f * green + 0.9505f * blue) / WHITE_Z);
+
+        lab[0] = 116.0f * fy - 16.0f;
+        lab[1] = 500.0f * (fx - fy);
+        lab[2] = 200.0f * (fy - fz);
+    }
+
+    /**
+     * Convert CIE L*a*b* to the closest opaque sRGB color.
+     */
+    public static int labToRgb(float l, float a, float b) {
+        float fy = (l + 16.0f) / 116.0f;
+        float fx = fy + a / 500.0f;
+        float fz = fy - b / 200.0f;
+
+        float x = WHITE_X * labInverseF(fx);
+        float y = WHITE_Y * labInverseF(fy);
+        float z = WHITE_Z * labInverseF(fz);
+
+        return rgb(fromLinear(3.2406f * x - 1.5372f * y - 0.4986f * z),
+                fromLinear(-0.9689f * x + 1.8758f * y + 0.0415f * z),
+                fromLinear(0.0557f * x - 0.2040f * y + 1.0570f * z));
+    }
+
+    /**
+     * Linear light of an sRGB channel value, 0-255.
+     */
+    static float linear(int channel) {
+        return LINEAR[channel];
+    }
+
+    /**
+     * sRGB channel value, 0-255, of linear light, clamped to the gamut.
+     */
+    static int fromLinear(float linear) {
+        if(linear <= 0.0f) {
+            return 0;
+        }
+
+        if(linear >= 1.0f) {
+            return 255;
+        }
+
+        float channel = linear <= 0.0031308f ? linear * 12.92f : 1.055f * (float) Math.pow(linear, 1.0f / 2.4f) - 0.055f;
+
+        return Math.round(channel * 255.0f);
+    }
+
+    static float labF(float t) {
+        return t > LAB_EPSILON ? (float) Math.cbrt(t) : (LAB_KAPPA * t + 16.0f) / 116.0f;
+    }
+
+    private static float labInverseF(float f) {
+        float cube = f * f * f;
+
+        return cube > LAB_EPSILON ? cube : (116.0f * f - 16.0f) / LAB_KAPPA;
+    }
+
+    /**
+     * Convert hue (0-360), saturation (0-1) and value (0-1) to a color.
+     * @param alpha - Alpha of the result, 0-255.
+     */
+    public static int hsvToRgb(int alpha, float hue, float saturation, float value) {
+        hue = ((hue % 360.0f) + 360.0f) % 360.0f;
+        saturation = Math.max(0.0f, Math.min(1.0f, saturation));
+        value = Math.max(0.0f, Math.min(1.0f, value));
+
+        float sector = hue / 60.0f;
+        int index = (int) sector;
+        float fraction = sector - index;
+
+        float p = value * (1.0f - saturation);
+        float q = value * (1.0f - saturation * fraction);
+        float t = value * (1.0f - saturation * (1.0f - fraction));
+        float red, green, blue;
+
+        switch(index) {
+            case 0: red = value; green = t; blue = p; break;
+            case 1: red = q; green = value; blue = p; break;
+            case 2: red = p; green = value; blue = t; break;
+            case 3: red = p; green = q; blue = value; break;
+            case 4: red = t; green = p; blue = value; break;
+            default: red = value; green = p; blue = q; break;
+        }
+
+        return (alpha << 24) | (Math.round(red * 255.0f) << 16) | (Math.round(green * 255.0f) << 8) | Math.round(blue * 255.0f);
+    }
+}
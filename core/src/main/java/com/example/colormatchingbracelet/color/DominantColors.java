@@ -0,0 +1,429 @@
+package com.example.colormatchingbracelet.color;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dominant colors of a frame, ranked by how well they would show on the led strip. The frame is
+ * downsampled to at most MAX_SAMPLES pixels, which are clustered with k-means. Every iteration is
+ * split over the cores with fork/join, and iterating stops when the clusters settle or the time
+ * budget runs out, so a frame always takes about the same time.
+ *
+ * Clusters are seeded with the samples farthest from the seeds so far, which picks small but
+ * distinct patches of color too. Everything is allocated up front, extracting does not allocate
+ * and an extractor is not thread safe.
+ */
+public class DominantColors {
+    public static final int MAX_SAMPLES = 64 * 48;
+    public static final int DEFAULT_SWATCHES = 5;
+    public static final long DEFAULT_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(8);
+
+    private static final int MAX_ITERATIONS = 12;
+    //Clusters have settled when fewer samples than this fraction change cluster:
+    private static final float SETTLED_FRACTION = 0.01f;
+    //Clusters closer together than this, in RGB, are shades of one color and become one swatch:
+    private static final int MERGE_DISTANCE = 32;
+
+    private final int swatchCount;
+    private final long budgetNanos;
+    private final ForkJoinPool pool;
+
+    private final int[] samples = new int[MAX_SAMPLES];
+    private final int[] assignments = new int[MAX_SAMPLES];
+    private int sampleCount;
+
+    //Cluster centers, as colors:
+    private final int[] centers;
+
+    //Ranked result:
+    private final int[] swatchColors;
+    private final int[] swatchPopulations;
+    private final float[] swatchScores;
+    private int swatches;
+    private int iterations;
+
+    private final Iteration iteration;
+
+    public DominantColors() {
+        this(DEFAULT_SWATCHES, DEFAULT_BUDGET_NANOS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param swatchCount - Number of colors to find.
+     * @param budgetNanos - Time extracting may take, after seeding.
+     * @param parallelism - Number of threads an iteration is split over.
+     */
+    public DominantColors(int swatchCount, long budgetNanos, int parallelism) {
+        this.swatchCount = swatchCount;
+        this.budgetNanos = budgetNanos;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+
+        centers = new int[swatchCount];
+        swatchColors = new int[swatchCount];
+        swatchPopulations = new int[swatchCount];
+        swatchScores = new float[swatchCount];
+
+        iteration = new Iteration(Math.max(1, parallelism));
+    }
+
+    /**
+     * Add every pixel of a frame to the samples, downsampled to fit in MAX_SAMPLES.
+     * @param pixels - Packed ARGB pixels, the layout of Bitmap.getPixels().
+     */
+    public void sample(int[] pixels, int offset, int stride, int width, int height) {
+        int step = sampleStep(width, height);
+
+        sampleCount = 0;
+
+        for(int y = step / 2; y < height; y += step) {
+            for(int x = step / 2; x < width && sampleCount < MAX_SAMPLES; x += step) {
+                samples[sampleCount++] = pixels[offset + y * stride + x];
+            }
+        }
+    }
+
+    /**
+     * Distance between samples in both directions, so a frame gives at most MAX_SAMPLES samples.
+     */
+    public static int sampleStep(int width, int height) {
+        return Math.max(1, (int) Math.ceil(Math.sqrt((double) width * height / MAX_SAMPLES)));
+    }
+
+    /**
+     * Samples to fill directly, for frames in other layouts.
+     * @see #setSampleCount(int)
+     */
+    public int[] getSamples() {
+        return samples;
+    }
+
+    public void setSampleCount(int sampleCount) {
+        this.sampleCount = Math.min(sampleCount, MAX_SAMPLES);
+    }
+
+    /**
+     * Cluster the samples and rank the clusters.
+     * @return Number of swatches found, fewer than asked for when the frame has fewer colors.
+     */
+    public int extract() {
+        long deadline = System.nanoTime() + budgetNanos;
+
+        int clusters = seed();
+
+        //Assignments of the previous frame say nothing about this one:
+        Arrays.fill(assignments, 0, sampleCount, -1);
+        iterations = 0;
+
+        while(iterations < MAX_ITERATIONS && System.nanoTime() < deadline) {
+            iteration.run(clusters);
+            iterations++;
+
+            if(iteration.changed < SETTLED_FRACTION * sampleCount) {
+                break;
+            }
+        }
+
+        //Final populations, also when no iteration ran:
+        if(iterations == 0) {
+            iteration.run(clusters);
+        }
+
+        rank(clusters);
+
+        return swatches;
+    }
+
+    public int getSwatchCount() {
+        return swatches;
+    }
+
+    /**
+     * Color of a swatch, the best one for the led strip first.
+     */
+    public int getColor(int swatch) {
+        return swatchColors[swatch];
+    }
+
+    /**
+     * Number of samples of a swatch.
+     */
+    public int getPopulation(int swatch) {
+        return swatchPopulations[swatch];
+    }
+
+    /**
+     * Fraction of the frame a swatch covers.
+     */
+    public float getFraction(int swatch) {
+        return sampleCount == 0 ? 0.0f : (float) swatchPopulations[swatch] / sampleCount;
+    }
+
+    public float getScore(int swatch) {
+        return swatchScores[swatch];
+    }
+
+    /**
+     * Iterations of the last extraction, fewer than MAX_ITERATIONS when it settled or ran out of time.
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    /**
+     * Stop the worker threads, the extractor can not be used after this.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Pick the first centers, each the sample farthest from the centers so far.
+     * @return Number of centers, fewer than swatchCount when there are fewer distinct samples.
+     */
+    private int seed() {
+        if(sampleCount == 0) {
+            return 0;
+        }
+
+        //Start from the sample closest to the average, the bulk of the frame:
+        int average = RegionColor.averageRgb(samples, 0, sampleCount, sampleCount, 1);
+        centers[0] = samples[closestSample(average)];
+
+        int clusters = 1;
+
+        while(clusters < swatchCount) {
+            int farthest = -1;
+            int farthestDistance = 0;
+
+            for(int i = 0; i < sampleCount; i++) {
+                int distance = Integer.MAX_VALUE;
+
+                for(int c = 0; c < clusters; c++) {
+                    distance = Math.min(distance, distance(samples[i], centers[c]));
+                }
+
+                if(distance > farthestDistance) {
+                    farthestDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            if(farthest < 0) {
+                break;
+            }
+
+            centers[clusters++] = samples[farthest];
+        }
+
+        return clusters;
+    }
+
+    private int closestSample(int color) {
+        int closest = 0;
+        int closestDistance = Integer.MAX_VALUE;
+
+        for(int i = 0; i < sampleCount; i++) {
+            int distance = distance(samples[i], color);
+
+            if(distance < closestDistance) {
+                closestDistance = distance;
+                closest = i;
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * Rank the clusters by how much of the frame they cover, times how saturated and bright they
+     * are: greys and darks barely show on the led strip.
+     */
+    private void rank(int clusters) {
+        float[] hsv = iteration.hsv;
+        int[] populations = iteration.populations;
+
+        merge(clusters);
+
+        swatches = 0;
+
+        for(int c = 0; c < clusters; c++) {
+            int population = populations[c];
+
+            if(population == 0) {
+                continue;
+            }
+
+            ColorMath.rgbToHsv(centers[c], hsv);
+
+            float score = (float) population / sampleCount * (0.2f + hsv[1]) * (0.2f + hsv[2]);
+
+            //Insertion in the ranked list:
+            int position = swatches++;
+
+            while(position > 0 && swatchScores[position - 1] < score) {
+                swatchColors[position] = swatchColors[position - 1];
+                swatchPopulations[position] = swatchPopulations[position - 1];
+                swatchScores[position] = swatchScores[position - 1];
+                position--;
+            }
+
+            swatchColors[position] = centers[c];
+            swatchPopulations[position] = population;
+            swatchScores[position] = score;
+        }
+    }
+
+    /**
+     * Merge clusters that are shades of the same color into the larger one.
+     */
+    private void merge(int clusters) {
+        int[] populations = iteration.populations;
+
+        for(int c = 1; c < clusters; c++) {
+            for(int other = 0; other < c && populations[c] > 0; other++) {
+                if(populations[other] == 0 || distance(centers[c], centers[other]) >= MERGE_DISTANCE * MERGE_DISTANCE) {
+                    continue;
+                }
+
+                int into = populations[other] >= populations[c] ? other : c;
+                int from = into == other ? c : other;
+                int total = populations[into] + populations[from];
+
+                centers[into] = ColorMath.rgb(
+                        (ColorMath.red(centers[into]) * populations[into] + ColorMath.red(centers[from]) * populations[from]) / total,
+                        (ColorMath.green(centers[into]) * populations[into] + ColorMath.green(centers[from]) * populations[from]) / total,
+                        (ColorMath.blue(centers[into]) * populations[into] + ColorMath.blue(centers[from]) * populations[from]) / total);
+                populations[into] = total;
+                populations[from] = 0;
+            }
+        }
+    }
+
+    private static int distance(int a, int b) {
+        int red = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+        int green = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int blue = (a & 0xFF) - (b & 0xFF);
+
+        return red * red + green * green + blue * blue;
+    }
+
+    /**
+     * One k-means iteration: every part assigns its samples to the closest center and sums them up,
+     * then the sums are merged into new centers. The tasks are reused for every iteration, they are
+     * never serialized.
+     */
+    @SuppressWarnings("serial")
+    private class Iteration extends RecursiveAction {
+        private final Part[] parts;
+        private final int[] populations = new int[swatchCount];
+        private final float[] hsv = new float[3];
+        private int clusters;
+        private int changed;
+
+        Iteration(int partCount) {
+            parts = new Part[partCount];
+
+            for(int i = 0; i < partCount; i++) {
+                parts[i] = new Part();
+            }
+        }
+
+        void run(int clusters) {
+            this.clusters = clusters;
+
+            reinitialize();
+            pool.invoke(this);
+
+            //New centers from the merged sums:
+            changed = 0;
+
+            for(int c = 0; c < clusters; c++) {
+                long red = 0, green = 0, blue = 0;
+                int population = 0;
+
+                for(Part part : parts) {
+                    red += part.red[c];
+                    green += part.green[c];
+                    blue += part.blue[c];
+                    population += part.populations[c];
+                }
+
+                populations[c] = population;
+
+                //An empty cluster keeps its center:
+                if(population > 0) {
+                    centers[c] = ColorMath.rgb((int) (red / population), (int) (green / population), (int) (blue / population));
+                }
+            }
+
+            for(Part part : parts) {
+                changed += part.changed;
+            }
+        }
+
+        @Override
+        protected void compute() {
+            int partSize = (sampleCount + parts.length - 1) / parts.length;
+
+            for(int i = 0; i < parts.length; i++) {
+                parts[i].reinitialize();
+                parts[i].set(i * partSize, Math.min(sampleCount, (i + 1) * partSize));
+            }
+
+            invokeAll(parts);
+        }
+
+        @SuppressWarnings("serial")
+        private class Part extends RecursiveAction {
+            private final long[] red = new long[swatchCount];
+            private final long[] green = new long[swatchCount];
+            private final long[] blue = new long[swatchCount];
+            private final int[] populations = new int[swatchCount];
+            private int from;
+            private int to;
+            private int changed;
+
+            void set(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                for(int c = 0; c < clusters; c++) {
+                    red[c] = green[c] = blue[c] = 0;
+                    populations[c] = 0;
+                }
+
+                changed = 0;
+
+                for(int i = from; i < to; i++) {
+                    int sample = samples[i];
+                    int closest = 0;
+                    int closestDistance = Integer.MAX_VALUE;
+
+                    for(int c = 0; c < clusters; c++) {
+                        int distance = distance(sample, centers[c]);
+
+                        if(distance < closestDistance) {
+                            closestDistance = distance;
+                            closest = c;
+                        }
+                    }
+
+                    if(assignments[i] != closest) {
+                        assignments[i] = closest;
+                        changed++;
+                    }
+
+                    red[closest] += (sample >> 16) & 0xFF;
+                    green[closest] += (sample >> 8) & 0xFF;
+                    blue[closest] += sample & 0xFF;
+                    populations[closest]++;
+                }
+            }
+        }
+    }
+}
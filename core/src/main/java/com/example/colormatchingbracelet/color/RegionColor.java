@@ -0,0 +1,160 @@
+package com.example.colormatchingbracelet.color;
+
+/**
+ * Color of a region of a frame. Regions are read from a packed ARGB pixel array, the layout of
+ * Bitmap.getPixels(), so the same math runs on camera frames on the phone and in benchmarks.
+ */
+public final class RegionColor {
+    //Colors this close together on every channel are a shade of grey:
+    public static final int GREY_MAX_CHANNEL_DIFFERENCE = 20;
+    //Greys darker than this, summed over the channels, look horrible on the led strip:
+    public static final int GREY_MIN_CHANNEL_SUM = 600;
+
+    private RegionColor() {
+    }
+
+    /**
+     * Average color of a region.
+     * @param pixels - Packed ARGB pixels.
+     * @param offset - Index of the top left pixel of the region.
+     * @param stride - Pixels per row of the array.
+     * @param width - Width of the region.
+     * @param height - Height of the region.
+     */
+    public static int averageRgb(int[] pixels, int offset, int stride, int width, int height) {
+        int red = 0, green = 0, blue = 0;
+
+        for(int row = 0; row < height; row++) {
+            int index = offset + row * stride;
+
+            for(int end = index + width; index < end; index++) {
+                int pixel = pixels[index];
+
+                red += (pixel >> 16) & 0xFF;
+                green += (pixel >> 8) & 0xFF;
+                blue += pixel & 0xFF;
+            }
+        }
+
+        int count = width * height;
+
+        return ColorMath.rgb(red / count, green / count, blue / count);
+    }
+
+    /**
+     * Average hue and saturation of a region, at full value.
+     * @see #averageHsv(int[], int, int, int, int, boolean)
+     */
+    public static int averageHsvMaxV(int[] pixels, int offset, int stride, int width, int height) {
+        return averageHsv(pixels, offset, stride, width, height, true);
+    }
+
+    /**
+     * Average color of a region in HSV. Hue is an angle, so it is averaged as a direction: 350 and
+     * 10 degrees average to 0, not to 180. Every hue counts as much as it is saturated, the hue of
+     * a grey pixel means nothing.
+     * @param maxValue - Return the color at full value instead of the average value.
+     * @see #averageRgb(int[], int, int, int, int)
+     */
+    public static int averageHsv(int[] pixels, int offset, int stride, int width, int height, boolean maxValue) {
+        float hueX = 0.0f, hueY = 0.0f, saturation = 0.0f;
+        int value = 0;
+
+        for(int row = 0; row < height; row++) {
+            int index = offset + row * stride;
+
+            for(int end = index + width; index < end; index++) {
+                int pixel = pixels[index];
+                int red = (pixel >> 16) & 0xFF;
+                int green = (pixel >> 8) & 0xFF;
+                int blue = pixel & 0xFF;
+
+                int max = Math.max(red, Math.max(green, blue));
+                int range = max - Math.min(red, Math.min(green, blue));
+
+                value += max;
+
+                if(range == 0) {
+                    continue;
+                }
+
+                //Hue in sixths of a turn, as in ColorMath.rgbToHsv:
+                float sector;
+
+                if(max == red) {
+                    sector = (float) (green - blue) / range;
+                }
+                else if(max == green) {
+                    sector = 2.0f + (float) (blue - red) / range;
+                }
+                else {
+                    sector = 4.0f + (float) (red - green) / range;
+                }
+
+                float pixelSaturation = (float) range / max;
+                double angle = sector * (Math.PI / 3.0);
+
+                hueX += pixelSaturation * (float) Math.cos(angle);
+                hueY += pixelSaturation * (float) Math.sin(angle);
+                saturation += pixelSaturation;
+            }
+        }
+
+        int count = width * height;
+        float hue = (float) Math.toDegrees(Math.atan2(hueY, hueX));
+
+        return ColorMath.hsvToRgb(255, hue, saturation / count, maxValue ? 1.0f : value / (255.0f * count));
+    }
+
+    /**
+     * Average color of a region in CIE L*a*b*, the space where equal distances look like equal
+     * color differences, so the average is closest to how the region looks.
+     * @see #averageRgb(int[], int, int, int, int)
+     */
+    public static int averageLab(int[] pixels, int offset, int stride, int width, int height) {
+        float l = 0.0f, a = 0.0f, b = 0.0f;
+
+        for(int row = 0; row < height; row++) {
+            int index = offset + row * stride;
+
+            for(int end = index + width; index < end; index++) {
+                int pixel = pixels[index];
+
+                //Inlined ColorMath.rgbToLab, without the result array:
+                float red = ColorMath.linear((pixel >> 16) & 0xFF);
+                float green = ColorMath.linear((pixel >> 8) & 0xFF);
+                float blue = ColorMath.linear(pixel & 0xFF);
+
+                float fx = ColorMath.labF((0.4124f * red + 0.3576f * green + 0.1805f * blue) / ColorMath.WHITE_X);
+                float fy = ColorMath.labF((0.2126f * red + 0.7152f * green + 0.0722f * blue) / ColorMath.WHITE_Y);
+                float fz = ColorMath.labF((0.0193f * red + 0.1192f * green + 0.9505f * blue) / ColorMath.WHITE_Z);
+
+                l += 116.0f * fy - 16.0f;
+                a += 500.0f * (fx - fy);
+                b += 200.0f * (fy - fz);
+            }
+        }
+
+        int count = width * height;
+
+        return ColorMath.labToRgb(l / count, a / count, b / count);
+    }
+
+    /**
+     * Map dark greys to off, they look horrible on the led strip.
+     */
+    public static int suppressGrey(int color) {
+        int red = ColorMath.red(color);
+        int green = ColorMath.green(color);
+        int blue = ColorMath.blue(color);
+
+        if(Math.abs(red - green) < GREY_MAX_CHANNEL_DIFFERENCE
+            && Math.abs(red - blue) < GREY_MAX_CHANNEL_DIFFERENCE
+            && Math.abs(green - blue) < GREY_MAX_CHANNEL_DIFFERENCE
+            && red + green + blue < GREY_MIN_CHANNEL_SUM) {
+            return ColorMath.rgb(0, 0, 0);
+        }
+
+        return color;
+    }
+}
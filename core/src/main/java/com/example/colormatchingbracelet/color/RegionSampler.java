@@ -0,0 +1,119 @@
+package com.example.colormatchingbracelet.color;
+
+/**
+ * Samples the color of the square region around a point of an image. The region is read with a
+ * single bulk read into an array that is reused between calls, and cut off at the edges of the
+ * image, so sampling next to an edge averages only the pixels that are there.
+ *
+ * Sampling does not allocate. The array is reused, so a sampler is not thread safe.
+ */
+public class RegionSampler {
+
+    public enum Average {
+        //Mean of every channel:
+        RGB,
+        //Circular mean of the hue, mean saturation and value:
+        HSV,
+        //As HSV, at full value:
+        HSV_MAX_VALUE,
+        //Mean in CIE L*a*b*:
+        LAB
+    }
+
+    /**
+     * Bulk read of pixels from an image, in the layout of Bitmap.getPixels().
+     * @param <T> - Type of the image.
+     */
+    public interface PixelSource<T> {
+        void getPixels(T image, int[] pixels, int offset, int stride, int x, int y, int width, int height);
+    }
+
+    public static final int DEFAULT_RADIUS = 10;
+    public static final int MAX_RADIUS = 100;
+
+    private int radius;
+    private Average average;
+    private int[] region;
+
+    public RegionSampler() {
+        this(DEFAULT_RADIUS, Average.RGB);
+    }
+
+    public RegionSampler(int radius, Average average) {
+        setRadius(radius);
+        setAverage(average);
+    }
+
+    /**
+     * @param radius - The region is 2 * radius + 1 pixels wide, 0 samples a single pixel.
+     */
+    public void setRadius(int radius) {
+        if(radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Radius must be between 0 and " + MAX_RADIUS);
+        }
+
+        this.radius = radius;
+
+        int size = 2 * radius + 1;
+
+        if(region == null || region.length < size * size) {
+            region = new int[size * size];
+        }
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    public void setAverage(Average average) {
+        this.average = average;
+    }
+
+    public Average getAverage() {
+        return average;
+    }
+
+    /**
+     * Average color of the region around a point.
+     * @param image - Image to sample, read through source.
+     * @param imageWidth - Width of the image.
+     * @param imageHeight - Height of the image.
+     * @param x - Center of the region, points outside the image sample the closest edge.
+     * @param y - Center of the region.
+     * @return Opaque color, black for an empty image.
+     */
+    public <T> int sample(T image, int imageWidth, int imageHeight, int x, int y, PixelSource<T> source) {
+        if(imageWidth <= 0 || imageHeight <= 0) {
+            return ColorMath.rgb(0, 0, 0);
+        }
+
+        x = Math.max(0, Math.min(imageWidth - 1, x));
+        y = Math.max(0, Math.min(imageHeight - 1, y));
+
+        int left = Math.max(0, x - radius);
+        int top = Math.max(0, y - radius);
+        int width = Math.min(imageWidth, x + radius + 1) - left;
+        int height = Math.min(imageHeight, y + radius + 1) - top;
+
+        source.getPixels(image, region, 0, width, left, top, width, height);
+
+        return average(region, 0, width, width, height);
+    }
+
+    /**
+     * Average color of a region that was already read.
+     * @see RegionColor#averageRgb(int[], int, int, int, int)
+     */
+    public int average(int[] pixels, int offset, int stride, int width, int height) {
+        switch(average) {
+            case HSV:
+                return RegionColor.averageHsv(pixels, offset, stride, width, height, false);
+            case HSV_MAX_VALUE:
+                return RegionColor.averageHsv(pixels, offset, stride, width, height, true);
+            case LAB:
+                return RegionColor.averageLab(pixels, offset, stride, width, height);
+            default:
+                return RegionColor.averageRgb(pixels, offset, stride, width, height);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.colormatchingbracelet.color;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Samples the color of the region around a point straight from the planes of a YUV 4:2:0 camera
+ * frame, the layout of ImageFormat.YUV_420_888. Only the pixels of the region are converted to RGB,
+ * in fixed point, so a frame never has to be converted as a whole.
+ *
+ * Sampling does not allocate. The converted region is reused, so a sampler is not thread safe.
+ */
+public class YuvRegionSampler {
+    //Full range BT.601 (JFIF), what camera frames use, in 16.16 fixed point:
+    private static final int FIXED_SHIFT = 16;
+    private static final int FIXED_HALF = 1 << (FIXED_SHIFT - 1);
+    private static final int V_TO_RED = 91881;      //1.402
+    private static final int U_TO_GREEN = 22554;    //0.344136
+    private static final int V_TO_GREEN = 46802;    //0.714136
+    private static final int U_TO_BLUE = 116130;    //1.772
+
+    private final RegionSampler regionSampler;
+    private int[] region = new int[0];
+
+    public YuvRegionSampler() {
+        this(new RegionSampler());
+    }
+
+    /**
+     * @param regionSampler - Radius and average of the region.
+     */
+    public YuvRegionSampler(RegionSampler regionSampler) {
+        this.regionSampler = regionSampler;
+    }
+
+    public RegionSampler getRegionSampler() {
+        return regionSampler;
+    }
+
+    /**
+     * Average color of the region around a point, cut off at the edges of the frame.
+     * @param yPlane - Luma plane.
+     * @param uPlane - Cb plane, subsampled by 2 in both directions.
+     * @param vPlane - Cr plane, subsampled by 2 in both directions.
+     * @param yRowStride - Bytes per row of the luma plane.
+     * @param uvRowStride - Bytes per row of the chroma planes.
+     * @param uvPixelStride - Bytes between chroma samples, 2 for interleaved planes.
+     * @param x - Center of the region, points outside the frame sample the closest edge.
+     * @param y - Center of the region.
+     * @return Opaque color.
+     */
+    public int sample(ByteBuffer yPlane, ByteBuffer uPlane, ByteBuffer vPlane, int yRowStride, int uvRowStride, int uvPixelStride,
+                      int width, int height, int x, int y) {
+        int radius = regionSampler.getRadius();
+
+        x = Math.max(0, Math.min(width - 1, x));
+        y = Math.max(0, Math.min(height - 1, y));
+
+        int left = Math.max(0, x - radius);
+        int top = Math.max(0, y - radius);
+        int regionWidth = Math.min(width, x + radius + 1) - left;
+        int regionHeight = Math.min(height, y + radius + 1) - top;
+
+        if(region.length < regionWidth * regionHeight) {
+            int size = 2 * radius + 1;
+            region = new int[size * size];
+        }
+
+        int index = 0;
+
+        for(int row = top; row < top + regionHeight; row++) {
+            int yIndex = row * yRowStride + left;
+            int uvRow = (row >> 1) * uvRowStride;
+
+            for(int column = left; column < left + regionWidth; column++) {
+                int uvIndex = uvRow + (column >> 1) * uvPixelStride;
+
+                region[index++] = toRgb(yPlane.get(yIndex++) & 0xFF, uPlane.get(uvIndex) & 0xFF, vPlane.get(uvIndex) & 0xFF);
+            }
+        }
+
+        return regionSampler.average(region, 0, regionWidth, regionWidth, regionHeight);
+    }
+
+    /**
+     * Convert one full range YUV pixel to an opaque color.
+     */
+    public static int toRgb(int luma, int u, int v) {
+        int fixedLuma = (luma << FIXED_SHIFT) + FIXED_HALF;
+        u -= 128;
+        v -= 128;
+
+        int red = clamp((fixedLuma + V_TO_RED * v) >> FIXED_SHIFT);
+        int green = clamp((fixedLuma - U_TO_GREEN * u - V_TO_GREEN * v) >> FIXED_SHIFT);
+        int blue = clamp((fixedLuma + U_TO_BLUE * u) >> FIXED_SHIFT);
+
+        return ColorMath.rgb(red, green, blue);
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : (channel > 255 ? 255 : channel);
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.colormatchingbracelet.color;
+
+/**
+ * Reduces a frame to the colors of a row of zones, one per led: the frame is split into vertical
+ * strips of equal width, the first zone on the left. Every pixel is added to the running sums of
+ * its zone in a single pass, with the zone of every column looked up from a table that is only
+ * rebuilt when the frame width changes.
+ *
+ * The zone colors follow the frame smoothly: each new average is blended into the previous color
+ * of its zone, so camera noise does not make the leds flicker. Reducing does not allocate, so a
+ * reducer is not thread safe.
+ */
+public class ZoneColors {
+    public static final float DEFAULT_SMOOTHING = 0.5f;
+
+    private final int zoneCount;
+
+    //Zone of every column of the current frame width:
+    private int[] columnZones = new int[0];
+    private int columnWidth = -1;
+
+    private final long[] redSums;
+    private final long[] greenSums;
+    private final long[] blueSums;
+    private final int[] counts;
+
+    //Smoothed colors, per channel:
+    private final float[] reds;
+    private final float[] greens;
+    private final float[] blues;
+    private boolean hasColors;
+
+    private float smoothing = DEFAULT_SMOOTHING;
+
+    /**
+     * @param zoneCount - Number of zones, BraceletInformation.LED_STRIP_NUM_LEDS for one per led.
+     */
+    public ZoneColors(int zoneCount) {
+        if(zoneCount < 1) {
+            throw new IllegalArgumentException("At least one zone is needed");
+        }
+
+        this.zoneCount = zoneCount;
+
+        redSums = new long[zoneCount];
+        greenSums = new long[zoneCount];
+        blueSums = new long[zoneCount];
+        counts = new int[zoneCount];
+
+        reds = new float[zoneCount];
+        greens = new float[zoneCount];
+        blues = new float[zoneCount];
+    }
+
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    /**
+     * @param smoothing - Weight of the previous color of a zone, 0 to follow every frame exactly.
+     */
+    public void setSmoothing(float smoothing) {
+        if(smoothing < 0.0f || smoothing >= 1.0f) {
+            throw new IllegalArgumentException("Smoothing must be at least 0 and below 1");
+        }
+
+        this.smoothing = smoothing;
+    }
+
+    /**
+     * Forget the previous colors, the next frame is taken as is.
+     */
+    public void reset() {
+        hasColors = false;
+    }
+
+    /**
+     * Add a frame and get the colors of the zones.
+     * @param pixels - Packed ARGB pixels, the layout of Bitmap.getPixels().
+     * @param colors - Receives the opaque color of every zone, at least zoneCount long.
+     */
+    public void reduce(int[] pixels, int offset, int stride, int width, int height, int[] colors) {
+        if(width != columnWidth) {
+            buildColumnZones(width);
+        }
+
+        for(int zone = 0; zone < zoneCount; zone++) {
+            redSums[zone] = greenSums[zone] = blueSums[zone] = 0;
+            counts[zone] = 0;
+        }
+
+        for(int y = 0; y < height; y++) {
+            int index = offset + y * stride;
+
+            for(int x = 0; x < width; x++) {
+                int pixel = pixels[index++];
+                int zone = columnZones[x];
+
+                redSums[zone] += (pixel >> 16) & 0xFF;
+                greenSums[zone] += (pixel >> 8) & 0xFF;
+                blueSums[zone] += pixel & 0xFF;
+                counts[zone]++;
+            }
+        }
+
+        //A frame narrower than the zone count leaves zones empty, they keep their color:
+        float weight = hasColors ? smoothing : 0.0f;
+
+        for(int zone = 0; zone < zoneCount; zone++) {
+            int count = counts[zone];
+
+            if(count > 0) {
+                reds[zone] = reds[zone] * weight + (float) redSums[zone] / count * (1.0f - weight);
+                greens[zone] = greens[zone] * weight + (float) greenSums[zone] / count * (1.0f - weight);
+                blues[zone] = blues[zone] * weight + (float) blueSums[zone] / count * (1.0f - weight);
+            }
+
+            colors[zone] = ColorMath.rgb(Math.round(reds[zone]), Math.round(greens[zone]), Math.round(blues[zone]));
+        }
+
+        hasColors = true;
+    }
+
+    private void buildColumnZones(int width) {
+        if(columnZones.length < width) {
+            columnZones = new int[width];
+        }
+
+        for(int x = 0; x < width; x++) {
+            columnZones[x] = (int) ((long) x * zoneCount / width);
+        }
+
+        columnWidth = width;
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.colormatchingbracelet.gesture;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Template matching of recorded gestures with dynamic time warping, the classifier of the bracelet
+ * firmware as evaluated by GestureRecorder/evaluate.py. A gesture is GESTURE_LENGTH accelerometer
+ * samples of x | y | z. The distance of two gestures is the mean step cost along the cheapest
+ * warping path between them, where a step costs more when the two samples point in different
+ * directions.
+ *
+ * The warping matrix is reused between calls, so a matcher is not thread safe.
+ */
+public class GestureMatcher {
+    public static final int GESTURE_LENGTH = 50;
+    public static final int AXES = 3;
+    public static final int GESTURE_SIZE = AXES * GESTURE_LENGTH;
+
+    //Distance below which a gesture matches its closest template, as used by the firmware:
+    public static final float DEFAULT_THRESHOLD = 0.35f;
+
+    //Weight of the new sample in the first order low pass filter:
+    private static final float LOWPASS_Q = 0.95f;
+    private static final float EPSILON = 0.0000001f;
+
+    private final float threshold;
+    private final List<float[]> templates = new ArrayList<>();
+
+    private final float[] dtw = new float[GESTURE_LENGTH * GESTURE_LENGTH];
+    private final float[] filtered = new float[GESTURE_SIZE];
+
+    public GestureMatcher() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    public GestureMatcher(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Add a recorded gesture to match against.
+     * @param gesture - GESTURE_SIZE values, x | y | z per sample.
+     * @return Index of the template.
+     */
+    public int addTemplate(float[] gesture) {
+        checkSize(gesture);
+
+        float[] template = new float[GESTURE_SIZE];
+        lowpass(gesture, template);
+        templates.add(template);
+
+        return templates.size() - 1;
+    }
+
+    public int getTemplateCount() {
+        return templates.size();
+    }
+
+    /**
+     * Find the template closest to a gesture.
+     * @param gesture - GESTURE_SIZE values, x | y | z per sample.
+     * @return Index of the template, or -1 when no template is within the threshold.
+     */
+    public int match(float[] gesture) {
+        checkSize(gesture);
+        lowpass(gesture, filtered);
+
+        int closest = -1;
+        float smallestDistance = threshold;
+
+        for(int i = 0; i < templates.size(); i++) {
+            float distance = warpedDistance(filtered, templates.get(i));
+
+            if(distance <= smallestDistance) {
+                smallestDistance = distance;
+                closest = i;
+            }
+        }
+
+        return closest;
+    }
+
+    /**
+     * Distance between two gestures, both filtered the same way as templates.
+     */
+    public float distance(float[] a, float[] b) {
+        checkSize(a);
+        checkSize(b);
+
+        float[] filteredB = new float[GESTURE_SIZE];
+
+        lowpass(a, filtered);
+        lowpass(b, filteredB);
+
+        return warpedDistance(filtered, filteredB);
+    }
+
+    private float warpedDistance(float[] a, float[] b) {
+        final int n = GESTURE_LENGTH;
+
+        dtw[0] = cost(a, 0, b, 0);
+
+        for(int i = 1; i < n; i++) {
+            dtw[i * n] = cost(a, i, b, 0) + dtw[(i - 1) * n];
+            dtw[i] = cost(a, 0, b, i) + dtw[i - 1];
+        }
+
+        for(int i = 1; i < n; i++) {
+            int row = i * n;
+            int previousRow = row - n;
+
+            for(int j = 1; j < n; j++) {
+                float previous = Math.min(dtw[previousRow + j], Math.min(dtw[row + j - 1], dtw[previousRow + j - 1]));
+
+                dtw[row + j] = cost(a, i, b, j) + previous;
+            }
+        }
+
+        //Walk the cheapest path back, the step costs are the differences along it:
+        int i = n - 1;
+        int j = n - 1;
+        int steps = 1;
+
+        while(i > 0 && j > 0) {
+            float up = dtw[(i - 1) * n + j];
+            float left = dtw[i * n + j - 1];
+            float diagonal = dtw[(i - 1) * n + j - 1];
+
+            if(up <= left && up <= diagonal) {
+                i--;
+            }
+            else if(left < diagonal) {
+                j--;
+            }
+            else {
+                i--;
+                j--;
+            }
+
+            steps++;
+        }
+
+        steps += i + j;
+
+        //The step costs add up to the cost of the whole path:
+        return dtw[n * n - 1] / steps;
+    }
+
+    /**
+     * Cost of matching sample i of a with sample j of b.
+     */
+    private static float cost(float[] a, int i, float[] b, int j) {
+        int ai = i * AXES;
+        int bj = j * AXES;
+
+        float ax = a[ai], ay = a[ai + 1], az = a[ai + 2];
+        float bx = b[bj], by = b[bj + 1], bz = b[bj + 2];
+
+        float direction = (ax * bx + ay * by + az * bz) / (length(ax, ay, az) * length(bx, by, bz) + EPSILON);
+
+        return (1.0f - 0.5f * direction) * length(ax - bx, ay - by, az - bz);
+    }
+
+    private static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * First order low pass over the samples, the first sample is kept as is.
+     */
+    private static void lowpass(float[] in, float[] out) {
+        System.arraycopy(in, 0, out, 0, AXES);
+
+        for(int i = AXES; i < GESTURE_SIZE; i++) {
+            out[i] = (1.0f - LOWPASS_Q) * in[i - AXES] + LOWPASS_Q * in[i];
+        }
+    }
+
+    private static void checkSize(float[] gesture) {
+        if(gesture.length != GESTURE_SIZE) {
+            throw new IllegalArgumentException("Gesture of " + gesture.length + " values, expected " + GESTURE_SIZE);
+        }
+    }
+}
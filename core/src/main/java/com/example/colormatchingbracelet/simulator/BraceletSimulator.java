@@ -0,0 +1,597 @@
+package com.example.colormatchingbracelet.simulator;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletMode;
+import com.example.colormatchingbracelet.LedStrip.LedStripCommandType;
+import com.example.colormatchingbracelet.LedStrip.LedStripEffectType;
+import com.example.colormatchingbracelet.bluetooth.ClockSync;
+import com.example.colormatchingbracelet.bluetooth.CommandChannel;
+import com.example.colormatchingbracelet.bluetooth.Frame;
+import com.example.colormatchingbracelet.bluetooth.FrameCodec;
+import com.example.colormatchingbracelet.bluetooth.MessageType;
+import com.example.colormatchingbracelet.bluetooth.StatusPoller;
+import com.example.colormatchingbracelet.bluetooth.Transport;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Model of the bracelet firmware, ColorMatchingBracelet.ino, on the JVM. It handles the writes the
+ * app makes the same way the firmware does and answers with the same notifications, so the app can
+ * be run and measured without hardware. Sensors are not simulated: calibrating and recording a
+ * gesture complete at once, and the battery only changes when it is set.
+ *
+ * The protocol version can be lowered to simulate older firmware, messages that version did not
+ * know about are then ignored.
+ */
+public class BraceletSimulator {
+    public static final int PROTOCOL_VERSION = ClockSync.PROTOCOL_VERSION_TIME_SYNC;
+
+    public static final int LED_STRIP_NUM_LEDS = 10;
+    public static final int LED_STRIP_MAX_BRIGHTNESS = 30;
+    public static final int RECORDED_GESTURES_MAX = 128;
+
+    public static final int STATUS_SIZE = 7;
+    public static final long STATUS_PUSH_INTERVAL_MS = 100;
+    public static final int STATUS_BATTERY_HYSTERESIS = 2;
+
+    private static final int SEQUENCE_HISTORY = 16;
+    private static final int TIME_SYNC_SIZE = 4;
+    private static final int PIXEL_RUN_SIZE = 5;
+    private static final int EFFECT_START_SIZE = 7;
+    private static final int MODE_EFFECT_SIZE = 3;
+    private static final int LED_STRIP_VALUE_SIZE = 2;
+    private static final int LED_STRIP_COLOR_SIZE = 5;
+
+    public interface Output {
+        /**
+         * Send a notification to the app.
+         * @param data - Notification value, at most MTU - ATT_HEADER_SIZE bytes, owned by the receiver.
+         */
+        void notify(byte[] data);
+    }
+
+    private final int protocolVersion;
+    //Bracelet clock: millis() read bootMillis at phone time bootTimeMs:
+    private long bootTimeMs = ClockSync.now();
+    private long bootMillis;
+    private double driftPpm;
+
+    private Output output;
+    private int mtu = Transport.DEFAULT_MTU;
+
+    private BraceletMode mode = BraceletMode.NORMAL;
+    private int batteryPercentage = 100;
+    private boolean ledStripPower;
+    private int ledStripBrightness = 60;
+    private final int[] ledStripColor = {255, 255, 255};
+    private final int[][] ledStripPixels = new int[LED_STRIP_NUM_LEDS][3];
+    private boolean ledStripPixelsActive;
+    private LedStripEffectType ledStripEffect = LedStripEffectType.NONE;
+    private long ledStripEffectStart;
+
+    private final List<LedStripEffectType> recordedGestureEffects = new ArrayList<>();
+    private int calibrations;
+
+    private final int[] sequenceHistory = new int[SEQUENCE_HISTORY];
+    private final int[] sequenceHistoryResults = new int[SEQUENCE_HISTORY];
+    private int sequenceHistoryLength;
+    private int sequenceHistoryNext;
+
+    private final byte[] lastStatus = new byte[STATUS_SIZE];
+    private boolean lastStatusValid;
+
+    private final Frame frame = new Frame();
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+
+    private long messagesReceived;
+    private long messagesRejected;
+    private long framesInvalid;
+    private long notificationsSent;
+
+    public BraceletSimulator() {
+        this(PROTOCOL_VERSION);
+    }
+
+    /**
+     * @param protocolVersion - Firmware protocol version to behave as, 1 up to PROTOCOL_VERSION.
+     */
+    public BraceletSimulator(int protocolVersion) {
+        if(protocolVersion < 1 || protocolVersion > PROTOCOL_VERSION) {
+            throw new IllegalArgumentException("Unsupported protocol version " + protocolVersion);
+        }
+
+        this.protocolVersion = protocolVersion;
+    }
+
+    /**
+     * Called by the transport when the app connects.
+     * @param output - Where notifications go.
+     * @param mtu - Negotiated ATT MTU.
+     */
+    public synchronized void onConnect(Output output, int mtu) {
+        this.output = output;
+        this.mtu = mtu;
+
+        lastStatusValid = false;
+    }
+
+    public synchronized void onDisconnect() {
+        output = null;
+        mtu = Transport.DEFAULT_MTU;
+    }
+
+    /**
+     * A write to the RX characteristic, validated like the firmware does: a single whole frame.
+     */
+    public synchronized void onWrite(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+
+        if(FrameCodec.decode(buffer, frame) != FrameCodec.RESULT_OK || buffer.hasRemaining()) {
+            framesInvalid++;
+            return;
+        }
+
+        byte[] payload = new byte[frame.getPayloadLength()];
+        frame.copyPayload(payload, 0);
+
+        processMessage(frame.getType().getValue(), payload, 0, payload.length);
+    }
+
+    /**
+     * The firmware main loop, pushes the status when it changed. Must be called every
+     * STATUS_PUSH_INTERVAL_MS while connected.
+     */
+    public synchronized void loop() {
+        if(protocolVersion < StatusPoller.PROTOCOL_VERSION_STATUS_PUSH || output == null) {
+            return;
+        }
+
+        byte[] status = new byte[STATUS_SIZE];
+        buildStatus(status);
+
+        if(lastStatusValid) {
+            boolean changed = Math.abs((status[1] & 0xFF) - (lastStatus[1] & 0xFF)) >= STATUS_BATTERY_HYSTERESIS;
+
+            for(int i = 0; i < STATUS_SIZE && !changed; i++) {
+                changed = i != 1 && status[i] != lastStatus[i];
+            }
+
+            if(!changed) {
+                return;
+            }
+        }
+
+        sendStatus();
+    }
+
+    /**
+     * Bracelet millis(), running from the creation of the simulator at the configured drift.
+     */
+    public synchronized long millis() {
+        return millisAt(ClockSync.now());
+    }
+
+    /**
+     * Bracelet millis() at a phone time.
+     * @param phoneTimeMs - Time in the ClockSync.now() timeline.
+     * @return Bracelet time, wrapped to 32 bits like on the bracelet.
+     */
+    public synchronized long millisAt(long phoneTimeMs) {
+        long elapsedMs = phoneTimeMs - bootTimeMs;
+
+        return (bootMillis + elapsedMs + Math.round(elapsedMs * driftPpm / 1e6)) & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Set the bracelet clock, for example to just before it wraps.
+     */
+    public synchronized void setMillis(long millis) {
+        bootTimeMs = ClockSync.now();
+        bootMillis = millis;
+    }
+
+    /**
+     * Let the bracelet clock run faster (or slower, when negative) than the phone clock.
+     */
+    public synchronized void setDriftPpm(double driftPpm) {
+        this.driftPpm = driftPpm;
+    }
+
+    public synchronized void setBatteryPercentage(int batteryPercentage) {
+        this.batteryPercentage = batteryPercentage;
+    }
+
+    //#region Message Processing
+
+    /**
+     * @return False when the message was rejected.
+     */
+    private boolean processMessage(int messageType, byte[] payload, int offset, int length) {
+        messagesReceived++;
+
+        if(!supports(messageType)) {
+            messagesRejected++;
+            return false;
+        }
+
+        switch(MessageType.fromValue(messageType)) {
+            case STATUS:
+                sendStatus();
+                break;
+            case DEBUG:
+                break;
+            case LEDSTRIP:
+                if(!processLedStripCommand(payload, offset, length)) {
+                    messagesRejected++;
+                    return false;
+                }
+                break;
+            case MODE:
+                if(!processModeChange(payload, offset, length)) {
+                    messagesRejected++;
+                    return false;
+                }
+                break;
+            case CALIBRATE:
+                calibrations++;
+                break;
+            case ADD_GESTURE:
+                if(length < 1 || recordedGestureEffects.size() >= RECORDED_GESTURES_MAX) {
+                    messagesRejected++;
+                    return false;
+                }
+
+                recordedGestureEffects.add(LedStripEffectType.fromValue(payload[offset] & 0xFF));
+                break;
+            case REMOVE_GESTURE:
+                //Accepted, but not implemented by the firmware either:
+                break;
+            case LEDSTRIP_BATCH:
+                if(!processLedStripBatch(payload, offset, length)) {
+                    messagesRejected++;
+                    return false;
+                }
+                break;
+            case SEQUENCED:
+                processSequencedMessage(payload, offset, length);
+                break;
+            case TIME_SYNC:
+                if(length < TIME_SYNC_SIZE) {
+                    messagesRejected++;
+                    return false;
+                }
+
+                //Phone time | this clock:
+                byte[] response = new byte[2 * TIME_SYNC_SIZE];
+                long time = millis();
+
+                System.arraycopy(payload, offset, response, 0, TIME_SYNC_SIZE);
+                response[4] = (byte) (time >> 24);
+                response[5] = (byte) (time >> 16);
+                response[6] = (byte) (time >> 8);
+                response[7] = (byte) time;
+
+                sendMessage(MessageType.TIME_SYNC, response);
+                break;
+            default:
+                messagesRejected++;
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Message types the firmware of the simulated protocol version knew about.
+     */
+    private boolean supports(int messageType) {
+        MessageType type = MessageType.fromValue(messageType);
+
+        if(type == null) {
+            return false;
+        }
+
+        switch(type) {
+            case LEDSTRIP_BATCH:
+                return protocolVersion >= FrameCodec.PROTOCOL_VERSION_EXTENDED_LENGTH;
+            case SEQUENCED:
+            case ACK:
+                return protocolVersion >= CommandChannel.PROTOCOL_VERSION_ACKNOWLEDGED;
+            case TIME_SYNC:
+                return protocolVersion >= ClockSync.PROTOCOL_VERSION_TIME_SYNC;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return False when the payload is too short for the mode.
+     */
+    private boolean processModeChange(byte[] payload, int offset, int length) {
+        if(length < 1) {
+            return false;
+        }
+
+        BraceletMode newMode = BraceletMode.fromValue(payload[offset] & 0xFF);
+
+        if(newMode == null) {
+            return true;
+        }
+
+        boolean effectMode = newMode == BraceletMode.EFFECT || newMode == BraceletMode.GESTURE_EFFECT;
+
+        if(effectMode && length < MODE_EFFECT_SIZE) {
+            return false;
+        }
+
+        mode = newMode;
+
+        if(effectMode) {
+            ledStripEffect = LedStripEffectType.fromValue(payload[offset + 2] & 0xFF);
+
+            //Effect | start time, converted to this clock by the phone:
+            boolean timed = length >= EFFECT_START_SIZE && (payload[offset + 1] & 0xFF) >= ClockSync.PROTOCOL_VERSION_TIME_SYNC
+                    && protocolVersion >= ClockSync.PROTOCOL_VERSION_TIME_SYNC;
+
+            ledStripEffectStart = timed ? readUnsignedInt(payload, offset + 3) : millis();
+        }
+        else {
+            ledStripEffect = LedStripEffectType.NONE;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sequenced payload: sequence number | type | payload, answered with ACK: sequence number | result
+     */
+    private void processSequencedMessage(byte[] data, int offset, int length) {
+        if(length < 2) {
+            return;
+        }
+
+        int sequenceNumber = data[offset] & 0xFF;
+        int messageType = data[offset + 1] & 0xFF;
+        int result = -1;
+
+        //A retransmission of a command that was already applied is only acknowledged again:
+        for(int i = 0; i < sequenceHistoryLength; i++) {
+            if(sequenceHistory[i] == sequenceNumber) {
+                result = sequenceHistoryResults[i];
+                break;
+            }
+        }
+
+        if(result < 0) {
+            if(messageType == MessageType.SEQUENCED.getValue() || messageType == MessageType.ACK.getValue()) {
+                result = CommandChannel.RESULT_REJECTED;
+            }
+            else {
+                result = processMessage(messageType, data, offset + 2, length - 2) ? CommandChannel.RESULT_OK : CommandChannel.RESULT_REJECTED;
+            }
+
+            sequenceHistory[sequenceHistoryNext] = sequenceNumber;
+            sequenceHistoryResults[sequenceHistoryNext] = result;
+            sequenceHistoryNext = (sequenceHistoryNext + 1) % SEQUENCE_HISTORY;
+            sequenceHistoryLength = Math.min(sequenceHistoryLength + 1, SEQUENCE_HISTORY);
+        }
+
+        sendMessage(MessageType.ACK, new byte[]{(byte) sequenceNumber, (byte) result});
+    }
+
+    /**
+     * Batch payload: (type | length | payload) entries, only led strip and mode messages are allowed
+     * @return False when an entry was rejected, the other entries are still applied.
+     */
+    private boolean processLedStripBatch(byte[] data, int offset, int length) {
+        int index = 0;
+        boolean accepted = true;
+
+        while(index + 2 <= length) {
+            int entryType = data[offset + index] & 0xFF;
+            int entrySize = data[offset + index + 1] & 0xFF;
+
+            if(index + 2 + entrySize > length) {
+                return false;
+            }
+
+            if(entryType == MessageType.LEDSTRIP.getValue() || entryType == MessageType.MODE.getValue()) {
+                accepted &= processMessage(entryType, data, offset + index + 2, entrySize);
+            }
+            else {
+                accepted = false;
+            }
+
+            index += 2 + entrySize;
+        }
+
+        return accepted;
+    }
+
+    /**
+     * @return False when the command is unknown or its payload too short.
+     */
+    private boolean processLedStripCommand(byte[] data, int offset, int length) {
+        //Like the firmware, without a type the pixel length would be negative:
+        if(length < 1) {
+            return false;
+        }
+
+        int type = data[offset] & 0xFF;
+
+        boolean tooShort = type == LedStripCommandType.COLOR.getValue() ? length < LED_STRIP_COLOR_SIZE
+                : (type == LedStripCommandType.POWER.getValue() || type == LedStripCommandType.BRIGHTNESS.getValue()) && length < LED_STRIP_VALUE_SIZE;
+
+        if(tooShort) {
+            return false;
+        }
+
+        if(type == LedStripCommandType.POWER.getValue()) {
+            ledStripPower = data[offset + 1] == 1;
+        }
+        else if(type == LedStripCommandType.BRIGHTNESS.getValue()) {
+            //Bound like the firmware, a percentage of the maximum brightness:
+            int boundedBrightness = (int) ((data[offset + 1] & 0xFF) / 100.0f * LED_STRIP_MAX_BRIGHTNESS);
+
+            ledStripBrightness = (int) (boundedBrightness / 100.0f * 255.0f);
+        }
+        else if(type == LedStripCommandType.COLOR.getValue()) {
+            for(int i = 0; i < 3; i++) {
+                ledStripColor[i] = data[offset + 2 + i] & 0xFF;
+            }
+
+            ledStripPixelsActive = false;
+        }
+        else if(type == LedStripCommandType.PIXELS.getValue()) {
+            processLedStripPixels(data, offset + 1, length - 1);
+        }
+        else {
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Runs of: Start | Count | Red | Green | Blue, only changed leds are sent
+     */
+    private void processLedStripPixels(byte[] data, int offset, int length) {
+        if(!ledStripPixelsActive) {
+            //Starting from the solid color that is shown now:
+            for(int[] pixel : ledStripPixels) {
+                System.arraycopy(ledStripColor, 0, pixel, 0, 3);
+            }
+
+            ledStripPixelsActive = true;
+        }
+
+        for(int index = 0; index + PIXEL_RUN_SIZE <= length; index += PIXEL_RUN_SIZE) {
+            int start = data[offset + index] & 0xFF;
+            int count = data[offset + index + 1] & 0xFF;
+
+            for(int i = start; i < start + count && i < LED_STRIP_NUM_LEDS; i++) {
+                for(int channel = 0; channel < 3; channel++) {
+                    ledStripPixels[i][channel] = data[offset + index + 2 + channel] & 0xFF;
+                }
+            }
+        }
+    }
+
+    //#endregion
+
+    private void buildStatus(byte[] status) {
+        status[0] = (byte) mode.getValue();
+        status[1] = (byte) batteryPercentage;
+        status[2] = (byte) (ledStripPower ? '1' : '0');
+        status[3] = (byte) ledStripEffect.getValue();
+        status[4] = (byte) ledStripBrightness;
+        status[5] = (byte) recordedGestureEffects.size();
+        status[6] = (byte) protocolVersion;
+    }
+
+    private void sendStatus() {
+        buildStatus(lastStatus);
+        lastStatusValid = true;
+
+        //The first firmware did not send its protocol version:
+        sendMessage(MessageType.STATUS, protocolVersion > 1 ? lastStatus : Arrays.copyOf(lastStatus, STATUS_SIZE - 1));
+    }
+
+    /**
+     * Long messages are split over multiple notifications, the app reassembles them.
+     */
+    private void sendMessage(MessageType type, byte[] data) {
+        if(output == null) {
+            return;
+        }
+
+        sendBuffer.clear();
+
+        int size = FrameCodec.encode(sendBuffer, type, data);
+        int chunkSize = mtu - Transport.ATT_HEADER_SIZE;
+
+        for(int offset = 0; offset < size; offset += chunkSize) {
+            byte[] chunk = new byte[Math.min(size - offset, chunkSize)];
+
+            System.arraycopy(sendBuffer.array(), offset, chunk, 0, chunk.length);
+            output.notify(chunk);
+            notificationsSent++;
+        }
+    }
+
+    private static long readUnsignedInt(byte[] data, int offset) {
+        return ((long) (data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16) | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+    }
+
+    //#region State
+
+    public synchronized BraceletMode getMode() {
+        return mode;
+    }
+
+    public synchronized boolean getLedStripPower() {
+        return ledStripPower;
+    }
+
+    public synchronized int getLedStripBrightness() {
+        return ledStripBrightness;
+    }
+
+    public synchronized LedStripEffectType getLedStripEffect() {
+        return ledStripEffect;
+    }
+
+    /**
+     * Bracelet millis() the current effect started at.
+     */
+    public synchronized long getLedStripEffectStart() {
+        return ledStripEffectStart;
+    }
+
+    /**
+     * Color of a led as the strip would show it, ignoring power, brightness and effects.
+     * @return Red, green and blue.
+     */
+    public synchronized int[] getPixel(int index) {
+        return (ledStripPixelsActive ? ledStripPixels[index] : ledStripColor).clone();
+    }
+
+    public synchronized int getNumGestures() {
+        return recordedGestureEffects.size();
+    }
+
+    public synchronized int getCalibrations() {
+        return calibrations;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    //#endregion
+
+    //#region Statistics
+
+    public synchronized long getMessagesReceived() {
+        return messagesReceived;
+    }
+
+    public synchronized long getMessagesRejected() {
+        return messagesRejected;
+    }
+
+    /**
+     * Writes that were not exactly one valid frame, for example because of a lost chunk.
+     */
+    public synchronized long getFramesInvalid() {
+        return framesInvalid;
+    }
+
+    public synchronized long getNotificationsSent() {
+        return notificationsSent;
+    }
+
+    //#endregion
+}
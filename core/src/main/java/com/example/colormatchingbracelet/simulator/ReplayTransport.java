@@ -0,0 +1,234 @@
+package com.example.colormatchingbracelet.simulator;
+
+import com.example.colormatchingbracelet.bluetooth.FrameTraceReader;
+import com.example.colormatchingbracelet.bluetooth.Transport;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport that plays back the inbound records of a FrameTrace, so a recorded session goes through
+ * the frame decoder and state store of a BraceletSession again. Notifications are delivered with
+ * their recorded timing, optionally sped up, and split the same way as when they were recorded.
+ *
+ * Writes are accepted and completed right away, they are only counted. Every callback runs on a
+ * single thread, like the callbacks of SimulatedTransport.
+ */
+public class ReplayTransport implements Transport {
+    //Speed at which every record is delivered as soon as the previous one was handled:
+    public static final double AS_FAST_AS_POSSIBLE = 0;
+
+    private final FrameTraceReader trace;
+    private final int session;
+    private final double speed;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ReplayTransport");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    //Counted down when the replay of the last connect finished:
+    private volatile CountDownLatch finished = new CountDownLatch(1);
+
+    private Listener listener;
+    private volatile boolean connected;
+    private int mtu = DEFAULT_MTU;
+
+    //Every connect starts a new replay, tasks of an earlier one see it changed and stop:
+    private int replay;
+
+    //Replay clock, the first inbound record is delivered at startNanos:
+    private long startNanos;
+    private long firstRecordNanos = -1;
+
+    private volatile long recordsReplayed;
+    private volatile long recordedWrites;
+    private volatile long framesWritten;
+    private volatile long replayNanos;
+
+    /**
+     * @param trace - Trace to play back, it is read from the start on every connect.
+     * @param session - Session of the trace to play back, the others are skipped.
+     * @param speed - 1 for the recorded timing, 10 for ten times as fast, or AS_FAST_AS_POSSIBLE.
+     */
+    public ReplayTransport(FrameTraceReader trace, int session, double speed) {
+        if(speed < 0) {
+            throw new IllegalArgumentException("Speed must not be negative");
+        }
+
+        this.trace = trace;
+        this.session = session;
+        this.speed = speed;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts the replay whatever the address.
+     */
+    @Override
+    public boolean connect(String address, boolean autoConnect) {
+        if(executor.isShutdown()) {
+            return false;
+        }
+
+        CountDownLatch replayFinished = new CountDownLatch(1);
+        finished = replayFinished;
+
+        executor.execute(() -> {
+            int current = ++replay;
+
+            connected = true;
+            listener.onConnected();
+            listener.onServicesDiscovered();
+
+            //Bracelets that sent notifications larger than the default MTU negotiated a larger one:
+            mtu = MAX_MTU;
+            listener.onReady();
+
+            trace.rewind();
+            startNanos = System.nanoTime();
+            firstRecordNanos = -1;
+
+            deliverNext(current, replayFinished);
+        });
+
+        return true;
+    }
+
+    /**
+     * Deliver the current record and schedule the next one, on the executor.
+     * @param current - Replay the records belong to, nothing is delivered once it was replaced.
+     * @param replayFinished - Latch of that replay.
+     */
+    private void deliverNext(int current, CountDownLatch replayFinished) {
+        if(!connected || current != replay) {
+            return;
+        }
+
+        while(trace.next()) {
+            if(trace.getSession() != session) {
+                continue;
+            }
+
+            if(!trace.isInbound()) {
+                recordedWrites++;
+                continue;
+            }
+
+            if(firstRecordNanos < 0) {
+                firstRecordNanos = trace.getTimeNanos();
+            }
+
+            long delayNanos = speed == AS_FAST_AS_POSSIBLE ? 0
+                    : startNanos + (long) ((trace.getTimeNanos() - firstRecordNanos) / speed) - System.nanoTime();
+
+            byte[] data = trace.getData();
+
+            executor.schedule(() -> {
+                if(!connected || current != replay) {
+                    return;
+                }
+
+                listener.onReceived(data);
+                recordsReplayed++;
+
+                deliverNext(current, replayFinished);
+            }, Math.max(delayNanos, 0), TimeUnit.NANOSECONDS);
+
+            return;
+        }
+
+        replayNanos = System.nanoTime() - startNanos;
+        replayFinished.countDown();
+    }
+
+    /**
+     * Wait until every record of the replay started by the last connect was delivered.
+     * @return False when the replay did not finish in time, or was disconnected.
+     */
+    public boolean awaitEnd(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    @Override
+    public void disconnect() {
+        executor.execute(() -> {
+            if(!connected) {
+                return;
+            }
+
+            connected = false;
+            mtu = DEFAULT_MTU;
+            listener.onDisconnected();
+        });
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean write(byte[] frame, boolean withoutResponse) {
+        if(!connected) {
+            return false;
+        }
+
+        framesWritten++;
+
+        executor.execute(() -> {
+            if(connected) {
+                listener.onWriteComplete();
+            }
+        });
+
+        return true;
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public boolean supportsWriteWithoutResponse() {
+        return true;
+    }
+
+    /**
+     * Inbound records delivered so far.
+     */
+    public long getRecordsReplayed() {
+        return recordsReplayed;
+    }
+
+    /**
+     * Outbound records of the session passed in the trace, what the app wrote while recording.
+     */
+    public long getRecordedWrites() {
+        return recordedWrites;
+    }
+
+    /**
+     * Frames written during the replay.
+     */
+    public long getFramesWritten() {
+        return framesWritten;
+    }
+
+    /**
+     * Time the whole replay took, 0 before it finished.
+     */
+    public long getReplayNanos() {
+        return replayNanos;
+    }
+}
@@ -0,0 +1,312 @@
+package com.example.colormatchingbracelet.simulator;
+
+import com.example.colormatchingbracelet.bluetooth.Transport;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory transport to a BraceletSimulator, with the link characteristics that matter for
+ * throughput and latency: one way latency with jitter, the negotiated MTU, lost packets and
+ * notifications delivered together.
+ *
+ * Like a BLE link, packets are delivered in order in both directions. A write with response
+ * completes after a round trip, a write without response as soon as it is sent. A lost packet is
+ * never delivered, but its write still completes, so losses only show up as missing frames the
+ * way they would on a phone with a bad link. Writes are refused until notifications are set up,
+ * the frames wait for onReady(). Every callback runs on a single thread.
+ */
+public class SimulatedTransport implements Transport {
+    private final BraceletSimulator bracelet;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "SimulatedTransport");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    //Link characteristics, set before connecting:
+    private volatile long latencyNanos = TimeUnit.MILLISECONDS.toNanos(15);
+    private volatile long jitterNanos;
+    private volatile int maxMtu = MAX_MTU;
+    private volatile double packetLoss;
+    private volatile long coalescingNanos;
+    private final Random random = new Random(1);
+
+    private Listener listener;
+    private volatile boolean connected;
+    //Notifications are set up, like GATT nothing can be written before that:
+    private volatile boolean ready;
+    private volatile int mtu = DEFAULT_MTU;
+    private ScheduledFuture<?> loopTask;
+
+    //Deliveries never overtake each other, a packet arrives no earlier than the one before it:
+    private long lastUplinkNanos;
+    private long lastDownlinkNanos;
+
+    //Notifications waiting to be delivered together:
+    private final ByteArrayOutputStream coalesced = new ByteArrayOutputStream();
+
+    private long packetsWritten;
+    private long packetsNotified;
+    private long packetsLost;
+    private long bytesWritten;
+
+    public SimulatedTransport(BraceletSimulator bracelet) {
+        this.bracelet = bracelet;
+    }
+
+    public BraceletSimulator getBracelet() {
+        return bracelet;
+    }
+
+    /**
+     * @param latencyMs - One way latency, a BLE connection event is 7.5 to 50 ms apart.
+     * @param jitterMs - Random extra latency of every packet, up to this much.
+     */
+    public void setLatency(double latencyMs, double jitterMs) {
+        latencyNanos = (long) (latencyMs * 1e6);
+        jitterNanos = (long) (jitterMs * 1e6);
+    }
+
+    /**
+     * Largest MTU the bracelet accepts, the negotiated MTU is the smaller of this and MAX_MTU.
+     */
+    public void setMtu(int mtu) {
+        maxMtu = Math.max(DEFAULT_MTU, mtu);
+    }
+
+    /**
+     * @param packetLoss - Fraction of the packets, in both directions, that is lost.
+     */
+    public void setPacketLoss(double packetLoss) {
+        this.packetLoss = packetLoss;
+    }
+
+    /**
+     * Deliver the notifications that arrive within a window as a single callback, the way a busy
+     * Bluetooth stack does.
+     * @param windowMs - Length of the window, 0 delivers every notification on its own.
+     */
+    public void setNotificationCoalescing(double windowMs) {
+        coalescingNanos = (long) (windowMs * 1e6);
+    }
+
+    public void setSeed(long seed) {
+        synchronized(random) {
+            random.setSeed(seed);
+        }
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Connects to the simulated bracelet whatever the address.
+     */
+    @Override
+    public boolean connect(String address, boolean autoConnect) {
+        if(executor.isShutdown()) {
+            return false;
+        }
+
+        executor.schedule(() -> {
+            connected = true;
+            listener.onConnected();
+            listener.onServicesDiscovered();
+
+            //Notifications are enabled and the MTU is negotiated in two more round trips:
+            executor.schedule(this::onSetupComplete, 4 * latencyNanos, TimeUnit.NANOSECONDS);
+        }, latencyNanos, TimeUnit.NANOSECONDS);
+
+        return true;
+    }
+
+    private void onSetupComplete() {
+        if(!connected) {
+            return;
+        }
+
+        mtu = Math.min(maxMtu, MAX_MTU);
+        bracelet.onConnect(this::onNotify, mtu);
+        ready = true;
+
+        loopTask = executor.scheduleAtFixedRate(bracelet::loop, BraceletSimulator.STATUS_PUSH_INTERVAL_MS,
+                BraceletSimulator.STATUS_PUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+
+        listener.onReady();
+    }
+
+    @Override
+    public void disconnect() {
+        executor.schedule(this::onLinkDown, latencyNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Drop the link without the app asking for it, as when the bracelet goes out of range.
+     */
+    public void simulateLinkLoss() {
+        executor.execute(this::onLinkDown);
+    }
+
+    private void onLinkDown() {
+        if(!connected) {
+            return;
+        }
+
+        connected = false;
+        ready = false;
+        mtu = DEFAULT_MTU;
+        bracelet.onDisconnect();
+        coalesced.reset();
+
+        if(loopTask != null) {
+            loopTask.cancel(false);
+            loopTask = null;
+        }
+
+        listener.onDisconnected();
+    }
+
+    @Override
+    public void close() {
+        connected = false;
+        ready = false;
+        bracelet.onDisconnect();
+        executor.shutdownNow();
+    }
+
+    @Override
+    public boolean write(byte[] frame, boolean withoutResponse) {
+        if(!connected || !ready) {
+            return false;
+        }
+
+        byte[] packet = frame.clone();
+        long deliveryNanos;
+        boolean lost = isLost();
+
+        synchronized(this) {
+            deliveryNanos = lastUplinkNanos = Math.max(System.nanoTime() + latencyNanos + jitter(), lastUplinkNanos);
+            packetsWritten++;
+            bytesWritten += packet.length;
+
+            if(lost) {
+                packetsLost++;
+            }
+        }
+
+        long delayNanos = deliveryNanos - System.nanoTime();
+
+        if(!lost) {
+            executor.schedule(() -> {
+                if(connected) {
+                    bracelet.onWrite(packet);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+        }
+
+        //The response comes back over the same link:
+        executor.schedule(() -> {
+            if(connected) {
+                listener.onWriteComplete();
+            }
+        }, withoutResponse ? 0 : delayNanos + latencyNanos, TimeUnit.NANOSECONDS);
+
+        return true;
+    }
+
+    /**
+     * Called by the bracelet, on the executor.
+     */
+    private void onNotify(byte[] data) {
+        long deliveryNanos;
+
+        synchronized(this) {
+            packetsNotified++;
+
+            if(isLost()) {
+                packetsLost++;
+                return;
+            }
+
+            deliveryNanos = lastDownlinkNanos = Math.max(System.nanoTime() + latencyNanos + jitter(), lastDownlinkNanos);
+        }
+
+        long delayNanos = deliveryNanos - System.nanoTime();
+
+        if(coalescingNanos <= 0) {
+            executor.schedule(() -> {
+                if(connected) {
+                    listener.onReceived(data);
+                }
+            }, delayNanos, TimeUnit.NANOSECONDS);
+            return;
+        }
+
+        executor.schedule(() -> {
+            //The first notification of a window schedules the delivery of all of them:
+            if(coalesced.size() == 0) {
+                executor.schedule(this::deliverCoalesced, coalescingNanos, TimeUnit.NANOSECONDS);
+            }
+
+            coalesced.write(data, 0, data.length);
+        }, delayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void deliverCoalesced() {
+        if(!connected || coalesced.size() == 0) {
+            return;
+        }
+
+        byte[] data = coalesced.toByteArray();
+        coalesced.reset();
+
+        listener.onReceived(data);
+    }
+
+    private boolean isLost() {
+        synchronized(random) {
+            return packetLoss > 0 && random.nextDouble() < packetLoss;
+        }
+    }
+
+    private long jitter() {
+        synchronized(random) {
+            return jitterNanos > 0 ? (long) (random.nextDouble() * jitterNanos) : 0;
+        }
+    }
+
+    @Override
+    public int getMtu() {
+        return mtu;
+    }
+
+    @Override
+    public boolean supportsWriteWithoutResponse() {
+        return true;
+    }
+
+    public synchronized long getPacketsWritten() {
+        return packetsWritten;
+    }
+
+    public synchronized long getPacketsNotified() {
+        return packetsNotified;
+    }
+
+    public synchronized long getPacketsLost() {
+        return packetsLost;
+    }
+
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+}
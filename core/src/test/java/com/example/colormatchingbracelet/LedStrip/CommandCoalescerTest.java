@@ -0,0 +1,168 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandCoalescerTest {
+    private static final int KEY = 0;
+    private static final int OTHER_KEY = 1;
+
+    //Flushes every 5 ms:
+    private static final int MAX_RATE = 200;
+    private static final long SETTLE_MS = 100;
+
+    private final TestBluetoothService service = new TestBluetoothService();
+
+    //Values handed to the sender, per key:
+    private final List<Integer> sent = new ArrayList<>();
+    private final List<Integer> sentOther = new ArrayList<>();
+    private volatile CommandFuture.Result result = CommandFuture.Result.ACKNOWLEDGED;
+
+    private CommandCoalescer coalescer;
+
+    @Before
+    public void setUp() {
+        coalescer = new CommandCoalescer(2, MAX_RATE, (bluetoothService, key, value) -> {
+            synchronized(sent) {
+                (key == KEY ? sent : sentOther).add(value);
+            }
+
+            return CommandFuture.completed(result);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        coalescer.shutdown();
+    }
+
+    private List<Integer> sent() throws InterruptedException {
+        Thread.sleep(SETTLE_MS);
+
+        synchronized(sent) {
+            return new ArrayList<>(sent);
+        }
+    }
+
+    @Test
+    public void burst_sendsOnlyTheNewestValue() throws InterruptedException {
+        service.writeQueueIdle = false;
+
+        for(int value = 1; value <= 10; value++) {
+            coalescer.submit(service, KEY, value);
+        }
+
+        service.writeQueueIdle = true;
+
+        assertEquals(1, sent().size());
+        assertEquals(10, (int) sent().get(0));
+    }
+
+    @Test
+    public void keys_areCoalescedSeparately() throws InterruptedException {
+        service.writeQueueIdle = false;
+
+        coalescer.submit(service, KEY, 1);
+        coalescer.submit(service, OTHER_KEY, 2);
+        coalescer.submit(service, KEY, 3);
+
+        service.writeQueueIdle = true;
+
+        assertEquals(1, sent().size());
+        assertEquals(3, (int) sent().get(0));
+        assertEquals(2, (int) sentOther.get(0));
+    }
+
+    @Test
+    public void acknowledgedValue_isNotSentAgain() throws InterruptedException {
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.submit(service, KEY, 6);
+        assertEquals(2, sent().size());
+    }
+
+    @Test
+    public void valueThatWasNotAcknowledged_isSentAgain() throws InterruptedException {
+        result = CommandFuture.Result.TIMED_OUT;
+
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.submit(service, KEY, 5);
+        assertEquals(2, sent().size());
+    }
+
+    @Test
+    public void disagreeingStatus_forgetsTheAcknowledgedValue() throws InterruptedException {
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        //The bracelet still reports it, nothing changed:
+        coalescer.onReportedValue(KEY, 5);
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.onReportedValue(KEY, 7);
+        coalescer.submit(service, KEY, 5);
+        assertEquals(2, sent().size());
+    }
+
+    @Test
+    public void reportedForm_isUsedToCompare() throws InterruptedException {
+        CommandCoalescer.ReportedForm doubled = value -> value * 2;
+
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.onReportedValue(KEY, 10, doubled);
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.onReportedValue(KEY, 5, doubled);
+        coalescer.submit(service, KEY, 5);
+        assertEquals(2, sent().size());
+    }
+
+    @Test
+    public void forgetAcknowledged_sendsTheSameValueAgain() throws InterruptedException {
+        coalescer.submit(service, KEY, 5);
+        assertEquals(1, sent().size());
+
+        coalescer.forgetAcknowledged();
+        coalescer.submit(service, KEY, 5);
+        assertEquals(2, sent().size());
+    }
+
+    @Test
+    public void cancel_dropsThePendingValue() throws InterruptedException {
+        service.writeQueueIdle = false;
+
+        coalescer.submit(service, KEY, 5);
+        coalescer.cancel(KEY);
+
+        service.writeQueueIdle = true;
+
+        assertTrue(sent().isEmpty());
+    }
+
+    @Test
+    public void disconnected_dropsEverything() throws InterruptedException {
+        service.connected = false;
+
+        coalescer.submit(service, KEY, 5);
+
+        assertTrue(sent().isEmpty());
+    }
+}
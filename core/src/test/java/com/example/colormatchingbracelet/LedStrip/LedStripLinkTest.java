@@ -0,0 +1,31 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LedStripLinkTest {
+    @Test
+    public void reportedBrightness_matchesTheFirmware() {
+        //Scaled to 30 out of 100, then reported out of 255, truncated both times:
+        assertEquals(0, LedStripLink.reportedBrightness(0));
+        assertEquals(38, LedStripLink.reportedBrightness(50));
+        assertEquals(45, LedStripLink.reportedBrightness(60));
+        assertEquals(76, LedStripLink.reportedBrightness(100));
+    }
+
+    @Test
+    public void statusWithoutAMode_onlyComparesTheBrightness() {
+        LedStripLink link = new LedStripLink(100, (bluetoothService, key, value) -> CommandFuture.completed(CommandFuture.Result.ACKNOWLEDGED));
+
+        try {
+            link.onStatusReceived(new BraceletInformation.Builder().mode(null).ledStripEffectCurrent(null).build());
+        }
+        finally {
+            link.shutdown();
+        }
+    }
+}
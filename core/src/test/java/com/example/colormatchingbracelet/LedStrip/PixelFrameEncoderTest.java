@@ -0,0 +1,186 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PixelFrameEncoderTest {
+    private static final int NUM_LEDS = BraceletInformation.LED_STRIP_NUM_LEDS;
+
+    private static final int RED = 0xFFFF0000;
+    private static final int GREEN = 0xFF00FF00;
+    private static final int BLACK = 0xFF000000;
+
+    private final PixelFrameEncoder encoder = new PixelFrameEncoder(NUM_LEDS);
+    private final byte[] out = new byte[encoder.getMaxEncodedSize()];
+
+    private static int[] solid(int color) {
+        int[] frame = new int[NUM_LEDS];
+
+        for(int i = 0; i < NUM_LEDS; i++) {
+            frame[i] = color;
+        }
+
+        return frame;
+    }
+
+    //Every led another color:
+    private static int[] gradient() {
+        int[] frame = new int[NUM_LEDS];
+
+        for(int i = 0; i < NUM_LEDS; i++) {
+            frame[i] = 0xFF000000 | (i * 20) << 16 | 0x40;
+        }
+
+        return frame;
+    }
+
+    private void assertRun(int index, int start, int count, int color) {
+        int offset = 1 + index * PixelFrameEncoder.RUN_SIZE;
+
+        assertEquals(start, out[offset] & 0xFF);
+        assertEquals(count, out[offset + 1] & 0xFF);
+        assertEquals(color & 0xFFFFFF, (out[offset + 2] & 0xFF) << 16 | (out[offset + 3] & 0xFF) << 8 | (out[offset + 4] & 0xFF));
+    }
+
+    @Test
+    public void firstFrame_isSentInFull() {
+        int[] frame = gradient();
+
+        assertEquals(encoder.getMaxEncodedSize(), encoder.encode(frame, out));
+        assertEquals(LedStripCommandType.PIXELS.getValue(), out[0]);
+
+        for(int i = 0; i < NUM_LEDS; i++) {
+            assertRun(i, i, 1, frame[i]);
+        }
+    }
+
+    @Test
+    public void sameColor_isASingleRun() {
+        assertEquals(1 + PixelFrameEncoder.RUN_SIZE, encoder.encode(solid(GREEN), out));
+        assertRun(0, 0, NUM_LEDS, GREEN);
+    }
+
+    @Test
+    public void acknowledgedFrame_isTheBaseOfTheDelta() {
+        int[] frame = solid(BLACK);
+        encoder.encode(frame, out);
+        encoder.onAcknowledged();
+
+        frame[3] = RED;
+
+        assertEquals(1 + PixelFrameEncoder.RUN_SIZE, encoder.encode(frame, out));
+        assertRun(0, 3, 1, RED);
+    }
+
+    @Test
+    public void unacknowledgedFrame_isNotTheBase() {
+        int[] frame = solid(BLACK);
+        encoder.encode(frame, out);
+        encoder.onAcknowledged();
+
+        frame[3] = RED;
+        encoder.encode(frame, out);
+
+        //The bracelet may not have the red led yet, so it is sent again:
+        frame[7] = GREEN;
+
+        assertEquals(1 + 2 * PixelFrameEncoder.RUN_SIZE, encoder.encode(frame, out));
+        assertRun(0, 3, 1, RED);
+        assertRun(1, 7, 1, GREEN);
+    }
+
+    @Test
+    public void unchangedFrame_onlyHasTheCommand() {
+        encoder.encode(gradient(), out);
+        encoder.onAcknowledged();
+
+        assertEquals(1, encoder.encode(gradient(), out));
+    }
+
+    @Test
+    public void unchangedLeds_extendARunOfTheirColor() {
+        int[] frame = solid(BLACK);
+        frame[3] = RED;
+        encoder.encode(frame, out);
+        encoder.onAcknowledged();
+
+        frame[2] = RED;
+        frame[4] = RED;
+
+        //Led 3 did not change, but joining it saves a run:
+        assertEquals(1 + PixelFrameEncoder.RUN_SIZE, encoder.encode(frame, out));
+        assertRun(0, 2, 3, RED);
+    }
+
+    @Test
+    public void alpha_isIgnored() {
+        encoder.encode(solid(RED), out);
+        encoder.onAcknowledged();
+
+        assertEquals(1, encoder.encode(solid(RED & 0x00FFFFFF), out));
+    }
+
+    @Test
+    public void reset_sendsTheNextFrameInFull() {
+        encoder.encode(solid(RED), out);
+        encoder.onAcknowledged();
+
+        encoder.reset();
+
+        assertFalse(encoder.hasPending());
+        assertEquals(1 + PixelFrameEncoder.RUN_SIZE, encoder.encode(solid(RED), out));
+        assertRun(0, 0, NUM_LEDS, RED);
+    }
+
+    @Test
+    public void largeFrame_isSplitOnRunBoundaries() {
+        TestBluetoothService service = new TestBluetoothService();
+        service.ledStripLink = LedStripCommand.createLink();
+
+        //Two runs per message:
+        service.maxPayloadSize = 1 + 2 * PixelFrameEncoder.RUN_SIZE + 3;
+
+        try {
+            int[] frame = gradient();
+
+            assertTrue(LedStripCommand.sendPixels(service, frame));
+
+            assertEquals(NUM_LEDS / 2, service.messages.size());
+
+            for(int i = 0; i < service.messages.size(); i++) {
+                byte[] message = service.messages.get(i);
+
+                assertEquals(1 + 2 * PixelFrameEncoder.RUN_SIZE, message.length);
+                assertEquals(LedStripCommandType.PIXELS.getValue(), message[0]);
+
+                //Runs stay in order and every message can be applied on its own:
+                assertEquals(2 * i, message[1]);
+                assertEquals(2 * i + 1, message[1 + PixelFrameEncoder.RUN_SIZE]);
+            }
+        }
+        finally {
+            service.ledStripLink.shutdown();
+        }
+    }
+
+    @Test
+    public void framesInQuickSuccession_arePublishedOnce() {
+        TestBluetoothService service = new TestBluetoothService();
+        service.ledStripLink = LedStripCommand.createLink();
+
+        try {
+            assertTrue(LedStripCommand.sendPixels(service, solid(RED)));
+            assertTrue(LedStripCommand.sendPixels(service, solid(GREEN)));
+
+            //Both were sent, the state only has the first:
+            assertEquals(2, service.messages.size());
+            assertEquals(RED, service.getBraceletInformation().getLedStripColor(0));
+        }
+        finally {
+            service.ledStripLink.shutdown();
+        }
+    }
+}
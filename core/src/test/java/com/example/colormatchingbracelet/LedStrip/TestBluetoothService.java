@@ -0,0 +1,115 @@
+package com.example.colormatchingbracelet.LedStrip;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletInformation;
+import com.example.colormatchingbracelet.Bracelet.BraceletStateStore;
+import com.example.colormatchingbracelet.bluetooth.ClockSync;
+import com.example.colormatchingbracelet.bluetooth.CommandFuture;
+import com.example.colormatchingbracelet.bluetooth.FrameCodec;
+import com.example.colormatchingbracelet.bluetooth.IBluetoothService;
+import com.example.colormatchingbracelet.bluetooth.MessageType;
+import com.example.colormatchingbracelet.bluetooth.SessionAction;
+import com.example.colormatchingbracelet.bluetooth.Transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Only what the led strip commands look at. Messages are recorded instead of sent.
+ */
+class TestBluetoothService implements IBluetoothService {
+    volatile boolean connected = true;
+    volatile boolean writeQueueIdle = true;
+    volatile int maxPayloadSize = Transport.DEFAULT_MTU - Transport.ATT_HEADER_SIZE - FrameCodec.OVERHEAD;
+    volatile LedStripLink ledStripLink;
+
+    //Payloads of the messages, in the order they were sent:
+    final List<byte[]> messages = new ArrayList<>();
+
+    private final BraceletStateStore stateStore = new BraceletStateStore();
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isWriteQueueIdle() {
+        return writeQueueIdle;
+    }
+
+    @Override
+    public boolean connectToDevice(String address) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void disconnect() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void sendMessage(MessageType type, byte[] data) {
+        sendMessage(type, data, data.length);
+    }
+
+    @Override
+    public void sendMessage(MessageType type, byte[] data, int length) {
+        byte[] payload = new byte[length];
+        System.arraycopy(data, 0, payload, 0, length);
+
+        synchronized(messages) {
+            messages.add(payload);
+        }
+    }
+
+    @Override
+    public CommandFuture sendCommand(MessageType type, byte[] data) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public int getMaxPayloadSize() {
+        return maxPayloadSize;
+    }
+
+    @Override
+    public int getConnectionState() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getAverageWriteLatencyNanos() {
+        return 0;
+    }
+
+    @Override
+    public int forEachBracelet(SessionAction action) {
+        action.apply(this);
+        return 1;
+    }
+
+    @Override
+    public ClockSync getClockSync() {
+        return null;
+    }
+
+    @Override
+    public BraceletInformation getBraceletInformation() {
+        return stateStore.get();
+    }
+
+    @Override
+    public int updateBraceletInformation(BraceletStateStore.Modifier modifier) {
+        return stateStore.update(modifier);
+    }
+
+    @Override
+    public BraceletStateStore getBraceletStateStore() {
+        return stateStore;
+    }
+
+    @Override
+    public LedStripLink getLedStripLink() {
+        return ledStripLink;
+    }
+}
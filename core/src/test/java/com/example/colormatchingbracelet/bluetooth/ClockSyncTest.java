@@ -0,0 +1,85 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.simulator.BraceletSimulator;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+    private static final long ROUND_TRIP_MS = 20;
+
+    //Requests are never sent, responses are fed in directly:
+    private final ClockSync clockSync = new ClockSync(null);
+    private final BraceletSimulator simulator = new BraceletSimulator();
+
+    private final long startTime = ClockSync.now();
+
+    /**
+     * Feed the response to a request sent at a phone time, answered halfway the round trip.
+     */
+    private void sample(long sentTime, long roundTrip) {
+        clockSync.onResponse(sentTime & 0xFFFFFFFFL, simulator.millisAt(sentTime + roundTrip / 2), sentTime + roundTrip);
+    }
+
+    private void sampleEvery(long intervalMs, int count) {
+        for(int i = 0; i < count; i++) {
+            sample(startTime + i * intervalMs, ROUND_TRIP_MS);
+        }
+    }
+
+    private void assertPredicts(long phoneTimeMs, long toleranceMs) {
+        long error = (int) (clockSync.toBraceletTime(phoneTimeMs) - simulator.millisAt(phoneTimeMs));
+
+        assertTrue("Off by " + error + " ms", Math.abs(error) <= toleranceMs);
+    }
+
+    @Test
+    public void fixedOffset_isFound() {
+        simulator.setMillis(123456789);
+
+        sampleEvery(ClockSync.BURST_INTERVAL_MS, ClockSync.BURST_SAMPLES);
+
+        assertTrue(clockSync.isSynced());
+        assertEquals(ROUND_TRIP_MS, clockSync.getMinRoundTripMs());
+        assertEquals(0, clockSync.getDriftPpm(), 0);
+        assertPredicts(startTime + 5000, 1);
+    }
+
+    @Test
+    public void heldUpSamples_areIgnored() {
+        sampleEvery(ClockSync.BURST_INTERVAL_MS, ClockSync.BURST_SAMPLES);
+
+        //The request waited in a queue, so the bracelet answered long after halfway the round trip:
+        long sentTime = startTime + ClockSync.BURST_SAMPLES * ClockSync.BURST_INTERVAL_MS;
+        clockSync.onResponse(sentTime, simulator.millisAt(sentTime + 190), sentTime + 200);
+
+        assertEquals(ROUND_TRIP_MS, clockSync.getMinRoundTripMs());
+        assertPredicts(sentTime + 1000, 1);
+    }
+
+    @Test
+    public void drift_isFound() {
+        simulator.setDriftPpm(50);
+
+        //Five minutes of samples, the bracelet clock gains 15 ms:
+        sampleEvery(ClockSync.SYNC_INTERVAL_MS, 31);
+
+        assertEquals(50, clockSync.getDriftPpm(), 2);
+
+        //Still right ten minutes after the last sample, while the drift adds another 30 ms:
+        assertPredicts(startTime + 900000, 2);
+    }
+
+    @Test
+    public void braceletClockWrap_keepsTheEstimate() {
+        //Wraps a minute into the samples:
+        simulator.setMillis(0xFFFFFFFFL - 60000);
+
+        sampleEvery(ClockSync.SYNC_INTERVAL_MS, 13);
+
+        assertEquals(0, clockSync.getDriftPpm(), 1);
+        assertPredicts(startTime + 30000, 1);
+        assertPredicts(startTime + 130000, 1);
+    }
+}
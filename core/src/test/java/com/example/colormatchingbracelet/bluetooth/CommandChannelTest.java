@@ -0,0 +1,151 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommandChannelTest {
+    //Sequence numbers of the frames handed to the sender, in order:
+    private final List<Integer> sent = new ArrayList<>();
+    private CommandChannel channel;
+
+    @Before
+    public void setUp() {
+        channel = new CommandChannel((type, data, length) -> {
+            assertEquals(MessageType.SEQUENCED, type);
+
+            synchronized(sent) {
+                sent.add(data[0] & 0xFF);
+            }
+
+            return true;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdown();
+    }
+
+    private int sentCount() {
+        synchronized(sent) {
+            return sent.size();
+        }
+    }
+
+    private void written(int sequenceNumber) {
+        channel.onFrameWritten(MessageType.SEQUENCED, new byte[] {(byte) sequenceNumber, (byte) MessageType.MODE.getValue()}, 0, CommandChannel.HEADER_SIZE);
+    }
+
+    @Test
+    public void commands_getConsecutiveSequenceNumbers() {
+        channel.send(MessageType.MODE, new byte[] {1});
+        channel.send(MessageType.MODE, new byte[] {2});
+
+        assertEquals(0, (int) sent.get(0));
+        assertEquals(1, (int) sent.get(1));
+        assertEquals(2, channel.getInFlight());
+    }
+
+    @Test
+    public void ack_completesTheFuture() {
+        CommandFuture applied = channel.send(MessageType.MODE, new byte[] {1});
+        CommandFuture refused = channel.send(MessageType.MODE, new byte[] {2});
+
+        channel.onAck(0, CommandChannel.RESULT_OK);
+        channel.onAck(1, CommandChannel.RESULT_REJECTED);
+
+        assertEquals(CommandFuture.Result.ACKNOWLEDGED, applied.getResult());
+        assertEquals(CommandFuture.Result.REJECTED, refused.getResult());
+        assertEquals(0, channel.getInFlight());
+    }
+
+    @Test
+    public void duplicateAck_isIgnored() {
+        channel.send(MessageType.MODE, new byte[] {1});
+
+        channel.onAck(0, CommandChannel.RESULT_OK);
+        channel.onAck(0, CommandChannel.RESULT_OK);
+
+        assertEquals(1, channel.getCommandsAcknowledged());
+    }
+
+    @Test
+    public void fullWindow_holdsCommandsBack() {
+        for(int i = 0; i <= CommandChannel.WINDOW_SIZE; i++) {
+            channel.send(MessageType.MODE, new byte[] {(byte) i});
+        }
+
+        assertEquals(CommandChannel.WINDOW_SIZE, sentCount());
+
+        channel.onAck(0, CommandChannel.RESULT_OK);
+
+        assertEquals(CommandChannel.WINDOW_SIZE + 1, sentCount());
+        assertEquals(CommandChannel.WINDOW_SIZE, (int) sent.get(CommandChannel.WINDOW_SIZE));
+    }
+
+    @Test
+    public void writtenCommand_isRetransmittedAfterTimeout() throws InterruptedException {
+        channel.send(MessageType.MODE, new byte[] {1});
+        written(0);
+
+        Thread.sleep(CommandChannel.ACK_TIMEOUT_MS + 200);
+
+        assertEquals(1, channel.getRetransmissions());
+        assertEquals(2, sentCount());
+        assertEquals(0, (int) sent.get(1));
+    }
+
+    @Test
+    public void queuedCommand_isNotRetransmitted() throws InterruptedException {
+        CommandFuture future = channel.send(MessageType.MODE, new byte[] {1});
+
+        //Never written, it is still waiting behind other frames:
+        Thread.sleep(CommandChannel.ACK_TIMEOUT_MS + 200);
+
+        assertEquals(0, channel.getRetransmissions());
+        assertEquals(1, sentCount());
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void unansweredCommand_timesOut() throws InterruptedException {
+        CommandFuture future = channel.send(MessageType.MODE, new byte[] {1});
+        written(0);
+
+        int writes = 1;
+
+        //Every retransmission is written right away:
+        while(future.await(20) == null) {
+            if(sentCount() > writes) {
+                writes++;
+                written(0);
+            }
+        }
+
+        assertEquals(CommandFuture.Result.TIMED_OUT, future.getResult());
+        assertEquals(CommandChannel.MAX_RETRANSMISSIONS, channel.getRetransmissions());
+    }
+
+    @Test
+    public void clear_failsEverythingAsDisconnected() {
+        CommandFuture inFlight = channel.send(MessageType.MODE, new byte[] {1});
+
+        for(int i = 0; i < CommandChannel.WINDOW_SIZE; i++) {
+            channel.send(MessageType.MODE, new byte[] {2});
+        }
+
+        CommandFuture waiting = channel.send(MessageType.MODE, new byte[] {3});
+
+        channel.clear();
+
+        assertEquals(CommandFuture.Result.DISCONNECTED, inFlight.getResult());
+        assertEquals(CommandFuture.Result.DISCONNECTED, waiting.getResult());
+        assertEquals(0, channel.getInFlight());
+    }
+}
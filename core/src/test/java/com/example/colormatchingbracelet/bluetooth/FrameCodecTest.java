@@ -0,0 +1,110 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameCodecTest {
+    private final Frame frame = new Frame();
+
+    private static byte[] payload(int length) {
+        byte[] data = new byte[length];
+
+        for(int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + 3);
+        }
+
+        return data;
+    }
+
+    private static byte[] encode(MessageType type, byte[] data) {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+        FrameCodec.encode(buffer, type, data);
+
+        byte[] encoded = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, encoded, 0, encoded.length);
+
+        return encoded;
+    }
+
+    private static byte[] copyPayload(Frame frame) {
+        byte[] copy = new byte[frame.getPayloadLength()];
+        frame.copyPayload(copy, 0);
+
+        return copy;
+    }
+
+    @Test
+    public void encodeDecode_roundTrips() {
+        byte[] data = payload(20);
+        ByteBuffer in = ByteBuffer.wrap(encode(MessageType.LEDSTRIP, data));
+
+        assertEquals(FrameCodec.RESULT_OK, FrameCodec.decode(in, frame));
+        assertEquals(MessageType.LEDSTRIP, frame.getType());
+        assertArrayEquals(data, copyPayload(frame));
+        assertEquals(in.limit(), in.position());
+    }
+
+    @Test
+    public void longPayload_usesExtendedFrame() {
+        byte[] data = payload(FrameCodec.MAX_PAYLOAD_SIZE + 45);
+        byte[] encoded = encode(MessageType.LEDSTRIP_BATCH, data);
+
+        assertEquals(FrameCodec.frameSize(data.length), encoded.length);
+        assertEquals(MessageType.LEDSTRIP_BATCH.getValue() | FrameCodec.FLAG_EXTENDED_LENGTH, encoded[1] & 0xFF);
+
+        assertEquals(FrameCodec.RESULT_OK, FrameCodec.decode(ByteBuffer.wrap(encoded), frame));
+        assertEquals(MessageType.LEDSTRIP_BATCH, frame.getType());
+        assertArrayEquals(data, copyPayload(frame));
+    }
+
+    @Test
+    public void emptyPayload_roundTrips() {
+        assertEquals(FrameCodec.RESULT_OK, FrameCodec.decode(ByteBuffer.wrap(encode(MessageType.STATUS, new byte[0])), frame));
+        assertEquals(MessageType.STATUS, frame.getType());
+        assertEquals(0, frame.getPayloadLength());
+    }
+
+    @Test
+    public void corruptedByte_failsChecksum() {
+        byte[] encoded = encode(MessageType.MODE, payload(8));
+        encoded[FrameCodec.HEADER_SIZE + 2] ^= 0x10;
+
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+
+        assertEquals(FrameCodec.RESULT_INVALID_CHECKSUM, FrameCodec.decode(in, frame));
+        assertEquals(0, in.position());
+    }
+
+    @Test
+    public void unknownType_isInvalid() {
+        byte[] encoded = encode(MessageType.MODE, payload(2));
+        encoded[1] = 0x7F;
+
+        assertEquals(FrameCodec.RESULT_INVALID_TYPE, FrameCodec.decode(ByteBuffer.wrap(encoded), frame));
+    }
+
+    @Test
+    public void missingStart_isInvalid() {
+        byte[] encoded = encode(MessageType.MODE, payload(2));
+        encoded[0] = 0;
+
+        assertEquals(FrameCodec.RESULT_INVALID_START, FrameCodec.decode(ByteBuffer.wrap(encoded), frame));
+    }
+
+    @Test
+    public void truncatedFrame_isIncomplete() {
+        byte[] encoded = encode(MessageType.LEDSTRIP, payload(10));
+        ByteBuffer in = ByteBuffer.wrap(encoded, 0, encoded.length - 1);
+
+        assertEquals(FrameCodec.RESULT_INCOMPLETE, FrameCodec.decode(in, frame));
+        assertEquals(0, in.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooLongPayload_isRefused() {
+        FrameCodec.encode(ByteBuffer.allocate(2 * FrameCodec.MAX_FRAME_SIZE), MessageType.LEDSTRIP, new byte[FrameCodec.MAX_EXTENDED_PAYLOAD_SIZE + 1]);
+    }
+}
@@ -0,0 +1,147 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+    private final List<byte[]> payloads = new ArrayList<>();
+    private final List<MessageType> types = new ArrayList<>();
+    private FrameDecoder decoder;
+
+    @Before
+    public void setUp() {
+        decoder = new FrameDecoder(frame -> {
+            byte[] payload = new byte[frame.getPayloadLength()];
+            frame.copyPayload(payload, 0);
+
+            types.add(frame.getType());
+            payloads.add(payload);
+        });
+    }
+
+    private static byte[] encode(MessageType type, byte... data) {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+        FrameCodec.encode(buffer, type, data);
+
+        byte[] encoded = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, encoded, 0, encoded.length);
+
+        return encoded;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        int length = 0;
+
+        for(byte[] part : parts) {
+            length += part.length;
+        }
+
+        byte[] joined = new byte[length];
+        int offset = 0;
+
+        for(byte[] part : parts) {
+            System.arraycopy(part, 0, joined, offset, part.length);
+            offset += part.length;
+        }
+
+        return joined;
+    }
+
+    @Test
+    public void severalFramesInOneChunk_areAllDecoded() {
+        byte[] chunk = concat(encode(MessageType.STATUS, (byte) 1, (byte) 2), encode(MessageType.ACK, (byte) 7, (byte) 0));
+
+        assertEquals(2, decoder.feed(chunk));
+        assertEquals(MessageType.STATUS, types.get(0));
+        assertEquals(MessageType.ACK, types.get(1));
+        assertArrayEquals(new byte[] {7, 0}, payloads.get(1));
+    }
+
+    @Test
+    public void frameSplitOverChunks_isDecodedOnce() {
+        byte[] encoded = encode(MessageType.DEBUG, (byte) 'a', (byte) 'b', (byte) 'c');
+
+        for(int i = 0; i < encoded.length - 1; i++) {
+            assertEquals(0, decoder.feed(encoded, i, 1));
+        }
+
+        assertEquals(1, decoder.feed(encoded, encoded.length - 1, 1));
+        assertArrayEquals(new byte[] {'a', 'b', 'c'}, payloads.get(0));
+    }
+
+    @Test
+    public void garbage_isSkipped() {
+        byte[] chunk = concat(new byte[] {0, 1, 2}, encode(MessageType.MODE, (byte) 3));
+
+        assertEquals(1, decoder.feed(chunk));
+        assertEquals(3, decoder.getDiscardedBytes());
+        assertEquals(MessageType.MODE, types.get(0));
+    }
+
+    @Test
+    public void corruptedFrame_isDroppedAndNextOneDecoded() {
+        byte[] corrupted = encode(MessageType.STATUS, (byte) 1, (byte) 2, (byte) 3);
+        corrupted[FrameCodec.HEADER_SIZE] ^= 0x01;
+
+        assertEquals(1, decoder.feed(concat(corrupted, encode(MessageType.ACK, (byte) 4, (byte) 0))));
+        assertEquals(1, decoder.getChecksumErrors());
+        assertEquals(MessageType.ACK, types.get(0));
+    }
+
+    @Test
+    public void framesWrappingTheRing_areDecoded() {
+        byte[] large = new byte[FrameCodec.MAX_EXTENDED_PAYLOAD_SIZE];
+
+        for(int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+
+        byte[] encoded = encode(MessageType.LEDSTRIP_BATCH, large);
+
+        //Enough frames that every one starts at another place in the ring:
+        for(int i = 0; i < 10; i++) {
+            assertEquals(1, decoder.feed(encoded));
+            assertArrayEquals(large, payloads.get(i));
+        }
+    }
+
+    @Test
+    public void throwingListener_doesNotGetTheFrameAgain() {
+        List<Integer> received = new ArrayList<>();
+        FrameDecoder throwing = new FrameDecoder(frame -> {
+            received.add(frame.getUnsigned(0));
+            throw new IllegalStateException("listener failed");
+        });
+
+        for(int value = 1; value <= 2; value++) {
+            try {
+                throwing.feed(encode(MessageType.STATUS, (byte) value));
+                fail("Listener exception was swallowed");
+            }
+            catch(IllegalStateException e) {
+                //Expected
+            }
+        }
+
+        assertEquals(2, received.size());
+        assertEquals(2, (int) received.get(1));
+        assertEquals(2, throwing.getFramesDecoded());
+    }
+
+    @Test
+    public void reset_dropsPartialFrame() {
+        byte[] encoded = encode(MessageType.STATUS, (byte) 1, (byte) 2);
+
+        decoder.feed(encoded, 0, 3);
+        decoder.reset();
+
+        assertEquals(1, decoder.feed(encoded));
+        assertEquals(1, payloads.size());
+    }
+}
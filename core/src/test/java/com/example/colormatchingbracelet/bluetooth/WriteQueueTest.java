@@ -0,0 +1,170 @@
+package com.example.colormatchingbracelet.bluetooth;
+
+import com.example.colormatchingbracelet.LedStrip.LedStripCommandType;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteQueueTest {
+    private final List<byte[]> written = new ArrayList<>();
+    private final Frame frame = new Frame();
+    private boolean busy;
+    private WriteQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new WriteQueue((data, withoutResponse) -> {
+            if(busy) {
+                return false;
+            }
+
+            written.add(data.clone());
+            return true;
+        });
+    }
+
+    private Frame decodeWritten(int index) {
+        assertEquals(FrameCodec.RESULT_OK, FrameCodec.decode(ByteBuffer.wrap(written.get(index)), frame));
+        return frame;
+    }
+
+    private static byte[] brightness(int level) {
+        return new byte[] {(byte) LedStripCommandType.BRIGHTNESS.getValue(), (byte) level};
+    }
+
+    private static byte[] power(boolean on) {
+        return new byte[] {(byte) LedStripCommandType.POWER.getValue(), (byte) (on ? 1 : 0)};
+    }
+
+    @Test
+    public void controlFrames_overtakeQueuedNormalFrames() {
+        busy = true;
+
+        queue.enqueue(MessageType.LEDSTRIP, brightness(10));
+        queue.enqueue(MessageType.LEDSTRIP, brightness(20));
+        queue.enqueue(MessageType.LEDSTRIP, power(true));
+        queue.enqueue(MessageType.MODE, new byte[] {1});
+
+        busy = false;
+
+        //One write at a time, each started by the completion of the one before:
+        for(int i = 0; i < 4; i++) {
+            queue.pump();
+            queue.onWriteComplete();
+        }
+
+        assertEquals(4, written.size());
+        assertEquals(LedStripCommandType.POWER.getValue(), decodeWritten(0).getUnsigned(0));
+        assertEquals(MessageType.MODE, decodeWritten(1).getType());
+        assertEquals(10, decodeWritten(2).getUnsigned(1));
+        assertEquals(20, decodeWritten(3).getUnsigned(1));
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void onlyOneWrite_isInFlightWithResponse() {
+        queue.enqueue(MessageType.LEDSTRIP, brightness(1));
+        queue.enqueue(MessageType.LEDSTRIP, brightness(2));
+
+        assertEquals(1, written.size());
+        assertFalse(queue.isIdle());
+
+        queue.onWriteComplete();
+        assertEquals(2, written.size());
+
+        queue.onWriteComplete();
+        assertTrue(queue.isIdle());
+    }
+
+    @Test
+    public void creditWindow_limitsWritesWithoutResponse() {
+        queue.setWithoutResponse(true, 3);
+
+        for(int i = 0; i < 5; i++) {
+            queue.enqueue(MessageType.LEDSTRIP, brightness(i));
+        }
+
+        assertEquals(3, written.size());
+
+        queue.onWriteComplete();
+        assertEquals(4, written.size());
+    }
+
+    @Test
+    public void fullLane_dropsFrame() {
+        busy = true;
+
+        for(int i = 0; i < WriteQueue.LANE_CAPACITY; i++) {
+            assertTrue(queue.enqueue(MessageType.LEDSTRIP, brightness(i)));
+        }
+
+        assertFalse(queue.enqueue(MessageType.LEDSTRIP, brightness(0)));
+        assertEquals(1, queue.getFramesDropped());
+
+        //The other lane still has room:
+        assertTrue(queue.enqueue(MessageType.MODE, new byte[] {1}));
+    }
+
+    @Test
+    public void priority_followsTheCommandOfASequencedMessage() {
+        byte[] poweredOn = {5, (byte) MessageType.LEDSTRIP.getValue(), (byte) LedStripCommandType.POWER.getValue(), 1};
+        byte[] brighter = {6, (byte) MessageType.LEDSTRIP.getValue(), (byte) LedStripCommandType.BRIGHTNESS.getValue(), 50};
+
+        assertEquals(WriteQueue.Priority.CONTROL, WriteQueue.priorityOf(MessageType.SEQUENCED, poweredOn));
+        assertEquals(WriteQueue.Priority.NORMAL, WriteQueue.priorityOf(MessageType.SEQUENCED, brighter));
+    }
+
+    @Test
+    public void priority_onlyLooksAtThePayloadLength() {
+        //A reused buffer, the bytes after the payload are left over from an earlier message:
+        byte[] buffer = {(byte) LedStripCommandType.POWER.getValue(), 1, 0, 0};
+
+        assertEquals(WriteQueue.Priority.NORMAL, WriteQueue.priorityOf(MessageType.LEDSTRIP, buffer, 0));
+        assertEquals(WriteQueue.Priority.CONTROL, WriteQueue.priorityOf(MessageType.LEDSTRIP, buffer, 2));
+    }
+
+    @Test
+    public void enqueueWithLength_writesOnlyThePayload() {
+        byte[] buffer = {1, 2, 3, 4, 5, 6};
+
+        queue.enqueue(MessageType.DEBUG, buffer, 3);
+
+        assertEquals(3, decodeWritten(0).getPayloadLength());
+        assertEquals(3, frame.getUnsigned(2));
+    }
+
+    @Test
+    public void writeListener_getsEveryWrittenFrame() {
+        List<MessageType> types = new ArrayList<>();
+        List<Integer> firstBytes = new ArrayList<>();
+
+        queue.setWriteListener((type, data, offset, length) -> {
+            types.add(type);
+            firstBytes.add(data[offset] & 0xFF);
+        });
+
+        queue.enqueue(MessageType.SEQUENCED, new byte[] {42, (byte) MessageType.MODE.getValue(), 1});
+
+        assertEquals(MessageType.SEQUENCED, types.get(0));
+        assertEquals(42, (int) firstBytes.get(0));
+    }
+
+    @Test
+    public void clear_dropsQueuedFrames() {
+        busy = true;
+        queue.enqueue(MessageType.LEDSTRIP, brightness(1));
+
+        queue.clear();
+        busy = false;
+        queue.pump();
+
+        assertTrue(written.isEmpty());
+        assertTrue(queue.isIdle());
+    }
+}
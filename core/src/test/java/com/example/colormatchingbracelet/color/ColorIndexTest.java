@@ -0,0 +1,85 @@
+package com.example.colormatchingbracelet.color;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ColorIndexTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 6;
+
+    private static final int RED = ColorMath.rgb(200, 0, 0);
+    private static final int BLUE = ColorMath.rgb(0, 0, 100);
+
+    private final ColorIndex index = new ColorIndex();
+
+    //Left half red, right half blue:
+    private final int[] pixels = new int[WIDTH * HEIGHT];
+
+    @Before
+    public void setUp() {
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                pixels[y * WIDTH + x] = x < WIDTH / 2 ? RED : BLUE;
+            }
+        }
+
+        index.build(pixels, 0, WIDTH, WIDTH, HEIGHT);
+    }
+
+    @Test
+    public void averageRgb_ofTheFrame() {
+        assertEquals(ColorMath.rgb(100, 0, 50), index.averageRgb(0, 0, WIDTH, HEIGHT));
+    }
+
+    @Test
+    public void averageRgb_ofOneSide() {
+        assertEquals(RED, index.averageRgb(0, 0, WIDTH / 2, HEIGHT));
+        assertEquals(BLUE, index.averageRgb(6, 2, 1));
+    }
+
+    @Test
+    public void averageRgb_matchesRegionColor() {
+        assertEquals(RegionColor.averageRgb(pixels, 2 * WIDTH + 1, WIDTH, 5, 3), index.averageRgb(1, 2, 6, 5));
+    }
+
+    @Test
+    public void rectangle_isCutOffAtTheEdges() {
+        assertEquals(RED, index.averageRgb(-10, -10, 2, 2));
+        assertEquals(ColorMath.rgb(0, 0, 0), index.averageRgb(WIDTH, 0, WIDTH + 5, HEIGHT));
+    }
+
+    @Test
+    public void variance_isZeroForOneColor() {
+        assertEquals(0.0f, index.variance(1, 1, 1), 1e-3f);
+    }
+
+    @Test
+    public void variance_ofAnEdge() {
+        //Half of each color: every channel deviates by half their difference
+        float expected = 100 * 100 + 50 * 50;
+
+        assertEquals(expected, index.variance(0, 0, WIDTH, HEIGHT), 1e-2f);
+    }
+
+    @Test
+    public void findMostUniform_movesAwayFromTheEdge() {
+        int[] center = new int[2];
+
+        float variance = index.findMostUniform(WIDTH / 2, HEIGHT / 2, 1, 3, center);
+
+        assertEquals(0.0f, variance, 1e-3f);
+        assertTrue(center[0] + 1 < WIDTH / 2 || center[0] - 1 >= WIDTH / 2);
+    }
+
+    @Test
+    public void smallerFrame_reusesTheTables() {
+        int[] small = {BLUE, RED, RED, RED};
+
+        index.build(small, 0, 2, 2, 2);
+
+        assertEquals(2, index.getWidth());
+        assertEquals(ColorMath.rgb(150, 0, 25), index.averageRgb(0, 0, 2, 2));
+    }
+}
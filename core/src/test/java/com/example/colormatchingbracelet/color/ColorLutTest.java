@@ -0,0 +1,112 @@
+package com.example.colormatchingbracelet.color;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColorLutTest {
+    //Every correction turned off, the table maps every color to itself:
+    private static ColorLut identity() {
+        return new ColorLut.Builder()
+                .gamma(1.0f)
+                .minimumLevel(0)
+                .whiteBalance(1.0f, 1.0f, 1.0f)
+                .saturation(1.0f)
+                .greyToOff(0, 0)
+                .build();
+    }
+
+    private static void assertChannelsClose(int expected, int actual, int tolerance) {
+        assertEquals(ColorMath.red(expected), ColorMath.red(actual), tolerance);
+        assertEquals(ColorMath.green(expected), ColorMath.green(actual), tolerance);
+        assertEquals(ColorMath.blue(expected), ColorMath.blue(actual), tolerance);
+    }
+
+    @Test
+    public void identityTable_keepsColors() {
+        ColorLut lut = identity();
+        Random random = new Random(1);
+
+        for(int i = 0; i < 1000; i++) {
+            int color = 0xFF000000 | random.nextInt(0x1000000);
+
+            //Grid points are rounded to whole values, in between is interpolated:
+            assertChannelsClose(color, lut.apply(color), 1);
+        }
+    }
+
+    @Test
+    public void gridPoints_areExact() {
+        ColorLut lut = identity();
+
+        assertEquals(ColorMath.rgb(0, 0, 0), lut.apply(ColorMath.rgb(0, 0, 0)));
+        assertEquals(ColorMath.rgb(255, 255, 255), lut.apply(ColorMath.rgb(255, 255, 255)));
+        assertEquals(ColorMath.rgb(255, 0, 255), lut.apply(ColorMath.rgb(255, 0, 255)));
+    }
+
+    @Test
+    public void interpolation_isLinearBetweenGridPoints() {
+        //Only the gamma bends the values, a channel halfway between two grid points lands halfway
+        //between their corrected values:
+        ColorLut lut = new ColorLut.Builder().gamma(2.0f).minimumLevel(0).whiteBalance(1.0f, 1.0f, 1.0f).saturation(1.0f).greyToOff(0, 0).build();
+
+        int low = ColorMath.red(lut.apply(ColorMath.rgb(128, 0, 0)));
+        int high = ColorMath.red(lut.apply(ColorMath.rgb(136, 0, 0)));
+        int middle = ColorMath.red(lut.apply(ColorMath.rgb(132, 0, 0)));
+
+        assertEquals((low + high) / 2.0f, middle, 1.0f);
+    }
+
+    @Test
+    public void defaultTable_turnsDarkGreyOff() {
+        assertEquals(ColorMath.rgb(0, 0, 0), ColorLut.getDefault().apply(ColorMath.rgb(60, 60, 60)));
+    }
+
+    @Test
+    public void defaultTable_liftsDimChannels() {
+        int corrected = ColorLut.getDefault().apply(ColorMath.rgb(40, 0, 0));
+
+        assertTrue(ColorMath.red(corrected) >= 255 / ColorLut.Builder.LED_STRIP_MAX_BRIGHTNESS);
+        assertEquals(0, ColorMath.green(corrected));
+        assertEquals(0, ColorMath.blue(corrected));
+    }
+
+    @Test
+    public void defaultMinimumLevel_showsAtFullStripBrightness() {
+        ColorLut lut = new ColorLut.Builder().greyToOff(0, 0).build();
+
+        //Darkest red in the table, its level rounds to 0 before it is lifted:
+        int corrected = lut.apply(ColorMath.rgb(Math.round(255.0f / (ColorLut.SIZE - 1)), 0, 0));
+
+        //The strip scales a level by its brightness + 1, over 256:
+        assertEquals(76, ColorLut.Builder.LED_STRIP_MAX_BRIGHTNESS);
+        assertEquals(4, ColorMath.red(corrected));
+        assertTrue(ColorMath.red(corrected) * (ColorLut.Builder.LED_STRIP_MAX_BRIGHTNESS + 1) >> 8 >= 1);
+    }
+
+    @Test
+    public void writeRead_roundTrips() throws IOException {
+        ColorLut lut = ColorLut.getDefault();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        lut.write(out);
+        ColorLut read = ColorLut.read(new ByteArrayInputStream(out.toByteArray()));
+
+        Random random = new Random(2);
+
+        for(int i = 0; i < 1000; i++) {
+            int color = random.nextInt();
+            assertEquals(lut.apply(color), read.apply(color));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void read_refusesOtherData() throws IOException {
+        ColorLut.read(new ByteArrayInputStream(new byte[64]));
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.colormatchingbracelet.color;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RegionColorTest {
+    private static int hsv(float hue, float saturation, float value) {
+        return ColorMath.hsvToRgb(255, hue, saturation, value);
+    }
+
+    private static float hueOf(int color) {
+        float[] hsv = new float[3];
+        ColorMath.rgbToHsv(color, hsv);
+
+        return hsv[0];
+    }
+
+    private static float hueDistance(float a, float b) {
+        float distance = Math.abs(a - b) % 360.0f;
+
+        return Math.min(distance, 360.0f - distance);
+    }
+
+    @Test
+    public void averageRgb_ofTwoColors() {
+        int[] pixels = {ColorMath.rgb(100, 0, 200), ColorMath.rgb(50, 100, 0)};
+
+        assertEquals(ColorMath.rgb(75, 50, 100), RegionColor.averageRgb(pixels, 0, 2, 2, 1));
+    }
+
+    @Test
+    public void averageRgb_onlyReadsTheRegion() {
+        int white = ColorMath.rgb(255, 255, 255);
+        int black = ColorMath.rgb(0, 0, 0);
+
+        //3x3 array, the region is the 2x2 block at the bottom right:
+        int[] pixels = {
+            white, white, white,
+            white, black, black,
+            white, black, black
+        };
+
+        assertEquals(black, RegionColor.averageRgb(pixels, 4, 3, 2, 2));
+    }
+
+    @Test
+    public void hueMean_wrapsAroundZero() {
+        int[] pixels = {hsv(350.0f, 1.0f, 1.0f), hsv(10.0f, 1.0f, 1.0f)};
+
+        //Averaging the angles as numbers would give cyan at 180 degrees:
+        assertEquals(0.0f, hueDistance(0.0f, hueOf(RegionColor.averageHsvMaxV(pixels, 0, 2, 2, 1))), 1.5f);
+    }
+
+    @Test
+    public void hueMean_ofOppositeQuarters() {
+        int[] pixels = {hsv(60.0f, 1.0f, 1.0f), hsv(120.0f, 1.0f, 1.0f)};
+
+        assertEquals(90.0f, hueOf(RegionColor.averageHsvMaxV(pixels, 0, 2, 2, 1)), 1.5f);
+    }
+
+    @Test
+    public void hueMean_ignoresGrey() {
+        int[] pixels = {hsv(240.0f, 1.0f, 1.0f), ColorMath.rgb(128, 128, 128)};
+        int average = RegionColor.averageHsvMaxV(pixels, 0, 2, 2, 1);
+
+        float[] hsv = new float[3];
+        ColorMath.rgbToHsv(average, hsv);
+
+        assertEquals(240.0f, hsv[0], 1.5f);
+        //The grey still counts for the saturation:
+        assertEquals(0.5f, hsv[1], 0.02f);
+        assertEquals(1.0f, hsv[2], 0.01f);
+    }
+
+    @Test
+    public void suppressGrey_turnsDarkGreysOff() {
+        assertEquals(ColorMath.rgb(0, 0, 0), RegionColor.suppressGrey(ColorMath.rgb(90, 100, 95)));
+    }
+
+    @Test
+    public void suppressGrey_keepsColorsAndBrightGreys() {
+        int color = ColorMath.rgb(90, 160, 95);
+        int brightGrey = ColorMath.rgb(230, 240, 235);
+
+        assertEquals(color, RegionColor.suppressGrey(color));
+        assertEquals(brightGrey, RegionColor.suppressGrey(brightGrey));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.colormatchingbracelet.color;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ZoneColorsTest {
+    private static final int ZONES = 4;
+
+    private final ZoneColors zoneColors = new ZoneColors(ZONES);
+    private final int[] colors = new int[ZONES];
+
+    @Before
+    public void setUp() {
+        zoneColors.setSmoothing(0.0f);
+    }
+
+    //Frame of the given width and height, every column the color of its zone:
+    private static int[] striped(int width, int height, int... zoneColors) {
+        int[] pixels = new int[width * height];
+
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                pixels[y * width + x] = zoneColors[x * zoneColors.length / width];
+            }
+        }
+
+        return pixels;
+    }
+
+    private static int[] filled(int width, int height, int color) {
+        int[] pixels = new int[width * height];
+        java.util.Arrays.fill(pixels, color);
+
+        return pixels;
+    }
+
+    @Test
+    public void everyZone_getsTheColorOfItsStrip() {
+        int[] stripes = {ColorMath.rgb(255, 0, 0), ColorMath.rgb(0, 255, 0), ColorMath.rgb(0, 0, 255), ColorMath.rgb(10, 20, 30)};
+
+        zoneColors.reduce(striped(8, 3, stripes), 0, 8, 8, 3, colors);
+
+        assertArrayEquals(stripes, colors);
+    }
+
+    @Test
+    public void zoneColor_isTheAverageOfItsStrip() {
+        //Two columns per zone, black and white:
+        int[] pixels = new int[8];
+
+        for(int x = 0; x < 8; x++) {
+            pixels[x] = x % 2 == 0 ? ColorMath.rgb(0, 0, 0) : ColorMath.rgb(200, 100, 50);
+        }
+
+        zoneColors.reduce(pixels, 0, 8, 8, 1, colors);
+
+        for(int color : colors) {
+            assertEquals(ColorMath.rgb(100, 50, 25), color);
+        }
+    }
+
+    @Test
+    public void stride_skipsPixelsOutsideTheFrame() {
+        //4x2 frame inside a 6 pixel wide array, the last two columns of a row are not part of it:
+        int red = ColorMath.rgb(255, 0, 0);
+        int white = ColorMath.rgb(255, 255, 255);
+        int[] pixels = {
+            red, red, red, red, white, white,
+            red, red, red, red, white, white
+        };
+
+        zoneColors.reduce(pixels, 0, 6, 4, 2, colors);
+
+        for(int color : colors) {
+            assertEquals(red, color);
+        }
+    }
+
+    @Test
+    public void smoothing_blendsWithThePreviousColor() {
+        zoneColors.setSmoothing(0.5f);
+
+        zoneColors.reduce(filled(4, 1, ColorMath.rgb(200, 0, 0)), 0, 4, 4, 1, colors);
+        assertEquals(ColorMath.rgb(200, 0, 0), colors[0]);
+
+        zoneColors.reduce(filled(4, 1, ColorMath.rgb(0, 0, 100)), 0, 4, 4, 1, colors);
+        assertEquals(ColorMath.rgb(100, 0, 50), colors[0]);
+    }
+
+    @Test
+    public void reset_takesTheNextFrameAsIs() {
+        zoneColors.setSmoothing(0.9f);
+
+        zoneColors.reduce(filled(4, 1, ColorMath.rgb(200, 0, 0)), 0, 4, 4, 1, colors);
+        zoneColors.reset();
+        zoneColors.reduce(filled(4, 1, ColorMath.rgb(0, 0, 100)), 0, 4, 4, 1, colors);
+
+        assertEquals(ColorMath.rgb(0, 0, 100), colors[ZONES - 1]);
+    }
+
+    @Test
+    public void narrowFrame_leavesEmptyZonesUnchanged() {
+        zoneColors.reduce(filled(4, 1, ColorMath.rgb(10, 10, 10)), 0, 4, 4, 1, colors);
+
+        //Two columns for four zones, only zones 0 and 2 get a column:
+        zoneColors.reduce(filled(2, 1, ColorMath.rgb(90, 90, 90)), 0, 2, 2, 1, colors);
+
+        assertEquals(ColorMath.rgb(90, 90, 90), colors[0]);
+        assertEquals(ColorMath.rgb(10, 10, 10), colors[1]);
+        assertEquals(ColorMath.rgb(90, 90, 90), colors[2]);
+        assertEquals(ColorMath.rgb(10, 10, 10), colors[3]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smoothingOfOne_isRefused() {
+        zoneColors.setSmoothing(1.0f);
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.colormatchingbracelet.simulator;
+
+import com.example.colormatchingbracelet.Bracelet.BraceletMode;
+import com.example.colormatchingbracelet.LedStrip.LedStripCommandType;
+import com.example.colormatchingbracelet.bluetooth.CommandChannel;
+import com.example.colormatchingbracelet.bluetooth.FrameCodec;
+import com.example.colormatchingbracelet.bluetooth.FrameDecoder;
+import com.example.colormatchingbracelet.bluetooth.MessageType;
+import com.example.colormatchingbracelet.bluetooth.Transport;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BraceletSimulatorTest {
+    private final BraceletSimulator simulator = new BraceletSimulator();
+
+    //Results of the ACKs the simulator sent, in order:
+    private final List<Integer> ackResults = new ArrayList<>();
+    private final FrameDecoder decoder = new FrameDecoder(frame -> {
+        if(frame.getType() == MessageType.ACK) {
+            ackResults.add(frame.getUnsigned(1));
+        }
+    });
+
+    private int nextSequenceNumber;
+
+    @Before
+    public void setUp() {
+        simulator.onConnect(decoder::feed, Transport.MAX_MTU);
+    }
+
+    private static byte[] encode(MessageType type, byte... data) {
+        ByteBuffer buffer = ByteBuffer.allocate(FrameCodec.MAX_FRAME_SIZE);
+        FrameCodec.encode(buffer, type, data);
+
+        byte[] encoded = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), 0, encoded, 0, encoded.length);
+
+        return encoded;
+    }
+
+    /**
+     * Send a message as a sequenced command.
+     * @return Result of its ACK.
+     */
+    private int sendCommand(MessageType type, byte... data) {
+        byte[] sequenced = new byte[CommandChannel.HEADER_SIZE + data.length];
+        sequenced[0] = (byte) nextSequenceNumber++;
+        sequenced[1] = (byte) type.getValue();
+        System.arraycopy(data, 0, sequenced, CommandChannel.HEADER_SIZE, data.length);
+
+        simulator.onWrite(encode(MessageType.SEQUENCED, sequenced));
+
+        return ackResults.get(ackResults.size() - 1);
+    }
+
+    @Test
+    public void command_isApplied() {
+        assertEquals(CommandChannel.RESULT_OK, sendCommand(MessageType.LEDSTRIP, (byte) LedStripCommandType.POWER.getValue(), (byte) 1));
+        assertTrue(simulator.getLedStripPower());
+    }
+
+    @Test
+    public void commandsWithoutTheirValue_areRejected() {
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.LEDSTRIP, (byte) LedStripCommandType.POWER.getValue()));
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.LEDSTRIP, (byte) LedStripCommandType.BRIGHTNESS.getValue()));
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.LEDSTRIP, (byte) LedStripCommandType.COLOR.getValue(), (byte) 0, (byte) 255));
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.MODE));
+
+        assertFalse(simulator.getLedStripPower());
+        assertEquals(4, simulator.getMessagesRejected());
+    }
+
+    @Test
+    public void emptyLedStripCommand_isRejected() {
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.LEDSTRIP));
+
+        byte[] batch = {
+                (byte) MessageType.LEDSTRIP.getValue(), 0,
+                (byte) MessageType.LEDSTRIP.getValue(), 2, (byte) LedStripCommandType.POWER.getValue(), 1,
+        };
+
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.LEDSTRIP_BATCH, batch));
+        assertTrue(simulator.getLedStripPower());
+        assertArrayEquals(new int[] {255, 255, 255}, simulator.getPixel(0));
+    }
+
+    @Test
+    public void effectModeWithoutEffect_isRejected() {
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.MODE, (byte) BraceletMode.EFFECT.getValue()));
+        assertEquals(BraceletMode.NORMAL, simulator.getMode());
+    }
+
+    @Test
+    public void batchWithShortEntries_isRejected() {
+        byte[] batch = {
+                //Effect mode without effect:
+                (byte) MessageType.MODE.getValue(), 1, (byte) BraceletMode.EFFECT.getValue(),
+                (byte) MessageType.LEDSTRIP.getValue(), 2, (byte) LedStripCommandType.POWER.getValue(), 1,
+        };
+
+        assertEquals(CommandChannel.RESULT_REJECTED, sendCommand(MessageType.LEDSTRIP_BATCH, batch));
+
+        //The valid entry is still applied:
+        assertTrue(simulator.getLedStripPower());
+        assertEquals(BraceletMode.NORMAL, simulator.getMode());
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.colormatchingbracelet.simulator;
+
+import com.example.colormatchingbracelet.bluetooth.FrameTrace;
+import com.example.colormatchingbracelet.bluetooth.FrameTraceReader;
+import com.example.colormatchingbracelet.bluetooth.Transport;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplayTransportTest {
+    private static final int RECORDS = 10;
+    private static final long RECORD_INTERVAL_MS = 20;
+
+    private File file;
+    private FrameTraceReader reader;
+    private ReplayTransport transport;
+
+    //First byte of every record received since the last connect:
+    private final List<Integer> received = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("replay", ".trace");
+
+        try(FrameTrace trace = new FrameTrace(file)) {
+            for(int i = 0; i < RECORDS; i++) {
+                trace.record(0, FrameTrace.DIRECTION_INBOUND, new byte[] {(byte) i});
+                Thread.sleep(RECORD_INTERVAL_MS);
+            }
+        }
+
+        reader = new FrameTraceReader(file);
+        transport = new ReplayTransport(reader, 0, 1);
+
+        transport.setListener(new Transport.Listener() {
+            @Override
+            public void onConnected() {
+                synchronized(received) {
+                    received.clear();
+                }
+            }
+
+            @Override
+            public void onServicesDiscovered() {
+            }
+
+            @Override
+            public void onReady() {
+            }
+
+            @Override
+            public void onDisconnected() {
+            }
+
+            @Override
+            public void onWriteComplete() {
+            }
+
+            @Override
+            public void onReceived(byte[] data) {
+                synchronized(received) {
+                    received.add((int) data[0]);
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.close();
+        reader.close();
+        file.delete();
+    }
+
+    private int receivedCount() {
+        synchronized(received) {
+            return received.size();
+        }
+    }
+
+    @Test
+    public void replay_deliversEveryRecord() throws InterruptedException {
+        assertTrue(transport.connect("", false));
+        assertTrue(transport.awaitEnd(5, TimeUnit.SECONDS));
+
+        assertEquals(RECORDS, transport.getRecordsReplayed());
+        assertEquals(RECORDS, receivedCount());
+    }
+
+    @Test
+    public void reconnect_replaysFromTheStartOnce() throws InterruptedException {
+        transport.connect("", false);
+
+        while(receivedCount() < 2) {
+            Thread.sleep(1);
+        }
+
+        transport.disconnect();
+        transport.connect("", false);
+
+        assertTrue(transport.awaitEnd(5, TimeUnit.SECONDS));
+
+        //Records the first replay still had scheduled are not delivered:
+        Thread.sleep(RECORDS * RECORD_INTERVAL_MS);
+
+        List<Integer> expected = new ArrayList<>();
+
+        for(int i = 0; i < RECORDS; i++) {
+            expected.add(i);
+        }
+
+        synchronized(received) {
+            assertEquals(expected, received);
+        }
+    }
+}